@@ -171,6 +171,56 @@ ALTER TABLE ksamsok.servicelog_eventid_seq OWNER TO ksamsok_adm;
  
 ALTER SEQUENCE ksamsok.servicelog_eventid_seq OWNED BY ksamsok.servicelog.eventid;
  
+--
+-- Name: harvestmetrics; Type: TABLE; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+--
+ 
+CREATE TABLE ksamsok.harvestmetrics (
+    serviceid character varying(20) NOT NULL,
+    runstart timestamp without time zone NOT NULL,
+    phase character varying(20) NOT NULL,
+    durationms bigint,
+    records bigint,
+    bytes bigint,
+    retries integer,
+    dbstatements bigint,
+    solrrequests bigint
+);
+ 
+ 
+ALTER TABLE ksamsok.harvestmetrics OWNER TO ksamsok_adm;
+ 
+--
+-- Name: harvestrun; Type: TABLE; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+--
+ 
+CREATE TABLE ksamsok.harvestrun (
+    serviceid character varying(20) NOT NULL,
+    runstart timestamp without time zone NOT NULL,
+    runtype character varying(20) NOT NULL,
+    durationms bigint,
+    failed boolean NOT NULL,
+    message character varying(1000),
+    inserted bigint,
+    updated bigint,
+    deleted bigint
+);
+ 
+ 
+ALTER TABLE ksamsok.harvestrun OWNER TO ksamsok_adm;
+ 
+--
+-- Name: contentwrite; Type: TABLE; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+--
+ 
+CREATE TABLE ksamsok.contentwrite (
+    serviceid character varying(20) NOT NULL,
+    writestart timestamp without time zone NOT NULL
+);
+ 
+ 
+ALTER TABLE ksamsok.contentwrite OWNER TO ksamsok_adm;
+ 
  
 --
 -- Name: idnum; Type: DEFAULT; Schema: ksamsok; Owner: ksamsok_adm
@@ -218,6 +268,30 @@ ALTER TABLE ONLY ksamsok.servicelog
     ADD CONSTRAINT pk_servicelog PRIMARY KEY (eventid);
  
  
+--
+-- Name: pk_harvestmetrics; Type: CONSTRAINT; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+--
+ 
+ALTER TABLE ONLY ksamsok.harvestmetrics
+    ADD CONSTRAINT pk_harvestmetrics PRIMARY KEY (serviceid, runstart, phase);
+ 
+ 
+--
+-- Name: pk_harvestrun; Type: CONSTRAINT; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+--
+ 
+ALTER TABLE ONLY ksamsok.harvestrun
+    ADD CONSTRAINT pk_harvestrun PRIMARY KEY (serviceid, runstart);
+ 
+ 
+--
+-- Name: pk_contentwrite; Type: CONSTRAINT; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+--
+ 
+ALTER TABLE ONLY ksamsok.contentwrite
+    ADD CONSTRAINT pk_contentwrite PRIMARY KEY (serviceid);
+ 
+ 
 --
 -- Name: ix_content_deleted; Type: INDEX; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
 --
@@ -225,6 +299,20 @@ ALTER TABLE ONLY ksamsok.servicelog
 CREATE INDEX ix_content_deleted ON ksamsok.content USING btree (deleted);
  
  
+--
+-- Name: ix_content_changed_idnum; Type: INDEX; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+--
+ 
+CREATE INDEX ix_content_changed_idnum ON ksamsok.content USING btree (changed, idnum);
+ 
+ 
+--
+-- Name: ix_content_idnum; Type: INDEX; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+--
+ 
+CREATE INDEX ix_content_idnum ON ksamsok.content USING btree (idnum) WHERE (deleted IS NULL);
+ 
+ 
 --
 -- Name: ix_content_oai; Type: INDEX; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
 --
@@ -240,10 +328,10 @@ CREATE INDEX ix_content_serv ON ksamsok.content USING btree (serviceid);
  
  
 --
--- Name: ix_content_serv_changed; Type: INDEX; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
+-- Name: ix_content_serv_changed_idnum; Type: INDEX; Schema: ksamsok; Owner: ksamsok_adm; Tablespace:
 --
  
-CREATE INDEX ix_content_serv_changed ON ksamsok.content USING btree (serviceid, changed);
+CREATE INDEX ix_content_serv_changed_idnum ON ksamsok.content USING btree (serviceid, changed, idnum);
  
  
 --
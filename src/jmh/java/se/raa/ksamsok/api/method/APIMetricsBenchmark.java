@@ -0,0 +1,94 @@
+package se.raa.ksamsok.api.method;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import se.raa.ksamsok.api.APIServiceProvider;
+import se.raa.ksamsok.api.method.APIMethod.Format;
+import se.raa.ksamsok.api.metrics.APIMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mäter kostnaden för svarstidsmätningen i api:t. search jämför ett Search-anrop med och
+ * utan mätning (instrumented) på samma sätt som APIServlet gör det, requestCycle mäter bara
+ * mätningens egna anrop för ett api-anrop med ett solr-anrop. Körs med flera trådar så att
+ * ev konkurrens om histogrammen syns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(4)
+@Fork(1)
+public class APIMetricsBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean instrumented;
+
+	@Param({ "XML", "JSON_LD" })
+	public Format format;
+
+	private final APIMetrics apiMetrics = new APIMetrics();
+	private APIServiceProvider serviceProvider;
+	private Map<String, String> params;
+
+	@Setup
+	public void setUp() throws Exception {
+		serviceProvider = CannedServiceProvider.fromFixtures();
+		params = new HashMap<>();
+		params.put("method", Search.METHOD_NAME);
+		params.put("query", "text=hjälm");
+		params.put(AbstractSearchMethod.HITS_PER_PAGE, "10");
+		params.put(Search.RECORD_SCHEMA, "xml");
+		params.put("fields", "itemId,itemLabel,itemTitle");
+		// kontrollera att mätningen registrerar anropet innan mätningen börjar
+		if (instrumented) {
+			search();
+			if (apiMetrics.getSnapshot(Search.class.getSimpleName(), format, APIMetrics.Phase.SOLR).getCount() != 1) {
+				throw new IllegalStateException("Anropet registrerades inte");
+			}
+		}
+	}
+
+	@Benchmark
+	public int search() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+		if (instrumented) {
+			APIMetrics.startRequest();
+		}
+		Search search = new Search(serviceProvider, out, params);
+		search.setFormat(format);
+		search.performMethod();
+		if (instrumented) {
+			apiMetrics.finishRequest(Search.class.getSimpleName(), format, 200);
+		}
+		return out.size();
+	}
+
+	@Benchmark
+	public void requestCycle() {
+		if (instrumented) {
+			APIMetrics.startRequest();
+		}
+		long start = System.nanoTime();
+		APIMetrics.solrRequestDone(start, 3);
+		APIMetrics.methodDone(System.nanoTime() - start, 1000);
+		if (instrumented) {
+			apiMetrics.finishRequest(Search.class.getSimpleName(), format, 200);
+		}
+	}
+}
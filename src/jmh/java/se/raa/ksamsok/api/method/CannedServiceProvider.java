@@ -0,0 +1,146 @@
+package se.raa.ksamsok.api.method;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import se.raa.ksamsok.api.APIServiceProvider;
+import se.raa.ksamsok.api.metrics.APIMetrics;
+import se.raa.ksamsok.harvest.HarvestRepositoryManager;
+import se.raa.ksamsok.harvest.HarvestService;
+import se.raa.ksamsok.harvest.HarvestServiceImpl;
+import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.lucene.SamsokContentHelper;
+import se.raa.ksamsok.organization.OrganizationManager;
+import se.raa.ksamsok.solr.SearchService;
+import se.raa.ksamsok.solr.StubSearchService;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tjänsteleverantör vars söktjänst svarar med önskat antal träffar från fixturerna,
+ * med bara de efterfrågade fälten. Svaren byggs en gång per fältlista och sidstorlek.
+ * Söktjänsten rapporterar sina anrop till api-mätningen på samma sätt som den riktiga.
+ */
+class CannedServiceProvider implements APIServiceProvider {
+
+	private static final String[] FIXTURES = {
+			"hjalm_1.1.rdf", "alla_index_1.1.rdf", "kung_1.1.rdf", "lutzen_1.1.rdf", "hjalm_1.3.0.rdf"
+	};
+
+	private final List<SolrDocument> docs;
+	private final Map<String, QueryResponse> responses = new ConcurrentHashMap<>();
+	private final SearchService searchService = new StubSearchService() {
+		@Override
+		public QueryResponse query(SolrQuery query) {
+			long start = System.nanoTime();
+			QueryResponse qr = responses.computeIfAbsent(query.getFields() + "|" + query.getRows(),
+					key -> createResponse(Arrays.asList(query.getFields().split(",")), query.getRows()));
+			APIMetrics.solrRequestDone(start, 0);
+			return qr;
+		}
+	};
+
+	private CannedServiceProvider(List<SolrDocument> docs) {
+		this.docs = docs;
+	}
+
+	/**
+	 * Skapar en leverantör med dokument byggda från testfilerna.
+	 *
+	 * @return tjänsteleverantör
+	 * @throws IOException om en testfil saknas
+	 */
+	static CannedServiceProvider fromFixtures() throws IOException {
+		List<SolrDocument> docs = new ArrayList<>();
+		SamsokContentHelper helper = new SamsokContentHelper(true);
+		HarvestService service = new HarvestServiceImpl();
+		service.setId("benchmark");
+		for (String fileName : FIXTURES) {
+			SolrInputDocument inputDoc = helper.createSolrDocument(service, loadFixture(fileName), new Date());
+			if (inputDoc == null) {
+				throw new IllegalStateException("Inget dokument för " + fileName);
+			}
+			docs.add(toStoredDocument(inputDoc));
+		}
+		return new CannedServiceProvider(docs);
+	}
+
+	private static String loadFixture(String fileName) throws IOException {
+		try (InputStream in = CannedServiceProvider.class.getResourceAsStream("/" + fileName)) {
+			if (in == null) {
+				throw new IOException("Hittade inte " + fileName);
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	// gör om ett indexeringsdokument till det solr ger tillbaka, binära fält lagras base64-kodade
+	private static SolrDocument toStoredDocument(SolrInputDocument inputDoc) {
+		SolrDocument doc = new SolrDocument();
+		for (String field : inputDoc.getFieldNames()) {
+			Collection<Object> values = inputDoc.getFieldValues(field);
+			if (ContentHelper.I_IX_RDF.equals(field) || ContentHelper.I_IX_PRES.equals(field)) {
+				doc.setField(field, Base64.getDecoder().decode((String) values.iterator().next()));
+			} else if (values.size() == 1) {
+				doc.setField(field, values.iterator().next());
+			} else {
+				doc.setField(field, new ArrayList<>(values));
+			}
+		}
+		return doc;
+	}
+
+	private QueryResponse createResponse(List<String> fields, int rows) {
+		SolrDocumentList hitList = new SolrDocumentList();
+		for (int i = 0; i < rows; i++) {
+			SolrDocument hit = new SolrDocument();
+			for (Map.Entry<String, Object> field : docs.get(i % docs.size())) {
+				if (fields.contains(field.getKey())) {
+					hit.setField(field.getKey(), field.getValue());
+				}
+			}
+			hit.setField("score", 1.0f - (float) i / rows);
+			hitList.add(hit);
+		}
+		hitList.setNumFound(123456);
+		NamedList<Object> response = new NamedList<>();
+		response.add("response", hitList);
+		QueryResponse qr = new QueryResponse();
+		qr.setResponse(response);
+		return qr;
+	}
+
+	@Override
+	public SearchService getSearchService() {
+		return searchService;
+	}
+
+	@Override
+	public HarvestRepositoryManager getHarvestRepositoryManager() {
+		return null;
+	}
+
+	@Override
+	public OrganizationManager getOrganizationManager() {
+		return null;
+	}
+
+	@Override
+	public DataSource getDataSource() {
+		return null;
+	}
+}
@@ -0,0 +1,78 @@
+package se.raa.ksamsok.api.method;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.raa.ksamsok.api.APIServiceProvider;
+import se.raa.ksamsok.api.method.APIMethod.Format;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mäter ett helt anrop till Search (cql-översättning, dom-byggande, transform och
+ * json-konvertering) för olika sidstorlekar, format och recordSchema. Solr ersätts av
+ * färdiga svar byggda från testfilerna.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchRenderingBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int hits;
+
+	@Param({ "XML", "JSON_LD" })
+	public Format format;
+
+	@Param({ "rdf", "presentation", "xml" })
+	public String recordSchema;
+
+	private APIServiceProvider serviceProvider;
+	private Map<String, String> params;
+	private ByteArrayOutputStream out;
+
+	@Setup
+	public void setUp() throws Exception {
+		serviceProvider = CannedServiceProvider.fromFixtures();
+		params = new HashMap<>();
+		params.put("method", Search.METHOD_NAME);
+		params.put("query", "text=hjälm");
+		params.put(AbstractSearchMethod.HITS_PER_PAGE, Integer.toString(hits));
+		params.put(Search.RECORD_SCHEMA, recordSchema);
+		if ("xml".equals(recordSchema)) {
+			params.put("fields", "itemId,itemLabel,itemTitle,itemDescription,thumbnail,url");
+		}
+		out = new ByteArrayOutputStream();
+		search();
+		// kontrollera att alla träffar kommer med innan mätningen börjar
+		String result = out.toString(StandardCharsets.UTF_8);
+		int records = result.split(format == Format.XML ? "<rel:score" : "\"rel:score\"").length - 1;
+		if (records != hits) {
+			throw new IllegalStateException("Fick " + records + " poster istället för " + hits);
+		}
+	}
+
+	@Benchmark
+	public int search() throws Exception {
+		out.reset();
+		Search search = new Search(serviceProvider, out, params);
+		search.setFormat(format);
+		search.performMethod();
+		return out.size();
+	}
+}
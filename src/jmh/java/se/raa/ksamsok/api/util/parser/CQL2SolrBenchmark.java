@@ -0,0 +1,72 @@
+package se.raa.ksamsok.api.util.parser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.z3950.zing.cql.CQLNode;
+import org.z3950.zing.cql.CQLParser;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mäter översättningen av cql till solr-frågor för typiska frågor mot api:t, både med och
+ * utan tolkningen av cql-strängen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CQL2SolrBenchmark {
+
+	private static final Map<String, String> QUERIES = new HashMap<>();
+	static {
+		QUERIES.put("term", "text=yxa");
+		QUERIES.put("boolean", "text=yxa and (serviceOrganization=RAÄ or serviceOrganization=SHM) " +
+				"not itemType=foto");
+		QUERIES.put("range", "fromTime>=1500 and toTime<=1600 and itemName=hjälm");
+		QUERIES.put("bbox", "boundingBox=/WGS84 \"16.5 59.0 18.5 60.0\" and itemType=\"objekt/föremål\"");
+		QUERIES.put("bboxSweref", "boundingBox=\"674000 6580000 675000 6581000\"");
+		QUERIES.put("any", "itemName any \"yxa svärd hjälm sköld\"");
+		QUERIES.put("all", "text all \"gustav vasa hjälm\" and county=01");
+		QUERIES.put("exact", "itemKeyWord exact \"Gustav Vasa\" or itemTitle exact \"Gustav Vasas hjälm\"");
+		QUERIES.put("not", "text=kyrka and place<>stockholm");
+	}
+
+	@Param({ "term", "boolean", "range", "bbox", "bboxSweref", "any", "all", "exact", "not" })
+	public String shape;
+
+	private String cql;
+	private CQLNode node;
+
+	@Setup
+	public void setUp() throws Exception {
+		cql = QUERIES.get(shape);
+		node = new CQLParser().parse(cql);
+		// kontrollera att frågan går att översätta innan mätningen börjar
+		if (CQL2Solr.makeQuery(node) == null) {
+			throw new IllegalStateException("Ingen fråga för " + cql);
+		}
+	}
+
+	@Benchmark
+	public String makeQuery() throws Exception {
+		return CQL2Solr.makeQuery(node);
+	}
+
+	@Benchmark
+	public String parseAndMakeQuery() throws Exception {
+		return CQL2Solr.makeQuery(new CQLParser().parse(cql));
+	}
+}
@@ -0,0 +1,113 @@
+package se.raa.ksamsok.harvest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.raa.ksamsok.solr.CountingSolrClient;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mäter en hel skörd av en syntetisk tjänst, dvs hämtning via oai-pmh från
+ * {@link SyntheticOAIPMHServer}, lagring i databasen (h2 i postgres-läge utan autocommit som
+ * i drift) och indexering där solr ersatts med en klient som bara räknar dokumenten. Varje
+ * mätning skördar till en tom tabell.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HarvestPipelineBenchmark {
+
+	@Param({ "2000" })
+	public int records;
+
+	@Param({ "mixed", "1.1", "1.3.0" })
+	public String protocolVersion;
+
+	@Param({ "500" })
+	public int pageSize;
+
+	private SyntheticOAIPMHServer server;
+	private DataSource ds;
+	private StatusServiceImpl ss;
+	private CountingSolrClient solr;
+	private HarvestRepositoryManagerImpl hrm;
+	private OAIPMHHarvestJob job;
+	private HarvestService service;
+	private File spoolFile;
+
+	@Setup
+	public void setUp() throws Exception {
+		SyntheticCorpus corpus = new SyntheticCorpus(4711, 1, records);
+		if (!"mixed".equals(protocolVersion)) {
+			corpus.setProtocolVersion(protocolVersion);
+		}
+		server = new SyntheticOAIPMHServer(corpus, pageSize);
+		server.start();
+		ds = RepositorySchema.postgresDataSource(
+				"jdbc:h2:mem:harvestpipeline;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;AUTOCOMMIT=OFF");
+		try (Connection c = ds.getConnection()) {
+			// samma tabeller och index som i drift
+			RepositorySchema.create(c);
+			c.commit();
+		}
+		ss = new StatusServiceImpl(ds);
+		ss.init();
+		solr = new CountingSolrClient();
+		hrm = new HarvestRepositoryManagerImpl(ds, ss, solr);
+		job = new OAIPMHHarvestJob(1, 1);
+		service = server.createHarvestService(0);
+		spoolFile = File.createTempFile("harvestpipeline", ".xml");
+	}
+
+	@Setup(Level.Invocation)
+	public void clearContent() throws Exception {
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("TRUNCATE TABLE content");
+			c.commit();
+		}
+		solr.reset();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		server.stop();
+		ss.destroy();
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP ALL OBJECTS");
+			c.commit();
+		}
+		spoolFile.delete();
+	}
+
+	@Benchmark
+	public long harvest() throws Exception {
+		ServiceMetadata sm = job.performIdentify(service);
+		ServiceFormat format = job.performGetFormats(service).get(0);
+		job.performGetRecords(service, sm, format, spoolFile, ss);
+		hrm.storeHarvest(service, sm, spoolFile, new Timestamp(System.currentTimeMillis()));
+		hrm.updateIndex(service, null);
+		if (solr.getAddedDocuments() == 0) {
+			throw new IllegalStateException("Inga dokument indexerades");
+		}
+		return solr.getAddedDocuments();
+	}
+}
@@ -0,0 +1,124 @@
+package se.raa.ksamsok.lucene;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.solr.common.SolrInputDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.raa.ksamsok.harvest.HarvestService;
+import se.raa.ksamsok.harvest.HarvestServiceImpl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mäter hur snabbt solr-dokument byggs från rdf för varje protokollversion, med och utan
+ * gml-geometrier i kontexten. Fixturerna är testfilerna för respektive version, med
+ * protokollversionen satt så att rätt hanterare används.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DocumentBuildingBenchmark {
+
+	// polygon i SWEREF 99 TM så att även koordinattransformationen kommer med
+	private static final String GML = "<gml:Polygon xmlns:gml=\"http://www.opengis.net/gml\" srsName=\"EPSG:3006\">" +
+			"<gml:outerBoundaryIs><gml:LinearRing><gml:coordinates cs=\",\" decimal=\".\" ts=\" \">" +
+			"674032.5,6580821.2 674110.8,6580829.9 674121.3,6580902.4 674045.1,6580911.7 674032.5,6580821.2" +
+			"</gml:coordinates></gml:LinearRing></gml:outerBoundaryIs></gml:Polygon>";
+
+	@Param({ "0_TO_1_0", "1_1", "1_11", "1_2_0", "1_3_0" })
+	public String protocol;
+
+	@Param({ "false", "true" })
+	public boolean gml;
+
+	private final SamsokContentHelper helper = new SamsokContentHelper(true);
+	private final Date added = new Date();
+	private HarvestService service;
+	private String xmlContent;
+
+	@Setup
+	public void setUp() throws Exception {
+		service = new HarvestServiceImpl();
+		service.setId("benchmark");
+		String fileName;
+		String version;
+		switch (protocol) {
+			case "0_TO_1_0": fileName = "hjalm_0.99.rdf"; version = "0.97"; break;
+			case "1_1": fileName = "hjalm_1.1.rdf"; version = "1.1"; break;
+			case "1_11": fileName = "hjalm_1.11.rdf"; version = "1.11"; break;
+			case "1_2_0": fileName = "hjalm_1.2.0.rdf"; version = "1.2.0"; break;
+			case "1_3_0": fileName = "hjalm_1.3.0.rdf"; version = "1.3.0"; break;
+			default: throw new IllegalArgumentException("Okänd protokollversion: " + protocol);
+		}
+		xmlContent = createFixture(fileName, version, gml);
+		// kontrollera att fixturen ger ett dokument med rätt innehåll innan mätningen börjar
+		SolrInputDocument doc = createSolrDocument();
+		if (doc == null) {
+			throw new IllegalStateException("Inget dokument för " + fileName);
+		}
+		if (gml != (doc.getFieldValue(ContentHelper.I_IX_LON) != null)) {
+			throw new IllegalStateException("Oväntad centrumpunkt för " + fileName + ", gml=" + gml);
+		}
+	}
+
+	@Benchmark
+	public SolrInputDocument createSolrDocument() {
+		return helper.createSolrDocument(service, xmlContent, added);
+	}
+
+	@Benchmark
+	public Model parseModel() {
+		return RDFUtil.parseModel(xmlContent);
+	}
+
+	private static String createFixture(String fileName, String version, boolean withGml) throws IOException {
+		Model model;
+		try (InputStream in = DocumentBuildingBenchmark.class.getResourceAsStream("/" + fileName)) {
+			if (in == null) {
+				throw new IOException("Hittade inte " + fileName);
+			}
+			model = RDFUtil.parseModel(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		Property rdfType = ResourceFactory.createProperty(SamsokProtocol.uri_rdfType.toString());
+		Resource samsokEntity = ResourceFactory.createResource(SamsokProtocol.uri_samsokEntity.toString());
+		Property rVersion = ResourceFactory.createProperty(SamsokProtocol.uri_rKsamsokVersion.toString());
+		Resource subject = model.listSubjectsWithProperty(rdfType, samsokEntity).next();
+		model.removeAll(subject, rVersion, null);
+		model.add(subject, rVersion, version);
+		if (withGml) {
+			Property rContext = ResourceFactory.createProperty(SamsokProtocol.uri_rContext.toString());
+			Property rCoordinates = ResourceFactory.createProperty(SamsokProtocol.uri_rCoordinates.toString());
+			List<RDFNode> contexts = model.listObjectsOfProperty(subject, rContext).toList();
+			for (RDFNode context : contexts) {
+				model.add(context.asResource(), rCoordinates, model.createLiteral(GML, true));
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RDFDataMgr.write(out, model, RDFFormat.RDFXML_PLAIN);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -6,6 +6,7 @@ import org.apache.logging.log4j.Logger;
 import org.apache.solr.client.solrj.impl.BaseHttpSolrClient;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.json.XML;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
@@ -16,6 +17,8 @@ import se.raa.ksamsok.api.exception.APIException;
 import se.raa.ksamsok.api.exception.BadParameterException;
 import se.raa.ksamsok.api.exception.DiagnosticException;
 import se.raa.ksamsok.api.exception.MissingParameterException;
+import se.raa.ksamsok.api.metrics.APIMetrics;
+import se.raa.ksamsok.api.metrics.SlowQueryLog;
 import se.raa.ksamsok.api.method.APIMethod;
 import se.raa.ksamsok.api.method.APIMethod.Format;
 import se.raa.ksamsok.lucene.ContentHelper;
@@ -51,6 +54,12 @@ public class APIServlet extends HttpServlet {
 
 	private APIMethodFactory apiMethodFactory;
 
+	@Autowired(required = false)
+	private APIMetrics apiMetrics;
+
+	@Autowired(required = false)
+	private SlowQueryLog slowQueryLog;
+
 	private Format format = Format.XML;
 
 	@Override
@@ -97,8 +106,13 @@ public class APIServlet extends HttpServlet {
 		// sätter contentType och character encoding
 		resp.setCharacterEncoding("UTF-8");
 		resp.setContentType("text/xml; charset=UTF-8");
-		Map<String, String> reqParams;
-		APIMethod method;
+		Map<String, String> reqParams = null;
+		APIMethod method = null;
+		Format requestFormat = Format.XML;
+		boolean failed = false;
+		if (apiMetrics != null) {
+			APIMetrics.startRequest();
+		}
 		try (OutputStream out = resp.getOutputStream()) {
 			String stylesheet = null;
 			try {
@@ -110,6 +124,7 @@ public class APIServlet extends HttpServlet {
 				String acceptFormat = req.getHeader("Accept");
 				if (acceptFormat != null && acceptFormat.toLowerCase().contains("json")) {
 					format = Format.JSON_LD;
+					requestFormat = Format.JSON_LD;
 					method.setFormat(Format.JSON_LD);
 					resp.setContentType("application/json; charset=UTF-8");
 				} else {
@@ -146,6 +161,20 @@ public class APIServlet extends HttpServlet {
 		} catch (IOException | ParserConfigurationException | TransformerException e) {
 			resp.setStatus(500);
 			logger.error("In doGet", e);
+		} catch (RuntimeException e) {
+			// t.ex. RemoteSolrException, containern svarar 500 men statusen är inte satt än
+			// och kan inte sättas om svaret redan har skickats
+			failed = true;
+			throw e;
+		} finally {
+			if (apiMetrics != null) {
+				String methodName = method != null ? method.getClass().getSimpleName() : null;
+				int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : resp.getStatus();
+				APIMetrics.RequestTimings timings = apiMetrics.finishRequest(methodName, requestFormat, status);
+				if (slowQueryLog != null) {
+					slowQueryLog.record(methodName, reqParams, timings, status);
+				}
+			}
 		}
 		// Ignore
 	}
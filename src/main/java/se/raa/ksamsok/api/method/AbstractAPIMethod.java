@@ -13,6 +13,7 @@ import se.raa.ksamsok.api.APIServiceProvider;
 import se.raa.ksamsok.api.exception.BadParameterException;
 import se.raa.ksamsok.api.exception.DiagnosticException;
 import se.raa.ksamsok.api.exception.MissingParameterException;
+import se.raa.ksamsok.api.metrics.APIMetrics;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -73,12 +74,15 @@ public abstract class AbstractAPIMethod implements APIMethod {
 	@Override
 	public void performMethod() throws MissingParameterException,
 			BadParameterException, DiagnosticException {
+		long start = System.nanoTime();
 		// läs ut parametrar och kasta ex vid problem
 		extractParameters();
 		// utför operationen
 		performMethodLogic();
+		long logicDone = System.nanoTime();
 		generateDocument();
 		writeResult();
+		APIMetrics.methodDone(logicDone - start, System.nanoTime() - logicDone);
 	}
 
 
@@ -1,13 +1,21 @@
 package se.raa.ksamsok.api.method;
 
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import se.raa.ksamsok.api.APIServiceProvider;
 import se.raa.ksamsok.api.exception.BadParameterException;
 import se.raa.ksamsok.api.exception.DiagnosticException;
 import se.raa.ksamsok.api.exception.MissingParameterException;
+import se.raa.ksamsok.lucene.ContentHelper;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Predicate;
 
 public abstract class AbstractSearchMethod extends AbstractAPIMethod {
 
@@ -55,6 +63,58 @@ public abstract class AbstractSearchMethod extends AbstractAPIMethod {
 		}
 	}
 
+	/**
+	 * Hämtar ett reservfält för träffar som saknar ett fält som förbereds vid indexering,
+	 * dvs träffar som indexerats innan fältet infördes, med en fråga för alla sådana träffar.
+	 * @param hits träffar
+	 * @param preparedField förberett fält
+	 * @param fallbackField fält att hämta för träffar som saknar det förberedda fältet
+	 * @throws SolrServerException vid sökfel
+	 * @throws IOException vid kommunikationsfel
+	 */
+	protected void addFallbackField(SolrDocumentList hits, String preparedField, String fallbackField)
+			throws SolrServerException, IOException {
+		addFallbackField(hits, d -> d.getFieldValue(preparedField) != null, fallbackField);
+	}
+
+	/**
+	 * Hämtar ett reservfält för träffar som inte har förberett data enligt det givna villkoret,
+	 * med en fråga för alla sådana träffar.
+	 * @param hits träffar
+	 * @param prepared villkor som ger true för träffar som har förberett data
+	 * @param fallbackField fält att hämta för övriga träffar
+	 * @throws SolrServerException vid sökfel
+	 * @throws IOException vid kommunikationsfel
+	 */
+	protected void addFallbackField(SolrDocumentList hits, Predicate<SolrDocument> prepared, String fallbackField)
+			throws SolrServerException, IOException {
+		Map<String, SolrDocument> unprepared = new HashMap<>();
+		for (SolrDocument d: hits) {
+			if (!prepared.test(d)) {
+				unprepared.put((String) d.getFieldValue(ContentHelper.IX_ITEMID), d);
+			}
+		}
+		if (unprepared.isEmpty()) {
+			return;
+		}
+		StringBuilder qs = new StringBuilder();
+		for (String uri: unprepared.keySet()) {
+			if (qs.length() > 0) {
+				qs.append(" OR ");
+			}
+			qs.append(ContentHelper.IX_ITEMID).append(":").append(ClientUtils.escapeQueryChars(uri));
+		}
+		SolrQuery q = new SolrQuery(qs.toString());
+		q.setRows(unprepared.size());
+		q.setFields(ContentHelper.IX_ITEMID, fallbackField);
+		for (SolrDocument d: serviceProvider.getSearchService().query(q).getResults()) {
+			SolrDocument hit = unprepared.get((String) d.getFieldValue(ContentHelper.IX_ITEMID));
+			if (hit != null) {
+				hit.setField(fallbackField, d.getFieldValue(fallbackField));
+			}
+		}
+	}
+
 	/**
 	 * Ger default antal träffar per sida
 	 * @return default antal träffar
@@ -4,8 +4,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.json.NestableJsonFacet;
+import org.json.JSONObject;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -27,7 +28,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -47,6 +48,12 @@ public class AllIndexUniqueValueCount extends AbstractAPIMethod {
 	public static final String INDEX_PARAMETER = "index";
 	/** parameternamn där query skickas in */
 	public static final String QUERY_PARAMS = "query";
+	/** parameternamn för hur unika värden ska räknas */
+	public static final String COUNT_MODE_PARAMETER = "countMode";
+	/** exakt räkning av unika värden (default) */
+	public static final String COUNT_MODE_EXACT = "exact";
+	/** ungefärlig räkning av unika värden med hyperloglog, snabbare för index med många värden */
+	public static final String COUNT_MODE_APPROXIMATE = "approximate";
 
 
 	private static final Map<String, String> defaultIndexMap;
@@ -76,7 +83,9 @@ public class AllIndexUniqueValueCount extends AbstractAPIMethod {
 	protected String queryString;
 	protected String originalQueryString;
 
-	protected List<FacetField> facetFields = Collections.emptyList();
+	protected String countMode;
+
+	protected Map<String, Long> uniqueValueCounts = Collections.emptyMap();
 
 	public AllIndexUniqueValueCount(APIServiceProvider serviceProvider, OutputStream out, Map<String, String> params) throws DiagnosticException{
 		super(serviceProvider, out, params);
@@ -88,6 +97,11 @@ public class AllIndexUniqueValueCount extends AbstractAPIMethod {
 		final String[] queryStrings = getQueryString(params.get(QUERY_PARAMS));
 		this.queryString = queryStrings[0];
 		this.originalQueryString = queryStrings[1];
+		countMode = getOptionalParameterValue(COUNT_MODE_PARAMETER, "AllIndexUniqueValueCount.extractParameters", null);
+		if (countMode != null && !COUNT_MODE_EXACT.equals(countMode) && !COUNT_MODE_APPROXIMATE.equals(countMode)) {
+			throw new BadParameterException("Parametern " + COUNT_MODE_PARAMETER + " måste vara " + COUNT_MODE_EXACT +
+					" eller " + COUNT_MODE_APPROXIMATE, "AllIndexUniqueValueCount.extractParameters", null, false);
+		}
 		String indexString = params.get(INDEX_PARAMETER);
 		if (indexString != null) {
 			indexMap = getIndexMapSingleValue(indexString, "*");
@@ -110,14 +124,22 @@ public class AllIndexUniqueValueCount extends AbstractAPIMethod {
 			String solrQueryString = CQL2Solr.makeQuery(node);
 
 			query.setQuery(solrQueryString);
-			query.setFacet(true);
-			query.setFacetMinCount(1);
 			query.setRows(0);
+			// räkna unika värden i solr med json-facett istället för att hämta alla facettvärden
+			String aggregate = COUNT_MODE_APPROXIMATE.equals(countMode) ? "hll" : "unique";
+			JSONObject jsonFacet = new JSONObject();
 			for (Entry<String, String> entry: indexMap.entrySet()) {
-				query.addFacetField(entry.getKey());
+				jsonFacet.put(entry.getKey(), aggregate + "(" + entry.getKey() + ")");
 			}
+			query.set("json.facet", jsonFacet.toString());
 			QueryResponse qr = serviceProvider.getSearchService().query(query);
-			facetFields = qr.getFacetFields();
+			uniqueValueCounts = new LinkedHashMap<>();
+			NestableJsonFacet facets = qr.getJsonFacetingResponse();
+			for (Entry<String, String> entry: indexMap.entrySet()) {
+				// saknas värdet fanns inga träffar alls
+				Object value = facets != null ? facets.getStatValue(entry.getKey()) : null;
+				uniqueValueCounts.put(entry.getKey(), value instanceof Number ? ((Number) value).longValue() : 0L);
+			}
 		} catch (IOException e) {
 			throw new DiagnosticException("Oväntat IO fel uppstod", "AllIndexUniqueValueCount.performMethod", e.getMessage(), true);
 		} catch (SolrServerException e) {
@@ -143,18 +165,18 @@ public class AllIndexUniqueValueCount extends AbstractAPIMethod {
 		version.appendChild(doc.createTextNode(APIMethod.API_VERSION));
 		result.appendChild(version);
 
-		for (FacetField ff: facetFields) {
-			int vc = ff.getValueCount();
+		for (Entry<String, Long> entry: uniqueValueCounts.entrySet()) {
+			long vc = entry.getValue();
 			if (vc > 0) {
 				//Index 
 				Element index = doc.createElement("index");
 				//Name of index
 				Element name = doc.createElement("name");
-				name.appendChild(doc.createTextNode(ff.getName()));
+				name.appendChild(doc.createTextNode(entry.getKey()));
 				index.appendChild(name);
 				//Number of values of index
 				Element uniqueValues =  doc.createElement("uniqueValues");
-				uniqueValues.appendChild(doc.createTextNode(Integer.toString(vc, 10)));
+				uniqueValues.appendChild(doc.createTextNode(Long.toString(vc, 10)));
 				index.appendChild(uniqueValues);
 				result.appendChild(index);
 			}
@@ -173,6 +195,11 @@ public class AllIndexUniqueValueCount extends AbstractAPIMethod {
 		Node query = doc.createElement("query");
 		query.appendChild(doc.createTextNode(originalQueryString));
 		echo.appendChild(query);
+		if (countMode != null) {
+			Node countModeNode = doc.createElement(COUNT_MODE_PARAMETER);
+			countModeNode.appendChild(doc.createTextNode(countMode));
+			echo.appendChild(countModeNode);
+		}
 		result.appendChild(echo);
 	}
 }
\ No newline at end of file
@@ -5,9 +5,13 @@ import org.apache.logging.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.json.BucketBasedJsonFacet;
+import org.apache.solr.client.solrj.response.json.BucketJsonFacet;
+import org.apache.solr.client.solrj.response.json.NestableJsonFacet;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.json.JSONObject;
 import org.w3c.dom.Element;
 import se.raa.ksamsok.api.APIServiceProvider;
 import se.raa.ksamsok.api.exception.BadParameterException;
@@ -15,14 +19,14 @@ import se.raa.ksamsok.api.exception.DiagnosticException;
 import se.raa.ksamsok.api.exception.MissingParameterException;
 import se.raa.ksamsok.api.util.Relation;
 import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.lucene.RelationInverses;
 import se.raa.ksamsok.solr.SearchService;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -66,112 +70,9 @@ public class GetRelations extends AbstractAPIMethod {
 	private Set<Relation> relations = Collections.emptySet();
 
 	/** map som håller översättningsinformation för relationer - OBS används också från getRelationTypes */
-	protected static final Map<String, String> relationXlate;
+	protected static final Map<String, String> relationXlate = RelationInverses.inverses;
 	/** map som håller envägsrelationer */
-	protected static final List<String> relationOneWay;
-
-	static {
-		Map<String, String> map = new HashMap<>();
-		// dubbelriktade
-		twoWay(map, ContentHelper.IX_ISPARTOF, ContentHelper.IX_HASPART);
-		twoWay(map, ContentHelper.IX_CONTAINSOBJECT, ContentHelper.IX_ISCONTAINEDIN);
-		twoWay(map, ContentHelper.IX_ISFOUNDIN, ContentHelper.IX_HASFIND);
-		twoWay(map, ContentHelper.IX_HASCHILD, ContentHelper.IX_HASPARENT);
-		twoWay(map, ContentHelper.IX_VISUALIZES, ContentHelper.IX_ISVISUALIZEDBY);
-		twoWay(map, ContentHelper.IX_ISDESCRIBEDBY, ContentHelper.IX_DESCRIBES);
-		twoWay(map, ContentHelper.IX_HASOBJECTEXAMPLE, ContentHelper.IX_ISOBJECTEXAMPLEFOR);
-		twoWay(map, ContentHelper.IX_ISMENTIONEDBY, ContentHelper.IX_MENTIONS);
-		twoWay(map, ContentHelper.IX_REPLACES, ContentHelper.IX_ISREPLACEDBY);
-
-		// bio (lite special)
-		map.put(ContentHelper.IX_FATHER, ContentHelper.IX_CHILD);
-		map.put(ContentHelper.IX_MOTHER, ContentHelper.IX_CHILD);
-		twoWay(map, ContentHelper.IX_CHILD, ContentHelper.IX_PARENT);
-
-		// cidoc
-		twoWay(map, ContentHelper.IX_HASFORMERORCURRENTOWNER, ContentHelper.IX_ISFORMERORCURRENTOWNEROF);
-		twoWay(map, ContentHelper.IX_HASFORMERORCURRENTKEEPER, ContentHelper.IX_ISFORMERORCURRENTKEEPEROF);
-		twoWay(map, ContentHelper.IX_HASCREATED, ContentHelper.IX_WASCREATEDBY);
-		twoWay(map, ContentHelper.IX_HASRIGHTON, ContentHelper.IX_RIGHTHELDBY);
-		twoWay(map, ContentHelper.IX_WASPRESENTAT, ContentHelper.IX_OCCUREDINTHEPRESENCEOF);
-		twoWay(map, ContentHelper.IX_HADPARTICIPANT, ContentHelper.IX_PARTICIPATEDIN);
-		twoWay(map, ContentHelper.IX_ISCURRENTORFORMERMEMBEROF, ContentHelper.IX_HASCURRENTORFORMERMEMBER);
-
-		// roller, obs rollerna har fn inga invers-index, dvs man kan inte ange
-		// (eller rättare sagt det indexeras inte) tex en författares verk
-		// från toppnivån av författarobjektet då man helst vill kunna få med
-		// år etc från kontextet vilket man inte kan få om relationen går åt andra hållet
-		twoWay(map, ContentHelper.IX_CLIENT, ContentHelper.IX_CLIENT_OF);
-		twoWay(map, ContentHelper.IX_COMPOSER, ContentHelper.IX_COMPOSER_OF);
-		twoWay(map, ContentHelper.IX_AUTHOR, ContentHelper.IX_AUTHOR_OF);
-		twoWay(map, ContentHelper.IX_ARCHITECT, ContentHelper.IX_ARCHITECT_OF);
-		twoWay(map, ContentHelper.IX_INVENTOR, ContentHelper.IX_INVENTOR_OF);
-		twoWay(map, ContentHelper.IX_SCENOGRAPHER, ContentHelper.IX_SCENOGRAPHER_OF);
-		twoWay(map, ContentHelper.IX_DESIGNER, ContentHelper.IX_DESIGNER_OF);
-		twoWay(map, ContentHelper.IX_PRODUCER, ContentHelper.IX_PRODUCER_OF);
-		twoWay(map, ContentHelper.IX_ORGANIZER, ContentHelper.IX_ORGANIZER_OF);
-		twoWay(map, ContentHelper.IX_DIRECTOR, ContentHelper.IX_DIRECTOR_OF);
-		twoWay(map, ContentHelper.IX_PHOTOGRAPHER, ContentHelper.IX_PHOTOGRAPHER_OF);
-		twoWay(map, ContentHelper.IX_PAINTER, ContentHelper.IX_PAINTER_OF);
-		twoWay(map, ContentHelper.IX_BUILDER, ContentHelper.IX_BUILDER_OF);
-		twoWay(map, ContentHelper.IX_MASTERBUILDER, ContentHelper.IX_MASTERBUILDER_OF);
-		twoWay(map, ContentHelper.IX_CONSTRUCTIONCLIENT, ContentHelper.IX_CONSTRUCTIONCLIENT_OF);
-		twoWay(map, ContentHelper.IX_ENGRAVER, ContentHelper.IX_ENGRAVER_OF);
-		twoWay(map, ContentHelper.IX_MINTMASTER, ContentHelper.IX_MINTMASTER_OF);
-		twoWay(map, ContentHelper.IX_ARTIST, ContentHelper.IX_ARTIST_OF);
-		twoWay(map, ContentHelper.IX_DESIGNENGINEER, ContentHelper.IX_DESIGNENGINEER_OF);
-		twoWay(map, ContentHelper.IX_CARPENTER, ContentHelper.IX_CARPENTER_OF);
-		twoWay(map, ContentHelper.IX_MASON, ContentHelper.IX_MASON_OF);
-		twoWay(map, ContentHelper.IX_TECHNICIAN, ContentHelper.IX_TECHNICIAN_OF);
-		twoWay(map, ContentHelper.IX_PUBLISHER, ContentHelper.IX_PUBLISHER_OF);
-		twoWay(map, ContentHelper.IX_PUBLICIST, ContentHelper.IX_PUBLICIST_OF);
-		twoWay(map, ContentHelper.IX_MUSICIAN, ContentHelper.IX_MUSICIAN_OF);
-		twoWay(map, ContentHelper.IX_ACTORACTRESS, ContentHelper.IX_ACTORACTRESS_OF);
-		twoWay(map, ContentHelper.IX_PRINTER, ContentHelper.IX_PRINTER_OF);
-		twoWay(map, ContentHelper.IX_SIGNER, ContentHelper.IX_SIGNER_OF);
-		twoWay(map, ContentHelper.IX_FINDER, ContentHelper.IX_FINDER_OF);
-		twoWay(map, ContentHelper.IX_ABANDONEE, ContentHelper.IX_ABANDONEE_OF);
-		twoWay(map, ContentHelper.IX_INTERMEDIARY, ContentHelper.IX_INTERMEDIARY_OF);
-		twoWay(map, ContentHelper.IX_BUYER, ContentHelper.IX_BUYER_OF);
-		twoWay(map, ContentHelper.IX_SELLER, ContentHelper.IX_SELLER_OF);
-		twoWay(map, ContentHelper.IX_GENERALAGENT, ContentHelper.IX_GENERALAGENT_OF);
-		twoWay(map, ContentHelper.IX_DONOR, ContentHelper.IX_DONOR_OF);
-		twoWay(map, ContentHelper.IX_DEPOSITOR, ContentHelper.IX_DEPOSITOR_OF);
-		twoWay(map, ContentHelper.IX_RESELLER, ContentHelper.IX_RESELLER_OF);
-		twoWay(map, ContentHelper.IX_INVENTORYTAKER, ContentHelper.IX_INVENTORYTAKER_OF);
-		twoWay(map, ContentHelper.IX_EXCAVATOR, ContentHelper.IX_EXCAVATOR_OF);
-		twoWay(map, ContentHelper.IX_EXAMINATOR, ContentHelper.IX_EXAMINATOR_OF);
-		twoWay(map, ContentHelper.IX_CONSERVATOR, ContentHelper.IX_CONSERVATOR_OF);
-		twoWay(map, ContentHelper.IX_ARCHIVECONTRIBUTOR, ContentHelper.IX_ARCHIVECONTRIBUTOR_OF);
-		twoWay(map, ContentHelper.IX_INTERVIEWER, ContentHelper.IX_INTERVIEWER_OF);
-		twoWay(map, ContentHelper.IX_INFORMANT, ContentHelper.IX_INFORMANT_OF);
-		twoWay(map, ContentHelper.IX_PATENTHOLDER, ContentHelper.IX_PATENTHOLDER_OF);
-		twoWay(map, ContentHelper.IX_USER, ContentHelper.IX_USER_OF);
-		twoWay(map, ContentHelper.IX_SCANNEROPERATOR, ContentHelper.IX_SCANNEROPERATOR_OF);
-		twoWay(map, ContentHelper.IX_PICTUREEDITOR, ContentHelper.IX_PICTUREEDITOR_OF);
-		twoWay(map, ContentHelper.IX_EMPLOYER, ContentHelper.IX_EMPLOYER_OF);
-
-		// enkelriktade
-		map.put(ContentHelper.IX_HASBEENUSEDIN, ContentHelper.IX_ISRELATEDTO);
-		map.put(ContentHelper.IX_HASIMAGE, ContentHelper.IX_ISRELATEDTO);
-		map.put(ContentHelper.IX_CONTAINSINFORMATIONABOUT, ContentHelper.IX_ISMENTIONEDBY);
-		relationOneWay = Collections.unmodifiableList(Arrays.asList(
-				ContentHelper.IX_CONTAINSINFORMATIONABOUT, ContentHelper.IX_HASBEENUSEDIN,
-				ContentHelper.IX_HASIMAGE, ContentHelper.IX_FATHER, ContentHelper.IX_MOTHER));
-
-		// samma i bägge riktningarna
-		map.put(ContentHelper.IX_ISRELATEDTO, ContentHelper.IX_ISRELATEDTO);
-		map.put(ContentHelper.IX_SAMEAS, ContentHelper.IX_SAMEAS);
-		map.put(ContentHelper.IX_MARRIEDTO, ContentHelper.IX_MARRIEDTO);
-
-		relationXlate = Collections.unmodifiableMap(map);
-	}
-
-	// lägger till relationerna åt bägge håll
-	private static void twoWay(Map<String, String> map, String relA, String relB) {
-		map.put(relA, relB);
-		map.put(relB, relA);
-	}
+	protected static final List<String> relationOneWay = RelationInverses.oneWay;
 
 	/**
 	 * Skapa ny instans.
@@ -234,10 +135,10 @@ public class GetRelations extends AbstractAPIMethod {
 	private void getRelationsTransitively(Set<String> itemUrisSet, String uri) throws DiagnosticException {
 		SearchService searchService = serviceProvider.getSearchService();
 
-		// TODO: algoritmen kan behöva finslipas och optimeras tex för poster med många relaterade objekt
 		// algoritmen ser fn ut så här - inferSameAs styr steg 1 och 3, default är att inte utföra dem
 		// 1. hämta ev post för att få tag på postens sameAs och replaces/isReplacedBy. Kör rekursivt på alla sameAs och replaces/isReplacedBy
-		// 2. sök fram källpost(er) och alla relaterade poster (post + ev alla sameAs och deras relaterade)
+		// 2. hämta källpost(er) och alla relationer som pekar på dem, de senare via relationskanterna
+		//    som indexerats med färdig invers så att de relaterade posterna inte behöver hämtas
 		// 3. hämta ev de relaterades sameAs och replaces/isReplacedBy och lägg till dessa som relationer
 
 		try {
@@ -254,108 +155,40 @@ public class GetRelations extends AbstractAPIMethod {
 			}
 
 			// 2)
+			// hämta källposten/-erna och deras egna relationer
 			SolrQuery query = new SolrQuery();
-			query.setRows(maxCount > 0 ? maxCount : Integer.MAX_VALUE); // TODO: kan det bli för många?
-			// hämta uri och relationer
+			query.setRows(itemUrisSet.size());
 			query.addField(ContentHelper.I_IX_RELATIONS);
 			query.addField(ContentHelper.IX_ITEMID);
-			// bygg söksträng mh källposten/alla källposter
-			StringBuilder searchStr = new StringBuilder();
-			for (String itemId : itemUrisSet) {
-				String escapedItemId = ClientUtils.escapeQueryChars(itemId);
-				if (searchStr.length() > 0) {
-					searchStr.append(" OR ");
-				}
-				searchStr.append(ContentHelper.IX_ITEMID + ":").append(escapedItemId).append(" OR ").append(ContentHelper.IX_RELURI).append(":").append(escapedItemId);
-			}
-			// sök fram källposten/-erna och alla som har relation till den/dem
-			query.setQuery(searchStr.toString());
-
-			QueryResponse qr;
-			SolrDocumentList docs;
-			qr = searchService.query(query);
-			docs = qr.getResults();
-			for (SolrDocument doc : docs) {
+			query.setQuery(createOrQuery(ContentHelper.IX_ITEMID, itemUrisSet));
+			QueryResponse qr = searchService.query(query);
+			int sourceRelationCount = 0;
+			for (SolrDocument doc : qr.getResults()) {
 				String itemId = (String) doc.getFieldValue(ContentHelper.IX_ITEMID);
-				boolean isSourceDoc = itemUrisSet.contains(itemId);
 				Collection<Object> values = doc.getFieldValues(ContentHelper.I_IX_RELATIONS);
 				if (values != null) {
-					for (Object value : values) {
-						String[] parts = ((String) value).split("\\|");
-						if (parts.length != 2) {
-							logger.error("Fel på värde för relationsindex för " + itemId + ", ej på korrekt format: " + value);
-							continue;
-						}
-						String orgTypePart = null; // håller orginaltypen om vi gör en inversupplagning
-						String typePart = parts[0];
-						String uriPart = parts[1];
-
-						if ((ContentHelper.IX_SAMEAS.equals(typePart) || ContentHelper.IX_REPLACES.equals(typePart)) && uriPart.equals(uri)) {
-							//läge där sameas/replaces-länken pekar på "det här" objektet, vi måste vända på den
-							isSourceDoc = false;
-						}
-
-						if (!isSourceDoc) {
-							// "bakvänd" länk, eller läge där sameas/replaces-länken pekar på "det här" objektet, vi måste vända på den
-							if (!itemUrisSet.contains(uriPart)) {
-								// inte för aktuellt objekt
-								continue;
-							}
-							orgTypePart = typePart;
-							typePart = relationXlate.get(typePart);
-							uriPart = itemId;
-
-							// försök ta bort de som är onödiga, dvs de som redan har en envägs-relation
-							// deras invers är inte intressant att ha med då den inte säger nåt
-							if (ContentHelper.IX_ISRELATEDTO.equals(typePart)) {
-								boolean exists = false;
-								Relation rel = null;
-								for (String owRel : relationOneWay) {
-									// bara typ och uri är intressanta för detta
-									rel = new Relation(owRel, itemId, null, null);
-									if (relations.contains(rel)) {
-										exists = true;
-										break;
-									}
-								}
-								if (exists) {
-									if (logger.isDebugEnabled()) {
-										logger.debug("Exists inversed already " + rel);
-									}
-									continue;
-								}
-							}
-						}
-
-						// vi vill inte ha med relationer som pekar på "det här" objektet
-						if (!uriPart.equals(uri)) {
-							String source = isSourceDoc ? SOURCE_DIRECT : SOURCE_REVERSE;
-
-							// protokollet specar att vi har en relation som heter replaces,
-							// men i datat står det "multipleReplaces" eftersom solr inte vill
-							// låta oss göra om det existerande indexet "replaces" till ett flervärt index,
-							// så vi fick skapa ett nytt index med det nya namnet multipleReplaces
-							// Här byter vi tillbaka alla multipleReplaces till replaces innan vi skickar
-							// listan till api-anroparen.
-							typePart = (ContentHelper.IX_REPLACES.equals(typePart) ? "replaces" : typePart);
-							Relation rel = new Relation(typePart, uriPart, source, orgTypePart);
-
-							if (!relations.add(rel)) {
-								if (logger.isDebugEnabled()) {
-									logger.debug("duplicate rel " + rel);
-								}
-							}
-							// optimering genom att göra return direkt vid detta fall, annars ska man
-							// hoppa ur denna loop och den utanför den och sen filtrera
-							// funkar dock bara för fallet "alla"
-							if (maxCount > 0 && isAll && relations.size() == maxCount) {
-								return;
-							}
-						}
+					sourceRelationCount += values.size();
+					if (addSourceRelations(itemUrisSet, uri, itemId, values)) {
+						return;
 					}
 				}
 			}
 
+			// hämta alla relationer som pekar på källposten/-erna från de materialiserade
+			// relationskanterna, utan att de relaterade posterna behöver hämtas
+			// kanter kan falla bort som dubbletter mot källpostens relationer, så hämta så många fler
+			int edgeLimit = maxCount > 0 ? maxCount + 2 * sourceRelationCount : -1;
+			if (addInverseRelations(itemUrisSet, uri, edgeLimit) && edgeLimit > 0 &&
+					(isAll ? relations.size() : countRelations(relation)) < maxCount) {
+				// gränsen nåddes men det behövs fler, i praktiken bara vid många dubbletter
+				if (addInverseRelations(itemUrisSet, uri, -1)) {
+					return;
+				}
+			}
+			if (maxCount > 0 && isAll && relations.size() >= maxCount) {
+				return;
+			}
+
 			if (inferSameAs == InferSameAs.yes || inferSameAs == InferSameAs.targetsOnly) {
 				// 3)
 				// sökning på sameAs/replaces för träffarnas uri:er och skapa relation till dessa också
@@ -383,6 +216,182 @@ public class GetRelations extends AbstractAPIMethod {
 		}
 	}
 
+	/**
+	 * Lägger till relationer från en källpost.
+	 * @param itemUrisSet källposternas uri:er
+	 * @param uri efterfrågad uri
+	 * @param itemId källpostens uri
+	 * @param values källpostens relationer på formatet typ|uri
+	 * @return sant om max antal relationer har nåtts
+	 */
+	private boolean addSourceRelations(Set<String> itemUrisSet, String uri, String itemId, Collection<Object> values) {
+		boolean isSourceDoc = true;
+		for (Object value : values) {
+			String[] parts = ((String) value).split("\\|");
+			if (parts.length != 2) {
+				logger.error("Fel på värde för relationsindex för " + itemId + ", ej på korrekt format: " + value);
+				continue;
+			}
+			String typePart = parts[0];
+			String uriPart = parts[1];
+
+			if ((ContentHelper.IX_SAMEAS.equals(typePart) || ContentHelper.IX_REPLACES.equals(typePart)) && uriPart.equals(uri)) {
+				//läge där sameas/replaces-länken pekar på "det här" objektet, vi måste vända på den
+				isSourceDoc = false;
+			}
+
+			if (!isSourceDoc) {
+				// läge där sameas/replaces-länken pekar på "det här" objektet, vi måste vända på den
+				if (!itemUrisSet.contains(uriPart)) {
+					// inte för aktuellt objekt
+					continue;
+				}
+				if (addInverseRelation(uri, relationXlate.get(typePart), typePart, itemId)) {
+					return true;
+				}
+			} else if (addRelation(uri, typePart, uriPart, SOURCE_DIRECT, null)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lägger till de relationer som pekar på källposterna med hjälp av relationskanterna i
+	 * indexet {@linkplain ContentHelper#I_IX_RELATION_EDGES}, en sökning för alla källposter.
+	 * @param itemUrisSet källposternas uri:er
+	 * @param uri efterfrågad uri
+	 * @param edgeLimit max antal kanter per källpost, -1 för alla
+	 * @return sant om gränsen för antal kanter nåddes eller max antal relationer har nåtts
+	 * @throws SolrServerException vid sökfel
+	 * @throws IOException vid kommunikationsfel
+	 */
+	private boolean addInverseRelations(Set<String> itemUrisSet, String uri, int edgeLimit) throws SolrServerException, IOException {
+		SolrQuery query = new SolrQuery();
+		query.setQuery(createOrQuery(ContentHelper.IX_RELURI, itemUrisSet));
+		query.setRows(0);
+		List<String> itemUris = new ArrayList<>(itemUrisSet);
+		JSONObject jsonFacet = new JSONObject();
+		for (int i = 0; i < itemUris.size(); ++i) {
+			JSONObject edgeFacet = new JSONObject();
+			edgeFacet.put("type", "terms");
+			edgeFacet.put("field", ContentHelper.I_IX_RELATION_EDGES);
+			// vid sökning på specifik relation räcker det med kanter vars invers är den relationen
+			edgeFacet.put("prefix", itemUris.get(i) + "|" + (isAll ? "" : relation + "|"));
+			edgeFacet.put("limit", edgeLimit);
+			edgeFacet.put("sort", "index asc");
+			jsonFacet.put("edges" + i, edgeFacet);
+		}
+		query.set("json.facet", jsonFacet.toString());
+		QueryResponse qr = serviceProvider.getSearchService().query(query);
+		NestableJsonFacet facets = qr.getJsonFacetingResponse();
+		boolean limitReached = false;
+		for (int i = 0; i < itemUris.size() && facets != null; ++i) {
+			BucketBasedJsonFacet edgeFacet = facets.getBucketBasedFacets("edges" + i);
+			if (edgeFacet == null) {
+				continue;
+			}
+			List<BucketJsonFacet> buckets = edgeFacet.getBuckets();
+			limitReached |= edgeLimit > 0 && buckets.size() >= edgeLimit;
+			for (BucketJsonFacet bucket : buckets) {
+				String edge = String.valueOf(bucket.getVal());
+				// mål|invers|typ|källa
+				String[] parts = edge.split("\\|", 4);
+				if (parts.length != 4) {
+					logger.error("Fel på värde för relationskant, ej på korrekt format: " + edge);
+					continue;
+				}
+				String itemId = parts[3];
+				if (itemUrisSet.contains(itemId)) {
+					// källposternas egna relationer har redan hanterats
+					continue;
+				}
+				if (addInverseRelation(uri, parts[1].isEmpty() ? null : parts[1], parts[2], itemId)) {
+					return true;
+				}
+			}
+		}
+		return limitReached;
+	}
+
+	/**
+	 * Lägger till en "bakvänd" relation från en post som pekar på källposten.
+	 * @param uri efterfrågad uri
+	 * @param typePart relationens invers
+	 * @param orgTypePart relationstypen i den pekande posten
+	 * @param itemId den pekande postens uri
+	 * @return sant om max antal relationer har nåtts
+	 */
+	private boolean addInverseRelation(String uri, String typePart, String orgTypePart, String itemId) {
+		// försök ta bort de som är onödiga, dvs de som redan har en envägs-relation
+		// deras invers är inte intressant att ha med då den inte säger nåt
+		if (ContentHelper.IX_ISRELATEDTO.equals(typePart)) {
+			for (String owRel : relationOneWay) {
+				// bara typ och uri är intressanta för detta
+				Relation rel = new Relation(owRel, itemId, null, null);
+				if (relations.contains(rel)) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("Exists inversed already " + rel);
+					}
+					return false;
+				}
+			}
+		}
+		return addRelation(uri, typePart, itemId, SOURCE_REVERSE, orgTypePart);
+	}
+
+	/**
+	 * Lägger till en relation om den inte pekar på "det här" objektet.
+	 * @return sant om max antal relationer har nåtts
+	 */
+	private boolean addRelation(String uri, String typePart, String uriPart, String source, String orgTypePart) {
+		// vi vill inte ha med relationer som pekar på "det här" objektet
+		if (!uriPart.equals(uri)) {
+			// protokollet specar att vi har en relation som heter replaces,
+			// men i datat står det "multipleReplaces" eftersom solr inte vill
+			// låta oss göra om det existerande indexet "replaces" till ett flervärt index,
+			// så vi fick skapa ett nytt index med det nya namnet multipleReplaces
+			// Här byter vi tillbaka alla multipleReplaces till replaces innan vi skickar
+			// listan till api-anroparen.
+			typePart = (ContentHelper.IX_REPLACES.equals(typePart) ? "replaces" : typePart);
+			Relation rel = new Relation(typePart, uriPart, source, orgTypePart);
+
+			if (!relations.add(rel)) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("duplicate rel " + rel);
+				}
+			}
+			// optimering genom att göra return direkt vid detta fall, annars ska man
+			// hoppa ur denna loop och den utanför den och sen filtrera
+			// funkar dock bara för fallet "alla"
+			return maxCount > 0 && isAll && relations.size() == maxCount;
+		}
+		return false;
+	}
+
+	// ger antal relationer av angiven typ
+	private int countRelations(String relationType) {
+		int count = 0;
+		for (Relation rel : relations) {
+			if (rel.getRelationType().equals(relationType)) {
+				++count;
+			}
+		}
+		return count;
+	}
+
+	// bygger en or-fråga för ett index och en mängd uri:er
+	private static String createOrQuery(String index, Set<String> uris) {
+		StringBuilder searchStr = new StringBuilder();
+		for (String itemId : uris) {
+			if (searchStr.length() > 0) {
+				searchStr.append(" OR ");
+			}
+			searchStr.append(index).append(":").append(ClientUtils.escapeQueryChars(itemId));
+		}
+		return searchStr.toString();
+	}
+
 	private void getTargetRelations(Set<String> itemUrisSet, String sourceUri,  Relation rel) throws SolrServerException, IOException {
 		QueryResponse qr;
 		SolrDocumentList docs;
@@ -1,10 +1,6 @@
 package se.raa.ksamsok.api.method;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.riot.RDFFormat;
 import org.apache.jena.riot.RiotException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -14,8 +10,6 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -33,6 +27,7 @@ import se.raa.ksamsok.api.util.parser.CQL2Solr;
 import se.raa.ksamsok.harvest.HarvestService;
 import se.raa.ksamsok.harvest.HarvestServiceImpl;
 import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.lucene.RDFUtil;
 import se.raa.ksamsok.lucene.SamsokContentHelper;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -43,12 +38,17 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -57,6 +57,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Hanterar sökningar efter objekt
@@ -93,15 +94,17 @@ public class Search extends AbstractSearchMethod {
 	// index att använda för sortering (transparent) istället för itemName
 	private static final String ITEM_NAME_SORT = "itemNameSort";
 
-	// TODO: detta är inte det mest effektiva sättet att få ut valbara fält
-	// bättre och snabbare vore att lagra fälten i solr och hämta därifrån,
-	// men detta är snabbare att implementera och kräver inte med disk för solr-indexet
+	// valbara fält hämtas som lagrade fält direkt från solr om alla efterfrågade fält är lagrade,
+	// annars och för poster som indexerats innan fälten lagrades tas de istället fram ur rdf:en
+	// med samma kod som vid indexering
 	// specialvärden/variabler för valbara fält
 	private static final String FIELD_URL = "url";
 	private static final String FIELD_LON = "lon";
 	private static final String FIELD_LAT = "lat";
+	// lagrade datum indexeras som dagar i utc, samma format som ContentHelper.formatDate
+	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE.withZone(ZoneOffset.UTC);
 	// återanvänd samma kod som används för indexering
-	private static final SamsokContentHelper sch = new SamsokContentHelper(false);
+	private static final SamsokContentHelper sch = new SamsokContentHelper(false, false);
 	// specialhanterade fält som antingen kräver extra hantering eller som inte blir vettiga
 	private static final List<String> extraFields = Collections.unmodifiableList(
 		Arrays.asList(FIELD_LON, FIELD_LAT, FIELD_URL));
@@ -119,6 +122,10 @@ public class Search extends AbstractSearchMethod {
 		dummyService.setName("dummy");
 	}
 
+	// nyckelordning för json-ld-svaret, se writeResult()
+	private static final List<String> RESULT_KEYS = jsonKeyOrder("version", "totalHits", "records", "echo");
+	private static final List<String> RECORD_KEYS = jsonKeyOrder("record", "rel:score");
+
 	private static final Logger logger = LogManager.getLogger(Search.class);
 
 	protected String sort = null;
@@ -126,6 +133,8 @@ public class Search extends AbstractSearchMethod {
 	protected String recordSchema = null;
 	protected String binDataField = null;
 	protected Set<String> fields = null;
+	// om alla efterfrågade fält finns lagrade i solr
+	protected boolean fieldsStored = false;
 
 	/**
 	 * skapar ett Search objekt
@@ -219,10 +228,30 @@ public class Search extends AbstractSearchMethod {
 			}
 			query.addField(ContentHelper.IX_ITEMID);
 			query.addField("score"); // score är "solr-special" för uhm, score...
-			// ta fram rätt data
-			query.addField(binDataField);
+			if (fields != null) {
+				fieldsStored = isFieldsStored();
+				if (fieldsStored) {
+					// bara de efterfrågade fälten, inte rdf:en
+					for (String field : fields) {
+						query.addField(getDocField(field));
+					}
+				} else {
+					// något fält är inte lagrat och då tas alla fram ur rdf:en
+					query.addField(binDataField);
+				}
+			} else {
+				// ta fram rätt data, json-ld:n tas fram vid indexering
+				query.addField(isJSONLDResponse() ? ContentHelper.I_IX_JSONLD : binDataField);
+			}
 			QueryResponse qr = serviceProvider.getSearchService().query(query);
 			hitList = qr.getResults();
+			if (fieldsStored) {
+				// poster utan lagrade värden för fälten tas fram ur rdf:en
+				addFallbackField(hitList, this::hasFieldValues, binDataField);
+			} else if (isJSONLDResponse()) {
+				// poster indexerade innan json-ld:n förbereddes konverteras från rdf:en
+				addFallbackField(hitList, ContentHelper.I_IX_JSONLD, binDataField);
+			}
 		} catch (SolrServerException | IOException e) {
 			throw new DiagnosticException("Oväntat IO-fel uppstod. Var god försök igen", "Search.performMethod",
 				e.getMessage(), true);
@@ -237,7 +266,7 @@ public class Search extends AbstractSearchMethod {
 		// set.
 		// If this is the case then should the result be a json with json-ld rdfs. The method
 		// xmlToJson does not creates json-ld
-		if (format != Format.JSON_LD || (recordSchema != null && !NS_SAMSOK_RDF.equals(recordSchema))) {
+		if (!isJSONLDResponse()) {
 			Element result = super.generateBaseDocument();
 
 			Element totalHits = doc.createElement("totalHits");
@@ -328,63 +357,45 @@ public class Search extends AbstractSearchMethod {
 
 	@Override
 	protected void writeResult() throws DiagnosticException {
-		if (format != Format.JSON_LD || (recordSchema != null && !NS_SAMSOK_RDF.equals(recordSchema))) {
+		if (!isJSONLDResponse()) {
 			super.writeResult();
 		} else {
-			String content = "";
 			try {
-				JSONArray records = new JSONArray();
-				for (SolrDocument d : hitList) {
-					try {
-						Float score = (Float) d.getFieldValue("score");
-						String ident = (String) d.getFieldValue(ContentHelper.IX_ITEMID);
-						content = getContent(d, ident);
-						if (content != null) {
-							JSONObject record = new JSONObject();
-							ByteArrayOutputStream jsonLDRDF = new ByteArrayOutputStream();
-							Model m = ModelFactory.createDefaultModel();
-
-							m.read(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), "UTF-8");
-
-							// Create JSON-LD
-							RDFDataMgr.write(jsonLDRDF, m, RDFFormat.JSONLD_COMPACT_FLAT);
-							record.put("record", new JSONObject(jsonLDRDF.toString("UTF-8")));
-							JSONObject relScore = new JSONObject();
-							relScore.put("-xmlns:rel", "info:srw/extension/2/relevancy-1.0");
-							relScore.put("#text", score);
-							record.put("rel:score", relScore);
-							records.put(record);
-						}
-					} catch (RiotException e) {
-						logger.error("Kan inte läsa rdf för " + content + e.getMessage());
+				// posternas json-ld skrivs direkt till utströmmen utan att tolkas, övriga nycklar i
+				// den ordning som org.json ger så att svaret blir detsamma som med JSONObject
+				Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+				w.write("{\"result\":{");
+				boolean firstKey = true;
+				for (String key : RESULT_KEYS) {
+					if (!firstKey) {
+						w.write(',');
+					}
+					firstKey = false;
+					w.write(JSONObject.quote(key));
+					w.write(':');
+					switch (key) {
+						case "version":
+							w.write(JSONObject.quote(API_VERSION));
+							break;
+						case "totalHits":
+							w.write(Long.toString(hitList.getNumFound()));
+							break;
+						case "records":
+							writeJSONLDRecords(w);
+							break;
+						case "echo":
+							// Create echo object
+							JSONObject echo = new JSONObject();
+							echo.put("method", METHOD_NAME);
+							echo.put("startRecord", startRecord);
+							echo.put("hitsPerPage", hitsPerPage);
+							echo.put("query", queryString);
+							w.write(echo.toString());
+							break;
 					}
 				}
-				// Create echo object
-				JSONObject echo = new JSONObject();
-				echo.put("method", METHOD_NAME);
-				echo.put("startRecord", startRecord);
-				echo.put("hitsPerPage", hitsPerPage);
-				echo.put("query", queryString);
-				// Create the result object
-				JSONObject result = new JSONObject();
-				result.put("version", API_VERSION);
-				result.put("totalHits", hitList.getNumFound());
-				result.put("records", records);
-				result.put("echo", echo);
-				JSONObject response = new JSONObject();
-				response.put("result", result);
-				// Write the result
-				out.write(response.toString().getBytes(StandardCharsets.UTF_8));
-
-			} catch (UnsupportedEncodingException e) {
-				logger.error(e);
-				throw new DiagnosticException("Det är problem med att konvertera en sträng till output ström",
-					AbstractAPIMethod.class.getName(), e.getMessage(), false);
-			} catch (JSONException e) {
-				logger.error("Kontent som ska konverteras till ett json objekt: " + content);
-				logger.error(e);
-				throw new DiagnosticException("Det är problem med att skapa en json från resultatet",
-					AbstractAPIMethod.class.getName(), e.getMessage(), false);
+				w.write("}}");
+				w.flush();
 			} catch (IOException e) {
 				logger.error(e);
 				throw new DiagnosticException("Det är problem med att skriva resultatet till utströmmen",
@@ -393,6 +404,86 @@ public class Search extends AbstractSearchMethod {
 		}
 	}
 
+	// skriver posterna som en array, varje post med json-ld:n och relevansen
+	private void writeJSONLDRecords(Writer w) throws IOException {
+		w.write('[');
+		boolean first = true;
+		for (SolrDocument d : hitList) {
+			Float score = (Float) d.getFieldValue("score");
+			String ident = (String) d.getFieldValue(ContentHelper.IX_ITEMID);
+			String jsonLD = getJSONLD(d, ident);
+			if (jsonLD == null) {
+				continue;
+			}
+			if (!first) {
+				w.write(',');
+			}
+			first = false;
+			w.write('{');
+			boolean firstKey = true;
+			for (String key : RECORD_KEYS) {
+				if (!firstKey) {
+					w.write(',');
+				}
+				firstKey = false;
+				w.write(JSONObject.quote(key));
+				w.write(':');
+				if ("record".equals(key)) {
+					w.write(jsonLD);
+				} else {
+					JSONObject relScore = new JSONObject();
+					relScore.put("-xmlns:rel", "info:srw/extension/2/relevancy-1.0");
+					relScore.put("#text", score);
+					w.write(relScore.toString());
+				}
+			}
+			w.write('}');
+		}
+		w.write(']');
+	}
+
+	// ger nycklarna i den ordning som JSONObject.toString() skriver dem
+	private static List<String> jsonKeyOrder(String... keys) {
+		JSONObject o = new JSONObject();
+		for (String key : keys) {
+			o.put(key, 0);
+		}
+		return Collections.unmodifiableList(new ArrayList<>(o.keySet()));
+	}
+
+	/**
+	 * Ger true om svaret ska vara json med posterna som json-ld, dvs om json efterfrågats
+	 * och recordSchema är rdf eller inte angivet.
+	 * 
+	 * @return true för json-ld
+	 */
+	private boolean isJSONLDResponse() {
+		return format == Format.JSON_LD && (recordSchema == null || NS_SAMSOK_RDF.equals(recordSchema));
+	}
+
+	/**
+	 * Hämtar postens json-ld, från det förberedda fältet eller konverterat från rdf:en för
+	 * poster som indexerats innan json-ld:n förbereddes.
+	 * 
+	 * @param doc solrdokument
+	 * @param uri postens uri (används bara för log)
+	 * @return json-ld eller null om data saknas eller inte kan läsas
+	 */
+	protected String getJSONLD(SolrDocument doc, String uri) {
+		String jsonLD = (String) doc.getFieldValue(ContentHelper.I_IX_JSONLD);
+		if (jsonLD == null) {
+			String content = getContent(doc, uri);
+			if (content != null) {
+				try {
+					jsonLD = RDFUtil.toJSONLD(content);
+				} catch (RiotException e) {
+					logger.error("Kan inte läsa rdf för " + uri + ": " + e.getMessage());
+				}
+			}
+		}
+		return jsonLD;
+	}
+
 	/**
 	 * Hämtar xml-innehåll (fragment) från ett lucene-dokument som en sträng.
 	 * 
@@ -400,77 +491,26 @@ public class Search extends AbstractSearchMethod {
 	 * @param uri postens uri (används bara för log)
 	 * @return xml-fragment med antingen presentations-xml, rdf eller xml med valbara fält; null om
 	 *         data saknas
-	 * @throws Exception vid teckenkodningsfel (bör ej inträffa)
 	 */
 	protected String getContent(SolrDocument doc, String uri) {
 		String content = null;
-		// Hämta ut dokumentet från solr
-		byte[] xmlData = (byte[]) doc.getFieldValue(binDataField);
-
 		try {
-			if (xmlData != null) {
-				content = new String(xmlData, StandardCharsets.UTF_8);
-			}
-			if (content == null) {
-				logger.warn("Hittade inte xml-data (" + binDataField + ") för " + uri);
-			} else if (NS_SAMSOK_XML.equals(recordSchema)) {
-				// Filtrera ut den info du vill ha
-				SolrInputDocument resDoc = sch.createSolrDocument(dummyService, content, new Date());
-				// nödvändigt då createSolrDocument lägger in felmeddelanden mm
-				ContentHelper.getAndClearProblemMessages();
-				content = "";
-				DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-				DocumentBuilder docBuilder;
-				Document contentDoc;
-				Element recordSchema;
-				try {
-					docBuilder = docFactory.newDocumentBuilder();
-					contentDoc = docBuilder.newDocument();
-					recordSchema = contentDoc.createElement("recordSchema");
-					contentDoc.appendChild(recordSchema);
-				} catch (ParserConfigurationException e) {
-					logger.error(e);
-					throw new DiagnosticException("Det är problem med att initiera xml dokument hanteraren",
-						this.getClass().getName(), e.getMessage(), false);
-				}
-				for (String field : fields) {
-					String docField;
-					// översätt fält vid behov
-					if (FIELD_LON.equals(field)) {
-						docField = ContentHelper.I_IX_LON;
-					} else if (FIELD_LAT.equals(field)) {
-						docField = ContentHelper.I_IX_LAT;
-					} else if (FIELD_URL.equals(field)) {
-						docField = ContentHelper.I_IX_HTML_URL;
-					} else {
-						docField = field;
-					}
-					Collection<Object> fieldValues = resDoc.getFieldValues(docField);
-					if (fieldValues != null) {
-						String fieldValue;
-						for (Object value : fieldValues) {
-							if (value != null && (fieldValue = StringUtils.trimToNull(value.toString())) != null) {
-								Element fieldEl = contentDoc.createElement("field");
-								fieldEl.setAttribute("name", field);
-								fieldEl.appendChild(contentDoc.createTextNode(fieldValue));
-								recordSchema.appendChild(fieldEl);
-							}
-						}
+			if (NS_SAMSOK_XML.equals(recordSchema)) {
+				if (fieldsStored && hasFieldValues(doc)) {
+					// fälten finns lagrade i solr
+					content = getFieldsContent(doc::getFieldValues);
+				} else {
+					String rdf = getBinDataContent(doc, uri);
+					if (rdf != null) {
+						// Filtrera ut den info du vill ha
+						SolrInputDocument resDoc = sch.createSolrDocument(dummyService, rdf, new Date());
+						// nödvändigt då createSolrDocument lägger in felmeddelanden mm
+						ContentHelper.getAndClearProblemMessages();
+						content = getFieldsContent(resDoc::getFieldValues);
 					}
 				}
-				TransformerFactory transformerFactory = TransformerFactory.newInstance();
-				Transformer transform;
-				try {
-					transform = transformerFactory.newTransformer();
-					DOMSource source = new DOMSource(contentDoc);
-					ByteArrayOutputStream baos = new ByteArrayOutputStream();
-					transform.transform(source, new StreamResult(baos));
-					content = baos.toString("UTF-8");
-				} catch (TransformerException e) {
-					logger.error(e);
-					throw new DiagnosticException("Det är problem med att initiera xml konverteraren",
-						this.getClass().getName(), e.getMessage(), false);
-				}
+			} else {
+				content = getBinDataContent(doc, uri);
 			}
 		} catch (Exception e) {
 			logger.error(e);
@@ -480,6 +520,134 @@ public class Search extends AbstractSearchMethod {
 		return content;
 	}
 
+	/**
+	 * Hämtar binärt xml-data (rdf eller presentations-xml) från ett lucene-dokument som en sträng.
+	 * 
+	 * @param doc solrdokument
+	 * @param uri postens uri (används bara för log)
+	 * @return xml eller null om data saknas
+	 */
+	private String getBinDataContent(SolrDocument doc, String uri) {
+		String content = null;
+		// Hämta ut dokumentet från solr
+		byte[] xmlData = (byte[]) doc.getFieldValue(binDataField);
+		if (xmlData != null) {
+			content = new String(xmlData, StandardCharsets.UTF_8);
+		} else {
+			logger.warn("Hittade inte xml-data (" + binDataField + ") för " + uri);
+		}
+		return content;
+	}
+
+	/**
+	 * Skapar xml med de valbara fälten.
+	 * 
+	 * @param fieldValues ger värdena för ett fält i index
+	 * @return xml-fragment
+	 * @throws DiagnosticException vid fel att skapa xml
+	 */
+	private String getFieldsContent(Function<String, Collection<Object>> fieldValues) throws DiagnosticException {
+		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
+		DocumentBuilder docBuilder;
+		Document contentDoc;
+		Element recordSchema;
+		try {
+			docBuilder = docFactory.newDocumentBuilder();
+			contentDoc = docBuilder.newDocument();
+			recordSchema = contentDoc.createElement("recordSchema");
+			contentDoc.appendChild(recordSchema);
+		} catch (ParserConfigurationException e) {
+			logger.error(e);
+			throw new DiagnosticException("Det är problem med att initiera xml dokument hanteraren",
+				this.getClass().getName(), e.getMessage(), false);
+		}
+		for (String field : fields) {
+			Collection<Object> values = fieldValues.apply(getDocField(field));
+			if (values != null) {
+				String fieldValue;
+				for (Object value : values) {
+					if (value instanceof Date) {
+						// lagrade datum kommer som Date, formatera som vid indexering
+						value = DATE_FORMATTER.format(((Date) value).toInstant());
+					}
+					if (value != null && (fieldValue = StringUtils.trimToNull(value.toString())) != null) {
+						Element fieldEl = contentDoc.createElement("field");
+						fieldEl.setAttribute("name", field);
+						fieldEl.appendChild(contentDoc.createTextNode(fieldValue));
+						recordSchema.appendChild(fieldEl);
+					}
+				}
+			}
+		}
+		TransformerFactory transformerFactory = TransformerFactory.newInstance();
+		Transformer transform;
+		try {
+			transform = transformerFactory.newTransformer();
+			DOMSource source = new DOMSource(contentDoc);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			transform.transform(source, new StreamResult(baos));
+			return baos.toString(StandardCharsets.UTF_8);
+		} catch (TransformerException e) {
+			logger.error(e);
+			throw new DiagnosticException("Det är problem med att initiera xml konverteraren",
+				this.getClass().getName(), e.getMessage(), false);
+		}
+	}
+
+	/**
+	 * Ger true om träffen har lagrade värden för något av de valbara fälten (utöver itemId som
+	 * alltid finns). Saknas värden helt har posten indexerats innan fälten lagrades, eller så
+	 * har den inga värden alls, och då tas fälten fram ur rdf:en.
+	 * 
+	 * @param doc solrdokument
+	 * @return true om fälten kan tas direkt från träffen
+	 */
+	private boolean hasFieldValues(SolrDocument doc) {
+		for (String field : fields) {
+			if (!ContentHelper.IX_ITEMID.equals(field) && doc.getFieldValue(getDocField(field)) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Ger true om alla valbara fält finns lagrade i solr så att de kan hämtas direkt från
+	 * träffarna.
+	 * 
+	 * @return true om alla fält är lagrade
+	 * @throws SolrServerException vid sökfel
+	 * @throws IOException vid kommunikationsfel
+	 */
+	private boolean isFieldsStored() throws SolrServerException, IOException {
+		for (String field : fields) {
+			if (!serviceProvider.getSearchService().isStored(getDocField(field))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Översätter ett valbart fält till fältet i index.
+	 * 
+	 * @param field valbart fält
+	 * @return fält i index
+	 */
+	private static String getDocField(String field) {
+		String docField;
+		if (FIELD_LON.equals(field)) {
+			docField = ContentHelper.I_IX_LON;
+		} else if (FIELD_LAT.equals(field)) {
+			docField = ContentHelper.I_IX_LAT;
+		} else if (FIELD_URL.equals(field)) {
+			docField = ContentHelper.I_IX_HTML_URL;
+		} else {
+			docField = field;
+		}
+		return docField;
+	}
+
 	/**
 	 * Skapar ett query
 	 * 
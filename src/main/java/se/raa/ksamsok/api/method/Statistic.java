@@ -2,7 +2,9 @@ package se.raa.ksamsok.api.method;
 
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.PivotField;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.FacetParams;
 import org.w3c.dom.Element;
 import se.raa.ksamsok.api.APIServiceProvider;
 import se.raa.ksamsok.api.exception.BadParameterException;
@@ -16,6 +18,7 @@ import se.raa.ksamsok.lucene.ContentHelper;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -34,12 +37,16 @@ public class Statistic extends AbstractAPIMethod {
 	public static final String INDEX_PARAMETER = "index";
 	/** namn på parameter för att ta bort nollor i svars XML */
 	public static final String REMOVE_BELOW = "removeBelow";
-	/** max antal kombinationer av indexvärden */
-	protected static final int MAX_CARTESIAN_COUNT = 20000;
+	/** max antal kombinationer av indexvärden som pivot-facetten räknar på */
+	protected static final long MAX_CARTESIAN_COUNT = 2000000;
+	/** max antal kombinationer i svaret, även när kombinationer utan träffar fylls i */
+	protected static final int MAX_RESULT_COUNT = 20000;
 	
 	//set med index som skall kollas
 	protected Map<String,String> indexMap;
 	protected int removeBelow = 0;
+	// termprefix per översatt indexnamn, sätts av buildTermMap
+	protected Map<String,String> prefixMap = new HashMap<>();
 
 	protected List<QueryContent> queryResults;
 
@@ -69,39 +76,170 @@ public class Statistic extends AbstractAPIMethod {
 	protected void performMethodLogic() throws DiagnosticException {
 		Map<String, List<Term>> termMap;
 		try {
-			// TODO: om bara ett index borde man kunna köra facet rakt av
-			SolrQuery query = new SolrQuery();
-			query.setQuery("*");
-			query.setRows(0);
 			// en mängd med mängder med mängder!
 			termMap = buildTermMap();
-			if (getCartesianCount(termMap)  > MAX_CARTESIAN_COUNT) {
+			// utan removeBelow blir hela produkten svaret så då gäller samma gräns som för svaret
+			long maxCount = removeBelow <= 0 ? MAX_RESULT_COUNT : MAX_CARTESIAN_COUNT;
+			if (getCartesianCount(termMap)  > maxCount) {
 				throw new BadParameterException("Den kartesiska produkten av inskickade index blir för stor för att utföra denna operation.", "Statistic.performMethod", null, false);
 			}
-			//gör en kartesisk produkt på de värden i termMap
-			queryResults = cartesian(termMap);
-
-			for (int i = 0; i < queryResults.size(); i++) {
-				QueryContent content = queryResults.get(i);
-				String qs = content.getQueryString().replace("=", ":"); // TODO: bort nu?
-				query.setQuery(qs);
-				QueryResponse qr = serviceProvider.getSearchService().query(query);
-
-				if (qr.getResults().getNumFound() >= removeBelow) {
-					content.setHits(qr.getResults().getNumFound());
-					queryResults.set(i, content);
-				} else {
-					queryResults.remove(i);
-					i--;
-				}
-			}
+			queryResults = countCombinations(createBaseQuery(), termMap);
+		} catch (BadParameterException e) {
+			throw e;
 		} catch(OutOfMemoryError e) {
 			throw new DiagnosticException("De inskickade index värdena gav upphov till att för många värden hittades och denna sökning gick ej att utföra", "Statistic.performMethod", null, false);
 		} catch (Exception e) {
 			throw new DiagnosticException("Oväntat fel uppstod", "Statistic.performMethod", null, false);
 		}
 	}
-	
+
+	/**
+	 * Skapar den fråga som avgränsar vilka poster som räknas, för statistic är det hela indexet.
+	 * @return fråga
+	 * @throws Exception vid fel i frågan
+	 */
+	protected SolrQuery createBaseQuery() throws Exception {
+		SolrQuery query = new SolrQuery();
+		query.setQuery("*:*");
+		return query;
+	}
+
+	/**
+	 * Räknar antal träffar för alla kombinationer av termer i termMap med en enda pivot-facett
+	 * istället för en sökning per kombination. Resultatet får samma ordning som den kartesiska
+	 * produkten och kombinationer med färre träffar än removeBelow tas bort.
+	 * @param query fråga som avgränsar posterna
+	 * @param termMap index och dess termer
+	 * @return lista med kombinationer och deras antal träffar
+	 * @throws MissingParameterException om inga index finns
+	 * @throws SolrServerException vid sökfel
+	 * @throws IOException vid kommunikationsfel
+	 */
+	protected List<QueryContent> countCombinations(SolrQuery query, Map<String, List<Term>> termMap)
+			throws MissingParameterException, SolrServerException, IOException {
+		if (termMap.isEmpty()) {
+			throw new MissingParameterException("minst ett index behövs för denna operation", "Statistic.countCombinations", null, false);
+		}
+		List<String> indexes = new ArrayList<>(termMap.keySet());
+		query.setRows(0);
+		query.setFacet(true);
+		query.setFacetLimit(-1);
+		query.set(FacetParams.FACET_PIVOT_MINCOUNT, Math.max(removeBelow, 1));
+		for (String index : indexes) {
+			// samma prefix som för termerna så att solr inte behöver räkna på värden vi ändå slänger
+			String prefix = prefixMap.get(index);
+			if (prefix != null && !prefix.isEmpty()) {
+				query.set("f." + index + "." + FacetParams.FACET_PREFIX, prefix);
+			}
+		}
+		String pivot = String.join(",", indexes);
+		query.addFacetPivotField(pivot);
+		QueryResponse qr = serviceProvider.getSearchService().query(query);
+		List<PivotField> pivotFields = null;
+		if (qr.getFacetPivot() != null) {
+			pivotFields = qr.getFacetPivot().get(pivot);
+		}
+		return mergePivotCounts(indexes, termMap, pivotFields, removeBelow, MAX_RESULT_COUNT);
+	}
+
+	/**
+	 * Slår ihop pivot-facettens antal med termlistorna. Endast kombinationer av termer som finns
+	 * i termlistorna tas med och ordningen blir densamma som i {@linkplain #cartesian(Map)}.
+	 * Om removeBelow är 0 eller mindre tas även kombinationer utan träffar med.
+	 * @param indexes index i pivot-ordning, samma ordning som termMap itereras i
+	 * @param termMap index och dess termer
+	 * @param pivotFields pivot-facettens svar, kan vara null
+	 * @param removeBelow minsta antal träffar
+	 * @param maxResults max antal kombinationer i resultatet
+	 * @return lista med kombinationer och deras antal träffar
+	 * @throws MissingParameterException om inga index finns
+	 * @throws BadParameterException om resultatet får fler än maxResults kombinationer
+	 */
+	static List<QueryContent> mergePivotCounts(List<String> indexes, Map<String, List<Term>> termMap,
+			List<PivotField> pivotFields, int removeBelow, int maxResults)
+			throws MissingParameterException, BadParameterException {
+		if (removeBelow <= 0 && getCartesianCount(termMap) > maxResults) {
+			throw tooManyResults();
+		}
+		// position för varje term i sin termlista, används för att återskapa ordningen
+		List<Map<String, Integer>> ranks = new ArrayList<>();
+		for (String index : indexes) {
+			Map<String, Integer> rank = new HashMap<>();
+			for (Term term : termMap.get(index)) {
+				rank.putIfAbsent(term.getValue(), rank.size());
+			}
+			ranks.add(rank);
+		}
+		Map<List<String>, Long> counts = new HashMap<>();
+		List<int[]> positions = new ArrayList<>();
+		List<QueryContent> found = new ArrayList<>();
+		if (pivotFields != null) {
+			collectPivotCounts(indexes, ranks, pivotFields, 0, new String[indexes.size()], new int[indexes.size()],
+					removeBelow, maxResults, counts, positions, found);
+		}
+		if (removeBelow <= 0) {
+			// alla kombinationer ska med, även de utan träffar
+			List<QueryContent> result = cartesian(termMap);
+			for (QueryContent content : result) {
+				List<String> key = new ArrayList<>(indexes.size());
+				for (String index : indexes) {
+					key.add(content.getTermMap().get(index));
+				}
+				content.setHits(counts.getOrDefault(key, 0L));
+			}
+			return result;
+		}
+		Integer[] order = new Integer[found.size()];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Arrays.compare(positions.get(a), positions.get(b)));
+		List<QueryContent> result = new ArrayList<>(found.size());
+		for (Integer i : order) {
+			result.add(found.get(i));
+		}
+		return result;
+	}
+
+	private static void collectPivotCounts(List<String> indexes, List<Map<String, Integer>> ranks,
+			List<PivotField> pivotFields, int depth, String[] values, int[] position, int removeBelow,
+			int maxResults, Map<List<String>, Long> counts, List<int[]> positions, List<QueryContent> found)
+			throws BadParameterException {
+		for (PivotField pf : pivotFields) {
+			String value = pf.getValue() != null ? pf.getValue().toString() : null;
+			Integer rank = ranks.get(depth).get(value);
+			if (rank == null) {
+				// inte med i termlistan (utanför max antal termer eller prefix)
+				continue;
+			}
+			values[depth] = value;
+			position[depth] = rank;
+			if (depth < indexes.size() - 1) {
+				if (pf.getPivot() != null) {
+					collectPivotCounts(indexes, ranks, pf.getPivot(), depth + 1, values, position, removeBelow,
+							maxResults, counts, positions, found);
+				}
+			} else if (pf.getCount() >= removeBelow) {
+				if (found.size() >= maxResults) {
+					throw tooManyResults();
+				}
+				counts.put(Arrays.asList(values.clone()), (long) pf.getCount());
+				QueryContent content = new QueryContent();
+				for (int i = 0; i < values.length; ++i) {
+					content.addTerm(indexes.get(i), values[i]);
+				}
+				content.setHits((long) pf.getCount());
+				found.add(content);
+				positions.add(position.clone());
+			}
+		}
+	}
+
+	private static BadParameterException tooManyResults() {
+		return new BadParameterException("De inskickade indexen ger för många kombinationer för att utföra denna operation, " +
+				"använd removeBelow för att begränsa svaret.", "Statistic.mergePivotCounts", null, false);
+	}
+
 	/**
 	 * bygger en kartesisk produkt av x antal mängder med n antal element
 	 * @param data som skall göra kartesisk produkt av
@@ -159,9 +297,9 @@ public class Statistic extends AbstractAPIMethod {
 	 * @param data
 	 * @return
 	 */
-	static int getCartesianCount(Map<String,List<Term>> data)
+	static long getCartesianCount(Map<String,List<Term>> data)
 	{
-		int count = 1;
+		long count = 1;
 		for(List<Term> termsList : data.values()) {
 			count *= termsList.size();
 		}
@@ -241,6 +379,7 @@ public class Statistic extends AbstractAPIMethod {
 				}
 				// snabbfiltrering, finns det inte ens tillräckligt många träffar
 				// totalt så finns det ju inte sen i sökningen heller
+				prefixMap.put(indexValue, value != null ? value.replace("*", "") : null);
 				List<Term> terms = serviceProvider.getSearchService().terms(indexValue, value, removeBelow, -1);
 				List<Term> extractedTerms = new LinkedList<>(terms);
 				termMap.put(indexValue, extractedTerms);
@@ -1,7 +1,6 @@
 package se.raa.ksamsok.api.method;
 
 import org.apache.solr.client.solrj.SolrQuery;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.z3950.zing.cql.CQLNode;
@@ -10,12 +9,9 @@ import se.raa.ksamsok.api.APIServiceProvider;
 import se.raa.ksamsok.api.exception.BadParameterException;
 import se.raa.ksamsok.api.exception.DiagnosticException;
 import se.raa.ksamsok.api.exception.MissingParameterException;
-import se.raa.ksamsok.api.util.QueryContent;
-import se.raa.ksamsok.api.util.Term;
 import se.raa.ksamsok.api.util.parser.CQL2Solr;
 
 import java.io.OutputStream;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -52,49 +48,15 @@ public class StatisticSearch extends Statistic {
 	}
 
 	@Override
-	protected void performMethodLogic() throws DiagnosticException {
-		Map<String, List<Term>> termMap;
-		try {
-			// TODO: om bara ett index borde man kunna köra facet rakt av
-			SolrQuery query = new SolrQuery();
-			query.setQuery("*");
-
-			// TODO: enda som skiljer från super? skapa metod att overrida?
-			// använd frågan som filter
-			CQLParser parser = new CQLParser();
-			CQLNode node = parser.parse(queryString);
-			String queryString = CQL2Solr.makeQuery(node);
-			query.addFilterQuery(queryString);
-
-			query.setRows(0);
-			// en mängd med mängder med mängder!
-			termMap = buildTermMap();
-			if (getCartesianCount(termMap)  > MAX_CARTESIAN_COUNT) {
-				throw new BadParameterException("Den kartesiska produkten av inskickade index blir för stor för att utföra denna operation.", "Statistic.performMethod", null, false);
-			}
-			//gör en kartesisk produkt på de värden i termMap
-			queryResults = cartesian(termMap);
-
-			for (int i = 0; i < queryResults.size(); i++) {
-				QueryContent content = queryResults.get(i);
-				String qs = content.getQueryString().replace("=", ":");
-				query.setQuery(qs);
-				QueryResponse qr = serviceProvider.getSearchService().query(query);
-
-				if (qr.getResults().getNumFound() >= removeBelow) {
-					content.setHits(qr.getResults().getNumFound());
-					queryResults.set(i, content);
-				} else {
-					queryResults.remove(i);
-					i--;
-				}
-			}
-		} catch(OutOfMemoryError e) {
-			throw new DiagnosticException("De inskickade indexvärdena gav upphov till att för många värden hittades och denna sökning gick ej att utföra", "Statistic.performMethod", null, false);
-		} catch (Exception e) {
-			throw new DiagnosticException("Oväntat fel uppstod", "Statistic.performMethod", null, false);
-		}
+	protected SolrQuery createBaseQuery() throws Exception {
+		SolrQuery query = super.createBaseQuery();
+		// använd frågan som filter
+		CQLParser parser = new CQLParser();
+		CQLNode node = parser.parse(queryString);
+		query.addFilterQuery(CQL2Solr.makeQuery(node));
+		return query;
 	}
+
 	@Override
 	protected void generateDocument() {
 		super.generateDocument();
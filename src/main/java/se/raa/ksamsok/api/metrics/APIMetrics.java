@@ -0,0 +1,365 @@
+package se.raa.ksamsok.api.metrics;
+
+import se.raa.ksamsok.api.method.APIMethod.Format;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Svarstidshistogram för api-anropen per metod, format och fas. Tiderna för ett anrop
+ * samlas per tråd under anropet, på samma sätt som skördejobbens mätvärden, så att
+ * sökmetoderna och söktjänsten kan rapportera sina delar utan att något skickas runt. När
+ * anropet är klart förs tiderna in i histogrammen med {@link #finishRequest}.
+ * <p>
+ * Faserna är:
+ * <ul>
+ * <li>total - hela anropet i servleten</li>
+ * <li>parse - parametrar, cql-översättning och metodens egen logik, exklusive solr</li>
+ * <li>solr - summan av väntetiden på solr i klienten (nätverk, qtime och laddning av lagrade fält)</li>
+ * <li>render - dom-byggande, transform och ev json-konvertering</li>
+ * </ul>
+ * Dessutom registreras solrs egen qtime separat så att skillnaden mot solr-fasen visar hur
+ * mycket som är nätverk och hämtning av lagrade fält.
+ */
+public class APIMetrics {
+
+	/**
+	 * Faser i ett api-anrop.
+	 */
+	public enum Phase {
+		TOTAL, PARSE, SOLR, RENDER;
+
+		final String label = name().toLowerCase();
+	}
+
+	static final String DURATION_METRIC = "ksamsok_api_request_duration_seconds";
+	static final String QUANTILE_METRIC = "ksamsok_api_request_duration_quantile_seconds";
+	static final String QTIME_METRIC = "ksamsok_api_solr_qtime_seconds";
+	static final String ERRORS_METRIC = "ksamsok_api_errors_total";
+	static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+	// okänd metod, tex om metodparametern saknas eller är felaktig
+	static final String UNKNOWN_METHOD = "unknown";
+
+	private static final ThreadLocal<RequestTimings> current = new ThreadLocal<>();
+
+	private final ConcurrentMap<String, MethodHistograms> histograms = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+	/**
+	 * Startar tidtagning av ett api-anrop för denna tråd.
+	 */
+	public static void startRequest() {
+		current.set(new RequestTimings(System.nanoTime()));
+	}
+
+	/**
+	 * Rapporterar tiderna för metodens logik och för att skapa svaret. Anropas av metoderna
+	 * när svaret är skrivet, ignoreras om ingen tidtagning pågår.
+	 *
+	 * @param logicNanos tid för parametrar och logik, inklusive solr-anrop
+	 * @param renderNanos tid för att bygga och skriva svaret
+	 */
+	public static void methodDone(long logicNanos, long renderNanos) {
+		RequestTimings timings = current.get();
+		if (timings != null) {
+			timings.logicNanos = logicNanos;
+			timings.renderNanos = renderNanos;
+			timings.methodDone = true;
+		}
+	}
+
+	/**
+	 * Rapporterar ett anrop till solr, ignoreras om ingen tidtagning pågår.
+	 *
+	 * @param startNanos {@link System#nanoTime()} före anropet
+	 * @param qTimeMillis solrs qtime i millisekunder eller -1 om den är okänd
+	 */
+	public static void solrRequestDone(long startNanos, int qTimeMillis) {
+		RequestTimings timings = current.get();
+		if (timings != null) {
+			timings.solrNanos += System.nanoTime() - startNanos;
+			if (qTimeMillis >= 0) {
+				timings.solrQTimeMillis += qTimeMillis;
+				timings.hasQTime = true;
+			}
+		}
+	}
+
+	/**
+	 * Rapporterar en sökning i solr, ignoreras om ingen tidtagning pågår. Frågan och
+	 * antal träffar sparas för den första sökningen i anropet, vilket för sökmetoderna är
+	 * den översatta cql-frågan.
+	 *
+	 * @param startNanos {@link System#nanoTime()} före anropet
+	 * @param qTimeMillis solrs qtime i millisekunder eller -1 om den är okänd
+	 * @param query frågan (q) som skickades till solr
+	 * @param filterQueries filterfrågor (fq) eller null
+	 * @param hits antal träffar
+	 */
+	public static void solrQueryDone(long startNanos, int qTimeMillis, String query, String[] filterQueries,
+			long hits) {
+		RequestTimings timings = current.get();
+		if (timings != null) {
+			solrRequestDone(startNanos, qTimeMillis);
+			if (timings.solrQuery == null) {
+				StringBuilder sb = new StringBuilder(String.valueOf(query));
+				if (filterQueries != null) {
+					for (String fq: filterQueries) {
+						sb.append(" fq=").append(fq);
+					}
+				}
+				timings.solrQuery = sb.toString();
+				timings.hits = hits;
+			}
+		}
+	}
+
+	/**
+	 * Avslutar tidtagningen för denna tråd och för in tiderna i histogrammen.
+	 *
+	 * @param method metodens namn eller null om den inte kunde bestämmas
+	 * @param format svarsformat
+	 * @param status http-status, värden från 400 och uppåt räknas som fel
+	 * @return anropets tider, eller null om ingen tidtagning pågick
+	 */
+	public RequestTimings finishRequest(String method, Format format, int status) {
+		RequestTimings timings = current.get();
+		current.remove();
+		if (timings == null) {
+			return null;
+		}
+		long totalNanos = System.nanoTime() - timings.startNanos;
+		timings.totalNanos = totalNanos;
+		String methodLabel = method != null ? method : UNKNOWN_METHOD;
+		String formatLabel = format != null ? format.name() : Format.XML.name();
+		String key = methodLabel + "|" + formatLabel;
+		MethodHistograms h = histograms.get(key);
+		if (h == null) {
+			h = histograms.computeIfAbsent(key, k -> new MethodHistograms(methodLabel, formatLabel));
+		}
+		h.phases[Phase.TOTAL.ordinal()].observe(totalNanos);
+		if (timings.methodDone) {
+			h.phases[Phase.PARSE.ordinal()].observe(Math.max(0, timings.logicNanos - timings.solrNanos));
+			h.phases[Phase.SOLR.ordinal()].observe(timings.solrNanos);
+			h.phases[Phase.RENDER.ordinal()].observe(timings.renderNanos);
+			if (timings.hasQTime) {
+				h.qTime.observe(timings.solrQTimeMillis * 1_000_000L);
+			}
+		}
+		if (status >= 400) {
+			errors.computeIfAbsent(key + "|" + status, k -> new LongAdder()).increment();
+		}
+		return timings;
+	}
+
+	/**
+	 * Tar bort ev tidtagning för denna tråd utan att registrera något.
+	 */
+	public static void clearRequest() {
+		current.remove();
+	}
+
+	/**
+	 * Ger en ögonblicksbild av ett histogram, för tester och översikter.
+	 *
+	 * @param method metodnamn
+	 * @param format format
+	 * @param phase fas
+	 * @return ögonblicksbild eller null om inga anrop registrerats för metod och format
+	 */
+	public LatencyHistogram.Snapshot getSnapshot(String method, Format format, Phase phase) {
+		MethodHistograms h = histograms.get(method + "|" + format.name());
+		return h != null ? h.phases[phase.ordinal()].snapshot() : null;
+	}
+
+	/**
+	 * Skriver alla mätvärden i Prometheus textformat (version 0.0.4).
+	 *
+	 * @param w writer att skriva till
+	 * @throws IOException vid skrivfel
+	 */
+	public void writeTextFormat(Writer w) throws IOException {
+		// sorterat för stabil utdata
+		Map<String, MethodHistograms> sorted = new TreeMap<>(histograms);
+		Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+		for (Map.Entry<String, MethodHistograms> entry: sorted.entrySet()) {
+			for (Phase phase: Phase.values()) {
+				snapshots.put(entry.getKey() + "|" + phase.ordinal(), entry.getValue().phases[phase.ordinal()].snapshot());
+			}
+		}
+
+		w.write("# HELP " + DURATION_METRIC + " API request duration per method, format and phase.\n");
+		w.write("# TYPE " + DURATION_METRIC + " histogram\n");
+		for (Map.Entry<String, MethodHistograms> entry: sorted.entrySet()) {
+			MethodHistograms h = entry.getValue();
+			for (Phase phase: Phase.values()) {
+				writeHistogram(w, DURATION_METRIC, h.labels(phase),
+						snapshots.get(entry.getKey() + "|" + phase.ordinal()));
+			}
+		}
+
+		w.write("# HELP " + QUANTILE_METRIC + " Estimated API request duration quantiles since start, from the histogram.\n");
+		w.write("# TYPE " + QUANTILE_METRIC + " gauge\n");
+		for (Map.Entry<String, MethodHistograms> entry: sorted.entrySet()) {
+			MethodHistograms h = entry.getValue();
+			for (Phase phase: Phase.values()) {
+				LatencyHistogram.Snapshot s = snapshots.get(entry.getKey() + "|" + phase.ordinal());
+				for (double q: QUANTILES) {
+					w.write(QUANTILE_METRIC + "{" + h.labels(phase) + ",quantile=\"" + q + "\"} " +
+							seconds(s.quantile(q)) + "\n");
+				}
+			}
+		}
+
+		w.write("# HELP " + QTIME_METRIC + " Solr QTime summed per API request.\n");
+		w.write("# TYPE " + QTIME_METRIC + " histogram\n");
+		for (MethodHistograms h: sorted.values()) {
+			writeHistogram(w, QTIME_METRIC, h.labels(), h.qTime.snapshot());
+		}
+
+		w.write("# HELP " + ERRORS_METRIC + " API requests answered with an error status.\n");
+		w.write("# TYPE " + ERRORS_METRIC + " counter\n");
+		for (Map.Entry<String, LongAdder> entry: new TreeMap<>(errors).entrySet()) {
+			String[] parts = entry.getKey().split("\\|");
+			w.write(ERRORS_METRIC + "{method=\"" + escape(parts[0]) + "\",format=\"" + parts[1] +
+					"\",status=\"" + parts[2] + "\"} " + entry.getValue().sum() + "\n");
+		}
+	}
+
+	private static void writeHistogram(Writer w, String name, String labels, LatencyHistogram.Snapshot s)
+			throws IOException {
+		long[] counts = s.getCounts();
+		long cumulative = 0;
+		for (int i = 0; i < LatencyHistogram.BOUNDS_NANOS.length; i++) {
+			cumulative += counts[i];
+			w.write(name + "_bucket{" + labels + ",le=\"" + seconds(LatencyHistogram.BOUNDS_NANOS[i]) + "\"} " +
+					cumulative + "\n");
+		}
+		w.write(name + "_bucket{" + labels + ",le=\"+Inf\"} " + s.getCount() + "\n");
+		w.write(name + "_sum{" + labels + "} " + seconds(s.getSumNanos()) + "\n");
+		w.write(name + "_count{" + labels + "} " + s.getCount() + "\n");
+	}
+
+	// nanosekunder som sekunder utan exponentform
+	static String seconds(long nanos) {
+		return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+	}
+
+	static String escape(String labelValue) {
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	// histogram för en metod och ett format
+	private static class MethodHistograms {
+		final String method;
+		final String format;
+		final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+		final LatencyHistogram qTime = new LatencyHistogram();
+
+		MethodHistograms(String method, String format) {
+			this.method = method;
+			this.format = format;
+			for (int i = 0; i < phases.length; i++) {
+				phases[i] = new LatencyHistogram();
+			}
+		}
+
+		String labels() {
+			return "method=\"" + escape(method) + "\",format=\"" + format + "\"";
+		}
+
+		String labels(Phase phase) {
+			return labels() + ",phase=\"" + phase.label + "\"";
+		}
+	}
+
+	/**
+	 * Tider för ett api-anrop, samlas i anropets tråd.
+	 */
+	public static class RequestTimings {
+		final long startNanos;
+		long totalNanos;
+		long logicNanos;
+		long renderNanos;
+		long solrNanos;
+		long solrQTimeMillis;
+		boolean hasQTime;
+		boolean methodDone;
+		String solrQuery;
+		long hits = -1;
+
+		RequestTimings(long startNanos) {
+			this.startNanos = startNanos;
+		}
+
+		/**
+		 * Ger tid för hela anropet, satt när anropet avslutats.
+		 *
+		 * @return tid i nanosekunder
+		 */
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		/**
+		 * Ger tid som väntats på solr.
+		 *
+		 * @return tid i nanosekunder
+		 */
+		public long getSolrNanos() {
+			return solrNanos;
+		}
+
+		/**
+		 * Ger summan av solrs qtime för anropet.
+		 *
+		 * @return qtime i millisekunder eller -1 om den är okänd
+		 */
+		public long getSolrQTimeMillis() {
+			return hasQTime ? solrQTimeMillis : -1;
+		}
+
+		/**
+		 * Ger tid för att skapa svaret.
+		 *
+		 * @return tid i nanosekunder
+		 */
+		public long getRenderNanos() {
+			return renderNanos;
+		}
+
+		/**
+		 * Anger om metoden kördes klart, annars är bara totaltiden satt.
+		 *
+		 * @return sant om metoden rapporterat sina tider
+		 */
+		public boolean isMethodDone() {
+			return methodDone;
+		}
+
+		/**
+		 * Ger frågan för anropets första sökning i solr.
+		 *
+		 * @return fråga med ev filterfrågor eller null
+		 */
+		public String getSolrQuery() {
+			return solrQuery;
+		}
+
+		/**
+		 * Ger antal träffar för anropets första sökning i solr.
+		 *
+		 * @return antal träffar eller -1 om ingen sökning gjorts
+		 */
+		public long getHits() {
+			return hits;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package se.raa.ksamsok.api.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram för svarstider med fasta, exponentiellt växande intervall. Uppdateringar är
+ * låsfria och billiga så att histogrammet kan uppdateras för varje anrop. Kvantiler skattas
+ * genom interpolation inom det intervall kvantilen hamnar i, med intervallgränser som växer
+ * med faktorn roten ur två blir felet som mest ca 20%.
+ */
+public class LatencyHistogram {
+
+	/** övre gränser (inklusiva) för intervallen i nanosekunder, sista intervallet är obegränsat */
+	static final long[] BOUNDS_NANOS = createBounds(250_000L, 33);
+
+	private final LongAdder[] counts = new LongAdder[BOUNDS_NANOS.length + 1];
+	private final LongAdder sumNanos = new LongAdder();
+
+	public LatencyHistogram() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	// gränser från first nanosekunder som växer med roten ur två
+	private static long[] createBounds(long first, int num) {
+		long[] bounds = new long[num];
+		for (int i = 0; i < num; i++) {
+			bounds[i] = Math.round(first * Math.pow(Math.sqrt(2), i));
+		}
+		return bounds;
+	}
+
+	/**
+	 * Registrerar ett värde.
+	 *
+	 * @param nanos tid i nanosekunder
+	 */
+	public void observe(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		int index = Arrays.binarySearch(BOUNDS_NANOS, nanos);
+		if (index < 0) {
+			// insättningspunkt, dvs första gräns som är större än värdet
+			index = -index - 1;
+		}
+		counts[index].increment();
+		sumNanos.add(nanos);
+	}
+
+	/**
+	 * Ger en ögonblicksbild av histogrammet. Räknarna läses var för sig så bilden kan vara
+	 * något inkonsistent om histogrammet uppdateras samtidigt, men antal i ögonblicksbilden
+	 * är alltid summan av intervallen.
+	 *
+	 * @return ögonblicksbild
+	 */
+	public Snapshot snapshot() {
+		long[] snapshotCounts = new long[counts.length];
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			snapshotCounts[i] = counts[i].sum();
+			total += snapshotCounts[i];
+		}
+		return new Snapshot(snapshotCounts, total, sumNanos.sum());
+	}
+
+	/**
+	 * Ögonblicksbild av ett histogram.
+	 */
+	public static class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sumNanos;
+
+		Snapshot(long[] counts, long count, long sumNanos) {
+			this.counts = counts;
+			this.count = count;
+			this.sumNanos = sumNanos;
+		}
+
+		/**
+		 * Ger antal registrerade värden.
+		 *
+		 * @return antal
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Ger summan av registrerade värden.
+		 *
+		 * @return summa i nanosekunder
+		 */
+		public long getSumNanos() {
+			return sumNanos;
+		}
+
+		/**
+		 * Ger antal värden i varje intervall, sista intervallet är det obegränsade.
+		 *
+		 * @return antal per intervall (ej kumulativt)
+		 */
+		long[] getCounts() {
+			return counts;
+		}
+
+		/**
+		 * Skattar en kvantil.
+		 *
+		 * @param q kvantil mellan 0 och 1
+		 * @return skattat värde i nanosekunder, 0 om histogrammet är tomt
+		 */
+		public long quantile(double q) {
+			if (count == 0) {
+				return 0;
+			}
+			double rank = q * count;
+			long cumulative = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0) {
+					continue;
+				}
+				if (cumulative + counts[i] >= rank) {
+					if (i == BOUNDS_NANOS.length) {
+						// obegränsat intervall, mer än så kan vi inte säga
+						return BOUNDS_NANOS[BOUNDS_NANOS.length - 1];
+					}
+					long lower = i == 0 ? 0 : BOUNDS_NANOS[i - 1];
+					double fraction = (rank - cumulative) / counts[i];
+					return lower + Math.round((BOUNDS_NANOS[i] - lower) * fraction);
+				}
+				cumulative += counts[i];
+			}
+			return BOUNDS_NANOS[BOUNDS_NANOS.length - 1];
+		}
+	}
+}
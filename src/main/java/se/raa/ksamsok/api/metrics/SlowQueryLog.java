@@ -0,0 +1,340 @@
+package se.raa.ksamsok.api.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Logg för långsamma api-anrop. Anrop som tar minst angiven tröskel loggas med metod,
+ * parametrar, översatt solr-fråga, antal träffar och tider och de senaste sparas i minnet.
+ * Dessutom summeras tiderna för alla anrop per normaliserad frågeform, dvs metod,
+ * parameternamn och cql-frågan med värdena utbytta mot ?, så att de dyraste formerna kan
+ * visas under /admin/slowqueries. Tiderna kommer från {@link APIMetrics} och loggen fylls
+ * bara om den också är konfigurerad.
+ */
+public class SlowQueryLog {
+
+	private static final Logger logger = LogManager.getLogger(SlowQueryLog.class);
+
+	// max antal frågeformer som summeras, övriga läggs på OTHER_SHAPE
+	static final int MAX_SHAPES = 2000;
+	static final String OTHER_SHAPE = "(other)";
+	// antal långsamma anrop som sparas i minnet
+	static final int RECENT_SIZE = 100;
+
+	// strängar inom citattecken
+	private static final Pattern QUOTED = Pattern.compile("\"(?:[^\"\\\\]|\\\\.)*\"");
+	// värde direkt efter en relation, tex text=hjälm eller fromTime>=1900 men inte modifierare (=/WGS84)
+	private static final Pattern RELATION_VALUE = Pattern.compile("(==|<>|<=|>=|=|<|>)\\s*([^\\s()\"/][^\\s()]*)");
+	// värde efter en relation med ord, tex text any hjälm
+	private static final Pattern WORD_RELATION_VALUE = Pattern.compile(
+			"(?i)\\b(any|all|exact|adj|within)\\s+([^\\s()\"/][^\\s()]*)");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private final long thresholdNanos;
+	private final ConcurrentMap<String, ShapeStats> shapes = new ConcurrentHashMap<>();
+	private final Deque<SlowRequest> recent = new ArrayDeque<>(RECENT_SIZE);
+
+	/**
+	 * Skapar en logg med angiven tröskel.
+	 *
+	 * @param thresholdMillis tröskel i millisekunder, anrop som tar minst så lång tid loggas,
+	 *  negativt värde stänger av loggningen men frågeformerna summeras ändå
+	 */
+	public SlowQueryLog(long thresholdMillis) {
+		this.thresholdNanos = thresholdMillis >= 0 ? thresholdMillis * 1_000_000L : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Ger tröskeln för loggning.
+	 *
+	 * @return tröskel i millisekunder eller -1 om loggningen är avstängd
+	 */
+	public long getThresholdMillis() {
+		return thresholdNanos != Long.MAX_VALUE ? thresholdNanos / 1_000_000L : -1;
+	}
+
+	/**
+	 * Registrerar ett avslutat api-anrop.
+	 *
+	 * @param method metodens namn eller null om den inte kunde bestämmas
+	 * @param params anropets parametrar eller null
+	 * @param timings anropets tider från {@link APIMetrics#finishRequest}
+	 * @param status http-status
+	 */
+	public void record(String method, Map<String, String> params, APIMetrics.RequestTimings timings, int status) {
+		if (timings == null) {
+			return;
+		}
+		String methodLabel = method != null ? method : APIMetrics.UNKNOWN_METHOD;
+		String shape = normalize(methodLabel, params);
+		ShapeStats stats = shapes.get(shape);
+		if (stats == null) {
+			if (shapes.size() >= MAX_SHAPES) {
+				shape = OTHER_SHAPE;
+			}
+			final String key = shape;
+			final String keyMethod = OTHER_SHAPE.equals(key) ? null : methodLabel;
+			stats = shapes.computeIfAbsent(key, k -> new ShapeStats(key, keyMethod));
+		}
+		stats.add(timings, params);
+
+		if (timings.getTotalNanos() >= thresholdNanos) {
+			SlowRequest slow = new SlowRequest(new Date(), methodLabel, params, timings, status);
+			if (logger.isWarnEnabled()) {
+				logger.warn("Slow API request " + millis(slow.totalNanos) + " ms (solr " +
+						millis(slow.solrNanos) + " ms, qtime " + slow.solrQTimeMillis + " ms, render " +
+						millis(slow.renderNanos) + " ms, hits " + slow.hits + ", status " + status +
+						"): method=" + methodLabel + " params=" + slow.params + " solrQuery=" + slow.solrQuery);
+			}
+			synchronized (recent) {
+				if (recent.size() >= RECENT_SIZE) {
+					recent.removeLast();
+				}
+				recent.addFirst(slow);
+			}
+		}
+	}
+
+	/**
+	 * Ger de dyraste frågeformerna sorterade fallande på total tid.
+	 *
+	 * @param maxShapes max antal
+	 * @return lista med frågeformer
+	 */
+	public List<ShapeStats> getTopShapes(int maxShapes) {
+		List<ShapeStats> result = new ArrayList<>(shapes.values());
+		result.sort(Comparator.comparingLong(ShapeStats::getTotalNanos).reversed()
+				.thenComparing(ShapeStats::getShape));
+		return result.size() > maxShapes ? new ArrayList<>(result.subList(0, maxShapes)) : result;
+	}
+
+	/**
+	 * Ger de senaste långsamma anropen, senaste först.
+	 *
+	 * @return lista med anrop
+	 */
+	public List<SlowRequest> getRecentSlowRequests() {
+		synchronized (recent) {
+			return new ArrayList<>(recent);
+		}
+	}
+
+	/**
+	 * Nollställer summeringen och de sparade anropen.
+	 */
+	public void clear() {
+		shapes.clear();
+		synchronized (recent) {
+			recent.clear();
+		}
+	}
+
+	/**
+	 * Normaliserar ett anrop till en frågeform med metod, sorterade parameternamn och
+	 * cql-frågan (parametern query) där värden bytts mot ?.
+	 *
+	 * @param method metodnamn
+	 * @param params parametrar eller null
+	 * @return frågeform
+	 */
+	static String normalize(String method, Map<String, String> params) {
+		StringBuilder sb = new StringBuilder(method);
+		if (params != null) {
+			sb.append(" [");
+			boolean first = true;
+			for (String name: new TreeMap<>(params).keySet()) {
+				if ("method".equals(name) || "stylesheet".equals(name)) {
+					continue;
+				}
+				if (!first) {
+					sb.append(',');
+				}
+				sb.append(name);
+				first = false;
+			}
+			sb.append(']');
+			String query = params.get("query");
+			if (query != null) {
+				sb.append(' ').append(normalizeCQL(query));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Byter ut värdena i en cql-fråga mot ? och normaliserar blanktecken. Index, relationer,
+	 * modifierare och booleska operatorer behålls.
+	 *
+	 * @param cql cql-fråga
+	 * @return normaliserad fråga
+	 */
+	static String normalizeCQL(String cql) {
+		String s = QUOTED.matcher(cql).replaceAll("\"?\"");
+		s = RELATION_VALUE.matcher(s).replaceAll("$1?");
+		Matcher m = WORD_RELATION_VALUE.matcher(s);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			m.appendReplacement(sb, m.group(1).toLowerCase() + " ?");
+		}
+		m.appendTail(sb);
+		return WHITESPACE.matcher(sb.toString().trim()).replaceAll(" ");
+	}
+
+	static long millis(long nanos) {
+		return nanos / 1_000_000L;
+	}
+
+	/**
+	 * Summerade tider för en frågeform. Exemplet är det långsammaste anropet för formen.
+	 */
+	public static class ShapeStats {
+		private final String shape;
+		private final String method;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final LongAdder solrNanos = new LongAdder();
+		private final LongAdder renderNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private volatile String exampleParams;
+		private volatile String exampleSolrQuery;
+
+		ShapeStats(String shape, String method) {
+			this.shape = shape;
+			this.method = method;
+		}
+
+		void add(APIMetrics.RequestTimings timings, Map<String, String> params) {
+			long total = timings.getTotalNanos();
+			count.increment();
+			totalNanos.add(total);
+			solrNanos.add(timings.getSolrNanos());
+			renderNanos.add(timings.getRenderNanos());
+			if (total > maxNanos.get() && maxNanos.getAndAccumulate(total, Math::max) < total) {
+				// ett samtidigt anrop kan skriva över exemplet, det gör inget
+				exampleParams = String.valueOf(params);
+				exampleSolrQuery = timings.getSolrQuery();
+			}
+		}
+
+		public String getShape() {
+			return shape;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		public long getSolrNanos() {
+			return solrNanos.sum();
+		}
+
+		public long getRenderNanos() {
+			return renderNanos.sum();
+		}
+
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		public String getExampleParams() {
+			return exampleParams;
+		}
+
+		public String getExampleSolrQuery() {
+			return exampleSolrQuery;
+		}
+	}
+
+	/**
+	 * Ett långsamt anrop.
+	 */
+	public static class SlowRequest {
+		private final Date date;
+		private final String method;
+		private final String params;
+		private final String solrQuery;
+		private final long hits;
+		private final long totalNanos;
+		private final long solrNanos;
+		private final long solrQTimeMillis;
+		private final long renderNanos;
+		private final int status;
+
+		SlowRequest(Date date, String method, Map<String, String> params, APIMetrics.RequestTimings timings,
+				int status) {
+			this.date = date;
+			this.method = method;
+			this.params = String.valueOf(params);
+			this.solrQuery = timings.getSolrQuery();
+			this.hits = timings.getHits();
+			this.totalNanos = timings.getTotalNanos();
+			this.solrNanos = timings.getSolrNanos();
+			this.solrQTimeMillis = timings.getSolrQTimeMillis();
+			this.renderNanos = timings.getRenderNanos();
+			this.status = status;
+		}
+
+		public Date getDate() {
+			return date;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public String getParams() {
+			return params;
+		}
+
+		public String getSolrQuery() {
+			return solrQuery;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getSolrNanos() {
+			return solrNanos;
+		}
+
+		public long getSolrQTimeMillis() {
+			return solrQTimeMillis;
+		}
+
+		public long getRenderNanos() {
+			return renderNanos;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package se.raa.ksamsok.api.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Levererar de dyraste frågeformerna och de senaste långsamma api-anropen från
+ * {@link SlowQueryLog} som json. Parametern maxShapes anger max antal frågeformer (default
+ * {@value #DEFAULT_MAX_SHAPES}) och clear=true nollställer efter att svaret skapats.
+ */
+public class SlowQueryServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	static final int DEFAULT_MAX_SHAPES = 20;
+	static final int MAX_MAX_SHAPES = 1000;
+
+	@Autowired
+	private SlowQueryLog slowQueryLog;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		ServletContext servletContext = config.getServletContext();
+		ApplicationContext ctx = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		ctx.getAutowireCapableBeanFactory().autowireBeanProperties(this, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		int maxShapes = DEFAULT_MAX_SHAPES;
+		String maxShapesStr = req.getParameter("maxShapes");
+		if (maxShapesStr != null) {
+			try {
+				maxShapes = Integer.parseInt(maxShapesStr);
+			} catch (NumberFormatException e) {
+				maxShapes = -1;
+			}
+			if (maxShapes <= 0 || maxShapes > MAX_MAX_SHAPES) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "maxShapes must be between 1 and " + MAX_MAX_SHAPES);
+				return;
+			}
+		}
+		JSONObject result = toJSON(slowQueryLog, maxShapes);
+		if ("true".equals(req.getParameter("clear"))) {
+			slowQueryLog.clear();
+		}
+		resp.setCharacterEncoding("UTF-8");
+		resp.setContentType("application/json; charset=UTF-8");
+		resp.getWriter().write(result.toString());
+	}
+
+	/**
+	 * Gör om loggens innehåll till json.
+	 *
+	 * @param slowQueryLog logg
+	 * @param maxShapes max antal frågeformer
+	 * @return json-objekt med tröskeln och listorna shapes och recent
+	 */
+	static JSONObject toJSON(SlowQueryLog slowQueryLog, int maxShapes) {
+		JSONArray shapeArray = new JSONArray();
+		for (SlowQueryLog.ShapeStats stats: slowQueryLog.getTopShapes(maxShapes)) {
+			long count = stats.getCount();
+			JSONObject shapeObject = new JSONObject();
+			shapeObject.put("shape", stats.getShape());
+			shapeObject.put("method", stats.getMethod() != null ? stats.getMethod() : JSONObject.NULL);
+			shapeObject.put("count", count);
+			shapeObject.put("totalMillis", SlowQueryLog.millis(stats.getTotalNanos()));
+			shapeObject.put("avgMillis", count > 0 ? SlowQueryLog.millis(stats.getTotalNanos() / count) : 0);
+			shapeObject.put("maxMillis", SlowQueryLog.millis(stats.getMaxNanos()));
+			shapeObject.put("solrMillis", SlowQueryLog.millis(stats.getSolrNanos()));
+			shapeObject.put("renderMillis", SlowQueryLog.millis(stats.getRenderNanos()));
+			shapeObject.put("exampleParams", stats.getExampleParams() != null ? stats.getExampleParams() : JSONObject.NULL);
+			shapeObject.put("exampleSolrQuery", stats.getExampleSolrQuery() != null ?
+					stats.getExampleSolrQuery() : JSONObject.NULL);
+			shapeArray.put(shapeObject);
+		}
+		JSONArray recentArray = new JSONArray();
+		List<SlowQueryLog.SlowRequest> recent = slowQueryLog.getRecentSlowRequests();
+		for (SlowQueryLog.SlowRequest slow: recent) {
+			JSONObject slowObject = new JSONObject();
+			slowObject.put("date", slow.getDate().toInstant().toString());
+			slowObject.put("method", slow.getMethod());
+			slowObject.put("params", slow.getParams());
+			slowObject.put("solrQuery", slow.getSolrQuery() != null ? slow.getSolrQuery() : JSONObject.NULL);
+			slowObject.put("hits", slow.getHits());
+			slowObject.put("totalMillis", SlowQueryLog.millis(slow.getTotalNanos()));
+			slowObject.put("solrMillis", SlowQueryLog.millis(slow.getSolrNanos()));
+			slowObject.put("qTimeMillis", slow.getSolrQTimeMillis());
+			slowObject.put("renderMillis", SlowQueryLog.millis(slow.getRenderNanos()));
+			slowObject.put("status", slow.getStatus());
+			recentArray.put(slowObject);
+		}
+		return new JSONObject()
+				.put("thresholdMillis", slowQueryLog.getThresholdMillis())
+				.put("shapes", shapeArray)
+				.put("recent", recentArray);
+	}
+}
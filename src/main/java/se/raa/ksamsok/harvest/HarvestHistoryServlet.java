@@ -0,0 +1,169 @@
+package se.raa.ksamsok.harvest;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+import se.raa.ksamsok.harvest.HarvestMetrics.PhaseMetrics;
+import se.raa.ksamsok.harvest.HarvestMetrics.RunType;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Levererar skördehistorik och trender per tjänst som json, tjänsterna vars skördar blivit
+ * mest långsammare först. Varje körning redovisas med typ, utfall, total tid, antal poster,
+ * bytes, nya, ändrade och borttagna poster samt tid per fas och flaggas om den var betydligt
+ * långsammare än tjänstens median, se {@link HarvestTrend}. Parametern serviceId begränsar
+ * till en tjänst, days anger antal dagar bakåt (default {@value #DEFAULT_DAYS}) och
+ * slowFactor hur många gånger medianen en körning ska ta för att flaggas (default
+ * {@value #DEFAULT_SLOW_FACTOR}).
+ */
+public class HarvestHistoryServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LogManager.getLogger(HarvestHistoryServlet.class);
+
+	static final int DEFAULT_DAYS = 90;
+	static final double DEFAULT_SLOW_FACTOR = 2.0;
+
+	@Autowired
+	private HarvestMetricsManager harvestMetricsManager;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		ServletContext servletContext = config.getServletContext();
+		ApplicationContext ctx = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		ctx.getAutowireCapableBeanFactory().autowireBeanProperties(this, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		req.setCharacterEncoding("UTF-8");
+		String serviceId = req.getParameter("serviceId");
+		if (serviceId != null && serviceId.trim().length() == 0) {
+			serviceId = null;
+		}
+		int days = DEFAULT_DAYS;
+		String daysStr = req.getParameter("days");
+		if (daysStr != null) {
+			try {
+				days = Integer.parseInt(daysStr);
+			} catch (NumberFormatException e) {
+				days = -1;
+			}
+			if (days <= 0 || days > HarvestMetricsManager.METRICS_THRESHHOLD_DAYS) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "days must be between 1 and " +
+						HarvestMetricsManager.METRICS_THRESHHOLD_DAYS);
+				return;
+			}
+		}
+		double slowFactor = DEFAULT_SLOW_FACTOR;
+		String slowFactorStr = req.getParameter("slowFactor");
+		if (slowFactorStr != null) {
+			try {
+				slowFactor = Double.parseDouble(slowFactorStr);
+			} catch (NumberFormatException e) {
+				slowFactor = -1;
+			}
+			if (!(slowFactor > 1)) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "slowFactor must be a number greater than 1");
+				return;
+			}
+		}
+		List<HarvestTrend> trends;
+		try {
+			Timestamp since = new Timestamp(DateUtils.addDays(new Date(), -days).getTime());
+			trends = HarvestTrend.analyze(harvestMetricsManager.getRunHistory(serviceId, since), slowFactor);
+		} catch (Exception e) {
+			logger.error("Problem fetching harvest history", e);
+			resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			return;
+		}
+		resp.setCharacterEncoding("UTF-8");
+		resp.setContentType("application/json; charset=UTF-8");
+		resp.getWriter().write(toJSON(trends).toString());
+	}
+
+	/**
+	 * Gör om trender och körningar per tjänst till json.
+	 *
+	 * @param trends trender per tjänst
+	 * @return json-objekt med tjänsterna under nyckeln services
+	 */
+	static JSONObject toJSON(List<HarvestTrend> trends) {
+		JSONArray serviceArray = new JSONArray();
+		for (HarvestTrend trend: trends) {
+			JSONObject serviceObject = new JSONObject();
+			serviceObject.put("serviceId", trend.getServiceId());
+			serviceObject.put("runs", trend.getRuns().size());
+			serviceObject.put("failedRuns", trend.getFailedRuns());
+			serviceObject.put("slowRuns", trend.getSlowRuns());
+			JSONObject medianObject = new JSONObject();
+			JSONObject recentObject = new JSONObject();
+			JSONObject trendObject = new JSONObject();
+			for (RunType runType: RunType.values()) {
+				if (trend.getMedianDurationMillis(runType) >= 0) {
+					medianObject.put(runType.name(), trend.getMedianDurationMillis(runType));
+					recentObject.put(runType.name(), trend.getRecentMedianDurationMillis(runType));
+					trendObject.put(runType.name(), round(trend.getDurationTrend(runType), 100));
+				}
+			}
+			serviceObject.put("medianDurationMillis", medianObject);
+			serviceObject.put("recentMedianDurationMillis", recentObject);
+			serviceObject.put("durationTrend", trendObject);
+			serviceObject.put("medianFetchRecordsPerSec", round(trend.getMedianFetchRecordsPerSec(), 10));
+			serviceObject.put("recentMedianFetchRecordsPerSec", round(trend.getRecentMedianFetchRecordsPerSec(), 10));
+			serviceObject.put("fetchTrend", round(trend.getFetchTrend(), 100));
+			JSONArray runArray = new JSONArray();
+			for (HarvestMetrics run: trend.getRuns()) {
+				JSONObject runObject = new JSONObject();
+				runObject.put("runStart", run.getRunStart().toInstant().toString());
+				runObject.put("runType", run.getRunType().name());
+				runObject.put("failed", run.isFailed());
+				if (run.getErrorMessage() != null) {
+					runObject.put("message", run.getErrorMessage());
+				}
+				runObject.put("durationMillis", run.getDurationMillis());
+				runObject.put("records", run.getRecords());
+				runObject.put("bytes", run.getBytes());
+				runObject.put("inserted", run.getInserted());
+				runObject.put("updated", run.getUpdated());
+				runObject.put("deleted", run.getDeleted());
+				runObject.put("indexed", run.getIndexed());
+				runObject.put("fetchRecordsPerSec", round(HarvestTrend.getFetchRecordsPerSec(run), 10));
+				runObject.put("medianRatio", round(trend.getDurationRatio(run), 100));
+				runObject.put("slow", trend.isSlow(run));
+				runObject.put("slowFetch", trend.isSlowFetch(run));
+				JSONObject phaseObject = new JSONObject();
+				for (PhaseMetrics phase: run.getPhases().values()) {
+					phaseObject.put(phase.getPhase().name(), phase.getDurationMillis());
+				}
+				runObject.put("phaseMillis", phaseObject);
+				runArray.put(runObject);
+			}
+			serviceObject.put("history", runArray);
+			serviceArray.put(serviceObject);
+		}
+		return new JSONObject().put("services", serviceArray);
+	}
+
+	private static double round(double value, int scale) {
+		return Math.round(value * scale) / (double) scale;
+	}
+}
@@ -9,8 +9,11 @@ import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 import org.quartz.PersistJobDataAfterExecution;
 import org.quartz.SchedulerException;
+import se.raa.ksamsok.harvest.HarvestMetrics.Phase;
+import se.raa.ksamsok.harvest.HarvestMetrics.RunType;
 import se.raa.ksamsok.harvest.StatusService.Step;
 import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.sitemap.SitemapGenerator;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -72,6 +75,28 @@ public abstract class HarvestJob implements InterruptableJob {
 		return (StatusService) ctx.getScheduler().getContext().get(HarvestServiceManager.SS_KEY);
 	}
 
+	/**
+	 * Hämtar SitemapGenerator från cron-context.
+	 * 
+	 * @param ctx context
+	 * @return SitemapGenerator eller null om sitemaps inte genereras i förväg
+	 * @throws SchedulerException
+	 */
+	protected SitemapGenerator getSitemapGenerator(JobExecutionContext ctx) throws SchedulerException {
+		return (SitemapGenerator) ctx.getScheduler().getContext().get(HarvestServiceManager.SITEMAP_KEY);
+	}
+
+	/**
+	 * Hämtar HarvestMetricsManager från cron-context.
+	 * 
+	 * @param ctx context
+	 * @return HarvestMetricsManager eller null om mätvärden inte lagras
+	 * @throws SchedulerException
+	 */
+	protected HarvestMetricsManager getHarvestMetricsManager(JobExecutionContext ctx) throws SchedulerException {
+		return (HarvestMetricsManager) ctx.getScheduler().getContext().get(HarvestServiceManager.METRICS_KEY);
+	}
+
 	/**
 	 * Gör (OAI-PMH) identify.
 	 * 
@@ -152,12 +177,16 @@ public abstract class HarvestJob implements InterruptableJob {
 		File spoolFile;
 		HarvestService service = null;
 		StatusService ss = null;
+		HarvestMetricsManager hmm = null;
+		HarvestRepositoryManager hrm = null;
+		boolean contentWrite = false;
 		long start = System.currentTimeMillis();
 		try {
 			JobDetail jd = ctx.getJobDetail();
 			HarvestServiceManager hsm = getHarvestServiceManager(ctx);
-			HarvestRepositoryManager hrm = getHarvestRepositoryManager(ctx);
+			hrm = getHarvestRepositoryManager(ctx);
 			ss = getStatusService(ctx);
+			hmm = getHarvestMetricsManager(ctx);
 			String serviceId = jd.getKey().getName();
 			if (logger.isInfoEnabled()) {
 				logger.info("Running job for " + serviceId);
@@ -166,12 +195,16 @@ public abstract class HarvestJob implements InterruptableJob {
 			if (service == null) {
 				throw new JobExecutionException("Could not find service with ID: " + serviceId);
 			}
+			HarvestMetrics.initRun(serviceId, nowTs);
 			// specialfall för indexering från repo
 			if (ss.getStartStep(service) == Step.INDEX) {
+				HarvestMetrics.markRunType(RunType.REINDEX);
 				ss.initStatus(service, "Init");
 				ss.setStatusTextAndLog(service, "Updating index from repository");
 				ss.setStep(service, Step.INDEX);
+				HarvestMetrics.startPhase(Phase.INDEX);
 				hrm.updateIndex(service, null);
+				HarvestMetrics.stopPhase();
 				hsm.storeFirstIndexDateIfNotSet(service);
 				long durationMillis = System.currentTimeMillis() - start;
 				ss.setStatusTextAndLog(service, "Ok, job time: " + ContentHelper.formatRunTime(durationMillis));
@@ -189,6 +222,12 @@ public abstract class HarvestJob implements InterruptableJob {
 				ss.setStep(service, Step.IDLE);
 				return;
 			}
+			// markera att tjänstens poster kan ändras och ta skördens tidsstämpel efter markeringen
+			// så att oai-pmh-leverantören inte lämnar ut ändringar förrän skörden är klar
+			hrm.beginContentWrite(service);
+			contentWrite = true;
+			now = new Date();
+			nowTs = new Timestamp(now.getTime());
 			ss.initStatus(service, "Init");
 			ss.setStep(service, Step.FETCH);
 
@@ -200,9 +239,12 @@ public abstract class HarvestJob implements InterruptableJob {
 			if (!spoolFile.exists()) {
 				// ingen tidigare hämtning att använda, gör identify
 				ss.setStatusTextAndLog(service, "Performing Identify");
+				HarvestMetrics.startPhase(Phase.IDENTIFY);
 				sm = performIdentify(service);
 				ss.setStatusTextAndLog(service, "Fetching metadata format");
+				HarvestMetrics.startPhase(Phase.FORMATS);
 				List<ServiceFormat> formats = performGetFormats(service);
+				HarvestMetrics.stopPhase();
 				String f = getMetadataFormat();
 				ServiceFormat format = null;
 				for (ServiceFormat sf: formats) {
@@ -223,7 +265,9 @@ public abstract class HarvestJob implements InterruptableJob {
 				if (setSpec != null) {
 					boolean setSpecSupported = false;
 					ss.setStatusTextAndLog(service, "Checking specified set: " + setSpec);
+					HarvestMetrics.startPhase(Phase.SETS);
 					List<String> setSpecs = performGetSets(service);
+					HarvestMetrics.stopPhase();
 					for (String fetchedSetSpec: setSpecs) {
 						if (setSpec.equals(fetchedSetSpec)) {
 							setSpecSupported = true;
@@ -242,7 +286,11 @@ public abstract class HarvestJob implements InterruptableJob {
 				temp = File.createTempFile(jd.getKey().getName().substring(0, Math.min(4, serviceId.length())), null);
 				// hämta data till tempfilen
 				ss.setStatusTextAndLog(service, "Fetching data to temp file");
+				HarvestMetrics.startPhase(Phase.FETCH);
 				numRecords = performGetRecords(service, sm, format, temp, ss);
+				HarvestMetrics.addRecords(Math.max(numRecords, 0));
+				HarvestMetrics.addBytes(temp.length());
+				HarvestMetrics.stopPhase();
 				if (numRecords != 0) {
 					if (logger.isDebugEnabled()) {
 						logger.debug(serviceId + ", Fetched " + numRecords + " records");
@@ -265,6 +313,11 @@ public abstract class HarvestJob implements InterruptableJob {
 				//     rensas och bara spoolfilens "delta-poster" lagras och indexeras!
 				sm = new ServiceMetadata(ServiceMetadata.D_TRANSIENT, ServiceMetadata.G_DAY);
 			}
+			// en full skörd tar betydligt längre tid än en skörd av ändringar och mäts för sig
+			boolean fullHarvest = !sm.handlesPersistentDeletes() || service.getLastHarvestDate() == null;
+			if (fullHarvest) {
+				HarvestMetrics.markRunType(RunType.FULL_HARVEST);
+			}
 			// om vi har records och en spool-fil ska vi bearbeta den
 			if (numRecords != 0 && spoolFile.exists()) {
 				// kolla om vi ska avbryta
@@ -279,16 +332,20 @@ public abstract class HarvestJob implements InterruptableJob {
 						fsizeMb + "MB)");
 				}
 				ss.setStep(service, Step.STORE);
+				HarvestMetrics.startPhase(Phase.STORE);
+				HarvestMetrics.addBytes(spoolFile.length());
 				boolean changed = hrm.storeHarvest(service, sm, spoolFile, nowTs);
+				HarvestMetrics.stopPhase();
 				if (logger.isDebugEnabled()) {
 					logger.debug(serviceId + ", stored records");
 				}
 
 				// arkivera fulla skördar
 				// TODO: arkiveringskatalog? tråd? delta-skördar?
-				if (!sm.handlesPersistentDeletes() || service.getLastHarvestDate() == null) {
+				if (fullHarvest) {
 					// "full skörd", arkivera
 					ss.setStatusTextAndLog(service, "Archiving full harvest");
+					HarvestMetrics.startPhase(Phase.ARCHIVE);
 					OutputStream os = null;
 					InputStream is = null;
 					File of = new File(spoolFile.getAbsolutePath() + ".gz");
@@ -306,6 +363,8 @@ public abstract class HarvestJob implements InterruptableJob {
 						closeStream(is);
 						closeStream(os);
 					}
+					HarvestMetrics.addBytes(of.length());
+					HarvestMetrics.stopPhase();
 					ss.setStatusTextAndLog(service, "Archived full harvest to gzip (" + (of.length() / (1024*1024)) + " MB)");
 				}
 				// ta bort spool-filen då vi är klara med innehållet
@@ -343,8 +402,15 @@ public abstract class HarvestJob implements InterruptableJob {
 							(lastSuccessfulHarvestTs != null ?
 									" > " + lastSuccessfulHarvestTs : ""));
 					ss.setStep(service, Step.INDEX);
+					HarvestMetrics.startPhase(Phase.INDEX);
 					hrm.updateIndex(service, lastSuccessfulHarvestTs);
+					HarvestMetrics.stopPhase();
 					hsm.storeFirstIndexDateIfNotSet(service);
+					// uppdatera berörda sitemaps i bakgrunden
+					SitemapGenerator sitemapGenerator = getSitemapGenerator(ctx);
+					if (sitemapGenerator != null) {
+						sitemapGenerator.serviceChanged(serviceId, nowTs);
+					}
 				} else {
 					if (logger.isInfoEnabled()) {
 						logger.info(serviceId + ", no index update needed");
@@ -383,6 +449,7 @@ public abstract class HarvestJob implements InterruptableJob {
 			if (errMsg == null || errMsg.length() == 0) {
 				errMsg = e.toString();
 			}
+			HarvestMetrics.markFailed(errMsg);
 			if (ss != null) {
 				reportError(service, "Error in job step: " + ss.getStep(service), e);
 				ss.setErrorTextAndLog(service, errMsg);
@@ -392,6 +459,18 @@ public abstract class HarvestJob implements InterruptableJob {
 				reportError(service, "Error in job execution", e);
 			}
 		} finally {
+			if (contentWrite) {
+				hrm.endContentWrite(service);
+			}
+			// lagra mätvärden även för misslyckade körningar, pågående fas avslutas vid hämtningen
+			HarvestMetrics metrics = HarvestMetrics.getAndClearRun();
+			if (metrics != null && hmm != null) {
+				metrics.setDurationMillis(System.currentTimeMillis() - start);
+				hmm.store(metrics);
+			}
+			if (ss != null) {
+				ss.flushLog();
+			}
 			if (temp != null && temp.exists()) {
 				if (!temp.delete()) {
 					logger.warn("Could not remove temp file: " + temp.getAbsolutePath());
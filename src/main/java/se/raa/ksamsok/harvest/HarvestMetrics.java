@@ -0,0 +1,457 @@
+package se.raa.ksamsok.harvest;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Mätvärden för en skördekörning uppdelade per fas. Aktuell körning hålls per tråd på samma
+ * sätt som problemmeddelandena i ContentHelper så att räknarna kan uppdateras längre ner i
+ * anropskedjan (handler, indexering, omförsök) utan att mätobjektet skickas runt. Anrop till
+ * räknarna när ingen körning pågår i tråden ignoreras. Utöver faserna håller objektet uppgifter
+ * för hela körningen som typ, total tid, utfall och antal nya, ändrade och borttagna poster.
+ */
+public class HarvestMetrics {
+
+	/**
+	 * Faser i ett skördejobb.
+	 */
+	public enum Phase {
+		/** OAI-PMH identify */
+		IDENTIFY,
+		/** hämtning av metadataformat */
+		FORMATS,
+		/** hämtning och kontroll av set */
+		SETS,
+		/** hämtning av poster till spoolfil */
+		FETCH,
+		/** lagring av spoolfilen i repositoryt */
+		STORE,
+		/** arkivering av full skörd */
+		ARCHIVE,
+		/** uppdatering av solr-index */
+		INDEX
+	}
+
+	/**
+	 * Typ av körning.
+	 */
+	public enum RunType {
+		/** skörd av ändringar sedan senaste skörd med lagring och eventuell indexering */
+		HARVEST,
+		/** skörd av alla tjänstens poster med lagring och eventuell indexering */
+		FULL_HARVEST,
+		/** omindexering av tjänsten från repositoryt */
+		REINDEX
+	}
+
+	private static final ThreadLocal<HarvestMetrics> current = new ThreadLocal<>();
+
+	private final String serviceId;
+	private final Timestamp runStart;
+	private final Map<Phase, PhaseMetrics> phases = new EnumMap<>(Phase.class);
+	private PhaseMetrics activePhase;
+	private long activePhaseStart;
+	private RunType runType = RunType.HARVEST;
+	// körningens totala tid, -1 om den inte är satt
+	private long durationMillis = -1;
+	private boolean failed;
+	private String errorMessage;
+	private long inserted;
+	private long updated;
+	private long deleted;
+
+	/**
+	 * Skapar ett mätobjekt för en körning.
+	 *
+	 * @param serviceId tjänst-id
+	 * @param runStart körningens starttid
+	 */
+	public HarvestMetrics(String serviceId, Timestamp runStart) {
+		this.serviceId = serviceId;
+		this.runStart = runStart;
+	}
+
+	/**
+	 * Startar mätning av en ny körning för denna tråd.
+	 *
+	 * @param serviceId tjänst-id
+	 * @param runStart körningens starttid
+	 * @return mätobjekt för körningen
+	 */
+	public static HarvestMetrics initRun(String serviceId, Timestamp runStart) {
+		HarvestMetrics metrics = new HarvestMetrics(serviceId, runStart);
+		current.set(metrics);
+		return metrics;
+	}
+
+	/**
+	 * Hämtar och rensar mätobjektet för denna tråd. Pågående fas avslutas.
+	 *
+	 * @return mätobjekt eller null
+	 */
+	public static HarvestMetrics getAndClearRun() {
+		HarvestMetrics metrics = current.get();
+		current.remove();
+		if (metrics != null) {
+			metrics.endPhase();
+		}
+		return metrics;
+	}
+
+	/**
+	 * Startar en fas för körningen i denna tråd, pågående fas avslutas först.
+	 *
+	 * @param phase fas
+	 */
+	public static void startPhase(Phase phase) {
+		HarvestMetrics metrics = current.get();
+		if (metrics != null) {
+			metrics.beginPhase(phase);
+		}
+	}
+
+	/**
+	 * Avslutar pågående fas för körningen i denna tråd.
+	 */
+	public static void stopPhase() {
+		HarvestMetrics metrics = current.get();
+		if (metrics != null) {
+			metrics.endPhase();
+		}
+	}
+
+	/**
+	 * Räknar upp antal behandlade poster i pågående fas.
+	 *
+	 * @param num antal poster
+	 */
+	public static void addRecords(long num) {
+		PhaseMetrics phase = currentPhase();
+		if (phase != null) {
+			phase.records += num;
+		}
+	}
+
+	/**
+	 * Räknar upp antal behandlade bytes i pågående fas.
+	 *
+	 * @param num antal bytes
+	 */
+	public static void addBytes(long num) {
+		PhaseMetrics phase = currentPhase();
+		if (phase != null) {
+			phase.bytes += num;
+		}
+	}
+
+	/**
+	 * Räknar upp antal omförsök i pågående fas.
+	 */
+	public static void countRetry() {
+		PhaseMetrics phase = currentPhase();
+		if (phase != null) {
+			++phase.retries;
+		}
+	}
+
+	/**
+	 * Räknar upp antal databasanrop i pågående fas.
+	 *
+	 * @param num antal anrop
+	 */
+	public static void countDBStatements(int num) {
+		PhaseMetrics phase = currentPhase();
+		if (phase != null) {
+			phase.dbStatements += num;
+		}
+	}
+
+	/**
+	 * Räknar upp antal anrop till solr i pågående fas.
+	 *
+	 * @param num antal anrop
+	 */
+	public static void countSolrRequests(int num) {
+		PhaseMetrics phase = currentPhase();
+		if (phase != null) {
+			phase.solrRequests += num;
+		}
+	}
+
+	/**
+	 * Sätter typ för körningen i denna tråd.
+	 *
+	 * @param runType typ av körning
+	 */
+	public static void markRunType(RunType runType) {
+		HarvestMetrics metrics = current.get();
+		if (metrics != null) {
+			metrics.setRunType(runType);
+		}
+	}
+
+	/**
+	 * Räknar upp antal nya, ändrade och borttagna poster för körningen i denna tråd.
+	 *
+	 * @param numInserted antal nya poster
+	 * @param numUpdated antal ändrade poster
+	 * @param numDeleted antal borttagna poster
+	 */
+	public static void countChanges(long numInserted, long numUpdated, long numDeleted) {
+		HarvestMetrics metrics = current.get();
+		if (metrics != null) {
+			metrics.inserted += numInserted;
+			metrics.updated += numUpdated;
+			metrics.deleted += numDeleted;
+		}
+	}
+
+	/**
+	 * Markerar körningen i denna tråd som misslyckad.
+	 *
+	 * @param message felmeddelande
+	 */
+	public static void markFailed(String message) {
+		HarvestMetrics metrics = current.get();
+		if (metrics != null) {
+			metrics.setFailed(message);
+		}
+	}
+
+	private static PhaseMetrics currentPhase() {
+		HarvestMetrics metrics = current.get();
+		return metrics != null ? metrics.activePhase : null;
+	}
+
+	/**
+	 * Startar en fas, pågående fas avslutas först. Om fasen har körts tidigare i körningen
+	 * läggs tid och räknare till de tidigare värdena.
+	 *
+	 * @param phase fas
+	 */
+	public void beginPhase(Phase phase) {
+		endPhase();
+		activePhase = getOrCreatePhase(phase);
+		activePhaseStart = System.currentTimeMillis();
+	}
+
+	/**
+	 * Avslutar pågående fas, om någon.
+	 */
+	public void endPhase() {
+		if (activePhase != null) {
+			activePhase.durationMillis += System.currentTimeMillis() - activePhaseStart;
+			activePhase = null;
+		}
+	}
+
+	/**
+	 * Hämtar mätvärden för en fas, skapar dem om de saknas.
+	 *
+	 * @param phase fas
+	 * @return mätvärden för fasen
+	 */
+	PhaseMetrics getOrCreatePhase(Phase phase) {
+		return phases.computeIfAbsent(phase, PhaseMetrics::new);
+	}
+
+	/**
+	 * Ger tjänst-id.
+	 *
+	 * @return tjänst-id
+	 */
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	/**
+	 * Ger körningens starttid.
+	 *
+	 * @return starttid
+	 */
+	public Timestamp getRunStart() {
+		return runStart;
+	}
+
+	/**
+	 * Ger mätvärden för de faser som körts, i fasordning.
+	 *
+	 * @return mätvärden per fas
+	 */
+	public Map<Phase, PhaseMetrics> getPhases() {
+		return Collections.unmodifiableMap(phases);
+	}
+
+	/**
+	 * Ger summan av tiden för alla faser.
+	 *
+	 * @return tid i millisekunder
+	 */
+	public long getTotalDurationMillis() {
+		long total = 0;
+		for (PhaseMetrics phase: phases.values()) {
+			total += phase.durationMillis;
+		}
+		return total;
+	}
+
+	/**
+	 * Ger körningens typ.
+	 *
+	 * @return typ av körning
+	 */
+	public RunType getRunType() {
+		return runType;
+	}
+
+	void setRunType(RunType runType) {
+		this.runType = runType;
+	}
+
+	/**
+	 * Ger körningens totala tid, inklusive tid mellan faserna. Om den inte är satt ges
+	 * summan av faserna.
+	 *
+	 * @return tid i millisekunder
+	 */
+	public long getDurationMillis() {
+		return durationMillis >= 0 ? durationMillis : getTotalDurationMillis();
+	}
+
+	/**
+	 * Sätter körningens totala tid.
+	 *
+	 * @param durationMillis tid i millisekunder
+	 */
+	public void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * Ger om körningen misslyckades eller avbröts.
+	 *
+	 * @return sant om körningen misslyckades
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Ger felmeddelandet för en misslyckad körning.
+	 *
+	 * @return felmeddelande eller null
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	void setFailed(String errorMessage) {
+		this.failed = true;
+		this.errorMessage = errorMessage;
+	}
+
+	public long getInserted() {
+		return inserted;
+	}
+
+	public long getUpdated() {
+		return updated;
+	}
+
+	public long getDeleted() {
+		return deleted;
+	}
+
+	void setChanges(long inserted, long updated, long deleted) {
+		this.inserted = inserted;
+		this.updated = updated;
+		this.deleted = deleted;
+	}
+
+	/**
+	 * Ger antal hämtade poster, eller antal lagrade om en befintlig spoolfil användes.
+	 *
+	 * @return antal poster
+	 */
+	public long getRecords() {
+		PhaseMetrics phase = phases.containsKey(Phase.FETCH) ? phases.get(Phase.FETCH) : phases.get(Phase.STORE);
+		return phase != null ? phase.records : 0;
+	}
+
+	/**
+	 * Ger antal hämtade bytes, eller spoolfilens storlek om en befintlig spoolfil användes.
+	 *
+	 * @return antal bytes
+	 */
+	public long getBytes() {
+		PhaseMetrics phase = phases.containsKey(Phase.FETCH) ? phases.get(Phase.FETCH) : phases.get(Phase.STORE);
+		return phase != null ? phase.bytes : 0;
+	}
+
+	/**
+	 * Ger antal indexerade poster.
+	 *
+	 * @return antal poster
+	 */
+	public long getIndexed() {
+		PhaseMetrics phase = phases.get(Phase.INDEX);
+		return phase != null ? phase.records : 0;
+	}
+
+	/**
+	 * Mätvärden för en fas.
+	 */
+	public static class PhaseMetrics {
+
+		private final Phase phase;
+		long durationMillis;
+		long records;
+		long bytes;
+		int retries;
+		long dbStatements;
+		long solrRequests;
+
+		PhaseMetrics(Phase phase) {
+			this.phase = phase;
+		}
+
+		public Phase getPhase() {
+			return phase;
+		}
+
+		public long getDurationMillis() {
+			return durationMillis;
+		}
+
+		public long getRecords() {
+			return records;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public int getRetries() {
+			return retries;
+		}
+
+		public long getDBStatements() {
+			return dbStatements;
+		}
+
+		public long getSolrRequests() {
+			return solrRequests;
+		}
+
+		/**
+		 * Ger antal poster per sekund för fasen.
+		 *
+		 * @return poster per sekund, 0 om fasen inte tog mätbar tid
+		 */
+		public double getRecordsPerSec() {
+			return durationMillis > 0 ? records * 1000.0 / durationMillis : 0;
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package se.raa.ksamsok.harvest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.raa.ksamsok.harvest.HarvestMetrics.Phase;
+import se.raa.ksamsok.harvest.HarvestMetrics.PhaseMetrics;
+import se.raa.ksamsok.harvest.HarvestMetrics.RunType;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lagrar och läser mätvärden för skördekörningar. Tabellen harvestrun har en rad per körning
+ * med typ, total tid, utfall och antal nya, ändrade och borttagna poster och tabellen
+ * harvestmetrics en rad per körning och fas.
+ */
+public class HarvestMetricsManager extends DBBasedManagerImpl {
+
+	private static final Logger logger = LogManager.getLogger(HarvestMetricsManager.class);
+
+	// mätvärden äldre än så här många dagar tas bort vid lagring
+	static final int METRICS_THRESHHOLD_DAYS = 365;
+	// max längd på lagrade felmeddelanden
+	static final int MAX_MESSAGE_LENGTH = 1000;
+
+	public HarvestMetricsManager(DataSource ds) {
+		super(ds);
+	}
+
+	/**
+	 * Lagrar körningen och mätvärdena för dess faser och rensar gamla mätvärden för tjänsten.
+	 * Körningen, faserna och rensningen lagras i var sin transaktion så att ett fel i en av dem
+	 * inte gör att de andra går förlorade. Fel loggas men kastas inte vidare så att mätningen
+	 * aldrig får en skörd att fallera.
+	 *
+	 * @param metrics mätvärden
+	 */
+	public void store(HarvestMetrics metrics) {
+		if (metrics.getPhases().isEmpty()) {
+			return;
+		}
+		Connection c = null;
+		try {
+			c = ds.getConnection();
+			try {
+				storeRun(c, metrics);
+				DBUtil.commit(c);
+			} catch (Exception e) {
+				logger.error("Error when storing harvest run for service " + metrics.getServiceId(), e);
+				DBUtil.rollback(c);
+			}
+			try {
+				storePhases(c, metrics);
+				DBUtil.commit(c);
+			} catch (Exception e) {
+				logger.error("Error when storing harvest metrics for service " + metrics.getServiceId(), e);
+				DBUtil.rollback(c);
+			}
+			try {
+				deleteOldMetrics(c, metrics);
+				DBUtil.commit(c);
+			} catch (Exception e) {
+				logger.error("Error when removing old harvest metrics for service " + metrics.getServiceId(), e);
+				DBUtil.rollback(c);
+			}
+		} catch (Exception e) {
+			logger.error("Error when storing harvest metrics for service " + metrics.getServiceId(), e);
+		} finally {
+			DBUtil.closeDBResources(null, null, c);
+		}
+	}
+
+	// lagrar körningens rad i harvestrun
+	private void storeRun(Connection c, HarvestMetrics metrics) throws Exception {
+		PreparedStatement pst = null;
+		try {
+			pst = c.prepareStatement("insert into harvestrun " +
+					"(serviceid, runstart, runtype, durationms, failed, message, inserted, updated, deleted) " +
+					"values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			pst.setString(1, metrics.getServiceId());
+			pst.setTimestamp(2, metrics.getRunStart());
+			pst.setString(3, metrics.getRunType().name());
+			pst.setLong(4, metrics.getDurationMillis());
+			pst.setBoolean(5, metrics.isFailed());
+			pst.setString(6, StringUtils.abbreviate(metrics.getErrorMessage(), MAX_MESSAGE_LENGTH));
+			pst.setLong(7, metrics.getInserted());
+			pst.setLong(8, metrics.getUpdated());
+			pst.setLong(9, metrics.getDeleted());
+			pst.executeUpdate();
+		} finally {
+			DBUtil.closeDBResources(null, pst, null);
+		}
+	}
+
+	// lagrar en rad per fas i harvestmetrics
+	private void storePhases(Connection c, HarvestMetrics metrics) throws Exception {
+		PreparedStatement pst = null;
+		try {
+			pst = c.prepareStatement("insert into harvestmetrics " +
+					"(serviceid, runstart, phase, durationms, records, bytes, retries, dbstatements, solrrequests) " +
+					"values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			for (PhaseMetrics phase: metrics.getPhases().values()) {
+				pst.setString(1, metrics.getServiceId());
+				pst.setTimestamp(2, metrics.getRunStart());
+				pst.setString(3, phase.getPhase().name());
+				pst.setLong(4, phase.getDurationMillis());
+				pst.setLong(5, phase.getRecords());
+				pst.setLong(6, phase.getBytes());
+				pst.setInt(7, phase.getRetries());
+				pst.setLong(8, phase.getDBStatements());
+				pst.setLong(9, phase.getSolrRequests());
+				pst.addBatch();
+			}
+			pst.executeBatch();
+		} finally {
+			DBUtil.closeDBResources(null, pst, null);
+		}
+	}
+
+	// tar bort tjänstens mätvärden äldre än METRICS_THRESHHOLD_DAYS
+	private void deleteOldMetrics(Connection c, HarvestMetrics metrics) throws Exception {
+		Timestamp threshold = new Timestamp(DateUtils.addDays(metrics.getRunStart(),
+				-METRICS_THRESHHOLD_DAYS).getTime());
+		for (String table: new String[] { "harvestmetrics", "harvestrun" }) {
+			PreparedStatement pst = null;
+			try {
+				pst = c.prepareStatement("delete from " + table + " where serviceid = ? and runstart < ?");
+				pst.setString(1, metrics.getServiceId());
+				pst.setTimestamp(2, threshold);
+				pst.executeUpdate();
+			} finally {
+				DBUtil.closeDBResources(null, pst, null);
+			}
+		}
+	}
+
+	/**
+	 * Hämtar mätvärden för de senaste körningarna, nyaste först.
+	 *
+	 * @param serviceId tjänst-id eller null för alla tjänster
+	 * @param maxRuns max antal körningar
+	 * @return lista med mätvärden per körning
+	 * @throws Exception vid databasfel
+	 */
+	public List<HarvestMetrics> getLatestRuns(String serviceId, int maxRuns) throws Exception {
+		List<HarvestMetrics> runs = new ArrayList<>();
+		Connection c = null;
+		PreparedStatement pst = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			pst = c.prepareStatement("select serviceid, runstart, phase, durationms, records, bytes, retries, " +
+					"dbstatements, solrrequests from harvestmetrics" +
+					(serviceId != null ? " where serviceid = ?" : "") +
+					" order by runstart desc, serviceid");
+			if (serviceId != null) {
+				pst.setString(1, serviceId);
+			}
+			pst.setFetchSize(DBUtil.FETCH_SIZE);
+			rs = pst.executeQuery();
+			HarvestMetrics run = null;
+			while (rs.next()) {
+				String rowServiceId = rs.getString("serviceid");
+				Timestamp runStart = rs.getTimestamp("runstart");
+				if (run == null || !run.getServiceId().equals(rowServiceId) || !run.getRunStart().equals(runStart)) {
+					if (runs.size() == maxRuns) {
+						break;
+					}
+					run = new HarvestMetrics(rowServiceId, runStart);
+					runs.add(run);
+				}
+				Phase phaseName;
+				try {
+					phaseName = Phase.valueOf(rs.getString("phase"));
+				} catch (IllegalArgumentException e) {
+					logger.warn("Unknown harvest metrics phase " + rs.getString("phase") + " for " + rowServiceId);
+					continue;
+				}
+				PhaseMetrics phase = run.getOrCreatePhase(phaseName);
+				phase.durationMillis = rs.getLong("durationms");
+				phase.records = rs.getLong("records");
+				phase.bytes = rs.getLong("bytes");
+				phase.retries = rs.getInt("retries");
+				phase.dbStatements = rs.getLong("dbstatements");
+				phase.solrRequests = rs.getLong("solrrequests");
+			}
+		} finally {
+			DBUtil.closeDBResources(rs, pst, c);
+		}
+		return runs;
+	}
+
+	/**
+	 * Hämtar körningar med mätvärden per fas sedan en viss tidpunkt, grupperade per tjänst
+	 * och nyaste först för varje tjänst. Körningar som saknar rad i harvestrun kommer inte med.
+	 *
+	 * @param serviceId tjänst-id eller null för alla tjänster
+	 * @param since tidigaste starttid
+	 * @return lista med körningar
+	 * @throws Exception vid databasfel
+	 */
+	public List<HarvestMetrics> getRunHistory(String serviceId, Timestamp since) throws Exception {
+		List<HarvestMetrics> runs = new ArrayList<>();
+		Connection c = null;
+		PreparedStatement pst = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			pst = c.prepareStatement("select r.serviceid, r.runstart, r.runtype, r.durationms as rundurationms, " +
+					"r.failed, r.message, r.inserted, r.updated, r.deleted, m.phase, m.durationms, m.records, " +
+					"m.bytes, m.retries, m.dbstatements, m.solrrequests from harvestrun r left join harvestmetrics m " +
+					"on m.serviceid = r.serviceid and m.runstart = r.runstart where r.runstart >= ?" +
+					(serviceId != null ? " and r.serviceid = ?" : "") +
+					" order by r.serviceid, r.runstart desc");
+			pst.setTimestamp(1, since);
+			if (serviceId != null) {
+				pst.setString(2, serviceId);
+			}
+			pst.setFetchSize(DBUtil.FETCH_SIZE);
+			rs = pst.executeQuery();
+			HarvestMetrics run = null;
+			while (rs.next()) {
+				String rowServiceId = rs.getString("serviceid");
+				Timestamp runStart = rs.getTimestamp("runstart");
+				if (run == null || !run.getServiceId().equals(rowServiceId) || !run.getRunStart().equals(runStart)) {
+					run = new HarvestMetrics(rowServiceId, runStart);
+					try {
+						run.setRunType(RunType.valueOf(rs.getString("runtype")));
+					} catch (IllegalArgumentException e) {
+						logger.warn("Unknown harvest run type " + rs.getString("runtype") + " for " + rowServiceId);
+					}
+					run.setDurationMillis(rs.getLong("rundurationms"));
+					if (rs.getBoolean("failed")) {
+						run.setFailed(rs.getString("message"));
+					}
+					run.setChanges(rs.getLong("inserted"), rs.getLong("updated"), rs.getLong("deleted"));
+					runs.add(run);
+				}
+				String phaseStr = rs.getString("phase");
+				if (phaseStr == null) {
+					continue;
+				}
+				Phase phaseName;
+				try {
+					phaseName = Phase.valueOf(phaseStr);
+				} catch (IllegalArgumentException e) {
+					logger.warn("Unknown harvest metrics phase " + phaseStr + " for " + rowServiceId);
+					continue;
+				}
+				PhaseMetrics phase = run.getOrCreatePhase(phaseName);
+				phase.durationMillis = rs.getLong("durationms");
+				phase.records = rs.getLong("records");
+				phase.bytes = rs.getLong("bytes");
+				phase.retries = rs.getInt("retries");
+				phase.dbStatements = rs.getLong("dbstatements");
+				phase.solrRequests = rs.getLong("solrrequests");
+			}
+		} finally {
+			DBUtil.closeDBResources(rs, pst, c);
+		}
+		return runs;
+	}
+}
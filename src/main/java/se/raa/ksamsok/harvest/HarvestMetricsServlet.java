@@ -0,0 +1,110 @@
+package se.raa.ksamsok.harvest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+import se.raa.ksamsok.harvest.HarvestMetrics.PhaseMetrics;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Levererar lagrade mätvärden för skördekörningar som json. Parametern serviceId begränsar
+ * till en tjänst och maxRuns anger max antal körningar (default {@value #DEFAULT_MAX_RUNS}).
+ */
+public class HarvestMetricsServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LogManager.getLogger(HarvestMetricsServlet.class);
+
+	static final int DEFAULT_MAX_RUNS = 50;
+	static final int MAX_MAX_RUNS = 1000;
+
+	@Autowired
+	private HarvestMetricsManager harvestMetricsManager;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		ServletContext servletContext = config.getServletContext();
+		ApplicationContext ctx = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		ctx.getAutowireCapableBeanFactory().autowireBeanProperties(this, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		req.setCharacterEncoding("UTF-8");
+		String serviceId = req.getParameter("serviceId");
+		if (serviceId != null && serviceId.trim().length() == 0) {
+			serviceId = null;
+		}
+		int maxRuns = DEFAULT_MAX_RUNS;
+		String maxRunsStr = req.getParameter("maxRuns");
+		if (maxRunsStr != null) {
+			try {
+				maxRuns = Integer.parseInt(maxRunsStr);
+			} catch (NumberFormatException e) {
+				maxRuns = -1;
+			}
+			if (maxRuns <= 0 || maxRuns > MAX_MAX_RUNS) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "maxRuns must be between 1 and " + MAX_MAX_RUNS);
+				return;
+			}
+		}
+		List<HarvestMetrics> runs;
+		try {
+			runs = harvestMetricsManager.getLatestRuns(serviceId, maxRuns);
+		} catch (Exception e) {
+			logger.error("Problem fetching harvest metrics", e);
+			resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			return;
+		}
+		resp.setCharacterEncoding("UTF-8");
+		resp.setContentType("application/json; charset=UTF-8");
+		resp.getWriter().write(toJSON(runs).toString());
+	}
+
+	/**
+	 * Gör om mätvärden för körningar till json.
+	 *
+	 * @param runs körningar
+	 * @return json-objekt med körningarna under nyckeln runs
+	 */
+	static JSONObject toJSON(List<HarvestMetrics> runs) {
+		JSONArray runArray = new JSONArray();
+		for (HarvestMetrics run: runs) {
+			JSONObject runObject = new JSONObject();
+			runObject.put("serviceId", run.getServiceId());
+			runObject.put("runStart", run.getRunStart().toInstant().toString());
+			runObject.put("durationMillis", run.getTotalDurationMillis());
+			JSONArray phaseArray = new JSONArray();
+			for (PhaseMetrics phase: run.getPhases().values()) {
+				JSONObject phaseObject = new JSONObject();
+				phaseObject.put("phase", phase.getPhase().name());
+				phaseObject.put("durationMillis", phase.getDurationMillis());
+				phaseObject.put("records", phase.getRecords());
+				phaseObject.put("recordsPerSec", Math.round(phase.getRecordsPerSec() * 10) / 10.0);
+				phaseObject.put("bytes", phase.getBytes());
+				phaseObject.put("retries", phase.getRetries());
+				phaseObject.put("dbStatements", phase.getDBStatements());
+				phaseObject.put("solrRequests", phase.getSolrRequests());
+				phaseArray.put(phaseObject);
+			}
+			runObject.put("phases", phaseArray);
+			runArray.put(runObject);
+		}
+		return new JSONObject().put("runs", runArray);
+	}
+}
@@ -2,7 +2,9 @@ package se.raa.ksamsok.harvest;
 
 import java.io.File;
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Tjänst som hanterar lagring i repository.
@@ -42,6 +44,18 @@ public interface HarvestRepositoryManager {
 	 */
 	void updateIndex(HarvestService service, Timestamp ts, HarvestService enclosingService) throws Exception;
 
+	/**
+	 * Provindexerar en tjänst, dvs skapar solr-dokument för tjänstens poster i repositoryt
+	 * och mäter tiden utan att skicka dokumenten till indexet.
+	 * 
+	 * @param service tjänst
+	 * @param maxRecords max antal poster, 0 för alla
+	 * @param maxSlowest antal långsammaste poster som ska redovisas
+	 * @return resultat
+	 * @throws Exception
+	 */
+	IndexDryRunResult dryRunIndex(HarvestService service, int maxRecords, int maxSlowest) throws Exception;
+
 	/**
 	 * Tar bort index-data för en tjänst (gömmer tjänsten).
 	 * 
@@ -50,6 +64,26 @@ public interface HarvestRepositoryManager {
 	 */
 	void deleteIndexData(HarvestService service) throws Exception;
 	
+	/**
+	 * Markerar att en körning som kan ändra tjänstens poster i repositoryt har startat.
+	 * OAI-PMH-leverantören lämnar inte ut ändringar från och med markeringen förrän den tas
+	 * bort med {@link #endContentWrite(HarvestService)}, så att en selektiv skörd inte missar
+	 * poster som lagras efter dess responseDate men med en tidigare changed. Tidsstämplar som
+	 * sätts som changed för körningens poster måste därför tas efter anropet.
+	 *
+	 * @param service tjänst
+	 * @throws Exception vid databasfel
+	 */
+	void beginContentWrite(HarvestService service) throws Exception;
+
+	/**
+	 * Tar bort markeringen från {@link #beginContentWrite(HarvestService)}. Fel loggas men
+	 * kastas inte vidare.
+	 *
+	 * @param service tjänst
+	 */
+	void endContentWrite(HarvestService service);
+
 	/**
 	 * Tar bort all data i repositoryt för en tjänst.
 	 * 
@@ -66,6 +100,14 @@ public interface HarvestRepositoryManager {
 	 */
 	public boolean existsInDatabase(String uri) throws Exception;
 
+	/** Tar fram vilka av uri:erna som finns i databasen med en fråga
+	 *
+	 * @param uris identifierare
+	 * @return de uri:er som finns
+	 * @throws Exception
+	 */
+	public Set<String> existingInDatabase(Collection<String> uris) throws Exception;
+
 	/**
 	 * Hämtar xml (rdf) för en inskickad uri som identifierar en post.
 	 * 
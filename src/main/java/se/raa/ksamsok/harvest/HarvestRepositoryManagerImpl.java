@@ -23,10 +23,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 
 public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements HarvestRepositoryManager {
@@ -124,6 +128,7 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 			}
 			// frigör resurser såsom prepared statements etc
 			if (h != null) {
+				HarvestMetrics.countChanges(h.getInserted(), h.getUpdated(), h.getDeleted());
 				h.destroy();
 			}
 		}
@@ -166,8 +171,10 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 				}
 				pst.setFetchSize(DBUtil.FETCH_SIZE);
 				rs = pst.executeQuery();
+				HarvestMetrics.countDBStatements(1);
 				if (ts == null) {
 					solr.deleteByQuery(ContentHelper.I_IX_SERVICE + ":" + serviceId);
+					HarvestMetrics.countSolrRequests(1);
 				}
 				//String oaiURI;
 				String uri;
@@ -186,8 +193,10 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 					if (ts != null) {
 						uri = rs.getString("uri");
 						solr.deleteById(uri);
+						HarvestMetrics.countSolrRequests(1);
 						if (rs.getTimestamp("deleted") != null) {
 							++deleted;
+							HarvestMetrics.addRecords(1);
 							// om borttagen, gå till nästa
 							continue;
 						}
@@ -203,12 +212,14 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 					}
 					docs.add(doc);
 					++i;
+					HarvestMetrics.addRecords(1);
 					if (i % solrBatchSize == 0) {
 						// skicka batchen
 						if (logger.isDebugEnabled()) {
 							logger.debug("Skickar " + docs.size() + " dokument");
 						}
 						solr.add(docs);
+						HarvestMetrics.countSolrRequests(1);
 						docs.clear();
 					}
 					if (i % statusReportBatchSize == 0) {
@@ -239,9 +250,11 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 						logger.debug("Skickar de sista " + docs.size() + " dokumenten");
 					}
 					solr.add(docs);
+					HarvestMetrics.countSolrRequests(1);
 					docs.clear();
 				}
 				solr.commit();
+				HarvestMetrics.countSolrRequests(1);
 				long durationMillis = (System.currentTimeMillis() - start);
 				String runTime = ContentHelper.formatRunTime(durationMillis);
 				String speed = ContentHelper.formatSpeedPerSec(count, durationMillis);
@@ -272,6 +285,68 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 		}
 	}
 
+	@Override
+	public IndexDryRunResult dryRunIndex(HarvestService service, int maxRecords, int maxSlowest) throws Exception {
+		Connection c = null;
+		PreparedStatement pst = null;
+		ResultSet rs = null;
+		String serviceId = service.getId();
+		ContentHelper helper = getContentHelper(service);
+		if (helper == null) {
+			throw new Exception("No content helper for service " + serviceId + " of type " + service.getServiceType());
+		}
+		IndexDryRunResult result = new IndexDryRunResult(serviceId, maxSlowest);
+		// ingen synkning mot SYNC då indexet inte berörs
+		long start = System.currentTimeMillis();
+		if (logger.isInfoEnabled()) {
+			logger.info(serviceId + ", dry run of index update" +
+					(maxRecords > 0 ? " (max " + maxRecords + " records)" : "") + " - start");
+		}
+		ContentHelper.initProblemMessages();
+		try {
+			c = ds.getConnection();
+			pst = c.prepareStatement("select uri, added, xmldata from content where serviceId = ? and deleted is null");
+			pst.setString(1, serviceId);
+			if (maxRecords > 0) {
+				pst.setMaxRows(maxRecords);
+			}
+			pst.setFetchSize(DBUtil.FETCH_SIZE);
+			rs = pst.executeQuery();
+			String uri;
+			String xmlContent;
+			Timestamp added;
+			int problemCount = 0;
+			while (rs.next()) {
+				uri = rs.getString("uri");
+				xmlContent = rs.getString("xmldata");
+				added = rs.getTimestamp("added");
+				long buildStart = System.nanoTime();
+				SolrInputDocument doc = helper.createSolrDocument(service, xmlContent, added);
+				long buildNanos = System.nanoTime() - buildStart;
+				// dokumentet kastas, bara tiden och eventuella problem är intressanta
+				int newProblemCount = ContentHelper.getProblemMessageCount();
+				result.add(uri, buildNanos, xmlContent != null ? xmlContent.length() : 0, doc == null,
+						newProblemCount > problemCount);
+				problemCount = newProblemCount;
+			}
+		} catch (Exception e) {
+			logger.error(serviceId + ", error in dry run of index update", e);
+			throw e;
+		} finally {
+			DBUtil.closeDBResources(rs, pst, c);
+			result.setProblemMessages(ContentHelper.getAndClearProblemMessages());
+			result.setDurationMillis(System.currentTimeMillis() - start);
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info(serviceId + ", dry run of index update - done, " + result.getRecords() +
+					" records (" + result.getFailed() + " failed, " + result.getRecordsWithProblems() +
+					" with problems), build time: " + ContentHelper.formatRunTime(result.getBuildMillis()) +
+					" (" + ContentHelper.formatSpeedPerSec(result.getRecords(), result.getBuildMillis()) +
+					"), total time: " + ContentHelper.formatRunTime(result.getDurationMillis()));
+		}
+		return result;
+	}
+
 	@Override
 	public void deleteIndexData(HarvestService service) throws Exception {
 		String serviceId = null;
@@ -308,13 +383,57 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 		}
 	}
 
+	@Override
+	public void beginContentWrite(HarvestService service) throws Exception {
+		Connection c = null;
+		PreparedStatement pst = null;
+		try {
+			c = ds.getConnection();
+			pst = c.prepareStatement("delete from contentwrite where serviceid = ?");
+			pst.setString(1, service.getId());
+			pst.executeUpdate();
+			DBUtil.closeDBResources(null, pst, null);
+			pst = c.prepareStatement("insert into contentwrite (serviceid, writestart) values (?, ?)");
+			pst.setString(1, service.getId());
+			pst.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+			pst.executeUpdate();
+			DBUtil.commit(c);
+		} catch (Exception e) {
+			DBUtil.rollback(c);
+			logger.error(service.getId() + ", error when marking start of content write", e);
+			throw e;
+		} finally {
+			DBUtil.closeDBResources(null, pst, c);
+		}
+	}
+
+	@Override
+	public void endContentWrite(HarvestService service) {
+		Connection c = null;
+		PreparedStatement pst = null;
+		try {
+			c = ds.getConnection();
+			pst = c.prepareStatement("delete from contentwrite where serviceid = ?");
+			pst.setString(1, service.getId());
+			pst.executeUpdate();
+			DBUtil.commit(c);
+		} catch (Exception e) {
+			DBUtil.rollback(c);
+			logger.error(service.getId() + ", error when removing content write mark", e);
+		} finally {
+			DBUtil.closeDBResources(null, pst, c);
+		}
+	}
+
 	@Override
 	public void deleteData(HarvestService service) throws Exception {
 		Connection c = null;
 		PreparedStatement pst = null;
 		String serviceId = null;
 		synchronized (SYNC) { // en i taget som får köra index-write
+			beginContentWrite(service);
 			try {
+				// tas efter markeringen, se beginContentWrite
 				Timestamp ts = new Timestamp(new Date().getTime());
 				serviceId = service.getId();
 				c = ds.getConnection();
@@ -348,6 +467,7 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 				throw e;
 			} finally {
 				DBUtil.closeDBResources(null, pst, c);
+				endContentWrite(service);
 			}
 		}
 	}
@@ -377,6 +497,36 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 		return existsInDatabase;
 	}
 
+	@Override
+	public Set<String> existingInDatabase(Collection<String> uris) throws Exception {
+		Set<String> existing = new HashSet<>();
+		if (uris.isEmpty()) {
+			return existing;
+		}
+		Connection c = null;
+		PreparedStatement pst = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			pst = c.prepareStatement("select uri from content where uri in (" +
+					String.join(", ", Collections.nCopies(uris.size(), "?")) + ")");
+			int i = 0;
+			for (String uri : uris) {
+				pst.setString(++i, uri);
+			}
+			rs = pst.executeQuery();
+			while (rs.next()) {
+				existing.add(rs.getString("uri"));
+			}
+		} catch (Exception e) {
+			logger.error("Error when checking whether " + uris.size() + " uris exist in database", e);
+			throw e;
+		} finally {
+			DBUtil.closeDBResources(rs, pst, c);
+		}
+		return existing;
+	}
+
 	@Override
 	public String getXMLData(String uri) throws Exception {
 		String xmlContent = null;
@@ -434,6 +584,7 @@ public class HarvestRepositoryManagerImpl extends DBBasedManagerImpl implements
 				pst.setTimestamp(2, ts);
 			}
 			rs = pst.executeQuery();
+			HarvestMetrics.countDBStatements(1);
 			if (rs.next()) {
 				count = rs.getInt(1);
 			}
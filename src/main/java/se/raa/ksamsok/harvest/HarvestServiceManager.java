@@ -15,6 +15,8 @@ public interface HarvestServiceManager {
     String HSM_KEY = "hsm";
 	String HRM_KEY = "hrm";
 	String SS_KEY = "ss";
+	String SITEMAP_KEY = "sitemap";
+	String METRICS_KEY = "metrics";
 
 	// namn på lucenespecifika interna tjänster (eg bara cronjobb)
 	// TODO: värdena kanske bör ändras då det är solr nu, men de ligger i db också
@@ -19,6 +19,8 @@ import org.quartz.impl.StdSchedulerFactory;
 import org.quartz.impl.triggers.CronTriggerImpl;
 import se.raa.ksamsok.harvest.StatusService.Step;
 import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.organization.OrganizationManager;
+import se.raa.ksamsok.sitemap.SitemapGenerator;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
@@ -52,6 +54,9 @@ public class HarvestServiceManagerImpl extends DBBasedManagerImpl implements Har
 	protected Scheduler scheduler;
 	protected HarvestRepositoryManager hrm;
 	protected StatusService ss;
+	protected SitemapGenerator sitemapGenerator;
+	protected OrganizationManager organizationManager;
+	protected HarvestMetricsManager harvestMetricsManager;
 
 	// hjälpvariabler för försenad init (db ej åtkomlig vid uppstart)
 	protected volatile boolean initOk = false;
@@ -65,6 +70,42 @@ public class HarvestServiceManagerImpl extends DBBasedManagerImpl implements Har
 		this.appstate = appstate;
 	}
 
+	/**
+	 * Sätter generator för sitemaps som uppdateras efter skördar, valfri.
+	 * 
+	 * @param sitemapGenerator generator
+	 */
+	public void setSitemapGenerator(SitemapGenerator sitemapGenerator) {
+		this.sitemapGenerator = sitemapGenerator;
+	}
+
+	/**
+	 * Sätter hanterare för lagring av skördejobbens mätvärden, valfri.
+	 * 
+	 * @param harvestMetricsManager hanterare för mätvärden
+	 */
+	public void setHarvestMetricsManager(HarvestMetricsManager harvestMetricsManager) {
+		this.harvestMetricsManager = harvestMetricsManager;
+	}
+
+	/**
+	 * Sätter organisationshanterare vars cachade tjänster ska läsas om efter ändringar, valfri.
+	 * 
+	 * @param organizationManager organisationshanterare
+	 */
+	public void setOrganizationManager(OrganizationManager organizationManager) {
+		this.organizationManager = organizationManager;
+	}
+
+	/**
+	 * Läser om organisationshanterarens tjänster efter ändringar i harvestservices.
+	 */
+	private void invalidateOrganizations() {
+		if (organizationManager != null) {
+			organizationManager.invalidate();
+		}
+	}
+
 	protected boolean checkInit() {
 		return initOk;
 	}
@@ -137,6 +178,12 @@ public class HarvestServiceManagerImpl extends DBBasedManagerImpl implements Har
 				scheduler.getContext().put(SS_KEY, ss);
 				scheduler.getContext().put(HSM_KEY, this);
 				scheduler.getContext().put(HRM_KEY, hrm);
+				if (sitemapGenerator != null) {
+					scheduler.getContext().put(SITEMAP_KEY, sitemapGenerator);
+				}
+				if (harvestMetricsManager != null) {
+					scheduler.getContext().put(METRICS_KEY, harvestMetricsManager);
+				}
 				scheduler.start();
 
 				//Om applikationen är i test/utv. sätts alla servicear till pausade.
@@ -258,6 +305,7 @@ public class HarvestServiceManagerImpl extends DBBasedManagerImpl implements Har
 
 			pst.executeUpdate();
 			DBUtil.commit(c);
+			invalidateOrganizations();
 			if (logger.isInfoEnabled()) {
 				logger.info("Created new service with ID: " + service.getId());
 			}
@@ -463,6 +511,7 @@ public class HarvestServiceManagerImpl extends DBBasedManagerImpl implements Har
 			pst.setString(++i, service.getId());
 			pst.executeUpdate();
 			DBUtil.commit(c);
+			invalidateOrganizations();
 			if (logger.isInfoEnabled()) {
 				logger.info("Updated service with ID: " + service.getId());
 			}
@@ -624,6 +673,7 @@ public class HarvestServiceManagerImpl extends DBBasedManagerImpl implements Har
 			pst.setString(1, service.getId());
 			pst.executeUpdate();
 			DBUtil.commit(c);
+			invalidateOrganizations();
 			if (logger.isInfoEnabled()) {
 				logger.info("Removed service with ID: " + service.getId());
 			}
@@ -634,7 +684,12 @@ public class HarvestServiceManagerImpl extends DBBasedManagerImpl implements Har
 						service.getId(), e);
 			}
 			// rensa data i repo (rdf + ev spatialt data)
+			Timestamp deleteStart = new Timestamp(System.currentTimeMillis());
 			hrm.deleteData(service);
+			// posterna markeras som borttagna och försvinner ur de sitemaps de fanns i
+			if (sitemapGenerator != null) {
+				sitemapGenerator.serviceChanged(service.getId(), deleteStart);
+			}
 	    } catch (Exception e) {
 	    	DBUtil.rollback(c);
 	    	logger.error("Error when removing service with ID: " + service.getId(), e);
@@ -0,0 +1,277 @@
+package se.raa.ksamsok.harvest;
+
+import se.raa.ksamsok.harvest.HarvestMetrics.Phase;
+import se.raa.ksamsok.harvest.HarvestMetrics.PhaseMetrics;
+import se.raa.ksamsok.harvest.HarvestMetrics.RunType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trend för en tjänsts körningar. Körningar jämförs med medianen för tjänstens lyckade
+ * körningar av samma typ, dvs fulla skördar, skördar av ändringar och omindexeringar var för
+ * sig, och flaggas som långsamma om de tog mer än en given faktor gånger
+ * medianen. Hämtningstakten (poster per sekund i fasen FETCH) jämförs på samma sätt för
+ * körningar med minst {@value #MIN_FETCH_RECORDS} hämtade poster, så att en långsammare
+ * tjänst syns även när skördarnas storlek varierar. Trenden är kvoten mellan medianen för de
+ * {@value #RECENT_RUNS} senaste körningarna och medianen för alla, över 1 betyder att
+ * tjänsten blivit långsammare.
+ */
+public class HarvestTrend {
+
+	// minsta antal jämförbara körningar för att en median ska räknas
+	static final int MIN_RUNS = 5;
+	// körningar kortare än så här flaggas aldrig som långsamma
+	static final long MIN_SLOW_MILLIS = 60000;
+	// minsta antal hämtade poster för att hämtningstakten ska jämföras
+	static final long MIN_FETCH_RECORDS = 100;
+	// antal senaste körningar som trenden räknas på
+	static final int RECENT_RUNS = 5;
+
+	private final String serviceId;
+	private final double slowFactor;
+	private final List<HarvestMetrics> runs;
+	private final Map<RunType, Long> medianDuration = new EnumMap<>(RunType.class);
+	private final Map<RunType, Long> recentMedianDuration = new EnumMap<>(RunType.class);
+	private final double medianFetchRate;
+	private final double recentMedianFetchRate;
+
+	/**
+	 * Räknar fram trenden för en tjänst.
+	 *
+	 * @param serviceId tjänst-id
+	 * @param runs tjänstens körningar, nyaste först
+	 * @param slowFactor faktor gånger medianen för att en körning ska räknas som långsam
+	 */
+	public HarvestTrend(String serviceId, List<HarvestMetrics> runs, double slowFactor) {
+		this.serviceId = serviceId;
+		this.runs = Collections.unmodifiableList(new ArrayList<>(runs));
+		this.slowFactor = slowFactor;
+		for (RunType runType: RunType.values()) {
+			List<Double> durations = new ArrayList<>();
+			for (HarvestMetrics run: runs) {
+				if (!run.isFailed() && run.getRunType() == runType) {
+					durations.add((double) run.getDurationMillis());
+				}
+			}
+			if (durations.size() >= MIN_RUNS) {
+				medianDuration.put(runType, Math.round(median(durations)));
+				List<Double> recent = durations.subList(0, Math.min(RECENT_RUNS, durations.size()));
+				recentMedianDuration.put(runType, Math.round(median(recent)));
+			}
+		}
+		List<Double> fetchRates = new ArrayList<>();
+		for (HarvestMetrics run: runs) {
+			if (!run.isFailed() && hasFetchRate(run)) {
+				fetchRates.add(getFetchRecordsPerSec(run));
+			}
+		}
+		if (fetchRates.size() >= MIN_RUNS) {
+			medianFetchRate = median(fetchRates);
+			recentMedianFetchRate = median(fetchRates.subList(0, Math.min(RECENT_RUNS, fetchRates.size())));
+		} else {
+			medianFetchRate = 0;
+			recentMedianFetchRate = 0;
+		}
+	}
+
+	/**
+	 * Räknar fram trender för körningarna per tjänst. Tjänster vars trend visar störst
+	 * försämring kommer först.
+	 *
+	 * @param runs körningar, nyaste först för varje tjänst
+	 * @param slowFactor faktor gånger medianen för att en körning ska räknas som långsam
+	 * @return trender per tjänst
+	 */
+	public static List<HarvestTrend> analyze(List<HarvestMetrics> runs, double slowFactor) {
+		Map<String, List<HarvestMetrics>> runsByService = new LinkedHashMap<>();
+		for (HarvestMetrics run: runs) {
+			runsByService.computeIfAbsent(run.getServiceId(), k -> new ArrayList<>()).add(run);
+		}
+		List<HarvestTrend> trends = new ArrayList<>();
+		for (Map.Entry<String, List<HarvestMetrics>> entry: runsByService.entrySet()) {
+			trends.add(new HarvestTrend(entry.getKey(), entry.getValue(), slowFactor));
+		}
+		trends.sort(Comparator.comparingDouble(HarvestTrend::getDegradation).reversed()
+				.thenComparing(HarvestTrend::getServiceId));
+		return trends;
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	/**
+	 * Ger tjänstens körningar.
+	 *
+	 * @return körningar, nyaste först
+	 */
+	public List<HarvestMetrics> getRuns() {
+		return runs;
+	}
+
+	/**
+	 * Ger mediantiden för lyckade körningar av en typ.
+	 *
+	 * @param runType typ av körning
+	 * @return tid i millisekunder eller -1 om det finns för få körningar
+	 */
+	public long getMedianDurationMillis(RunType runType) {
+		Long median = medianDuration.get(runType);
+		return median != null ? median : -1;
+	}
+
+	/**
+	 * Ger mediantiden för de senaste lyckade körningarna av en typ.
+	 *
+	 * @param runType typ av körning
+	 * @return tid i millisekunder eller -1 om det finns för få körningar
+	 */
+	public long getRecentMedianDurationMillis(RunType runType) {
+		Long median = recentMedianDuration.get(runType);
+		return median != null ? median : -1;
+	}
+
+	/**
+	 * Ger trenden för körtiden för en typ av körning.
+	 *
+	 * @param runType typ av körning
+	 * @return kvoten mellan senaste och alla körningars median, 0 om det finns för få körningar
+	 */
+	public double getDurationTrend(RunType runType) {
+		long median = getMedianDurationMillis(runType);
+		return median > 0 ? getRecentMedianDurationMillis(runType) / (double) median : 0;
+	}
+
+	/**
+	 * Ger medianen för hämtningstakten.
+	 *
+	 * @return poster per sekund, 0 om det finns för få körningar
+	 */
+	public double getMedianFetchRecordsPerSec() {
+		return medianFetchRate;
+	}
+
+	/**
+	 * Ger medianen för hämtningstakten för de senaste körningarna.
+	 *
+	 * @return poster per sekund, 0 om det finns för få körningar
+	 */
+	public double getRecentMedianFetchRecordsPerSec() {
+		return recentMedianFetchRate;
+	}
+
+	/**
+	 * Ger trenden för hämtningstakten.
+	 *
+	 * @return kvoten mellan alla och senaste körningarnas median, dvs över 1 om takten sjunkit,
+	 * 0 om det finns för få körningar
+	 */
+	public double getFetchTrend() {
+		return recentMedianFetchRate > 0 ? medianFetchRate / recentMedianFetchRate : 0;
+	}
+
+	/**
+	 * Ger den största försämringen av skördetid, för fulla skördar och skördar av ändringar,
+	 * och hämtningstakt.
+	 *
+	 * @return största trenden för skördetid och hämtningstakt
+	 */
+	public double getDegradation() {
+		return Math.max(Math.max(getDurationTrend(RunType.HARVEST), getDurationTrend(RunType.FULL_HARVEST)),
+				getFetchTrend());
+	}
+
+	/**
+	 * Ger kvoten mellan körningens tid och mediantiden för körningar av samma typ.
+	 *
+	 * @param run körning
+	 * @return kvot eller 0 om det finns för få körningar
+	 */
+	public double getDurationRatio(HarvestMetrics run) {
+		long median = getMedianDurationMillis(run.getRunType());
+		return median > 0 ? run.getDurationMillis() / (double) median : 0;
+	}
+
+	/**
+	 * Ger om körningen tog mer än faktorn gånger mediantiden för körningar av samma typ.
+	 *
+	 * @param run körning
+	 * @return sant om körningen var långsam
+	 */
+	public boolean isSlow(HarvestMetrics run) {
+		return run.getDurationMillis() >= MIN_SLOW_MILLIS && getDurationRatio(run) > slowFactor;
+	}
+
+	/**
+	 * Ger om körningens hämtningstakt var lägre än medianen delat med faktorn.
+	 *
+	 * @param run körning
+	 * @return sant om hämtningen var långsam
+	 */
+	public boolean isSlowFetch(HarvestMetrics run) {
+		return medianFetchRate > 0 && hasFetchRate(run) && getFetchRecordsPerSec(run) * slowFactor < medianFetchRate;
+	}
+
+	/**
+	 * Ger antal körningar som är långsamma eller har långsam hämtning.
+	 *
+	 * @return antal körningar
+	 */
+	public int getSlowRuns() {
+		int slowRuns = 0;
+		for (HarvestMetrics run: runs) {
+			if (isSlow(run) || isSlowFetch(run)) {
+				++slowRuns;
+			}
+		}
+		return slowRuns;
+	}
+
+	/**
+	 * Ger antal misslyckade körningar.
+	 *
+	 * @return antal körningar
+	 */
+	public int getFailedRuns() {
+		int failedRuns = 0;
+		for (HarvestMetrics run: runs) {
+			if (run.isFailed()) {
+				++failedRuns;
+			}
+		}
+		return failedRuns;
+	}
+
+	/**
+	 * Ger hämtningstakten för en körning.
+	 *
+	 * @param run körning
+	 * @return poster per sekund, 0 om körningen inte hämtade några poster
+	 */
+	static double getFetchRecordsPerSec(HarvestMetrics run) {
+		PhaseMetrics fetch = run.getPhases().get(Phase.FETCH);
+		return fetch != null ? fetch.getRecordsPerSec() : 0;
+	}
+
+	private static boolean hasFetchRate(HarvestMetrics run) {
+		PhaseMetrics fetch = run.getPhases().get(Phase.FETCH);
+		return fetch != null && fetch.getRecords() >= MIN_FETCH_RECORDS && fetch.getDurationMillis() > 0;
+	}
+
+	// median för en lista med minst ett värde
+	static double median(List<Double> values) {
+		List<Double> sorted = new ArrayList<>(values);
+		Collections.sort(sorted);
+		int middle = sorted.size() / 2;
+		if (sorted.size() % 2 == 0) {
+			return (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+		}
+		return sorted.get(middle);
+	}
+}
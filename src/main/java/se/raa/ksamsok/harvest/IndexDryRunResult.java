@@ -0,0 +1,181 @@
+package se.raa.ksamsok.harvest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resultat från en provindexering av en tjänst, dvs där solr-dokument skapats för tjänstens
+ * poster utan att skickas till indexet. Byggtiden är den tid det tog att skapa dokumenten
+ * och körtiden inkluderar även läsningen från databasen.
+ */
+public class IndexDryRunResult {
+
+	// max antal uri:er för poster som inte gick att indexera
+	static final int MAX_FAILED_URIS = 100;
+
+	private static final Comparator<RecordTiming> BY_BUILD_TIME = Comparator.comparingLong(RecordTiming::getBuildNanos);
+
+	private final String serviceId;
+	private final int maxSlowest;
+	// de långsammaste posterna, den snabbaste av dem först så att den kan bytas ut
+	private final PriorityQueue<RecordTiming> slowest;
+	private final List<String> failedURIs = new ArrayList<>();
+	private Map<String, Integer> problemMessages = Collections.emptyMap();
+	private long records;
+	private long failed;
+	private long recordsWithProblems;
+	private long xmlLength;
+	private long buildNanos;
+	private long durationMillis;
+
+	/**
+	 * Skapar ett tomt resultat.
+	 *
+	 * @param serviceId tjänst
+	 * @param maxSlowest antal långsammaste poster som sparas
+	 */
+	public IndexDryRunResult(String serviceId, int maxSlowest) {
+		this.serviceId = serviceId;
+		this.maxSlowest = maxSlowest;
+		this.slowest = new PriorityQueue<>(Math.max(1, maxSlowest), BY_BUILD_TIME);
+	}
+
+	/**
+	 * Registrerar en post.
+	 *
+	 * @param uri postens uri
+	 * @param recordBuildNanos tid för att skapa dokumentet
+	 * @param xmlLength antal tecken i postens xml
+	 * @param recordFailed sant om inget dokument kunde skapas
+	 * @param hadProblems sant om posten gav problemmeddelanden
+	 */
+	void add(String uri, long recordBuildNanos, int xmlLength, boolean recordFailed, boolean hadProblems) {
+		++records;
+		buildNanos += recordBuildNanos;
+		this.xmlLength += xmlLength;
+		if (recordFailed) {
+			++failed;
+			if (failedURIs.size() < MAX_FAILED_URIS) {
+				failedURIs.add(uri);
+			}
+		}
+		if (hadProblems) {
+			++recordsWithProblems;
+		}
+		if (maxSlowest > 0) {
+			if (slowest.size() < maxSlowest) {
+				slowest.add(new RecordTiming(uri, recordBuildNanos, xmlLength));
+			} else if (recordBuildNanos > slowest.peek().getBuildNanos()) {
+				slowest.poll();
+				slowest.add(new RecordTiming(uri, recordBuildNanos, xmlLength));
+			}
+		}
+	}
+
+	void setProblemMessages(Map<String, Integer> problemMessages) {
+		this.problemMessages = problemMessages != null ? new LinkedHashMap<>(problemMessages) : Collections.emptyMap();
+	}
+
+	void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public long getRecordsWithProblems() {
+		return recordsWithProblems;
+	}
+
+	public long getXmlLength() {
+		return xmlLength;
+	}
+
+	public long getBuildMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(buildNanos);
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	/**
+	 * Ger antal skapade dokument per sekund byggtid, dvs utan tiden för databasläsning.
+	 *
+	 * @return poster per sekund
+	 */
+	public double getRecordsPerSec() {
+		return buildNanos > 0 ? records * 1e9 / buildNanos : 0;
+	}
+
+	/**
+	 * Ger uri:er för poster som inte gick att indexera, högst {@value #MAX_FAILED_URIS}.
+	 *
+	 * @return uri:er
+	 */
+	public List<String> getFailedURIs() {
+		return Collections.unmodifiableList(failedURIs);
+	}
+
+	/**
+	 * Ger problemmeddelanden och antal gånger de förekom.
+	 *
+	 * @return problemmeddelanden i den ordning de först förekom
+	 */
+	public Map<String, Integer> getProblemMessages() {
+		return Collections.unmodifiableMap(problemMessages);
+	}
+
+	/**
+	 * Ger de poster som tog längst tid att skapa dokument för.
+	 *
+	 * @return poster, den långsammaste först
+	 */
+	public List<RecordTiming> getSlowest() {
+		List<RecordTiming> list = new ArrayList<>(slowest);
+		list.sort(BY_BUILD_TIME.reversed());
+		return list;
+	}
+
+	/**
+	 * Byggtid för en post.
+	 */
+	public static class RecordTiming {
+		private final String uri;
+		private final long buildNanos;
+		private final int xmlLength;
+
+		RecordTiming(String uri, long buildNanos, int xmlLength) {
+			this.uri = uri;
+			this.buildNanos = buildNanos;
+			this.xmlLength = xmlLength;
+		}
+
+		public String getUri() {
+			return uri;
+		}
+
+		public long getBuildNanos() {
+			return buildNanos;
+		}
+
+		public int getXmlLength() {
+			return xmlLength;
+		}
+	}
+}
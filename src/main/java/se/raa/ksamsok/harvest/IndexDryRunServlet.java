@@ -0,0 +1,217 @@
+package se.raa.ksamsok.harvest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+import se.raa.ksamsok.harvest.IndexDryRunResult.RecordTiming;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Provindexerar en tjänst i bakgrunden och levererar resultatet som json. Dokument skapas för
+ * tjänstens poster i repositoryt men skickas inte till indexet, så byggtakten,
+ * problemmeddelanden och de långsammaste posterna kan tas fram med produktionsdata utan att
+ * indexet påverkas. POST startar en provindexering, parametern serviceId anger tjänst,
+ * maxRecords max antal poster (default {@value #DEFAULT_MAX_RECORDS}, 0 för alla) och slowest
+ * antal långsammaste poster (default {@value #DEFAULT_SLOWEST}). GET ger status för den
+ * senaste provindexeringen och resultatet när den är klar. Bara en provindexering körs åt gången.
+ */
+public class IndexDryRunServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LogManager.getLogger(IndexDryRunServlet.class);
+
+	static final int DEFAULT_MAX_RECORDS = 10000;
+	static final int DEFAULT_SLOWEST = 20;
+	static final int MAX_SLOWEST = 1000;
+
+	// senaste provindexeringen, pågående eller klar
+	private static final AtomicReference<DryRun> current = new AtomicReference<>();
+
+	@Autowired
+	private HarvestServiceManager hsm;
+
+	@Autowired
+	private HarvestRepositoryManager hrm;
+
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		ServletContext servletContext = config.getServletContext();
+		ApplicationContext ctx = WebApplicationContextUtils.getWebApplicationContext(servletContext);
+		ctx.getAutowireCapableBeanFactory().autowireBeanProperties(this, AutowireCapableBeanFactory.AUTOWIRE_BY_TYPE, true);
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		writeJSON(resp, toJSON(current.get()));
+	}
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		req.setCharacterEncoding("UTF-8");
+		String serviceId = req.getParameter("serviceId");
+		if (serviceId == null || serviceId.trim().length() == 0) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "serviceId is required");
+			return;
+		}
+		int maxRecords = getIntParameter(req, "maxRecords", DEFAULT_MAX_RECORDS);
+		if (maxRecords < 0) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "maxRecords must be 0 (all) or more");
+			return;
+		}
+		int slowest = getIntParameter(req, "slowest", DEFAULT_SLOWEST);
+		if (slowest < 0 || slowest > MAX_SLOWEST) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "slowest must be between 0 and " + MAX_SLOWEST);
+			return;
+		}
+		HarvestService service = hsm.getService(serviceId.trim());
+		if (service == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No service with id " + serviceId);
+			return;
+		}
+		DryRun previous = current.get();
+		DryRun run = new DryRun(service.getId(), maxRecords);
+		if ((previous != null && !previous.isDone()) || !current.compareAndSet(previous, run)) {
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "A dry run is already in progress");
+			return;
+		}
+		Thread t = new Thread(() -> run.execute(hrm, service, slowest), "index-dry-run");
+		t.setDaemon(true);
+		t.start();
+		resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+		writeJSON(resp, toJSON(run));
+	}
+
+	private static void writeJSON(HttpServletResponse resp, JSONObject json) throws IOException {
+		resp.setCharacterEncoding("UTF-8");
+		resp.setContentType("application/json; charset=UTF-8");
+		resp.getWriter().write(json.toString());
+	}
+
+	// heltalsparameter, -1 om värdet inte är ett heltal
+	private static int getIntParameter(HttpServletRequest req, String name, int defaultValue) {
+		String value = req.getParameter(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Gör om status för en provindexering till json, med resultatet om den är klar.
+	 *
+	 * @param run provindexering eller null om ingen har startats
+	 * @return json-objekt
+	 */
+	static JSONObject toJSON(DryRun run) {
+		JSONObject json = new JSONObject();
+		if (run == null) {
+			return json.put("status", "idle");
+		}
+		json.put("serviceId", run.serviceId);
+		json.put("maxRecords", run.maxRecords);
+		json.put("started", run.started.toString());
+		if (!run.isDone()) {
+			json.put("status", "running");
+		} else if (run.result != null) {
+			json.put("status", "done");
+			json.put("result", toJSON(run.result));
+		} else {
+			json.put("status", "failed");
+			json.put("message", String.valueOf(run.error));
+		}
+		return json;
+	}
+
+	/**
+	 * Gör om resultatet från en provindexering till json.
+	 *
+	 * @param result resultat
+	 * @return json-objekt
+	 */
+	static JSONObject toJSON(IndexDryRunResult result) {
+		JSONObject json = new JSONObject();
+		json.put("serviceId", result.getServiceId());
+		json.put("records", result.getRecords());
+		json.put("failed", result.getFailed());
+		json.put("recordsWithProblems", result.getRecordsWithProblems());
+		json.put("xmlLength", result.getXmlLength());
+		json.put("buildMillis", result.getBuildMillis());
+		json.put("durationMillis", result.getDurationMillis());
+		json.put("recordsPerSec", Math.round(result.getRecordsPerSec() * 10) / 10.0);
+		// mest förekommande problem först
+		List<Map.Entry<String, Integer>> problems = new ArrayList<>(result.getProblemMessages().entrySet());
+		problems.sort((a, b) -> b.getValue() - a.getValue());
+		JSONArray problemArray = new JSONArray();
+		for (Map.Entry<String, Integer> problem: problems) {
+			problemArray.put(new JSONObject().put("message", String.valueOf(problem.getKey()))
+					.put("count", problem.getValue()));
+		}
+		json.put("problemMessages", problemArray);
+		json.put("failedURIs", new JSONArray(result.getFailedURIs()));
+		JSONArray slowestArray = new JSONArray();
+		for (RecordTiming timing: result.getSlowest()) {
+			JSONObject timingObject = new JSONObject();
+			timingObject.put("uri", timing.getUri());
+			timingObject.put("buildMillis", Math.round(timing.getBuildNanos() / 1e4) / 100.0);
+			timingObject.put("xmlLength", timing.getXmlLength());
+			slowestArray.put(timingObject);
+		}
+		json.put("slowest", slowestArray);
+		return json;
+	}
+
+	/**
+	 * En provindexering som körs i bakgrunden.
+	 */
+	static class DryRun {
+		final String serviceId;
+		final int maxRecords;
+		final Instant started = Instant.now();
+		private volatile boolean done;
+		private volatile IndexDryRunResult result;
+		private volatile String error;
+
+		DryRun(String serviceId, int maxRecords) {
+			this.serviceId = serviceId;
+			this.maxRecords = maxRecords;
+		}
+
+		void execute(HarvestRepositoryManager hrm, HarvestService service, int slowest) {
+			try {
+				result = hrm.dryRunIndex(service, maxRecords, slowest);
+			} catch (Throwable e) {
+				logger.error("Problem in dry run of index update for " + serviceId, e);
+				error = e.toString();
+			} finally {
+				done = true;
+			}
+		}
+
+		boolean isDone() {
+			return done;
+		}
+	}
+}
@@ -86,6 +86,10 @@ public class IndexOptimizeJob extends HarvestJob {
 				logger.error("No status service to report errors towards!");
 				reportError(service, "Error when running job", e);
 			}
+		} finally {
+			if (ss != null) {
+				ss.flushLog();
+			}
 		}
 	}
 
@@ -292,6 +292,7 @@ public class OAIPMHHandler extends DefaultHandler {
 				} else if ("record".equals(name)) {
 					// tillbaks till "normal-mode"
 					mode = NORMAL;
+					HarvestMetrics.addRecords(1);
 					if (deleteRecord) {
 						// ta bort post nu om vi skulle göra det
 						try {
@@ -342,6 +343,7 @@ public class OAIPMHHandler extends DefaultHandler {
 			pst.setString(2, service.getId());
 			long start = System.currentTimeMillis();
 			int num = pst.executeUpdate();
+			HarvestMetrics.countDBStatements(1);
 			numDeletedXact += num;
 			commitIfLimitReached(true);
 			if (logger.isDebugEnabled()) {
@@ -377,6 +379,7 @@ public class OAIPMHHandler extends DefaultHandler {
 		deleteUpdatePst.setString(5, service.getId());
 		deleteUpdatePst.setString(6, oaiURI);
 		int num = deleteUpdatePst.executeUpdate();
+		HarvestMetrics.countDBStatements(1);
 		numDeletedXact += num;
 		if (logger.isDebugEnabled()) {
 			logger.debug(
@@ -418,6 +421,7 @@ public class OAIPMHHandler extends DefaultHandler {
 		insertPst.setInt(8, DBUtil.STATUS_NORMAL);
 		insertPst.setString(9, nativeURL);
 		insertPst.executeUpdate();
+		HarvestMetrics.countDBStatements(1);
 
 		++numInsertedXact;
 		if (logger.isDebugEnabled()) {
@@ -458,6 +462,7 @@ public class OAIPMHHandler extends DefaultHandler {
 		updatePst.setString(7, nativeURL);
 		updatePst.setString(8, uri);
 		boolean updated = updatePst.executeUpdate() > 0;
+		HarvestMetrics.countDBStatements(1);
 		if (updated) {
 			++numUpdatedXact;
 			if (logger.isDebugEnabled()) {
@@ -565,10 +570,12 @@ public class OAIPMHHandler extends DefaultHandler {
 				ss.setStatusText(service, "Have commited " + totalRec + " (plus " + totalGeo +
 					" geo deletes) status and deleted column updates");
 				rs = selPst.executeQuery();
+				HarvestMetrics.countDBStatements(1);
 				while (rs.next()) {
 					uri = rs.getString("uri");
 					updatePst.setString(5, uri);
 					deltaRec += updatePst.executeUpdate();
+					HarvestMetrics.countDBStatements(1);
 				}
 				// stäng (och nollställ) rs för återanvändning
 				DBUtil.closeDBResources(rs, null, null);
@@ -611,6 +618,7 @@ public class OAIPMHHandler extends DefaultHandler {
 			pst.setInt(3, DBUtil.STATUS_NORMAL);
 			long start = System.currentTimeMillis();
 			numAffected = pst.executeUpdate();
+			HarvestMetrics.countDBStatements(1);
 			if (logger.isDebugEnabled()) {
 				logger.debug("** Updated state for " + numAffected + " records for service: " + service.getId());
 			}
@@ -374,6 +374,7 @@ public class OAIPMHHarvestJob extends HarvestJob {
 		// column
 		// i så fall måste vi begränsa feltexten, se:
 		// http://vsadilovskiy.wordpress.com/2007/10/19/ora-01461-can-bind-a-long-value-only-for-insert-into-a-long-column/
+		HarvestMetrics.countRetry();
 		String msg = "Exception (" + ioe.getMessage() + "), waiting " + waitSecs + " seconds and trying again";
 		if (logger != null) {
 			logger.warn((service != null ? service.getId() + ": " : "") + msg);
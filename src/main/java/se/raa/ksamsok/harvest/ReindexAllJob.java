@@ -4,6 +4,7 @@ import org.quartz.JobDetail;
 import org.quartz.JobExecutionContext;
 import se.raa.ksamsok.harvest.StatusService.Step;
 import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.sitemap.SitemapGenerator;
 
 import java.io.File;
 import java.util.Collections;
@@ -89,6 +90,11 @@ public class ReindexAllJob extends HarvestJob {
 			long durationMillis = System.currentTimeMillis() - start;
 			ss.setStatusTextAndLog(service, "Reindexing done, time: " +
 					ContentHelper.formatRunTime(durationMillis));
+			// generera om alla sitemaps med nya intervall så att de stämmer med innehållet
+			SitemapGenerator sitemapGenerator = getSitemapGenerator(ctx);
+			if (sitemapGenerator != null) {
+				sitemapGenerator.regenerate();
+			}
 			ss.setStep(service, Step.IDLE);
 			if (logger.isDebugEnabled()) {
 				List<String> log = ss.getStatusLog(service);
@@ -111,6 +117,10 @@ public class ReindexAllJob extends HarvestJob {
 				logger.error("No status service to report errors against!");
 				reportError(service, "Error when running job", e);
 			}
+		} finally {
+			if (ss != null) {
+				ss.flushLog();
+			}
 		}
 	}
 
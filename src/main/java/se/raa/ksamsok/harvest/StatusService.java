@@ -181,4 +181,11 @@ public interface StatusService {
 	 */
 	boolean containsRDFErrors(HarvestService service);
 
+	/**
+	 * Skriver köade loggmeddelanden till databasen. Loggmeddelanden skrivs i bakgrunden och
+	 * denna metod ska anropas när ett jobb är klart, även vid fel och avbrott, så att
+	 * tjänstens logg är komplett i databasen.
+	 */
+	void flushLog();
+
 }
@@ -1,5 +1,6 @@
 package se.raa.ksamsok.harvest;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,6 +20,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class StatusServiceImpl implements StatusService {
 
@@ -26,6 +31,14 @@ public class StatusServiceImpl implements StatusService {
 
 	// gräns i antal dagar för hur länge loggmeddelanden sparas i databasen
 	static final int LOG_THRESHHOLD_DAYS = 21;
+	// max antal loggmeddelanden som skrivs i samma transaktion
+	static final int LOG_BATCH_SIZE = 500;
+	// max tid i ms som ett loggmeddelande väntar i kön innan det skrivs
+	static final long LOG_FLUSH_INTERVAL_MS = 2000;
+	// max antal loggmeddelanden i kön, är den full skriver anroparen själv
+	static final int LOG_QUEUE_SIZE = 10000;
+	// max längd för ett loggmeddelande i databasen
+	static final int MAX_MESSAGE_LENGTH = 4000;
 
 	Map<String, String> statusTexts = Collections.synchronizedMap(new HashMap<>());
 	Map<String, String> errorTexts = Collections.synchronizedMap(new HashMap<>());
@@ -40,10 +53,69 @@ public class StatusServiceImpl implements StatusService {
 
 	Set<HarvestService> servicesInitializedFromDb = Collections.synchronizedSet(new HashSet<>());
 
+	// loggmeddelanden som väntar på att skrivas till databasen
+	final BlockingQueue<PendingLogEvent> logQueue = new LinkedBlockingQueue<>(LOG_QUEUE_SIZE);
+	// hålls under hela uttaget och skrivningen av en batch så att en flush ser allt som köats innan
+	private final Object logWriteLock = new Object();
+	private volatile Thread logWriter;
+	private volatile boolean logWriterRunning;
+
 	StatusServiceImpl(DataSource ds) {
 		this.ds = ds;
 	}
 
+	/**
+	 * Startar tråden som skriver loggmeddelanden till databasen i bakgrunden. Utan den
+	 * skrivs meddelandena först vid {@linkplain #flushLog()}.
+	 */
+	public void init() {
+		logWriterRunning = true;
+		logWriter = new Thread(this::runLogWriter, "servicelog-writer");
+		logWriter.setDaemon(true);
+		logWriter.start();
+	}
+
+	/**
+	 * Stoppar skrivtråden och skriver de loggmeddelanden som återstår.
+	 */
+	public void destroy() {
+		logWriterRunning = false;
+		if (logWriter != null) {
+			logWriter.interrupt();
+			try {
+				logWriter.join(LOG_FLUSH_INTERVAL_MS * 5);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			logWriter = null;
+		}
+		flushLog();
+	}
+
+	@Override
+	public void flushLog() {
+		synchronized (logWriteLock) {
+			List<PendingLogEvent> batch = new ArrayList<>(LOG_BATCH_SIZE);
+			while (logQueue.drainTo(batch, LOG_BATCH_SIZE) > 0) {
+				writeLogBatch(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	// skrivtrådens loop, skriver det som köats och väntar sedan en stund eller tills kön
+	// har en hel batch, uttag sker bara under låset så att en flush alltid ser allt som köats innan
+	private void runLogWriter() {
+		while (logWriterRunning) {
+			try {
+				flushLog();
+			} catch (Throwable t) {
+				logger.error("Unexpected error in servicelog writer", t);
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(LOG_FLUSH_INTERVAL_MS));
+		}
+	}
+
 	@Override
 	public void checkInterrupt(HarvestService service) {
 		String iDate = interrupts.remove(service.getId());
@@ -71,7 +143,7 @@ public class StatusServiceImpl implements StatusService {
 	public String getErrorText(HarvestService service) {
 		if (!servicesInitializedFromDb.contains(service)) {
 			// The server has just been started, check for error messages in the database
-
+			flushLog();
 			Connection c = null;
 			PreparedStatement pst = null;
 			ResultSet rs = null;
@@ -210,6 +282,7 @@ public class StatusServiceImpl implements StatusService {
 	@Override
 	public List<String> getStatusLogHistory(HarvestService service) {
 		List<String> statusLog = null;
+		flushLog();
 		Connection c = null;
 		PreparedStatement pst = null;
 		ResultSet rs = null;
@@ -256,6 +329,7 @@ public class StatusServiceImpl implements StatusService {
 			return Collections.singletonList(new LogEvent("err", LogEvent.EVENT_ERROR, "now",
 					"Bad maxRows: " + maxRows + ", must be > 0"));
 		}
+		flushLog();
 		Connection c = null;
 		PreparedStatement pst = null;
 		ResultSet rs = null;
@@ -285,37 +359,75 @@ public class StatusServiceImpl implements StatusService {
 		return statusLog;
 	}
 
+	// köar meddelandet för skrivning i bakgrunden, steget tas med nu då det ändras under körningen
 	private void log2Db(HarvestService service, int eventType, Date now, String message) {
+		PendingLogEvent event = new PendingLogEvent(service.getId(), eventType, getStep(service).name(),
+				new Timestamp(now.getTime()), message);
+		if (!logQueue.offer(event)) {
+			// kön är full, skriv det som finns och köa sedan
+			flushLog();
+			if (!logQueue.offer(event)) {
+				writeLogBatch(Collections.singletonList(event));
+			}
+		} else if (logQueue.size() >= LOG_BATCH_SIZE) {
+			// väck skrivtråden när det finns en hel batch
+			Thread writer = logWriter;
+			if (writer != null) {
+				LockSupport.unpark(writer);
+			}
+		}
+	}
+
+	// skriver en batch loggmeddelanden i en transaktion, fel loggas men kastas inte vidare
+	// går batchen inte att skriva görs ett nytt försök med ett meddelande i taget så att
+	// bara de meddelanden som inte går att lagra försvinner
+	private void writeLogBatch(List<PendingLogEvent> batch) {
 		Connection c = null;
 		PreparedStatement pst = null;
+		boolean retrySingle = false;
 		try {
 			c = ds.getConnection();
 			pst = c.prepareStatement("insert into servicelog " +
 					"(serviceId, eventType, eventStep, eventTs, message) " +
 					"values (?, ?, ?, ?, ?)");
-			pst.setString(1, service.getId());
-			pst.setInt(2, eventType);
-			pst.setString(3, getStep(service).name());
-			pst.setTimestamp(4, new Timestamp(now.getTime()));
-			pst.setString(5, message);
-			pst.executeUpdate();
-			c.commit();
+			for (PendingLogEvent event: batch) {
+				pst.setString(1, event.serviceId);
+				pst.setInt(2, event.eventType);
+				pst.setString(3, event.eventStep);
+				pst.setTimestamp(4, event.eventTs);
+				// message är varchar(4000) i databasen
+				pst.setString(5, StringUtils.abbreviate(event.message, MAX_MESSAGE_LENGTH));
+				pst.addBatch();
+			}
+			pst.executeBatch();
+			DBUtil.commit(c);
 		} catch (Exception e) {
-			logger.error("Error when storing log messages for service " + service.getId() +
-					": " + message, e);
 			DBUtil.rollback(c);
+			if (batch.size() > 1) {
+				logger.warn("Error when storing " + batch.size() + " log messages, first for service " +
+						batch.get(0).serviceId + ", retrying one at a time", e);
+				retrySingle = true;
+			} else {
+				logger.error("Error when storing log message for service " + batch.get(0).serviceId + ": " +
+						batch.get(0).message, e);
+			}
 		} finally {
 			DBUtil.closeDBResources(null, pst, c);
 		}
+		if (retrySingle) {
+			for (PendingLogEvent event: batch) {
+				writeLogBatch(Collections.singletonList(event));
+			}
+		}
 	}
 
-	
 	/**
 	 * Rensar loggmeddelanden äldre än ca {@linkplain #LOG_THRESHHOLD_DAYS}.
 	 * @param service tjänst
 	 * @param now datum/tid att utgå från, vanligen "nu"
 	 */
 	protected void cleanDb(HarvestService service, Date now) {
+		flushLog();
 		Connection c = null;
 		PreparedStatement pst = null;
 		try {
@@ -332,4 +444,23 @@ public class StatusServiceImpl implements StatusService {
 			DBUtil.closeDBResources(null, pst, c);
 		}
 	}
+
+	/**
+	 * Loggmeddelande som väntar på att skrivas till databasen.
+	 */
+	static class PendingLogEvent {
+		final String serviceId;
+		final int eventType;
+		final String eventStep;
+		final Timestamp eventTs;
+		final String message;
+
+		PendingLogEvent(String serviceId, int eventType, String eventStep, Timestamp eventTs, String message) {
+			this.serviceId = serviceId;
+			this.eventType = eventType;
+			this.eventStep = eventStep;
+			this.eventTs = eventTs;
+			this.message = message;
+		}
+	}
 }
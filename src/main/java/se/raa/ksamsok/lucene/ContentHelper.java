@@ -45,6 +45,10 @@ public abstract class ContentHelper {
 	public static final String I_IX_LON = "_lon";
 	public static final String I_IX_LAT = "_lat";
 	public static final String I_IX_RELATIONS = "_relations";
+	public static final String I_IX_RELATION_EDGES = "_relationEdges";
+	public static final String I_IX_CONTENT_HASH = "_contentHash";
+	public static final String I_IX_RSS = "_rss";
+	public static final String I_IX_JSONLD = "_jsonld";
 
 	// generella
 
@@ -598,6 +602,10 @@ public abstract class ContentHelper {
 		addIndex(I_IX_LON, "longitud för centrumpunkt", IndexType.SPATIAL_COORDINATE, false, false);
 		addIndex(I_IX_LAT, "latitud för centrumpunkt", IndexType.SPATIAL_COORDINATE, false, false);
 		addIndex(I_IX_RELATIONS, "relationer", IndexType.VERBATIM, false, false);
+		addIndex(I_IX_RELATION_EDGES, "relationer nycklade på målobjekt, med invers (mål|invers|typ|källa)", IndexType.VERBATIM, false, false);
+		addIndex(I_IX_CONTENT_HASH, "kontrollsumma (sha-1) för rdf:en, används som etag", IndexType.VERBATIM, false, false);
+		addIndex(I_IX_RSS, "förberett data (json) för rss-flödet", IndexType.VERBATIM, false, false);
+		addIndex(I_IX_JSONLD, "rdf:en som json-ld (kompakt, platt)", IndexType.VERBATIM, false, false);
 		addIndex(CONTEXT_SET_REC + "." + IX_REC_IDENTIFIER, "identifierare", IndexType.VERBATIM, false, false);
 		// addIndex(I_IX_RDF, "rdf", IndexType.VERBATIM, false);
 
@@ -913,6 +921,22 @@ public abstract class ContentHelper {
 		return map;
 	}
 
+	/**
+	 * Ger totalt antal problemmeddelanden hittills för denna tråd, inklusive upprepningar.
+	 * 
+	 * @return antal meddelanden, 0 om mappen inte initierats
+	 */
+	public static int getProblemMessageCount() {
+		Map<String, Integer> map = problemMessages.get();
+		int count = 0;
+		if (map != null) {
+			for (Integer c : map.values()) {
+				count += c;
+			}
+		}
+		return count;
+	}
+
 	/**
 	 * Lägger till ett problemmeddelande för denna tråd/detta jobb.
 	 * 
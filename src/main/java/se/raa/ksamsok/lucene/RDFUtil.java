@@ -11,9 +11,13 @@ import org.apache.jena.rdf.model.Selector;
 import org.apache.jena.rdf.model.SimpleSelector;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
@@ -41,6 +45,33 @@ public class RDFUtil {
 		return m;
 	}
 
+	/**
+	 * Serialiserar en graf som kompakt och platt json-ld, formatet som api:t och resolvern
+	 * levererar. Jenas utdata skrivs om med org.json, utan radbrytningar och med samma
+	 * nyckelordning som api:t gav när posterna byggdes med {@link JSONObject}.
+	 * @param model graf
+	 * @return json-ld
+	 */
+	public static String toJSONLD(Model model) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		RDFDataMgr.write(out, model, RDFFormat.JSONLD_COMPACT_FLAT);
+		return new JSONObject(new String(out.toByteArray(), StandardCharsets.UTF_8)).toString();
+	}
+
+	/**
+	 * Serialiserar rdf/xml som kompakt och platt json-ld, se {@link #toJSONLD(Model)}.
+	 * @param rdfXml rdf/xml
+	 * @return json-ld
+	 */
+	public static String toJSONLD(String rdfXml) {
+		Model model = parseModel(rdfXml);
+		try {
+			return toJSONLD(model);
+		} finally {
+			model.close();
+		}
+	}
+
 	// läser ut ett värde ur subjektnoden eller subjektnodens objektnod om denna är en subjektnod
 	// och lägger till värdet mha indexprocessorn
 	static String extractValue(Model model, Resource subject, Property ref, Property refRef, IndexProcessor ip) throws Exception {
@@ -0,0 +1,459 @@
+package se.raa.ksamsok.lucene;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.rdf.model.Selector;
+import org.apache.jena.rdf.model.SimpleSelector;
+import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.rdf.model.StmtIterator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import se.raa.ksamsok.api.exception.DiagnosticException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Böna (typ) som håller data om en RSS entitet. Datat tas fram ur rdf-grafen vid indexering
+ * och lagras som json i indexet så att api-metoden rss kan skapa flödet utan att tolka rdf:en.
+ * @author Henrik Hjalmarsson
+ */
+public class RSSData
+{
+	private static final Logger logger = LogManager.getLogger(RSSData.class);
+
+	//fabriker
+	private static final DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
+	
+	//URIs för att navigera RDF
+	private static final String URI_PREFIX = "http://kulturarvsdata.se/";
+	private static final String URI_PREFIX_KSAMSOK = URI_PREFIX + "ksamsok#";
+	private static final URI URI_RDF_TYPE = URI.create("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+	private static final URI URI_KSAMSOK_ENTITY = URI.create(URI_PREFIX_KSAMSOK + "Entity");
+	private static final URI URI_PRESENTATION = URI.create(URI_PREFIX_KSAMSOK + "presentation");
+	private static final URI URI_ITEM_TITLE = URI.create(URI_PREFIX_KSAMSOK + "itemTitle");
+	private static final URI URI_ITEM_KEY_WORD = URI.create(URI_PREFIX_KSAMSOK + "itemKeyWord");
+	private static final URI URI_BUILD_DATE = URI.create(URI_PREFIX_KSAMSOK + "buildDate");
+
+	private String identifier;
+	private String title;
+	private String link;
+	private String description;
+	private String thumbnailUrl;
+	private String imageUrl;
+	private List<String> keyWords;
+	private String publishDate;
+	private String coords;
+	
+	public RSSData()
+	{
+		keyWords = new Vector<>();
+	}
+	
+	/**
+	 * returnerar listan med nyckelord som en array
+	 * @return
+	 */
+	public String[] getKeywordsAsArray()
+	{
+		String[] result = new String[keyWords.size()];
+		for(int i = 0; i < keyWords.size(); i++) {
+			result[i] = keyWords.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Lägger till ett nyckelord till nyckelordslistan
+	 * @param keyWord
+	 */
+	public void addKeyWord(String keyWord)
+	{
+		keyWords.add(keyWord);
+	}
+
+	public String getPublishDate()
+	{
+		return publishDate;
+	}
+
+	public void setPublishDate(String publishDate)
+	{
+		this.publishDate = publishDate;
+	}
+
+	public void setThumbnailUrl(String url)
+	{
+		thumbnailUrl = url;
+	}
+	
+	public String getThumbnailUrl()
+	{
+		return thumbnailUrl;
+	}
+	
+	public void setImageUrl(String url)
+	{
+		imageUrl = url;
+	}
+	
+	public String getImageUrl()
+	{
+		return imageUrl;
+	}
+	
+	public void setTitle(String title)
+	{
+		this.title = title;
+	}
+	
+	public String getTitle()
+	{
+		return title;
+	}
+	
+	public void setLink(String link)
+	{
+		this.link = link;
+	}
+	
+	public String getLink()
+	{
+		return link;
+	}
+	
+	public void setDescription(String description)
+	{
+		this.description = description;
+	}
+	
+	public String getDescription()
+	{
+		return description;
+	}
+
+	public void setCoords(String coords)
+	{
+		this.coords = coords;
+	}
+
+	public String getCoords()
+	{
+		return coords;
+	}
+	public String getIdentifier() {
+		return identifier;
+	}
+	public void setIdentifier(String identifier) {
+		this.identifier = identifier;
+	}
+
+	/**
+	 * Serialiserar objektet som json för lagring i indexet
+	 * @return json-sträng
+	 */
+	public String toJSON()
+	{
+		JSONObject json = new JSONObject();
+		json.putOpt("identifier", identifier);
+		json.putOpt("title", title);
+		json.putOpt("link", link);
+		json.putOpt("description", description);
+		json.putOpt("thumbnailUrl", thumbnailUrl);
+		json.putOpt("imageUrl", imageUrl);
+		if (!keyWords.isEmpty()) {
+			json.put("keyWords", new JSONArray(keyWords));
+		}
+		json.putOpt("publishDate", publishDate);
+		json.putOpt("coords", coords);
+		return json.toString();
+	}
+
+	/**
+	 * Skapar ett objekt från json lagrat i indexet
+	 * @param jsonString json-sträng från {@link #toJSON()}
+	 * @return rss-objekt
+	 */
+	public static RSSData fromJSON(String jsonString)
+	{
+		JSONObject json = new JSONObject(jsonString);
+		RSSData data = new RSSData();
+		data.setIdentifier(json.optString("identifier", null));
+		data.setTitle(json.optString("title", null));
+		data.setLink(json.optString("link", null));
+		data.setDescription(json.optString("description", null));
+		data.setThumbnailUrl(json.optString("thumbnailUrl", null));
+		data.setImageUrl(json.optString("imageUrl", null));
+		JSONArray keyWords = json.optJSONArray("keyWords");
+		if (keyWords != null) {
+			for (int i = 0; i < keyWords.length(); i++) {
+				data.addKeyWord(keyWords.getString(i));
+			}
+		}
+		data.setPublishDate(json.optString("publishDate", null));
+		data.setCoords(json.optString("coords", null));
+		return data;
+	}
+
+	/**
+	 * Hämtar data från RDF dokument
+	 * @param content textsträng innehållande RDF data
+	 * @return ett rss-objekt med data
+	 * @throws DiagnosticException - om fel uppstår vid hämtning av data 
+	 */
+	public static RSSData getData(String content) 
+		throws DiagnosticException
+	{
+		Model model;
+		model = getModel(content);
+		Property rRdfType = ResourceFactory.createProperty(URI_RDF_TYPE.toString());
+		RDFNode rKsamsokEntity = ResourceFactory.createResource(URI_KSAMSOK_ENTITY.toString());
+		Resource subject = getSubjectNode(model, rRdfType, rKsamsokEntity);
+		return getData(model, subject);
+	}
+
+	/**
+	 * Hämtar data från en redan tolkad RDF graf, används vid indexering för att förbereda
+	 * rss-datat så att flödet kan skapas utan att tolka rdf:en.
+	 * @param model RDF graf
+	 * @param subject posten (entiteten) i grafen
+	 * @return ett rss-objekt med data
+	 * @throws DiagnosticException - om fel uppstår vid hämtning av data 
+	 */
+	public static RSSData getData(Model model, Resource subject) 
+		throws DiagnosticException
+	{
+		RSSData data = new RSSData();
+		Property rPresentation = ResourceFactory.createProperty(URI_PRESENTATION.toString());
+		Property rItemTitle = ResourceFactory.createProperty(URI_ITEM_TITLE.toString());//elementFactory.createURIReference(URI_ITEM_TITLE);
+		Property rItemKeyWord = ResourceFactory.createProperty(URI_ITEM_KEY_WORD.toString());
+		Property rBuildDate = ResourceFactory.createProperty(URI_BUILD_DATE.toString());
+		data.setIdentifier(subject.toString());
+		data.setTitle(getValueFromGraph(model, subject, rItemTitle, null));
+		data = getDataFromPresentationBlock(getSingleValueFromGraph(model, subject, rPresentation), data);
+
+		String itemKeyWordsString = getValueFromGraph(model, subject, rItemKeyWord, null);
+		String[] itemKeyWords = new String[0];
+		if(itemKeyWordsString != null) {
+			itemKeyWords = itemKeyWordsString.split(" ");
+		}
+		for (String itemKeyWord : itemKeyWords) {
+			data.addKeyWord(itemKeyWord);
+		}
+		data.setPublishDate(getSingleValueFromGraph(model, subject, rBuildDate));
+		return data;
+	}
+	
+	/**
+	 * Skapar en RDF graf från textsträng
+	 * @param content RDF data som textsträng
+	 * @return RDF graf
+	 */
+	private static Model getModel(String content) {
+		Model m;
+		try (StringReader reader = new StringReader(content)) {
+			m = ModelFactory.createDefaultModel();
+			m.read(reader, "");
+		}
+		return m;
+	}
+	
+	/**
+	 * returnerar root subject noden
+	 * @param model - grafen som noden skall hämtas ur
+	 * @param rRdfType - URI referens till rdfType
+	 * @param rKsamsokEntity - URI referens till ksamsokEntity
+	 * @return en subject node
+	 * @throws DiagnosticException om något fel uppstår när subject noden skall hämtas ur grafen
+	 */
+	//TODO! Ska rKsamsokEntity vara URIReference?
+	private static Resource getSubjectNode(Model model, Property rRdfType, RDFNode rKsamsokEntity) 
+		throws DiagnosticException
+	{
+		Selector selector = new SimpleSelector(null, rRdfType, rKsamsokEntity);
+		StmtIterator iter = model.listStatements(selector);
+		Resource subject = null;
+		while (iter.hasNext()){
+			if (subject != null) {
+				throw new DiagnosticException("Ska bara finnas en entity i rdf-grafen", "se.raa.ksamsok.lucene.RSSData.getSubjectNode", null, true);
+			}
+			subject = iter.next().getSubject();
+		}
+		if (subject == null) {
+			logger.error("Hittade ingen entity i rdf-grafen:\n" + model);
+			throw new DiagnosticException("Hittade ingen entity i rdf-grafen", "se.raa.ksamsok.lucene.RSSData.getSubjectNode", null, true);
+		}
+		return subject;
+	}
+	
+	/**
+	 * hämtar data från presentationsblocket
+	 * @param presentationBlock presentationsblocket som textsträng
+	 * @param data Rss objektet som datan skall läggas i
+	 * @return RSSData med data
+	 */
+	private static RSSData getDataFromPresentationBlock(String presentationBlock, RSSData data)
+		throws DiagnosticException
+	{
+		org.w3c.dom.Document doc = getDOMDocument(presentationBlock); 
+		NodeList nodeList = doc.getElementsByTagName("pres:item").item(0).getChildNodes();
+		for(int i = 0; i < nodeList.getLength(); i++) {
+			Node node = nodeList.item(i);
+			switch (node.getNodeName()) {
+				case "pres:description":
+					if (data.getDescription() != null) {
+						data.setDescription(data.getDescription() + " " + node.getTextContent());
+					} else {
+						data.setDescription(node.getTextContent());
+					}
+					break;
+				case "pres:representations": {
+					NodeList childNodes = node.getChildNodes();
+					for (int j = 0; j < childNodes.getLength(); j++) {
+						Node child = childNodes.item(j);
+						if (child.getAttributes().getNamedItem("format").getTextContent().equals("HTML")) {
+							data.setLink(child.getTextContent());
+						}
+					}
+					break;
+				}
+				case "pres:image": {
+					NodeList childNodes = node.getChildNodes();
+					for (int j = 0; j < childNodes.getLength(); j++) {
+						Node child = childNodes.item(j);
+						if (child.getNodeName().equals("pres:src")) {
+							if (child.getAttributes().getNamedItem("type").getTextContent().equals("lowres")) {
+								data.setImageUrl(child.getTextContent());
+							} else if (child.getAttributes().getNamedItem("type").getTextContent().equals("thumbnail")) {
+								data.setThumbnailUrl(child.getTextContent());
+							}
+						}
+					}
+					break;
+				}
+				case "pres:itemLabel":
+					if (StringUtils.trimToNull(data.getTitle()) == null) {
+						data.setTitle(node.getTextContent());
+					}
+					break;
+				case "georss:where":
+					Node child = node.getFirstChild().getFirstChild();
+					data.setCoords(StringUtils.trimToNull(child.getTextContent()));
+					break;
+			}
+		}
+		return data;
+	}
+	
+	/**
+	 * Skapar ett DOM document för presentationsblocket
+	 * @param presentationBlock - presentationsblocket som textsträng
+	 * @return
+	 * @throws DiagnosticException
+	 */
+	private static org.w3c.dom.Document getDOMDocument(String presentationBlock)
+		throws DiagnosticException
+	{
+		StringReader reader = null;
+		org.w3c.dom.Document doc;
+		try {
+			reader = new StringReader(presentationBlock);
+			DocumentBuilder builder = domFactory.newDocumentBuilder();
+			doc = builder.parse(new InputSource(reader));
+		} catch (ParserConfigurationException | IOException | SAXException e) {
+			throw new DiagnosticException("Internt fel", "RSSData.getDOMDocument", e.getMessage(), true);
+		} finally {
+			if(reader != null) {
+				reader.close();
+			}
+		}
+		return doc;
+	}
+	
+	/**
+	 * Hämtar ett värde från RDF graf
+	 * @param m - grafen som värdet skall hämtas ur
+	 * @param sn - subject nod
+	 * @param pn - predicate nod
+	 * @return värde från graf som textsträng
+	 */
+	private static String getSingleValueFromGraph(Model m, Resource sn, Property pn) {
+		Selector selector = new SimpleSelector(sn, pn, (RDFNode) null);
+		StmtIterator iter = m.listStatements(selector);
+		String value = null;
+		while (iter.hasNext()){
+			Statement s = iter.next();
+			if (s.getObject().isLiteral()){
+				value = StringUtils.trimToNull(s.getObject().asLiteral().getString()) + " ";
+			} else if (s.getObject().isURIResource()) {
+				value = StringUtils.trimToNull(s.getObject().asResource().getURI());
+			}
+		}
+		return value;
+	}
+	
+	/**
+	 * Hämtar ett eller flera värden från given RDF graf
+	 * @param model - RDF graf
+	 * @param subject - subject nod
+	 * @param ref - URI referens till 
+	 * @param refRef - URI referens till eventuella subnoder
+	 * @return värden som textsträng
+	 */
+	private static String getValueFromGraph(Model model, Resource subject, Property ref, Property refRef) {
+		final String sep = " ";
+		StringBuilder buf = new StringBuilder();
+		String value;
+		Selector selector = new SimpleSelector(subject, ref, (RDFNode) null);
+		StmtIterator iter = model.listStatements(selector);
+		while (iter.hasNext()){
+			Statement s = iter.next();
+			if (s.getObject().isLiteral()){
+				Literal l = s.getObject().asLiteral();
+				if (buf.length() > 0) {
+					buf.append(sep);
+				}
+				value = l.getString();
+				buf.append(value);
+			} else if (s.getObject().isURIResource()){
+				Resource r =s.getObject().asResource();
+				value = StringUtils.trimToNull(r.getURI());
+				// lägg till i buffer bara om detta är en uri vi ska slå upp värde för
+				if (value != null) {
+					if (buf.length() > 0) {
+						buf.append(sep);
+					}
+					buf.append(value);
+				}
+			} else if (s.getObject().isResource()){
+				Resource r = s.getObject().asResource();
+				value = getSingleValueFromGraph(model, r, refRef);
+				if (value != null) {
+					if (buf.length() > 0) {
+						buf.append(sep);
+					}
+					buf.append(value);
+				}
+			}
+		}
+		return buf.length() > 0 ? StringUtils.trimToNull(buf.toString()) : null;
+	}
+}
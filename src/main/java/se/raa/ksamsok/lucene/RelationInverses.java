@@ -0,0 +1,135 @@
+package se.raa.ksamsok.lucene;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static se.raa.ksamsok.lucene.ContentHelper.*;
+
+/**
+ * Håller inverser för relationstyper. Används både vid indexering, för att lagra
+ * relationer åt bägge håll, och av api-metoderna för relationer.
+ */
+public final class RelationInverses {
+
+	/** map som håller inversen för varje relationstyp */
+	public static final Map<String, String> inverses;
+	/** lista som håller envägsrelationer */
+	public static final List<String> oneWay;
+
+	static {
+		Map<String, String> map = new HashMap<>();
+		// dubbelriktade
+		twoWay(map, IX_ISPARTOF, IX_HASPART);
+		twoWay(map, IX_CONTAINSOBJECT, IX_ISCONTAINEDIN);
+		twoWay(map, IX_ISFOUNDIN, IX_HASFIND);
+		twoWay(map, IX_HASCHILD, IX_HASPARENT);
+		twoWay(map, IX_VISUALIZES, IX_ISVISUALIZEDBY);
+		twoWay(map, IX_ISDESCRIBEDBY, IX_DESCRIBES);
+		twoWay(map, IX_HASOBJECTEXAMPLE, IX_ISOBJECTEXAMPLEFOR);
+		twoWay(map, IX_ISMENTIONEDBY, IX_MENTIONS);
+		twoWay(map, IX_REPLACES, IX_ISREPLACEDBY);
+
+		// bio (lite special)
+		map.put(IX_FATHER, IX_CHILD);
+		map.put(IX_MOTHER, IX_CHILD);
+		twoWay(map, IX_CHILD, IX_PARENT);
+
+		// cidoc
+		twoWay(map, IX_HASFORMERORCURRENTOWNER, IX_ISFORMERORCURRENTOWNEROF);
+		twoWay(map, IX_HASFORMERORCURRENTKEEPER, IX_ISFORMERORCURRENTKEEPEROF);
+		twoWay(map, IX_HASCREATED, IX_WASCREATEDBY);
+		twoWay(map, IX_HASRIGHTON, IX_RIGHTHELDBY);
+		twoWay(map, IX_WASPRESENTAT, IX_OCCUREDINTHEPRESENCEOF);
+		twoWay(map, IX_HADPARTICIPANT, IX_PARTICIPATEDIN);
+		twoWay(map, IX_ISCURRENTORFORMERMEMBEROF, IX_HASCURRENTORFORMERMEMBER);
+
+		// roller, obs rollerna har fn inga invers-index, dvs man kan inte ange
+		// (eller rättare sagt det indexeras inte) tex en författares verk
+		// från toppnivån av författarobjektet då man helst vill kunna få med
+		// år etc från kontextet vilket man inte kan få om relationen går åt andra hållet
+		twoWay(map, IX_CLIENT, IX_CLIENT_OF);
+		twoWay(map, IX_COMPOSER, IX_COMPOSER_OF);
+		twoWay(map, IX_AUTHOR, IX_AUTHOR_OF);
+		twoWay(map, IX_ARCHITECT, IX_ARCHITECT_OF);
+		twoWay(map, IX_INVENTOR, IX_INVENTOR_OF);
+		twoWay(map, IX_SCENOGRAPHER, IX_SCENOGRAPHER_OF);
+		twoWay(map, IX_DESIGNER, IX_DESIGNER_OF);
+		twoWay(map, IX_PRODUCER, IX_PRODUCER_OF);
+		twoWay(map, IX_ORGANIZER, IX_ORGANIZER_OF);
+		twoWay(map, IX_DIRECTOR, IX_DIRECTOR_OF);
+		twoWay(map, IX_PHOTOGRAPHER, IX_PHOTOGRAPHER_OF);
+		twoWay(map, IX_PAINTER, IX_PAINTER_OF);
+		twoWay(map, IX_BUILDER, IX_BUILDER_OF);
+		twoWay(map, IX_MASTERBUILDER, IX_MASTERBUILDER_OF);
+		twoWay(map, IX_CONSTRUCTIONCLIENT, IX_CONSTRUCTIONCLIENT_OF);
+		twoWay(map, IX_ENGRAVER, IX_ENGRAVER_OF);
+		twoWay(map, IX_MINTMASTER, IX_MINTMASTER_OF);
+		twoWay(map, IX_ARTIST, IX_ARTIST_OF);
+		twoWay(map, IX_DESIGNENGINEER, IX_DESIGNENGINEER_OF);
+		twoWay(map, IX_CARPENTER, IX_CARPENTER_OF);
+		twoWay(map, IX_MASON, IX_MASON_OF);
+		twoWay(map, IX_TECHNICIAN, IX_TECHNICIAN_OF);
+		twoWay(map, IX_PUBLISHER, IX_PUBLISHER_OF);
+		twoWay(map, IX_PUBLICIST, IX_PUBLICIST_OF);
+		twoWay(map, IX_MUSICIAN, IX_MUSICIAN_OF);
+		twoWay(map, IX_ACTORACTRESS, IX_ACTORACTRESS_OF);
+		twoWay(map, IX_PRINTER, IX_PRINTER_OF);
+		twoWay(map, IX_SIGNER, IX_SIGNER_OF);
+		twoWay(map, IX_FINDER, IX_FINDER_OF);
+		twoWay(map, IX_ABANDONEE, IX_ABANDONEE_OF);
+		twoWay(map, IX_INTERMEDIARY, IX_INTERMEDIARY_OF);
+		twoWay(map, IX_BUYER, IX_BUYER_OF);
+		twoWay(map, IX_SELLER, IX_SELLER_OF);
+		twoWay(map, IX_GENERALAGENT, IX_GENERALAGENT_OF);
+		twoWay(map, IX_DONOR, IX_DONOR_OF);
+		twoWay(map, IX_DEPOSITOR, IX_DEPOSITOR_OF);
+		twoWay(map, IX_RESELLER, IX_RESELLER_OF);
+		twoWay(map, IX_INVENTORYTAKER, IX_INVENTORYTAKER_OF);
+		twoWay(map, IX_EXCAVATOR, IX_EXCAVATOR_OF);
+		twoWay(map, IX_EXAMINATOR, IX_EXAMINATOR_OF);
+		twoWay(map, IX_CONSERVATOR, IX_CONSERVATOR_OF);
+		twoWay(map, IX_ARCHIVECONTRIBUTOR, IX_ARCHIVECONTRIBUTOR_OF);
+		twoWay(map, IX_INTERVIEWER, IX_INTERVIEWER_OF);
+		twoWay(map, IX_INFORMANT, IX_INFORMANT_OF);
+		twoWay(map, IX_PATENTHOLDER, IX_PATENTHOLDER_OF);
+		twoWay(map, IX_USER, IX_USER_OF);
+		twoWay(map, IX_SCANNEROPERATOR, IX_SCANNEROPERATOR_OF);
+		twoWay(map, IX_PICTUREEDITOR, IX_PICTUREEDITOR_OF);
+		twoWay(map, IX_EMPLOYER, IX_EMPLOYER_OF);
+
+		// enkelriktade
+		map.put(IX_HASBEENUSEDIN, IX_ISRELATEDTO);
+		map.put(IX_HASIMAGE, IX_ISRELATEDTO);
+		map.put(IX_CONTAINSINFORMATIONABOUT, IX_ISMENTIONEDBY);
+		oneWay = Collections.unmodifiableList(Arrays.asList(
+				IX_CONTAINSINFORMATIONABOUT, IX_HASBEENUSEDIN,
+				IX_HASIMAGE, IX_FATHER, IX_MOTHER));
+
+		// samma i bägge riktningarna
+		map.put(IX_ISRELATEDTO, IX_ISRELATEDTO);
+		map.put(IX_SAMEAS, IX_SAMEAS);
+		map.put(IX_MARRIEDTO, IX_MARRIEDTO);
+
+		inverses = Collections.unmodifiableMap(map);
+	}
+
+	// lägger till relationerna åt bägge håll
+	private static void twoWay(Map<String, String> map, String relA, String relB) {
+		map.put(relA, relB);
+		map.put(relB, relA);
+	}
+
+	private RelationInverses() {}
+
+	/**
+	 * Ger inversen för en relationstyp.
+	 * @param relationType relationstyp (indexnamn)
+	 * @return inversens relationstyp eller null om den inte är känd
+	 */
+	public static String getInverse(String relationType) {
+		return inverses.get(relationType);
+	}
+}
@@ -36,6 +36,8 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -50,6 +52,7 @@ public class SamsokContentHelper extends ContentHelper {
 	private static DocumentBuilderFactory xmlFact;
 	private static TransformerFactory xformerFact;
 	private boolean requireMediaLicense;
+	private boolean prepareResponseData;
 
 	// protocol numbers for comparison
 	public final static ProtocolNumber PROTOCOL_NUMBER_1_0 = createProtocolNumber("1.0");
@@ -65,7 +68,17 @@ public class SamsokContentHelper extends ContentHelper {
 	}
 
 	public SamsokContentHelper(boolean requireMediaLicense) {
+		this(requireMediaLicense, true);
+	}
+
+	/**
+	 * @param requireMediaLicense om medialicens krävs
+	 * @param prepareResponseData om färdiga svarsdata (rss, json-ld) ska tas fram, behövs inte
+	 * när dokumentet bara används för att läsa ut fältvärden
+	 */
+	public SamsokContentHelper(boolean requireMediaLicense, boolean prepareResponseData) {
 		this.requireMediaLicense = requireMediaLicense;
+		this.prepareResponseData = prepareResponseData;
 	}
 
 
@@ -173,6 +186,10 @@ public class SamsokContentHelper extends ContentHelper {
 			if (relations.size() > 0) {
 				for (String value: relations) {
 					luceneDoc.addField(I_IX_RELATIONS, value);
+					String edge = createRelationEdge(identifier, value);
+					if (edge != null) {
+						luceneDoc.addField(I_IX_RELATION_EDGES, edge);
+					}
 				}
 			}
 
@@ -187,11 +204,29 @@ public class SamsokContentHelper extends ContentHelper {
 				// lagra binärt, kodat i UTF-8
 				byte[] presBytes = pres.getBytes(StandardCharsets.UTF_8);
 				luceneDoc.addField(I_IX_PRES, Base64.byteArrayToBase64(presBytes, 0, presBytes.length));
+				// förbered data för rss-flödet så att rdf:en inte behöver tolkas vid sökning
+				if (prepareResponseData) {
+					try {
+						luceneDoc.addField(I_IX_RSS, RSSData.getData(model, subject).toJSON());
+					} catch (Exception e) {
+						addProblemMessage("Could not extract rss data for " + identifier + ": " + e.getMessage());
+					}
+				}
 			}
 
 			// lagra rdf:en 
 			byte[] rdfBytes = xmlContent.getBytes(StandardCharsets.UTF_8);
 			luceneDoc.addField(I_IX_RDF, Base64.byteArrayToBase64(rdfBytes, 0, rdfBytes.length));
+			// kontrollsumma så att resolvern kan svara på villkorade anrop utan att hämta rdf:en
+			luceneDoc.addField(I_IX_CONTENT_HASH, createContentHash(rdfBytes));
+			// json-ld tas fram här en gång istället för för varje sökträff och resolver-anrop
+			if (prepareResponseData) {
+				try {
+					luceneDoc.addField(I_IX_JSONLD, RDFUtil.toJSONLD(model));
+				} catch (Exception e) {
+					addProblemMessage("Could not create json-ld for " + identifier + ": " + e.getMessage());
+				}
+			}
 
 		}
 		catch (Exception e) {
@@ -209,6 +244,38 @@ public class SamsokContentHelper extends ContentHelper {
 		return luceneDoc;
 	}
 
+	/**
+	 * Skapar en relationskant nycklad på relationens mål så att alla relationer som pekar på ett
+	 * objekt kan slås upp med prefixet "mål|" utan att de relaterade posterna behöver hämtas.
+	 * Värdet har formatet mål|invers|typ|källa där inversen är tom om den inte är känd.
+	 * @param identifier källpostens identifierare
+	 * @param relation relation på formatet typ|uri
+	 * @return relationskant eller null om relationen inte är på korrekt format
+	 */
+	static String createRelationEdge(String identifier, String relation) {
+		String[] parts = relation.split("\\|");
+		if (parts.length != 2) {
+			return null;
+		}
+		String inverse = RelationInverses.getInverse(parts[0]);
+		return parts[1] + "|" + (inverse != null ? inverse : "") + "|" + parts[0] + "|" + identifier;
+	}
+
+	/**
+	 * Skapar en kontrollsumma (sha-1, hex) för innehåll.
+	 * @param content innehåll
+	 * @return kontrollsumma
+	 * @throws NoSuchAlgorithmException om sha-1 inte stöds (ska inte hända)
+	 */
+	static String createContentHash(byte[] content) throws NoSuchAlgorithmException {
+		byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+		StringBuilder hash = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hash.toString();
+	}
+
 	private static ProtocolNumber createProtocolNumber(String protocolNumber) {
 		try {
 			return new ProtocolNumber(protocolNumber);
@@ -0,0 +1,600 @@
+package se.raa.ksamsok.oaipmh;
+
+import se.raa.ksamsok.harvest.DBUtil;
+import se.raa.ksamsok.util.XMLUtil;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * OAI-PMH 2.0-leverantör för det aggregerade innehållet i content-tabellen. Posterna levereras
+ * som k-samsök-rdf med content.changed som datestamp och en set per tjänst.
+ * Listor pagineras med resumptionTokens som innehåller senast levererade (changed, idnum) så
+ * att varje sida är en indexslagning oavsett hur långt in i listan man är, och ändringar under
+ * pagineringen inte gör att poster hoppas över.
+ * En skörd sätter changed till när den startade men checkar in posterna först när den är klar,
+ * därför hålls listor och responseDate tillbaka till före starten av pågående skrivningar
+ * (tabellen contentwrite) så att en inkrementell skördare inte missar poster som checkas in
+ * efter att den läst listan.
+ */
+public class OAIPMHProvider {
+
+	/** det enda metadataformatet, rdf:en som den skördats */
+	static final String METADATA_PREFIX = "ksamsok-rdf";
+	static final String METADATA_NAMESPACE = "http://kulturarvsdata.se/schema/ksamsok-rdf#";
+	static final String METADATA_SCHEMA = "http://www.w3.org/2000/07/rdf.xsd";
+	/** standardvärde för antal poster per sida */
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	static final String VERB = "verb";
+	static final String IDENTIFIER = "identifier";
+	static final String METADATA_PREFIX_ARG = "metadataPrefix";
+	static final String FROM = "from";
+	static final String UNTIL = "until";
+	static final String SET = "set";
+	static final String RESUMPTION_TOKEN = "resumptionToken";
+
+	private static final String REPOSITORY_NAME = "K-samsök";
+	private static final String PROTOCOL_VERSION = "2.0";
+	private static final DateTimeFormatter dateTimeFormatter =
+			DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+	private static final Pattern DAY = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+	private static final Pattern SECONDS = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}Z");
+	// xml-deklarationen får inte följa med in i svaret
+	private static final Pattern XML_DECLARATION = Pattern.compile("^\\s*<\\?xml[^>]*\\?>");
+	private static final String TOKEN_SEPARATOR = "|";
+	// skrivmarkeringar som är äldre än så här har lämnats kvar efter en krasch och ignoreras
+	static final long MAX_WRITE_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private final DataSource ds;
+	private final String adminEmail;
+	private final int pageSize;
+
+	/**
+	 * Skapar en leverantör med standardstorlek på sidor.
+	 * @param ds datakälla med content och harvestservices
+	 * @param adminEmail e-postadress som anges i Identify
+	 */
+	public OAIPMHProvider(DataSource ds, String adminEmail) {
+		this(ds, adminEmail, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Skapar en leverantör.
+	 * @param ds datakälla med content och harvestservices
+	 * @param adminEmail e-postadress som anges i Identify
+	 * @param pageSize max antal poster per sida i listor
+	 */
+	public OAIPMHProvider(DataSource ds, String adminEmail, int pageSize) {
+		this.ds = ds;
+		this.adminEmail = adminEmail;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Hanterar en OAI-PMH-begäran och skriver svaret. Protokollfel skrivs som error-element
+	 * enligt protokollet.
+	 * @param params begärans parametrar
+	 * @param baseURL leverantörens bas-url
+	 * @param w skrivare för svaret
+	 * @throws IOException vid skrivfel
+	 * @throws SQLException vid databasfel, innan något har skrivits för fel som upptäcks vid frågan
+	 */
+	public void handle(Map<String, String[]> params, String baseURL, Writer w) throws IOException, SQLException {
+		Map<String, String> args = new LinkedHashMap<>();
+		Instant responseDate = Instant.now();
+		try {
+			for (Map.Entry<String, String[]> param : params.entrySet()) {
+				if (param.getValue().length != 1) {
+					throw new OAIPMHException("badArgument", "Upprepat argument " + param.getKey());
+				}
+				args.put(param.getKey(), param.getValue()[0]);
+			}
+			String verb = args.get(VERB);
+			if (verb == null) {
+				throw new OAIPMHException("badVerb", "Verb saknas");
+			}
+			switch (verb) {
+				case "Identify":
+					checkArguments(args, Collections.emptySet(), Collections.emptySet());
+					identify(args, baseURL, w);
+					break;
+				case "ListMetadataFormats":
+					checkArguments(args, Collections.emptySet(), Collections.singleton(IDENTIFIER));
+					listMetadataFormats(args, baseURL, w);
+					break;
+				case "ListSets":
+					checkArguments(args, Collections.emptySet(), Collections.singleton(RESUMPTION_TOKEN));
+					listSets(args, baseURL, w);
+					break;
+				case "GetRecord":
+					checkArguments(args, new HashSet<>(Arrays.asList(IDENTIFIER, METADATA_PREFIX_ARG)),
+							Collections.emptySet());
+					getRecord(args, baseURL, w);
+					break;
+				case "ListIdentifiers":
+				case "ListRecords":
+					if (args.containsKey(RESUMPTION_TOKEN)) {
+						checkArguments(args, Collections.singleton(RESUMPTION_TOKEN), Collections.emptySet());
+					} else {
+						checkArguments(args, Collections.singleton(METADATA_PREFIX_ARG),
+								new HashSet<>(Arrays.asList(FROM, UNTIL, SET)));
+					}
+					ListRequest request;
+					if (args.containsKey(RESUMPTION_TOKEN)) {
+						request = ListRequest.fromToken(args.get(RESUMPTION_TOKEN));
+					} else {
+						request = ListRequest.fromArguments(args);
+					}
+					Timestamp cutoff = getWriteCutoff(request.set, responseDate);
+					if (cutoff != null && cutoff.toInstant().isBefore(responseDate)) {
+						responseDate = cutoff.toInstant();
+					}
+					list(request, cutoff, responseDate, args, baseURL, w, "ListRecords".equals(verb));
+					break;
+				default:
+					throw new OAIPMHException("badVerb", "Okänt verb " + verb);
+			}
+		} catch (OAIPMHException e) {
+			// request-elementet ska bara ha attribut om verb och argument är korrekta
+			boolean validRequest = !"badVerb".equals(e.code) && !"badArgument".equals(e.code);
+			writeStart(w, validRequest ? args : Collections.emptyMap(), baseURL, responseDate);
+			w.write("<error code=\"" + e.code + "\">" + XMLUtil.escapeXml(e.getMessage()) + "</error>\n");
+			writeEnd(w);
+		}
+	}
+
+	private void identify(Map<String, String> args, String baseURL, Writer w) throws IOException, SQLException {
+		Timestamp earliest = null;
+		Connection c = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			ps = c.prepareStatement("SELECT min(changed) FROM content");
+			rs = ps.executeQuery();
+			if (rs.next()) {
+				earliest = rs.getTimestamp(1);
+			}
+		} finally {
+			DBUtil.closeDBResources(rs, ps, c);
+		}
+		writeStart(w, args, baseURL);
+		w.write("<Identify>\n");
+		w.write("<repositoryName>" + XMLUtil.escapeXml(REPOSITORY_NAME) + "</repositoryName>\n");
+		w.write("<baseURL>" + XMLUtil.escapeXml(baseURL) + "</baseURL>\n");
+		w.write("<protocolVersion>" + PROTOCOL_VERSION + "</protocolVersion>\n");
+		w.write("<adminEmail>" + XMLUtil.escapeXml(adminEmail) + "</adminEmail>\n");
+		w.write("<earliestDatestamp>" + formatDate(earliest != null ? earliest : new Timestamp(0)) +
+				"</earliestDatestamp>\n");
+		// borttagna poster finns kvar tills tjänsten tas bort
+		w.write("<deletedRecord>transient</deletedRecord>\n");
+		w.write("<granularity>YYYY-MM-DDThh:mm:ssZ</granularity>\n");
+		w.write("</Identify>\n");
+		writeEnd(w);
+	}
+
+	private void listMetadataFormats(Map<String, String> args, String baseURL, Writer w)
+			throws IOException, SQLException, OAIPMHException {
+		String identifier = args.get(IDENTIFIER);
+		if (identifier != null && getRecordRow(identifier, false) == null) {
+			throw new OAIPMHException("idDoesNotExist", "Posten " + identifier + " finns inte");
+		}
+		writeStart(w, args, baseURL);
+		w.write("<ListMetadataFormats>\n<metadataFormat>\n");
+		w.write("<metadataPrefix>" + METADATA_PREFIX + "</metadataPrefix>\n");
+		w.write("<schema>" + METADATA_SCHEMA + "</schema>\n");
+		w.write("<metadataNamespace>" + METADATA_NAMESPACE + "</metadataNamespace>\n");
+		w.write("</metadataFormat>\n</ListMetadataFormats>\n");
+		writeEnd(w);
+	}
+
+	private void listSets(Map<String, String> args, String baseURL, Writer w)
+			throws IOException, SQLException, OAIPMHException {
+		if (args.containsKey(RESUMPTION_TOKEN)) {
+			// alla set levereras på en gång så det finns inga giltiga tokens
+			throw new OAIPMHException("badResumptionToken", "Ogiltig resumptionToken");
+		}
+		Map<String, String> sets = new LinkedHashMap<>();
+		Connection c = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			ps = c.prepareStatement("SELECT serviceid, name FROM harvestservices ORDER BY serviceid");
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				sets.put(rs.getString("serviceid"), rs.getString("name"));
+			}
+		} finally {
+			DBUtil.closeDBResources(rs, ps, c);
+		}
+		if (sets.isEmpty()) {
+			throw new OAIPMHException("noSetHierarchy", "Det finns inga set");
+		}
+		writeStart(w, args, baseURL);
+		w.write("<ListSets>\n");
+		for (Map.Entry<String, String> set : sets.entrySet()) {
+			w.write("<set><setSpec>" + XMLUtil.escapeXml(set.getKey()) + "</setSpec><setName>" +
+					XMLUtil.escapeXml(set.getValue() != null ? set.getValue() : set.getKey()) + "</setName></set>\n");
+		}
+		w.write("</ListSets>\n");
+		writeEnd(w);
+	}
+
+	private void getRecord(Map<String, String> args, String baseURL, Writer w)
+			throws IOException, SQLException, OAIPMHException {
+		checkMetadataPrefix(args.get(METADATA_PREFIX_ARG));
+		String identifier = args.get(IDENTIFIER);
+		RecordRow row = getRecordRow(identifier, true);
+		if (row == null) {
+			throw new OAIPMHException("idDoesNotExist", "Posten " + identifier + " finns inte");
+		}
+		writeStart(w, args, baseURL);
+		w.write("<GetRecord>\n");
+		writeRecord(w, row, true);
+		w.write("</GetRecord>\n");
+		writeEnd(w);
+	}
+
+	/**
+	 * Hämtar starten för den äldsta pågående skrivningen av poster, för en tjänst eller alla.
+	 * @param set tjänst eller null för alla
+	 * @param now aktuell tid
+	 * @return starttid eller null om ingen skrivning pågår
+	 * @throws SQLException vid databasfel
+	 */
+	private Timestamp getWriteCutoff(String set, Instant now) throws SQLException {
+		Timestamp cutoff = null;
+		Connection c = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			ps = c.prepareStatement("SELECT min(writestart) FROM contentwrite WHERE writestart > ?" +
+					(set != null ? " AND serviceid = ?" : ""));
+			ps.setTimestamp(1, Timestamp.from(now.minusMillis(MAX_WRITE_AGE_MILLIS)));
+			if (set != null) {
+				ps.setString(2, set);
+			}
+			rs = ps.executeQuery();
+			if (rs.next()) {
+				cutoff = rs.getTimestamp(1);
+			}
+		} finally {
+			DBUtil.closeDBResources(rs, ps, c);
+		}
+		return cutoff;
+	}
+
+	private void list(ListRequest request, Timestamp cutoff, Instant responseDate, Map<String, String> args,
+			String baseURL, Writer w, boolean records) throws IOException, SQLException, OAIPMHException {
+		StringBuilder sql = new StringBuilder("SELECT uri, serviceid, changed, deleted, idnum");
+		if (records) {
+			sql.append(", xmldata");
+		}
+		sql.append(" FROM content WHERE changed IS NOT NULL");
+		List<Object> sqlParams = new ArrayList<>();
+		if (request.from != null) {
+			sql.append(" AND changed >= ?");
+			sqlParams.add(request.from);
+		}
+		if (request.until != null) {
+			sql.append(" AND changed < ?");
+			sqlParams.add(request.until);
+		}
+		if (cutoff != null) {
+			// inte förbi starten för en pågående skrivning, se getWriteCutoff
+			sql.append(" AND changed < ?");
+			sqlParams.add(cutoff);
+		}
+		if (request.set != null) {
+			sql.append(" AND serviceid = ?");
+			sqlParams.add(request.set);
+		}
+		if (request.lastChanged != null) {
+			// fortsätt efter senast levererade post, använder indexet på (changed, idnum)
+			// eller (serviceid, changed, idnum) för en mängd
+			sql.append(" AND (changed, idnum) > (?, ?)");
+			sqlParams.add(request.lastChanged);
+			sqlParams.add(request.lastIdnum);
+		}
+		// en extra rad för att veta om det finns fler
+		sql.append(" ORDER BY changed, idnum LIMIT ?");
+		sqlParams.add(pageSize + 1);
+		Connection c = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			ps = c.prepareStatement(sql.toString());
+			int i = 0;
+			for (Object param : sqlParams) {
+				ps.setObject(++i, param);
+			}
+			ps.setFetchSize(DBUtil.FETCH_SIZE);
+			rs = ps.executeQuery();
+			if (!rs.next()) {
+				throw new OAIPMHException("noRecordsMatch", "Inga poster matchar");
+			}
+			writeStart(w, args, baseURL, responseDate);
+			w.write("<" + args.get(VERB) + ">\n");
+			int count = 0;
+			RecordRow last = null;
+			boolean more = false;
+			do {
+				if (count == pageSize) {
+					more = true;
+					break;
+				}
+				last = new RecordRow(rs, records);
+				if (records) {
+					writeRecord(w, last, true);
+				} else {
+					writeHeader(w, last);
+				}
+				++count;
+			} while (rs.next());
+			if (more) {
+				w.write("<resumptionToken>" + XMLUtil.escapeXml(request.nextToken(last)) + "</resumptionToken>\n");
+			} else if (request.lastChanged != null) {
+				// tom token avslutar en lista som har paginerats
+				w.write("<resumptionToken/>\n");
+			}
+			w.write("</" + args.get(VERB) + ">\n");
+			writeEnd(w);
+		} finally {
+			DBUtil.closeDBResources(rs, ps, c);
+		}
+	}
+
+	/**
+	 * Hämtar en post, i första hand en som inte är borttagen om samma uri finns i flera tjänster.
+	 * @param uri postens uri
+	 * @param withData om xml-data ska hämtas
+	 * @return post eller null
+	 * @throws SQLException vid databasfel
+	 */
+	private RecordRow getRecordRow(String uri, boolean withData) throws SQLException {
+		RecordRow row = null;
+		Connection c = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			ps = c.prepareStatement("SELECT uri, serviceid, changed, deleted, idnum" + (withData ? ", xmldata" : "") +
+					" FROM content WHERE uri = ? AND changed IS NOT NULL" +
+					" ORDER BY CASE WHEN deleted IS NULL THEN 0 ELSE 1 END, changed DESC LIMIT 1");
+			ps.setString(1, uri);
+			rs = ps.executeQuery();
+			if (rs.next()) {
+				row = new RecordRow(rs, withData);
+			}
+		} finally {
+			DBUtil.closeDBResources(rs, ps, c);
+		}
+		return row;
+	}
+
+	private void writeRecord(Writer w, RecordRow row, boolean withData) throws IOException {
+		w.write("<record>\n");
+		writeHeader(w, row);
+		if (withData && row.deleted == null && row.xmlData != null) {
+			w.write("<metadata>\n");
+			w.write(XML_DECLARATION.matcher(row.xmlData).replaceFirst(""));
+			w.write("\n</metadata>\n");
+		}
+		w.write("</record>\n");
+	}
+
+	private void writeHeader(Writer w, RecordRow row) throws IOException {
+		w.write(row.deleted != null ? "<header status=\"deleted\">" : "<header>");
+		w.write("<identifier>" + XMLUtil.escapeXml(row.uri) + "</identifier>");
+		w.write("<datestamp>" + formatDate(row.changed) + "</datestamp>");
+		if (row.serviceId != null) {
+			w.write("<setSpec>" + XMLUtil.escapeXml(row.serviceId) + "</setSpec>");
+		}
+		w.write("</header>\n");
+	}
+
+	private void writeStart(Writer w, Map<String, String> args, String baseURL) throws IOException {
+		writeStart(w, args, baseURL, Instant.now());
+	}
+
+	private void writeStart(Writer w, Map<String, String> args, String baseURL, Instant responseDate)
+			throws IOException {
+		w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		w.write("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\" " +
+				"xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+				"xsi:schemaLocation=\"http://www.openarchives.org/OAI/2.0/ " +
+				"http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd\">\n");
+		w.write("<responseDate>" + dateTimeFormatter.format(responseDate) + "</responseDate>\n");
+		w.write("<request");
+		for (Map.Entry<String, String> arg : args.entrySet()) {
+			w.write(" " + arg.getKey() + "=\"" + XMLUtil.escapeXml(arg.getValue()) + "\"");
+		}
+		w.write(">" + XMLUtil.escapeXml(baseURL) + "</request>\n");
+	}
+
+	private void writeEnd(Writer w) throws IOException {
+		w.write("</OAI-PMH>\n");
+		w.flush();
+	}
+
+	/**
+	 * Kontrollerar att alla obligatoriska argument finns och att inga okända finns.
+	 */
+	private static void checkArguments(Map<String, String> args, Set<String> required, Set<String> optional)
+			throws OAIPMHException {
+		for (String name : required) {
+			if (args.get(name) == null) {
+				throw new OAIPMHException("badArgument", "Argumentet " + name + " saknas");
+			}
+		}
+		for (String name : args.keySet()) {
+			if (!VERB.equals(name) && !required.contains(name) && !optional.contains(name)) {
+				throw new OAIPMHException("badArgument", "Otillåtet argument " + name);
+			}
+		}
+	}
+
+	private static void checkMetadataPrefix(String metadataPrefix) throws OAIPMHException {
+		if (!METADATA_PREFIX.equals(metadataPrefix)) {
+			throw new OAIPMHException("cannotDisseminateFormat", "Formatet " + metadataPrefix + " stöds inte");
+		}
+	}
+
+	/**
+	 * Tolkar ett from- eller until-datum med dags- eller sekundupplösning.
+	 * @param value datum
+	 * @param until true för until, som ger början av nästa dag eller sekund (exklusiv gräns)
+	 * @return tidpunkt
+	 * @throws OAIPMHException vid ogiltigt datum
+	 */
+	static Timestamp parseDate(String value, boolean until) throws OAIPMHException {
+		try {
+			Instant instant;
+			if (DAY.matcher(value).matches()) {
+				instant = LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant();
+				if (until) {
+					instant = instant.plus(1, ChronoUnit.DAYS);
+				}
+			} else if (SECONDS.matcher(value).matches()) {
+				instant = Instant.parse(value);
+				if (until) {
+					instant = instant.plusSeconds(1);
+				}
+			} else {
+				throw new OAIPMHException("badArgument", "Ogiltigt datum " + value);
+			}
+			// changed lagras som lokal tid
+			return Timestamp.from(instant);
+		} catch (DateTimeParseException e) {
+			throw new OAIPMHException("badArgument", "Ogiltigt datum " + value);
+		}
+	}
+
+	static String formatDate(Timestamp ts) {
+		return dateTimeFormatter.format(ts.toInstant());
+	}
+
+	/**
+	 * En rad ur content.
+	 */
+	private static class RecordRow {
+		final String uri;
+		final String serviceId;
+		final Timestamp changed;
+		final Timestamp deleted;
+		final long idnum;
+		final String xmlData;
+
+		RecordRow(ResultSet rs, boolean withData) throws SQLException {
+			uri = rs.getString("uri");
+			serviceId = rs.getString("serviceid");
+			changed = rs.getTimestamp("changed");
+			deleted = rs.getTimestamp("deleted");
+			idnum = rs.getLong("idnum");
+			xmlData = withData ? rs.getString("xmldata") : null;
+		}
+	}
+
+	/**
+	 * Urval för ListRecords och ListIdentifiers, med position för fortsättning från en
+	 * resumptionToken.
+	 */
+	private static class ListRequest {
+		String set;
+		Timestamp from;
+		Timestamp until;
+		Timestamp lastChanged;
+		long lastIdnum;
+
+		static ListRequest fromArguments(Map<String, String> args) throws OAIPMHException {
+			checkMetadataPrefix(args.get(METADATA_PREFIX_ARG));
+			ListRequest request = new ListRequest();
+			request.set = args.get(SET);
+			String from = args.get(FROM);
+			String until = args.get(UNTIL);
+			if (from != null) {
+				request.from = parseDate(from, false);
+			}
+			if (until != null) {
+				request.until = parseDate(until, true);
+			}
+			if (from != null && until != null) {
+				if (from.length() != until.length()) {
+					throw new OAIPMHException("badArgument", "from och until har olika upplösning");
+				}
+				if (!request.from.before(request.until)) {
+					throw new OAIPMHException("badArgument", "from är efter until");
+				}
+			}
+			return request;
+		}
+
+		static ListRequest fromToken(String token) throws OAIPMHException {
+			try {
+				String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+						.split(Pattern.quote(TOKEN_SEPARATOR), -1);
+				if (parts.length != 5) {
+					throw new OAIPMHException("badResumptionToken", "Ogiltig resumptionToken");
+				}
+				ListRequest request = new ListRequest();
+				request.set = parts[0].isEmpty() ? null : parts[0];
+				request.from = parts[1].isEmpty() ? null : Timestamp.valueOf(LocalDateTime.parse(parts[1]));
+				request.until = parts[2].isEmpty() ? null : Timestamp.valueOf(LocalDateTime.parse(parts[2]));
+				request.lastChanged = Timestamp.valueOf(LocalDateTime.parse(parts[3]));
+				request.lastIdnum = Long.parseLong(parts[4]);
+				return request;
+			} catch (IllegalArgumentException | DateTimeParseException e) {
+				throw new OAIPMHException("badResumptionToken", "Ogiltig resumptionToken");
+			}
+		}
+
+		String nextToken(RecordRow last) {
+			String token = (set != null ? set : "") + TOKEN_SEPARATOR +
+					(from != null ? from.toLocalDateTime().toString() : "") + TOKEN_SEPARATOR +
+					(until != null ? until.toLocalDateTime().toString() : "") + TOKEN_SEPARATOR +
+					last.changed.toLocalDateTime() + TOKEN_SEPARATOR + last.idnum;
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Protokollfel som ska rapporteras med en felkod enligt OAI-PMH.
+	 */
+	static class OAIPMHException extends Exception {
+		private static final long serialVersionUID = 1L;
+		final String code;
+
+		OAIPMHException(String code, String message) {
+			super(message);
+			this.code = code;
+		}
+	}
+}
@@ -10,10 +10,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Klass för att hantera databas graj för att modda organisationers
@@ -24,6 +26,15 @@ public class OrganizationManager extends DBBasedManagerImpl {
 
 	private static final Logger logger = LogManager.getLogger(OrganizationManager.class);
 
+	// standardvärde för hur länge ögonblicksbilden används innan den läses om (ms)
+	static final long DEFAULT_MAX_AGE_MILLIS = 60000;
+
+	// organisationer och tjänster ändras sällan så läsningar går mot en ögonblicksbild
+	// som läses om efter ändringar och när den blivit för gammal, tex efter ändringar
+	// direkt i databasen eller från en annan nod
+	private volatile Snapshot snapshot;
+	private volatile long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+
 	/**
 	 * Skapar en ny databashanterare
 	 * @param ds datakälla som skall användas
@@ -39,25 +50,15 @@ public class OrganizationManager extends DBBasedManagerImpl {
 	 */
 	public List<Organization> getServiceOrganizations() {
 		List<Organization> list = new Vector<>();
-		Connection c = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			String sql = "SELECT kortnamn, serv_org, namnSwe FROM organisation";
-			c = ds.getConnection();
-			ps = c.prepareStatement(sql);
-			rs = ps.executeQuery();
-			while(rs.next()) {
+		Snapshot current = getSnapshot();
+		if (current != null) {
+			for (Organization org : current.organizations) {
 				Organization o = new Organization();
-				o.setKortnamn(rs.getString("kortnamn"));
-				o.setServ_org(rs.getString("serv_org"));
-				o.setNamnSwe(rs.getString("namnSwe"));
+				o.setKortnamn(org.getKortnamn());
+				o.setServ_org(org.getServ_org());
+				o.setNamnSwe(org.getNamnSwe());
 				list.add(o);
 			}
-		} catch (SQLException e) {
-			logger.error("Problem getting organizations", e);
-		} finally {
-			DBUtil.closeDBResources(rs, ps, c);
 		}
 		return list;
 	}
@@ -69,45 +70,143 @@ public class OrganizationManager extends DBBasedManagerImpl {
 	 * @return Böna med organisations-data
 	 */
 	public Organization getOrganization(String kortnamn, boolean isServOrg) {
+		Organization org = null;
+		Snapshot current = getSnapshot();
+		if (current != null && kortnamn != null) {
+			org = copy((isServOrg ? current.byServOrg : current.byKortnamn).get(kortnamn));
+		}
+		return org;
+	}
+
+	/**
+	 * Sätter hur länge ögonblicksbilden används innan den läses om från databasen.
+	 * @param maxAgeMillis max ålder i millisekunder, 0 för att alltid läsa om
+	 */
+	public void setMaxAgeMillis(long maxAgeMillis) {
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * Tömmer den cachade ögonblicksbilden av organisationer och tjänster så att den läses om
+	 * från databasen vid nästa anrop. Anropas efter ändringar i organisation eller harvestservices.
+	 */
+	public synchronized void invalidate() {
+		snapshot = null;
+	}
+
+	/**
+	 * Ger ögonblicksbilden av organisationer och deras tjänster, och läser in den från
+	 * databasen om den saknas eller är för gammal. Misslyckas omläsningen av en gammal
+	 * ögonblicksbild används den tills vidare och omläsningen görs om vid nästa anrop.
+	 * @return ögonblicksbild eller null om den inte kunde läsas
+	 */
+	private Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		if (current == null || isExpired(current)) {
+			// läsning och invalidate synkroniseras så att en inläsning som pågår vid en ändring
+			// inte kan lämna kvar gammalt data
+			synchronized (this) {
+				current = snapshot;
+				if (current == null || isExpired(current)) {
+					Snapshot loaded = loadSnapshot();
+					if (loaded != null) {
+						current = loaded;
+						snapshot = current;
+					}
+				}
+			}
+		}
+		return current;
+	}
+
+	private boolean isExpired(Snapshot current) {
+		return System.nanoTime() - current.loadedNanos >= TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+	}
+
+	/**
+	 * Läser organisationer och deras tjänster från databasen.
+	 * @return ögonblicksbild eller null vid fel
+	 */
+	private Snapshot loadSnapshot() {
 		Connection c = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
-		Organization org = null;
+		Snapshot loaded = new Snapshot();
 		try {
-			String sql = "SELECT * FROM organisation WHERE kortnamn=?";
-			if (isServOrg) {
-				sql = "SELECT * FROM organisation WHERE serv_org=?";
-			}
 			c = ds.getConnection();
-			ps = c.prepareStatement(sql);
-			ps.setString(1, kortnamn);
+			ps = c.prepareStatement("SELECT * FROM organisation");
 			rs = ps.executeQuery();
-			if (rs.next()) {
-				org = new Organization();
+			while (rs.next()) {
+				Organization org = new Organization();
 				setOrgValues(org, rs);
-				DBUtil.closeDBResources(rs, ps, null);
-				rs = null;
-				ps = null;
-				sql = "SELECT name, beskrivning, kortnamn FROM harvestservices WHERE kortnamn= ?";
-				ps = c.prepareStatement(sql);
-				ps.setString(1, org.getKortnamn());
-				rs = ps.executeQuery();
-				List<Service> serviceList = new Vector<>();
-				while (rs.next()) {
+				org.setServiceList(new Vector<>());
+				loaded.organizations.add(org);
+				loaded.byKortnamn.put(org.getKortnamn(), org);
+				if (org.getServ_org() != null) {
+					loaded.byServOrg.putIfAbsent(org.getServ_org(), org);
+				}
+			}
+			DBUtil.closeDBResources(rs, ps, null);
+			rs = null;
+			ps = null;
+			ps = c.prepareStatement("SELECT name, beskrivning, kortnamn FROM harvestservices");
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				Organization org = loaded.byKortnamn.get(rs.getString("kortnamn"));
+				if (org != null) {
 					Service s = new Service();
 					s.setNamn(rs.getString("name"));
 					s.setBeskrivning(rs.getString("beskrivning"));
 					s.setKortnamn(rs.getString("kortnamn"));
-					serviceList.add(s);
+					org.getServiceList().add(s);
 				}
-				org.setServiceList(serviceList);
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("Loaded " + loaded.organizations.size() + " organizations");
 			}
 		} catch (SQLException e) {
-			logger.error("Problem getting organization " + kortnamn + " (isServOrg: " + isServOrg + ")", e);
+			logger.error("Problem loading organizations", e);
+			loaded = null;
 		} finally {
 			DBUtil.closeDBResources(rs, ps, c);
 		}
-		return org;
+		return loaded;
+	}
+
+	/**
+	 * Kopierar en organisationsböna med tjänster så att anroparen inte kan ändra i cachen.
+	 * @param org organisation eller null
+	 * @return kopia eller null
+	 */
+	private static Organization copy(Organization org) {
+		if (org == null) {
+			return null;
+		}
+		Organization o = new Organization();
+		o.setKortnamn(org.getKortnamn());
+		o.setServ_org(org.getServ_org());
+		o.setNamnSwe(org.getNamnSwe());
+		o.setNamnEng(org.getNamnEng());
+		o.setBeskrivSwe(org.getBeskrivSwe());
+		o.setBeskrivEng(org.getBeskrivEng());
+		o.setAdress1(org.getAdress1());
+		o.setAdress2(org.getAdress2());
+		o.setPostadress(org.getPostadress());
+		o.setEpostKontaktPerson(org.getEpostKontaktperson());
+		o.setWebsida(org.getWebsida());
+		o.setWebsidaKS(org.getWebsidaKS());
+		o.setLowressUrl(org.getLowressUrl());
+		o.setThumbnailUrl(org.getThumbnailUrl());
+		List<Service> serviceList = new Vector<>();
+		for (Service service : org.getServiceList()) {
+			Service s = new Service();
+			s.setNamn(service.getNamn());
+			s.setBeskrivning(service.getBeskrivning());
+			s.setKortnamn(service.getKortnamn());
+			serviceList.add(s);
+		}
+		o.setServiceList(serviceList);
+		return o;
 	}
 	
 	/**
@@ -163,6 +262,7 @@ public class OrganizationManager extends DBBasedManagerImpl {
 				ps.executeUpdate();
 			}
 			DBUtil.commit(c);
+			invalidate();
 		} catch (SQLException e) {
 			DBUtil.rollback(c);
 			logger.error("Problem updating organization " + (org != null ? org.getKortnamn() : "null"), e);
@@ -204,25 +304,12 @@ public class OrganizationManager extends DBBasedManagerImpl {
 	 * @return Lista med organisationer i databasen
 	 */
 	public List<Organization> getAllOrganizations() {
-		Connection c = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
 		List<Organization> orgList = new Vector<>();
-		try {
-			c = ds.getConnection();
-			String sql = "SELECT kortnamn FROM organisation";
-			ps = c.prepareStatement(sql);
-			rs = ps.executeQuery();
-			while (rs.next()) {
-				orgList.add(getOrganization(rs.getString("kortnamn"), false));
+		Snapshot current = getSnapshot();
+		if (current != null) {
+			for (Organization org : current.organizations) {
+				orgList.add(copy(org));
 			}
-		} catch (SQLException e) {
-			logger.error("Problem getting all organizations: " + e.getMessage());
-			if (logger.isDebugEnabled()) {
-				logger.debug("Problem getting all organizations", e);
-			}
-		} finally {
-			DBUtil.closeDBResources(rs, ps, c);
 		}
 		return orgList;
 	}
@@ -329,6 +416,7 @@ public class OrganizationManager extends DBBasedManagerImpl {
 			ps.setString(++i, namnSwe);
 			ps.executeUpdate();
 			DBUtil.commit(c);
+			invalidate();
 		} catch(SQLException e) {
 			DBUtil.rollback(c);
 			logger.error("Problem adding organization " + kortnamn + " - " + namnSwe, e);
@@ -347,6 +435,7 @@ public class OrganizationManager extends DBBasedManagerImpl {
 			ps.setString(1, kortnamn);
 			ps.executeUpdate();
 			DBUtil.commit(c);
+			invalidate();
 		} catch(SQLException e) {
 			DBUtil.rollback(c);
 			logger.error("Problem removing organization " + kortnamn, e);
@@ -354,4 +443,14 @@ public class OrganizationManager extends DBBasedManagerImpl {
 			DBUtil.closeDBResources(null, ps, c);
 		}
 	}
+
+	/**
+	 * Ögonblicksbild av organisationer med tjänster, ändras inte efter inläsning.
+	 */
+	private static class Snapshot {
+		final long loadedNanos = System.nanoTime();
+		final List<Organization> organizations = new ArrayList<>();
+		final Map<String, Organization> byKortnamn = new HashMap<>();
+		final Map<String, Organization> byServOrg = new HashMap<>();
+	}
 }
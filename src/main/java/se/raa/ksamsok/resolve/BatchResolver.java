@@ -0,0 +1,224 @@
+package se.raa.ksamsok.resolve;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import se.raa.ksamsok.harvest.HarvestRepositoryManager;
+import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.resolve.ResolverServlet.Format;
+import se.raa.ksamsok.solr.SearchService;
+import se.raa.ksamsok.util.XMLUtil;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Löser upp många uri:er med en enda sökfråga. Varje uri rapporteras med samma statuskod
+ * som den enskilda resolvern skulle ha gett (200, 302 ersatt, 300 ersatt av flera, 404, 410).
+ * Svaret är json för json-ld och annars xml, och skrivs post för post.
+ */
+class BatchResolver {
+
+	private static final Logger logger = LogManager.getLogger(BatchResolver.class);
+
+	// max antal uri:er i ett anrop
+	static final int MAX_BATCH_SIZE = 500;
+
+	private final SearchService searchService;
+	private final HarvestRepositoryManager hrm;
+
+	BatchResolver(SearchService searchService, HarvestRepositoryManager hrm) {
+		this.searchService = searchService;
+		this.hrm = hrm;
+	}
+
+	/**
+	 * Löser upp uri:erna och skriver resultatet.
+	 * @param uris uri:er, unika och utan radbrytningar
+	 * @param format format
+	 * @param resp response
+	 * @throws Exception vid fel
+	 */
+	void resolve(List<String> uris, Format format, HttpServletResponse resp) throws Exception {
+		Map<String, SolrDocument> records = new HashMap<>();
+		Map<String, List<String>> replacedBy = fetch(uris, format, records);
+		// som i den enskilda resolvern, finns en saknad uri i databasen men inte i indexet är den borta
+		List<String> missing = new ArrayList<>();
+		for (String uri : uris) {
+			if (!records.containsKey(uri) && !replacedBy.containsKey(uri)) {
+				missing.add(uri);
+			}
+		}
+		Set<String> gone = hrm.existingInDatabase(missing);
+
+		boolean json = format == Format.JSON_LD;
+		resp.setContentType(json ? "application/json; charset=UTF-8" : "application/xml; charset=UTF-8");
+		PrintWriter out = resp.getWriter();
+		out.print(json ? "{\"results\": [" : "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<results>");
+		boolean first = true;
+		for (String uri : uris) {
+			if (json && !first) {
+				out.print(",");
+			}
+			first = false;
+			out.print('\n');
+			Result result = createResult(uri, format, records.get(uri), replacedBy.get(uri), gone);
+			out.print(json ? result.toJSON() : result.toXML());
+		}
+		out.print(json ? "\n]}\n" : "\n</results>\n");
+		out.flush();
+	}
+
+	/**
+	 * Hämtar posterna och de poster som ersätter dem med en sökfråga.
+	 * @param uris uri:er
+	 * @param format format
+	 * @param records poster per uri, fylls i
+	 * @return ersättande uri:er per uri
+	 * @throws Exception vid sökfel
+	 */
+	private Map<String, List<String>> fetch(List<String> uris, Format format, Map<String, SolrDocument> records)
+			throws Exception {
+		SolrQuery q = new SolrQuery();
+		// terms-parsern har ingen gräns för antal termer, till skillnad från vanliga or-frågor
+		q.setQuery("{!bool should=$idq should=$replacesq}");
+		q.set("idq", RecordFields.termsQuery(ContentHelper.IX_ITEMID));
+		q.set("replacesq", RecordFields.termsQuery(ContentHelper.IX_REPLACES));
+		RecordFields.setTermsIds(q, uris);
+		q.setRows(uris.size() * (1 + RecordFields.MAX_REPLACING_RECORDS));
+		q.setFields(ContentHelper.IX_ITEMID, ContentHelper.IX_REPLACES);
+		RecordFields.addContentField(q, format);
+		// sorterat som i den enskilda resolvern
+		q.setSort(ContentHelper.IX_REPLACES, SolrQuery.ORDER.desc);
+		// många uri:er blir en lång fråga, söktjänsten skickar med post
+		SolrDocumentList hits = searchService.query(q).getResults();
+		for (SolrDocument doc : hits) {
+			records.put((String) doc.getFieldValue(ContentHelper.IX_ITEMID), doc);
+		}
+		Map<String, List<String>> replacedBy = RecordFields.getReplacedBy(hits);
+		// reservfält bara för de poster som levereras
+		List<SolrDocument> delivered = new ArrayList<>();
+		for (String uri : uris) {
+			if (records.containsKey(uri) && !replacedBy.containsKey(uri)) {
+				delivered.add(records.get(uri));
+			}
+		}
+		RecordFields.addFallbackContent(searchService, delivered, format);
+		return replacedBy;
+	}
+
+	/**
+	 * Tar fram resultatet för en uri på samma sätt som den enskilda resolvern.
+	 * @param uri uri
+	 * @param format format
+	 * @param record posten eller null
+	 * @param replacing ersättande uri:er eller null
+	 * @param gone saknade uri:er som finns i databasen
+	 * @return resultat
+	 * @throws Exception vid fel
+	 */
+	private Result createResult(String uri, Format format, SolrDocument record, List<String> replacing,
+			Set<String> gone) throws Exception {
+		Result result = new Result(uri);
+		if (replacing != null && !replacing.isEmpty()) {
+			if (replacing.size() == 1) {
+				result.status = HttpServletResponse.SC_FOUND;
+				result.location = replacing.get(0);
+			} else {
+				result.status = HttpServletResponse.SC_MULTIPLE_CHOICES;
+				result.replacedBy = replacing;
+			}
+			return result;
+		}
+		if (record == null) {
+			result.status = gone.contains(uri) ? HttpServletResponse.SC_GONE : HttpServletResponse.SC_NOT_FOUND;
+			return result;
+		}
+		String value = RecordFields.getContent(record, format, uri, hrm);
+		if (value == null) {
+			result.status = HttpServletResponse.SC_NOT_FOUND;
+		} else if (format == Format.HTML || format == Format.MUSEUMDAT) {
+			if (RecordFields.isBadURL(value)) {
+				logger.warn(format.getFormat() + " link is wrong, points to " + RecordFields.BAD_URL_PREFIX +
+						" for " + uri + ": " + value);
+				result.status = HttpServletResponse.SC_BAD_REQUEST;
+			} else {
+				result.status = HttpServletResponse.SC_FOUND;
+				result.location = value;
+			}
+		} else {
+			result.status = HttpServletResponse.SC_OK;
+			result.content = value;
+		}
+		return result;
+	}
+
+	/**
+	 * Resultat för en uri.
+	 */
+	private static class Result {
+		final String uri;
+		int status;
+		String location;
+		List<String> replacedBy;
+		String content;
+
+		Result(String uri) {
+			this.uri = uri;
+		}
+
+		String toJSON() {
+			JSONObject result = new JSONObject();
+			result.put("uri", uri);
+			result.put("status", status);
+			if (location != null) {
+				result.put("location", location);
+			}
+			if (replacedBy != null) {
+				result.put("isReplacedBy", new JSONArray(replacedBy));
+			}
+			if (content != null) {
+				result.put("record", new JSONTokener(content).nextValue());
+			}
+			return result.toString();
+		}
+
+		String toXML() {
+			StringBuilder result = new StringBuilder("<result uri=\"").append(escape(uri))
+				.append("\" status=\"").append(status).append("\"");
+			if (location != null) {
+				result.append(" location=\"").append(escape(location)).append("\"");
+			}
+			if (replacedBy == null && content == null) {
+				return result.append("/>").toString();
+			}
+			result.append(">");
+			if (replacedBy != null) {
+				result.append("<isReplacedBy>");
+				for (String replaceUri : replacedBy) {
+					result.append("<record>").append(escape(replaceUri)).append("</record>");
+				}
+				result.append("</isReplacedBy>");
+			}
+			if (content != null) {
+				// inbäddat dokument, utan xml-deklaration
+				result.append(content.replaceFirst("^\\s*<\\?xml[^>]*\\?>\\s*", ""));
+			}
+			return result.append("</result>").toString();
+		}
+
+		private static String escape(String value) {
+			return XMLUtil.escapeXml(value);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package se.raa.ksamsok.resolve;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Ett färdigrenderat resolversvar som kan skrivas till en response igen.
+ */
+class CachedResponse {
+
+	private final int status;
+	private final String errorMessage;
+	private final String redirect;
+	private final String contentType;
+	private final String characterEncoding;
+	private final Map<String, String> headers;
+	private final Map<String, Long> dateHeaders;
+	private final byte[] body;
+
+	CachedResponse(int status, String errorMessage, String redirect, String contentType,
+			String characterEncoding, Map<String, String> headers, Map<String, Long> dateHeaders, byte[] body) {
+		this.status = status;
+		this.errorMessage = errorMessage;
+		this.redirect = redirect;
+		this.contentType = contentType;
+		this.characterEncoding = characterEncoding;
+		this.headers = headers;
+		this.dateHeaders = dateHeaders;
+		this.body = body;
+	}
+
+	/**
+	 * Skriver svaret till en response.
+	 * @param resp response
+	 * @throws IOException vid skrivfel
+	 */
+	void writeTo(HttpServletResponse resp) throws IOException {
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			resp.setHeader(header.getKey(), header.getValue());
+		}
+		for (Map.Entry<String, Long> header : dateHeaders.entrySet()) {
+			resp.setDateHeader(header.getKey(), header.getValue());
+		}
+		if (redirect != null) {
+			resp.sendRedirect(redirect);
+			return;
+		}
+		if (status >= HttpServletResponse.SC_BAD_REQUEST && body.length == 0) {
+			resp.sendError(status, errorMessage);
+			return;
+		}
+		resp.setStatus(status);
+		if (contentType != null) {
+			resp.setContentType(contentType);
+		}
+		if (characterEncoding != null) {
+			resp.setCharacterEncoding(characterEncoding);
+		}
+		resp.setContentLength(body.length);
+		resp.getOutputStream().write(body);
+	}
+
+	int getStatus() {
+		return status;
+	}
+
+	String getETag() {
+		return headers.get(ResolverServlet.HEADER_ETAG);
+	}
+
+	/**
+	 * Ger svarets ungefärliga storlek i bytes.
+	 * @return storlek
+	 */
+	int size() {
+		return body.length + (errorMessage != null ? errorMessage.length() : 0) +
+				(redirect != null ? redirect.length() : 0);
+	}
+}
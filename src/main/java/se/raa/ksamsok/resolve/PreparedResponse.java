@@ -7,6 +7,7 @@ class PreparedResponse {
 	private String response;
 	private ArrayList<String> replaceUris = new ArrayList<>();
 	private boolean gone = false;
+	private String contentHash;
 
 
 	public String getResponse() {
@@ -36,4 +37,12 @@ class PreparedResponse {
 	public boolean isGone() {
 		return gone;
 	}
+
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
 }
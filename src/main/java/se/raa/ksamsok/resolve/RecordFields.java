@@ -0,0 +1,198 @@
+package se.raa.ksamsok.resolve;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.common.SolrDocument;
+import se.raa.ksamsok.harvest.HarvestRepositoryManager;
+import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.lucene.RDFUtil;
+import se.raa.ksamsok.resolve.ResolverServlet.Format;
+import se.raa.ksamsok.solr.SearchService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gemensamt för den enskilda resolvern och {@link BatchResolver}: vilket lagrat fält som hämtas
+ * per format, hur innehållet läses ur en träff och vilka poster som ersätter en uri.
+ */
+final class RecordFields {
+
+	// urlar att redirecta till får inte starta med detta (gemener)
+	static final String BAD_URL_PREFIX = "http://kulturarvsdata.se/";
+	// max antal ersättande poster per uri, fler än en ger 300 Multiple Choices
+	static final int MAX_REPLACING_RECORDS = 10;
+	// parametrar för terms-frågor, radbrytning kan inte finnas i en uri som lästs rad för rad
+	static final String IDS_PARAM = "ids";
+	static final String SEPARATOR_PARAM = "idsep";
+	static final String SEPARATOR = "\n";
+
+	private RecordFields() {
+	}
+
+	/**
+	 * Lägger till det lagrade fält som behövs för formatet, rdf:en hämtas bara om klienten vill
+	 * ha den.
+	 * @param q sökfråga
+	 * @param format format
+	 */
+	static void addContentField(SolrQuery q, Format format) {
+		switch (format) {
+			case JSON_LD:
+				// json-ld:n tas fram vid indexering
+				q.addField(ContentHelper.I_IX_JSONLD);
+				break;
+			case RDF:
+				q.addField(ContentHelper.I_IX_RDF);
+				break;
+			case XML:
+				q.addField(ContentHelper.I_IX_PRES);
+				break;
+			case HTML:
+				q.addField(ContentHelper.I_IX_HTML_URL);
+				break;
+			case MUSEUMDAT:
+				q.addField(ContentHelper.I_IX_MUSEUMDAT_URL);
+				break;
+		}
+	}
+
+	/**
+	 * Ger en terms-fråga mot ett fält för uri:erna i parametern {@link #IDS_PARAM}.
+	 * @param field fält
+	 * @return fråga för lokala parametrar
+	 */
+	static String termsQuery(String field) {
+		return "{!terms f=" + field + " separator=$" + SEPARATOR_PARAM + " v=$" + IDS_PARAM + "}";
+	}
+
+	/**
+	 * Sätter uri:erna för {@link #termsQuery(String)}.
+	 * @param q sökfråga
+	 * @param uris uri:er, utan radbrytningar
+	 */
+	static void setTermsIds(SolrQuery q, Collection<String> uris) {
+		q.set(SEPARATOR_PARAM, SEPARATOR);
+		q.set(IDS_PARAM, String.join(SEPARATOR, uris));
+	}
+
+	/**
+	 * Hämtar rdf:en med en fråga för alla poster som saknar json-ld, dvs poster som
+	 * indexerades innan json-ld:n förbereddes. Gör inget för andra format.
+	 * @param searchService söktjänst
+	 * @param records poster
+	 * @param format format
+	 * @throws Exception vid sökfel
+	 */
+	static void addFallbackContent(SearchService searchService, Collection<SolrDocument> records, Format format)
+			throws Exception {
+		if (format != Format.JSON_LD) {
+			return;
+		}
+		Map<String, SolrDocument> unprepared = new HashMap<>();
+		for (SolrDocument record : records) {
+			if (record.getFieldValue(ContentHelper.I_IX_JSONLD) == null) {
+				unprepared.put((String) record.getFieldValue(ContentHelper.IX_ITEMID), record);
+			}
+		}
+		if (unprepared.isEmpty()) {
+			return;
+		}
+		SolrQuery q = new SolrQuery(termsQuery(ContentHelper.IX_ITEMID));
+		setTermsIds(q, unprepared.keySet());
+		q.setRows(unprepared.size());
+		q.setFields(ContentHelper.IX_ITEMID, ContentHelper.I_IX_RDF);
+		for (SolrDocument doc : searchService.query(q).getResults()) {
+			SolrDocument record = unprepared.get((String) doc.getFieldValue(ContentHelper.IX_ITEMID));
+			if (record != null) {
+				record.setField(ContentHelper.I_IX_RDF, doc.getFieldValue(ContentHelper.I_IX_RDF));
+			}
+		}
+	}
+
+	/**
+	 * Läser innehållet för formatet ur en träff. Rdf som inte finns i indexet hämtas ur databasen.
+	 * @param record träff
+	 * @param format format
+	 * @param uri postens uri
+	 * @param hrm repository för rdf som saknas i indexet
+	 * @return innehåll, eller url för html och museumdat, eller null
+	 * @throws Exception vid fel
+	 */
+	static String getContent(SolrDocument record, Format format, String uri, HarvestRepositoryManager hrm)
+			throws Exception {
+		String value = null;
+		switch (format) {
+			case JSON_LD:
+				value = (String) record.getFieldValue(ContentHelper.I_IX_JSONLD);
+				if (value == null) {
+					// posten indexerades innan json-ld:n förbereddes, se addFallbackContent
+					String rdf = getRDF(record, uri, hrm);
+					if (rdf != null) {
+						value = RDFUtil.toJSONLD(rdf);
+					}
+				}
+				break;
+			case RDF:
+				value = getRDF(record, uri, hrm);
+				break;
+			case XML:
+				value = getString(record, ContentHelper.I_IX_PRES);
+				break;
+			case HTML:
+				value = (String) record.getFieldValue(ContentHelper.I_IX_HTML_URL);
+				break;
+			case MUSEUMDAT:
+				value = (String) record.getFieldValue(ContentHelper.I_IX_MUSEUMDAT_URL);
+				break;
+		}
+		return value;
+	}
+
+	/**
+	 * Kontrollerar om en url att redirecta till pekar tillbaka till kulturarvsdata.se.
+	 * @param url url
+	 * @return true om url:en inte får användas
+	 */
+	static boolean isBadURL(String url) {
+		return url.toLowerCase().startsWith(BAD_URL_PREFIX);
+	}
+
+	/**
+	 * Ger de ersättande posterna per ersatt uri, i träffarnas ordning och högst
+	 * {@link #MAX_REPLACING_RECORDS} per uri.
+	 * @param hits träffar med fälten för itemId och replaces
+	 * @return ersättande uri:er per ersatt uri
+	 */
+	static Map<String, List<String>> getReplacedBy(Collection<SolrDocument> hits) {
+		Map<String, List<String>> replacedBy = new LinkedHashMap<>();
+		for (SolrDocument doc : hits) {
+			String itemId = (String) doc.getFieldValue(ContentHelper.IX_ITEMID);
+			Collection<Object> replaces = doc.getFieldValues(ContentHelper.IX_REPLACES);
+			if (itemId == null || replaces == null) {
+				continue;
+			}
+			for (Object replaced : replaces) {
+				List<String> replacing = replacedBy.computeIfAbsent(String.valueOf(replaced), k -> new ArrayList<>());
+				if (replacing.size() < MAX_REPLACING_RECORDS && !replacing.contains(itemId)) {
+					replacing.add(itemId);
+				}
+			}
+		}
+		return replacedBy;
+	}
+
+	private static String getRDF(SolrDocument record, String uri, HarvestRepositoryManager hrm) throws Exception {
+		String rdf = getString(record, ContentHelper.I_IX_RDF);
+		return rdf != null ? rdf : hrm.getXMLData(uri);
+	}
+
+	private static String getString(SolrDocument record, String field) {
+		byte[] content = (byte[]) record.getFieldValue(field);
+		return content != null ? new String(content, StandardCharsets.UTF_8) : null;
+	}
+}
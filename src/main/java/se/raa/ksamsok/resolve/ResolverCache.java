@@ -0,0 +1,208 @@
+package se.raa.ksamsok.resolve;
+
+import org.apache.commons.collections4.map.LRUMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.raa.ksamsok.solr.SearchService;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache för färdigrenderade resolversvar per uri och format, inklusive 410 Gone-beslut.
+ * Cachen töms när indexets version ändras, dvs efter varje commit som ändrat indexet.
+ * Versionen kontrolleras som mest en gång per kontrollintervall så att en ändring i
+ * indexet syns i resolvern med som mest så lång fördröjning. Cachen begränsas både av antal
+ * svar och av svarens sammanlagda storlek, de minst nyligen använda svaren tas bort först.
+ */
+public class ResolverCache {
+
+	private static final Logger logger = LogManager.getLogger(ResolverCache.class);
+
+	private final SearchService searchService;
+	// alla åtkomster, även get som flyttar svaret sist i lru-ordningen, sker under lås på cachen
+	private final LRUMap<String, CachedResponse> cache;
+	private final int maxEntries;
+	private final int maxEntrySize;
+	private final long maxTotalBytes;
+	// summan av storleken för svaren i cachen, ändras bara under lås på cachen
+	private long totalBytes;
+	private final long versionCheckIntervalMillis;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	private volatile long indexVersion = -1;
+	private volatile long lastVersionCheck;
+
+	/**
+	 * Skapar en cache.
+	 * @param searchService söktjänst, används för att hämta indexversionen
+	 * @param maxEntries max antal svar i cachen
+	 * @param maxEntrySize max storlek i bytes för ett svar som ska cachas
+	 * @param maxTotalBytes max sammanlagd storlek i bytes för svaren i cachen
+	 * @param versionCheckIntervalMillis hur ofta indexversionen ska kontrolleras, i millisekunder
+	 */
+	public ResolverCache(SearchService searchService, int maxEntries, int maxEntrySize, long maxTotalBytes,
+			long versionCheckIntervalMillis) {
+		this.searchService = searchService;
+		this.cache = new LRUMap<String, CachedResponse>(maxEntries) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeLRU(LinkEntry<String, CachedResponse> entry) {
+				// anropas när cachen är full och det äldsta svaret ska ersättas
+				totalBytes -= entry.getValue().size();
+				return true;
+			}
+		};
+		this.maxEntries = maxEntries;
+		this.maxEntrySize = maxEntrySize;
+		this.maxTotalBytes = maxTotalBytes;
+		this.versionCheckIntervalMillis = versionCheckIntervalMillis;
+	}
+
+	/**
+	 * Hämtar ett cachat svar.
+	 * @param key nyckel (format och uri)
+	 * @return svar eller null
+	 */
+	CachedResponse get(String key) {
+		checkIndexVersion();
+		CachedResponse response;
+		synchronized (cache) {
+			response = cache.get(key);
+		}
+		if (response != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return response;
+	}
+
+	/**
+	 * Lägger in ett svar i cachen om det är cachebart och om indexet inte har ändrats sedan
+	 * svaret började tas fram.
+	 * @param key nyckel (format och uri)
+	 * @param response svar
+	 * @param version indexversionen innan svaret togs fram
+	 */
+	void put(String key, CachedResponse response, long version) {
+		if (version < 0 || version != indexVersion || response.size() > maxEntrySize ||
+				response.size() > maxTotalBytes || response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
+			return;
+		}
+		synchronized (cache) {
+			CachedResponse previous = cache.put(key, response);
+			if (previous != null) {
+				totalBytes -= previous.size();
+			}
+			totalBytes += response.size();
+			// ta bort de minst nyligen använda svaren tills cachen ryms i budgeten
+			while (totalBytes > maxTotalBytes && !cache.isEmpty()) {
+				totalBytes -= cache.remove(cache.firstKey()).size();
+			}
+		}
+	}
+
+	/**
+	 * Tömmer cachen.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+			totalBytes = 0;
+		}
+	}
+
+	/**
+	 * Kontrollerar indexversionen om kontrollintervallet har passerats och tömmer cachen om
+	 * den har ändrats. Om versionen inte kan hämtas töms cachen och inget cachas förrän
+	 * versionen kan hämtas igen.
+	 */
+	void checkIndexVersion() {
+		long now = System.currentTimeMillis();
+		if (now - lastVersionCheck < versionCheckIntervalMillis) {
+			return;
+		}
+		synchronized (this) {
+			if (now - lastVersionCheck < versionCheckIntervalMillis) {
+				return;
+			}
+			long version;
+			try {
+				version = searchService.getIndexVersion();
+			} catch (Exception e) {
+				logger.warn("Kunde inte hämta indexversion, tömmer resolver-cachen: " + e.getMessage());
+				version = -1;
+			}
+			if (version != indexVersion) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Indexversionen har ändrats från " + indexVersion + " till " + version +
+							", tömmer resolver-cachen (" + getSize() + " svar, " + getTotalBytes() + " bytes)");
+				}
+				clear();
+				if (indexVersion >= 0) {
+					invalidations.incrementAndGet();
+				}
+				indexVersion = version;
+			}
+			lastVersionCheck = now;
+		}
+	}
+
+	/**
+	 * Ger den senast kontrollerade indexversionen.
+	 * @return indexversion, eller -1 om den inte är känd
+	 */
+	long getIndexVersion() {
+		return indexVersion;
+	}
+
+	public int getSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Ger den sammanlagda storleken för svaren i cachen.
+	 * @return storlek i bytes
+	 */
+	public long getTotalBytes() {
+		synchronized (cache) {
+			return totalBytes;
+		}
+	}
+
+	public long getMaxTotalBytes() {
+		return maxTotalBytes;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Ger andelen träffar av alla uppslag.
+	 * @return träffandel mellan 0 och 1
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total > 0 ? (double) h / total : 0;
+	}
+
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+}
@@ -1,23 +1,19 @@
 package se.raa.ksamsok.resolve;
 
 import org.apache.jena.rdf.model.Model;
-import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Property;
 import org.apache.jena.rdf.model.RDFNode;
-import org.apache.jena.rdf.model.ResIterator;
-import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.ResourceFactory;
 import org.apache.jena.rdf.model.Selector;
 import org.apache.jena.rdf.model.SimpleSelector;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.rdf.model.StmtIterator;
-import org.apache.jena.riot.RDFDataMgr;
-import org.apache.jena.riot.RDFFormat;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
@@ -48,12 +44,17 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Enkel servlet som söker i lucene mha pathInfo som en identifierare och gör redirect till
@@ -63,18 +64,24 @@ public class ResolverServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 	private static final Logger logger = LogManager.getLogger(ResolverServlet.class);
-	// urlar att redirecta till får inte starta med detta (gemener)
-	private static final String badURLPrefix = "http://kulturarvsdata.se/";
+	// http-huvuden för villkorade anrop
+	static final String HEADER_ETAG = "ETag";
+	static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	// sökväg för att lösa upp många uri:er i ett anrop
+	static final String BATCH_PATH = "/batch";
 
 	@Autowired
 	private SearchService searchService;
 	@Autowired
 	HarvestRepositoryManager hrm;
+	// cache för renderade svar, valfri
+	@Autowired(required = false)
+	private ResolverCache resolverCache;
 
 	/**
 	 * Enum för de olika formaten som stöds.
 	 */
-	private enum Format {
+	enum Format {
 		RDF("rdf"),
 		HTML("html"),
 		MUSEUMDAT("museumdat"),
@@ -191,7 +198,7 @@ public class ResolverServlet extends HttpServlet {
 	protected void doOptions(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 		super.doOptions(req, resp);
 		resp.setHeader("Access-Control-Allow-Origin", "*");
-		resp.setHeader("Access-Control-Allow-Methods", "HEAD, GET, OPTIONS");
+		resp.setHeader("Access-Control-Allow-Methods", "HEAD, GET, POST, OPTIONS");
 	}
 
 	@Override
@@ -241,6 +248,8 @@ public class ResolverServlet extends HttpServlet {
 				format = Format.RDF;
 			}
 			path = pathComponents[0] + "/" + pathComponents[1] + "/" + pathComponents[2];
+			// svaret beror på accept-huvudet, viktigt för cachar då etag:en skiljer sig per format
+			resp.setHeader("Vary", "Accept");
 		}
 		switch (format) {
 			case JSON_LD:
@@ -260,10 +269,41 @@ public class ResolverServlet extends HttpServlet {
 		}
 		try {
 			String urli = "http://kulturarvsdata.se/" + path;
+			// redirects to replacing records keep a format from the path, so it is part of the key
+			String cacheKey = (formatSetInPath ? "path:" : "accept:") + format.getFormat() + ":" + urli;
+			CachedResponse cachedResponse = resolverCache != null ? resolverCache.get(cacheKey) : null;
+			if (cachedResponse != null) {
+				if (isConditional(req) && cachedResponse.getETag() != null &&
+						isNotModified(req.getHeader(HEADER_IF_NONE_MATCH), cachedResponse.getETag())) {
+					resp.setHeader(HEADER_ETAG, cachedResponse.getETag());
+					resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				} else {
+					cachedResponse.writeTo(resp);
+				}
+				return;
+			}
+			// If the client already has the current version, answer 304 without fetching the rdf
+			if (isConditional(req) && checkNotModified(urli, format, req, resp)) {
+				return;
+			}
+			long indexVersion = resolverCache != null ? resolverCache.getIndexVersion() : -1;
 			// Get content from solr or db
 			PreparedResponse preparedResponse = prepareResponse(urli, format, req, formatSetInPath);
+			// With a cache the response is rendered into a buffer that is cached and then written
+			ResponseCapture capture = resolverCache != null ? new ResponseCapture(resp) : null;
+			HttpServletResponse target = capture != null ? capture : resp;
+			// Set validators so that the client can make conditional requests next time
+			if (!preparedResponse.isGone() && preparedResponse.getReplaceUris().isEmpty() &&
+					preparedResponse.getResponse() != null) {
+				writeValidators(preparedResponse, format, target);
+			}
 			// Make response
-			makeResponse(preparedResponse, format, urli, resp);
+			makeResponse(preparedResponse, format, urli, target);
+			if (capture != null) {
+				cachedResponse = capture.toCachedResponse();
+				resolverCache.put(cacheKey, cachedResponse, indexVersion);
+				cachedResponse.writeTo(resp);
+			}
 		} catch (Exception e) {
 			logger.error("Error when resolving url, path:" + path + ", format: " + format, e);
 			throw new ServletException("Error when resolving url", e);
@@ -271,18 +311,122 @@ public class ResolverServlet extends HttpServlet {
 	}
 
 	/**
-	 * This method gets the data from Solr or in some cases from db
+	 * Checks if the request contains a conditional header. Only If-None-Match is supported, no
+	 * Last-Modified is sent since the index holds no time that changes only with the content.
 	 *
-	 * @param urli   - The path to the request, i.e. which object shoud we get
+	 * @param req - The http servlet request
+	 * @return true if the request is conditional
+	 */
+	private boolean isConditional(HttpServletRequest req) {
+		return req.getHeader(HEADER_IF_NONE_MATCH) != null;
+	}
+
+	/**
+	 * Checks the conditional header of the request against the record's etag, which is
+	 * fetched from small stored fields only. If the record has not been modified the response
+	 * is set to 304 Not Modified.
+	 *
+	 * @param urli   - The uri of the requested object
 	 * @param format - The requested response format
 	 * @param req    - The http servlet request
-	 * @return - A string with the found content or null
+	 * @param resp   - The http servlet response
+	 * @return true if 304 Not Modified has been set and nothing more should be written
 	 * @throws Exception
 	 */
-	private PreparedResponse prepareResponse(String urli, Format format, HttpServletRequest req, boolean formatSetInPath) throws Exception {
-		PreparedResponse preparedResponse = new PreparedResponse();
-		String stringResponse = null;
-		byte[] xmlContent;
+	private boolean checkNotModified(String urli, Format format, HttpServletRequest req,
+			HttpServletResponse resp) throws Exception {
+		SolrQuery q = createResolveQuery(urli);
+		// två räcker för att se om posten har ersatts
+		q.setRows(2);
+		q.setFields(ContentHelper.IX_ITEMID, ContentHelper.I_IX_CONTENT_HASH);
+		PreparedResponse validators = new PreparedResponse();
+		readValidators(validators, urli, searchService.query(q).getResults());
+		String eTag = createETag(validators.getContentHash(), format);
+		if (eTag == null) {
+			return false;
+		}
+		if (isNotModified(req.getHeader(HEADER_IF_NONE_MATCH), eTag)) {
+			writeValidators(validators, format, resp);
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluates the If-None-Match header according to RFC 7232, weak comparison is used.
+	 *
+	 * @param ifNoneMatch - The If-None-Match header
+	 * @param eTag        - The current etag of the representation
+	 * @return true if the client's copy is still valid
+	 */
+	static boolean isNotModified(String ifNoneMatch, String eTag) {
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if ("*".equals(tag) || stripWeak(tag).equals(stripWeak(eTag))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String stripWeak(String eTag) {
+		return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+	}
+
+	/**
+	 * Creates a (weak) etag for a representation of a record. The etag is weak since the
+	 * representations are serializations that are only semantically equivalent over time.
+	 *
+	 * @param contentHash - The hash of the record's rdf or null
+	 * @param format      - The response format
+	 * @return etag or null if no hash is available
+	 */
+	static String createETag(String contentHash, Format format) {
+		if (contentHash == null) {
+			return null;
+		}
+		return "W/\"" + contentHash + "-" + format.getFormat() + "\"";
+	}
+
+	/**
+	 * Reads the validator (content hash) from the hits, but only if the hit is
+	 * the requested record itself and it has not been replaced by any other record.
+	 *
+	 * @param preparedResponse - The prepared response to set validators in
+	 * @param urli             - The uri of the requested object
+	 * @param hits             - The hits from the resolve query
+	 */
+	private void readValidators(PreparedResponse preparedResponse, String urli, SolrDocumentList hits) {
+		if (hits.getNumFound() != 1 || hits.isEmpty() ||
+				!urli.equals(hits.get(0).getFieldValue(ContentHelper.IX_ITEMID))) {
+			return;
+		}
+		SolrDocument doc = hits.get(0);
+		preparedResponse.setContentHash((String) doc.getFieldValue(ContentHelper.I_IX_CONTENT_HASH));
+	}
+
+	/**
+	 * Writes the ETag header, if the record has a content hash.
+	 *
+	 * @param preparedResponse - The prepared response with validators
+	 * @param format           - The response format
+	 * @param resp             - The http servlet response
+	 */
+	private void writeValidators(PreparedResponse preparedResponse, Format format, HttpServletResponse resp) {
+		String eTag = createETag(preparedResponse.getContentHash(), format);
+		if (eTag != null) {
+			resp.setHeader(HEADER_ETAG, eTag);
+		}
+	}
+
+	/**
+	 * Creates the query that finds a record and any records replacing it.
+	 *
+	 * @param urli - The uri of the requested object
+	 * @return query
+	 */
+	private SolrQuery createResolveQuery(String urli) {
 		SolrQuery q = new SolrQuery();
 
 		final String escapedUrli = ClientUtils.escapeQueryChars(urli);
@@ -295,25 +439,29 @@ public class ResolverServlet extends HttpServlet {
 
 		// we want any items that are replacing old items to come first
 		q.setSort(ContentHelper.IX_REPLACES, SolrQuery.ORDER.desc);
-		q.setRows(1);
+		return q;
+	}
 
-		// vi måste alltid ha rdf för att kunna kolla replaces
-		q.setFields(ContentHelper.I_IX_RDF);
+	/**
+	 * This method gets the data from Solr or in some cases from db
+	 *
+	 * @param urli   - The path to the request, i.e. which object shoud we get
+	 * @param format - The requested response format
+	 * @param req    - The http servlet request
+	 * @return - A string with the found content or null
+	 * @throws Exception
+	 */
+	private PreparedResponse prepareResponse(String urli, Format format, HttpServletRequest req, boolean formatSetInPath) throws Exception {
+		PreparedResponse preparedResponse = new PreparedResponse();
+		String stringResponse = null;
+		SolrQuery q = createResolveQuery(urli);
+		// the records replacing the requested one come first, their ids are the redirect targets
+		q.setRows(RecordFields.MAX_REPLACING_RECORDS + 1);
+
+		// validatorerna för villkorade anrop
+		q.setFields(ContentHelper.IX_ITEMID, ContentHelper.IX_REPLACES, ContentHelper.I_IX_CONTENT_HASH);
 		// hämta bara nödvändigt fält
-		switch (format) {
-			case JSON_LD:
-			case RDF:
-				break;
-			case XML:
-				q.addField(ContentHelper.I_IX_PRES);
-				break;
-			case HTML:
-				q.addField(ContentHelper.I_IX_HTML_URL);
-				break;
-			case MUSEUMDAT:
-				q.addField(ContentHelper.I_IX_MUSEUMDAT_URL);
-				break;
-		}
+		RecordFields.addContentField(q, format);
 		logger.debug("resolve of (" + format + ") uri: " + urli);
 		// Get data
 		QueryResponse response = searchService.query(q);
@@ -329,74 +477,42 @@ public class ResolverServlet extends HttpServlet {
 			}
 		} else {
 			// objektet finns i indexet
-			// vi måste alltid hämta ut rdf:en för att kolla replaces
-			xmlContent = (byte[]) hits.get(0).getFieldValue(ContentHelper.I_IX_RDF);
-			if (xmlContent != null) {
-				stringResponse = new String(xmlContent, StandardCharsets.UTF_8);
-			} else {
-				stringResponse = hrm.getXMLData(urli);
+			readValidators(preparedResponse, urli, hits);
+			SolrDocument record = null;
+			for (SolrDocument doc : hits) {
+				if (urli.equals(doc.getFieldValue(ContentHelper.IX_ITEMID))) {
+					record = doc;
+				}
 			}
-
-			if (stringResponse != null) {
-				Model m = ModelFactory.createDefaultModel();
-				m.read(new ByteArrayInputStream(stringResponse.getBytes(StandardCharsets.UTF_8)), "UTF-8");
-				final ResIterator resIterator = m.listSubjects();
-
-				while (resIterator.hasNext()) {
-					Resource res = resIterator.next();
-					final StmtIterator statementIterator = res.listProperties();
-					while (statementIterator.hasNext()) {
-						Statement statement = statementIterator.next();
-						Property predicate = statement.getPredicate();
-						if ("replaces".equals(predicate.getLocalName()) && urli.equals(statement.getObject().toString())) {
-							// we have found one that replaces the requested one
-							String replaceUri = res.getURI();
-							if (replaceUri != null) {
-								if (formatSetInPath) {
-									// the format has been explicitly requested in the url path, we have to
-									// put it back in there
-									final String formatString = format.getFormat();
-									int formatEntyIndex = replaceUri.lastIndexOf("/") + 1;
-									StringBuilder tmpBuf = new StringBuilder(replaceUri);
-
-									tmpBuf.insert(formatEntyIndex, formatString + "/");
-									replaceUri = tmpBuf.toString();
-								}
-								preparedResponse.addReplaceUri(replaceUri);
-							} else {
-								logger.warn("Found replaces: " + statement.getSubject().getLocalName() + " but no URL to redirect to");
-							}
-						}
-					}
+			List<String> replacing = RecordFields.getReplacedBy(hits).get(urli);
+			if (replacing != null) {
+				for (String itemId : replacing) {
+					preparedResponse.addReplaceUri(formatSetInPath ? insertFormat(itemId, format) : itemId);
 				}
 			}
 
-			// in the case of json or rdf, we already have our stringResp from above, otherwise replace with correct content
-			switch (format) {
-				case JSON_LD:
-				case RDF:
-					// do nothing
-					break;
-				case XML:
-					xmlContent = (byte[]) hits.get(0).getFieldValue(ContentHelper.I_IX_PRES);
-					if (xmlContent != null) {
-						stringResponse = new String(xmlContent, StandardCharsets.UTF_8);
-					}
-					break;
-				case HTML:
-					stringResponse = (String) hits.get(0).getFieldValue(ContentHelper.I_IX_HTML_URL);
-					break;
-				case MUSEUMDAT:
-					stringResponse = (String) hits.get(0).getFieldValue(ContentHelper.I_IX_MUSEUMDAT_URL);
-					break;
-				default:
-					break;
+			if (record != null && preparedResponse.getReplaceUris().isEmpty()) {
+				RecordFields.addFallbackContent(searchService, Collections.singletonList(record), format);
+				stringResponse = RecordFields.getContent(record, format, urli, hrm);
 			}
 		}
 		preparedResponse.setResponse(stringResponse);
 		return preparedResponse;
 	}
 
+	/**
+	 * Puts the format back into a uri, used when the format has been explicitly requested in
+	 * the url path and the request is redirected to a replacing record.
+	 *
+	 * @param uri    - The uri of the replacing record
+	 * @param format - The requested response format
+	 * @return the uri with the format before the last path component
+	 */
+	static String insertFormat(String uri, Format format) {
+		int formatEntryIndex = uri.lastIndexOf("/") + 1;
+		return uri.substring(0, formatEntryIndex) + format.getFormat() + "/" + uri.substring(formatEntryIndex);
+	}
+
 	private String buildReplacedByMultipleUrisJsonReply(ArrayList<String> replaceUris) {
 		StringBuffer jsonBuf = new StringBuffer();
 		if (replaceUris.size() > 1) {
@@ -466,10 +582,8 @@ public class ResolverServlet extends HttpServlet {
 					out.print(jsonReply);
 					out.flush();
 				} else if (preparedResponse.getResponse() != null) {
-					Model m = ModelFactory.createDefaultModel();
-					m.read(new ByteArrayInputStream(preparedResponse.getResponse().getBytes(StandardCharsets.UTF_8)), "UTF-8");
-					// It is done in APIServlet.init JenaJSONLD.init();
-					RDFDataMgr.write(resp.getOutputStream(), m, RDFFormat.JSONLD_COMPACT_FLAT);
+					// färdig json-ld från indexet
+					resp.getOutputStream().write(preparedResponse.getResponse().getBytes(StandardCharsets.UTF_8));
 				} else {
 					resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Could not find record for path");
 				}
@@ -526,13 +640,13 @@ public class ResolverServlet extends HttpServlet {
 			case HTML:
 			case MUSEUMDAT:
 				if (preparedResponse.getResponse() != null) {
-					if (preparedResponse.getResponse().toLowerCase().startsWith(badURLPrefix)) {
+					if (RecordFields.isBadURL(preparedResponse.getResponse())) {
 						if (format == Format.HTML) {
 							logger.warn(
-									"HTML link is wrong, points to " + badURLPrefix + " for " + urli + ": " + preparedResponse.getResponse());
+									"HTML link is wrong, points to " + RecordFields.BAD_URL_PREFIX + " for " + urli + ": " + preparedResponse.getResponse());
 							resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid html url to pass on to");
 						} else {
-							logger.warn("Museumdat link is wrong, points to " + badURLPrefix + " för " + urli + ": " +
+							logger.warn("Museumdat link is wrong, points to " + RecordFields.BAD_URL_PREFIX + " för " + urli + ": " +
 									preparedResponse.getResponse());
 							resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid museumdat url to pass on to");
 						}
@@ -579,6 +693,71 @@ public class ResolverServlet extends HttpServlet {
 
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-		forwardRequest(req, resp);
+		if (BATCH_PATH.equals(req.getPathInfo())) {
+			doBatch(req, resp);
+		} else {
+			forwardRequest(req, resp);
+		}
+	}
+
+	/**
+	 * Resolves many uris in one request. The uris are posted as text/plain in the body, one per
+	 * line, either as full uris or as paths (institution/type/id). All uris are fetched with one
+	 * Solr query. The format is given with the parameter format,
+	 * or with the Accept header in the same way as for a single uri.
+	 *
+	 * @param req  - The http servlet request
+	 * @param resp - The http servlet response
+	 * @throws ServletException
+	 * @throws IOException
+	 */
+	protected void doBatch(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		resp.setHeader("Access-Control-Allow-Origin", "*");
+		Format format;
+		String formatString = req.getParameter("format");
+		if (formatString != null) {
+			format = Format.parseFormat(formatString.toLowerCase());
+			if (format == null) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid format " + formatString);
+				return;
+			}
+		} else {
+			String accept = req.getHeader("Accept") != null ? req.getHeader("Accept").toLowerCase() : "";
+			format = accept.contains("json") && !accept.contains("rdf") && !accept.contains("xml") ?
+					Format.JSON_LD : Format.RDF;
+		}
+		// unika uri:er i den ordning de kom
+		Set<String> uris = new LinkedHashSet<>();
+		if (req.getCharacterEncoding() == null) {
+			req.setCharacterEncoding("UTF-8");
+		}
+		try (BufferedReader reader = req.getReader()) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0) {
+					continue;
+				}
+				if (!line.startsWith("http://") && !line.startsWith("https://")) {
+					line = "http://kulturarvsdata.se/" + (line.startsWith("/") ? line.substring(1) : line);
+				}
+				uris.add(line);
+				if (uris.size() > BatchResolver.MAX_BATCH_SIZE) {
+					resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+							"Too many uris, max " + BatchResolver.MAX_BATCH_SIZE);
+					return;
+				}
+			}
+		}
+		if (uris.isEmpty()) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No uris to resolve");
+			return;
+		}
+		try {
+			new BatchResolver(searchService, hrm).resolve(new ArrayList<>(uris), format, resp);
+		} catch (Exception e) {
+			logger.error("Error when resolving " + uris.size() + " uris, format: " + format, e);
+			throw new ServletException("Error when resolving uris", e);
+		}
 	}
 }
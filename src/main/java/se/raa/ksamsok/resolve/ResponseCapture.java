@@ -0,0 +1,137 @@
+package se.raa.ksamsok.resolve;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Response-wrapper som fångar upp allt som skrivs istället för att skicka det, så att
+ * svaret kan cachas och sedan skrivas till den riktiga responsen.
+ */
+class ResponseCapture extends HttpServletResponseWrapper {
+
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+	private final Map<String, String> headers = new LinkedHashMap<>();
+	private final Map<String, Long> dateHeaders = new LinkedHashMap<>();
+	private int status = HttpServletResponse.SC_OK;
+	private String errorMessage;
+	private String redirect;
+	private String contentType;
+	private String characterEncoding;
+	private ServletOutputStream outputStream;
+	private PrintWriter writer;
+
+	ResponseCapture(HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public void setStatus(int sc) {
+		status = sc;
+	}
+
+	@Override
+	public int getStatus() {
+		return status;
+	}
+
+	@Override
+	public void sendError(int sc) {
+		sendError(sc, null);
+	}
+
+	@Override
+	public void sendError(int sc, String msg) {
+		status = sc;
+		errorMessage = msg;
+	}
+
+	@Override
+	public void sendRedirect(String location) {
+		status = HttpServletResponse.SC_FOUND;
+		redirect = location;
+	}
+
+	@Override
+	public void setContentType(String type) {
+		contentType = type;
+	}
+
+	@Override
+	public void setCharacterEncoding(String charset) {
+		characterEncoding = charset;
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		headers.put(name, value);
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		dateHeaders.put(name, date);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		if (outputStream == null) {
+			outputStream = new ServletOutputStream() {
+				@Override
+				public void write(int b) {
+					body.write(b);
+				}
+				@Override
+				public void write(byte[] b, int off, int len) {
+					body.write(b, off, len);
+				}
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+				@Override
+				public void setWriteListener(WriteListener writeListener) {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() {
+		if (writer == null) {
+			// resolverns svar är alltid i UTF-8
+			writer = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+		}
+		return writer;
+	}
+
+	@Override
+	public void flushBuffer() {
+		// inget att göra, allt skrivs när svaret spelas upp
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return false;
+	}
+
+	/**
+	 * Ger det uppfångade svaret.
+	 * @return svar
+	 */
+	CachedResponse toCachedResponse() {
+		if (writer != null) {
+			writer.flush();
+		}
+		return new CachedResponse(status, errorMessage, redirect, contentType, characterEncoding,
+				headers, dateHeaders, body.toByteArray());
+	}
+}
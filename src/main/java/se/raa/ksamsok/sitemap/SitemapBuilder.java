@@ -4,7 +4,6 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.raa.ksamsok.harvest.DBUtil;
 
-import javax.servlet.http.HttpServletRequest;
 import javax.sql.DataSource;
 import java.io.PrintWriter;
 import java.sql.Connection;
@@ -12,46 +11,63 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
+import java.time.format.DateTimeFormatter;
 
 public class SitemapBuilder
 {
 	private static final Logger logger = LogManager.getLogger(SitemapBuilder.class);
-	private static final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", new Locale("sv", "SE"));
+	private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ISO_LOCAL_DATE;
+	// max number of urls in a sitemap according to the protocol
+	static final int MAX_URLS = 50000;
 	
 	private PrintWriter writer;
 	private DataSource ds;
-	private int batch;
-	private HttpServletRequest request;
+	private long from;
+	private long to;
+	private String filterQuery;
 	
-	public SitemapBuilder(PrintWriter writer, DataSource ds, int batch, HttpServletRequest request) 
+	/**
+	 * @param writer writer
+	 * @param ds data source
+	 * @param from first idnum, inclusive
+	 * @param to last idnum, inclusive
+	 * @param filterQuery domain filter from {@link SitemapIndexBuilder#getFilterSitemapUrlsQuery}
+	 */
+	public SitemapBuilder(PrintWriter writer, DataSource ds, long from, long to, String filterQuery) 
 	{
 		this.writer = writer;
 		this.ds = ds;
-		this.batch = batch;
-		this.request = request;
+		this.from = from;
+		this.to = to;
+		this.filterQuery = filterQuery;
 	}
 	
-	public void writeSitemap()
+	/**
+	 * Writes the sitemap.
+	 * @return true if all urls could be fetched, false on database errors
+	 */
+	public boolean writeSitemap()
 	{
+		boolean ok = false;
 		Connection c = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
-		int batchSize = SitemapIndexBuilder.BATCH_SIZE;
-		int offset = (batch - 1) * batchSize;
 		try {
 			c = ds.getConnection();
+			// the range comes from SitemapIndexBuilder and uses the idnum index, the limit
+			// is only a safeguard against arbitrary ranges
 			String sql = "SELECT nativeUrl, changed " +
 						 "FROM content " +
-						 "WHERE deleted IS NULL " + 
-						 	 SitemapIndexBuilder.getFilterSitemapUrlsQuery( request ) +
-						 	"LIMIT ? " +
-						 	"OFFSET ?";
+						 "WHERE idnum BETWEEN ? AND ? " +
+						 "AND deleted IS NULL " + 
+						 	 filterQuery + " " +
+						 	"ORDER BY idnum " +
+						 	"LIMIT ?";
 			
 			ps = c.prepareStatement(sql);
-			ps.setInt(1, batchSize);
-			ps.setInt(2, offset);
+			ps.setLong(1, from);
+			ps.setLong(2, to);
+			ps.setInt(3, MAX_URLS);
 			// fetch in smaller groups
 			ps.setFetchSize(DBUtil.FETCH_SIZE);
 			rs = ps.executeQuery();
@@ -72,6 +88,7 @@ public class SitemapBuilder
 				writer.println("</url>");
 				
 			}
+			ok = true;
 		}catch(SQLException e) {
 			logger.error(e.getMessage(), e);
 		} finally {
@@ -80,13 +97,14 @@ public class SitemapBuilder
 			// and then write the end tag and potentially risk an exception
 			writer.println("</urlset>");
 		}
+		return ok;
 	}
 	
 	private String getDate(Timestamp ts)
 	{
 		String date;
 		try {
-			date = sdf.format(ts);
+			date = dateFormatter.format(ts.toLocalDateTime());
 		}catch(Exception e) {
 			return null;
 		}
@@ -0,0 +1,448 @@
+package se.raa.ksamsok.sitemap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.web.context.ServletContextAware;
+import se.raa.ksamsok.harvest.DBUtil;
+import se.raa.ksamsok.sitemap.SitemapIndexBuilder.Batch;
+
+import javax.servlet.ServletContext;
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Pre-generates the sitemap index and sitemap shards as gzip-compressed files on local disk
+ * so that crawler requests can be served without touching the database.
+ * <p>
+ * Shards are stable idnum ranges saved in a manifest file. Once created a shard keeps its
+ * range, deleted records only make it smaller, and new records go into the last shard until
+ * it is full and then into new shards. After a harvest only the shards containing records
+ * changed by the harvested service, and the last shards, are regenerated. A changed record
+ * in a gap between two shards, one that was deleted or filtered out when the shards were
+ * made, extends the range of the shard before it.
+ * <p>
+ * The index links the shards by idnum range, the same urls as {@link SitemapIndexBuilder}
+ * uses, so that any node can build a shard on request and the generated file is served when
+ * the range matches a shard.
+ * <p>
+ * All generation is done in a single background thread, and only on the node where generation
+ * is enabled (the master), other nodes build the sitemaps on request.
+ */
+public class SitemapGenerator implements ServletContextAware {
+
+	private static final Logger logger = LogManager.getLogger(SitemapGenerator.class);
+
+	// system property for the sitemap directory
+	static final String D_SITEMAP_DIR = "samsok-sitemap-dir";
+
+	static final String INDEX_FILE_NAME = "sitemap.xml.gz";
+	private static final String SHARD_FILE_PREFIX = "sitemap-";
+	private static final String SHARD_FILE_SUFFIX = ".xml.gz";
+	private static final String MANIFEST_FILE_NAME = "sitemap-shards.txt";
+	private static final String MANIFEST_FILTER_PREFIX = "# filter:";
+
+	private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ISO_LOCAL_DATE;
+
+	private final DataSource ds;
+	private final File dir;
+	private volatile String filterQuery;
+	private final ExecutorService executor;
+	private volatile boolean enabled = true;
+
+	// shard ranges, only changed from the generator thread and replaced rather than modified
+	// once set so that they can be read by request threads
+	private volatile List<Batch> shards;
+
+	/**
+	 * Creates a generator that stores the files in the directory given by the system property
+	 * samsok-sitemap-dir, or a ksamsok-sitemap directory in the temp directory.
+	 * @param ds data source
+	 */
+	public SitemapGenerator(DataSource ds) {
+		this(ds, new File(System.getProperty(D_SITEMAP_DIR,
+				new File(System.getProperty("java.io.tmpdir"), "ksamsok-sitemap").getAbsolutePath())), null);
+	}
+
+	SitemapGenerator(DataSource ds, File dir, String filterQuery) {
+		this.ds = ds;
+		this.dir = dir;
+		this.filterQuery = filterQuery;
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "sitemap-generator");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@Override
+	public void setServletContext(ServletContext servletContext) {
+		filterQuery = SitemapIndexBuilder.getFilterSitemapUrlsQuery(servletContext);
+	}
+
+	/**
+	 * Sets whether sitemaps are pre-generated on this node. Only the master node should
+	 * generate them, when turned off the sitemaps are built on request.
+	 * @param enabled true to pre-generate sitemaps
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Generates the sitemap files in the background if they don't exist or were generated
+	 * with another domain filter.
+	 */
+	public void init() {
+		if (!enabled) {
+			logger.info("Sitemap generation is turned off on this node, sitemaps will be built on request");
+			return;
+		}
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			logger.error("Could not create sitemap directory " + dir + ", sitemaps will be built on request");
+			return;
+		}
+		executor.submit(() -> {
+			try {
+				if (loadManifest() == null) {
+					generateAll();
+				}
+			} catch (Exception e) {
+				logger.error("Error when generating sitemaps", e);
+			}
+		});
+	}
+
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Regenerates the shards with records changed by a service in the background.
+	 * @param serviceId service id
+	 * @param since time the changes were stored
+	 */
+	public void serviceChanged(String serviceId, Timestamp since) {
+		if (!enabled) {
+			return;
+		}
+		executor.submit(() -> {
+			try {
+				update(serviceId, since);
+			} catch (Exception e) {
+				logger.error("Error when updating sitemaps for " + serviceId, e);
+			}
+		});
+	}
+
+	/**
+	 * Regenerates all sitemap files in the background with new shard ranges.
+	 */
+	public void regenerate() {
+		if (!enabled) {
+			return;
+		}
+		executor.submit(() -> {
+			try {
+				generateAll();
+			} catch (Exception e) {
+				logger.error("Error when generating sitemaps", e);
+			}
+		});
+	}
+
+	/**
+	 * Gives the sitemap index file if it has been generated.
+	 * @return file or null
+	 */
+	File getIndexFile() {
+		File f = new File(dir, INDEX_FILE_NAME);
+		return f.isFile() ? f : null;
+	}
+
+	/**
+	 * Gives a sitemap shard file if it has been generated.
+	 * @param shard shard number, 1-based
+	 * @return file or null
+	 */
+	File getShardFile(int shard) {
+		File f = new File(dir, SHARD_FILE_PREFIX + shard + SHARD_FILE_SUFFIX);
+		return f.isFile() ? f : null;
+	}
+
+	/**
+	 * Gives a generated sitemap shard file by its idnum range.
+	 * @param from first idnum, inclusive
+	 * @param to last idnum, inclusive
+	 * @return file or null if no shard has the range
+	 */
+	File getShardFile(long from, long to) {
+		List<Batch> current = shards;
+		if (current == null) {
+			return null;
+		}
+		int i = findShard(current, from);
+		if (i < 0 || current.get(i).getFrom() != from || current.get(i).getTo() != to) {
+			return null;
+		}
+		return getShardFile(i + 1);
+	}
+
+	/**
+	 * Generates all shards from new ranges, and the index.
+	 * @throws IOException on file or database errors
+	 */
+	void generateAll() throws IOException {
+		long start = System.currentTimeMillis();
+		List<Batch> batches = getBatches(Long.MIN_VALUE);
+		for (int i = 0; i < batches.size(); i++) {
+			writeShard(i + 1, batches.get(i));
+		}
+		// remove shards left from earlier generations
+		for (int i = batches.size() + 1; getShardFile(i) != null; i++) {
+			Files.delete(getShardFile(i).toPath());
+		}
+		shards = batches;
+		writeManifest();
+		writeIndex();
+		if (logger.isInfoEnabled()) {
+			logger.info("Generated " + batches.size() + " sitemap shards in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	/**
+	 * Regenerates the shards with records changed by a service, and the last shards where
+	 * new records end up.
+	 * @param serviceId service id
+	 * @param since time the changes were stored
+	 * @throws IOException on file or database errors
+	 */
+	void update(String serviceId, Timestamp since) throws IOException {
+		if (loadManifest() == null) {
+			generateAll();
+			return;
+		}
+		long start = System.currentTimeMillis();
+		// ranges can be extended for records in gaps, the current list may be in use
+		List<Batch> ranges = new ArrayList<>(shards);
+		SortedSet<Integer> touched = getTouchedShards(serviceId, since, ranges);
+		// the last shard can grow, recompute it and any new shards after it
+		int tailStart = Math.max(ranges.size() - 1, 0);
+		long after = tailStart > 0 ? ranges.get(tailStart - 1).getTo() : Long.MIN_VALUE;
+		List<Batch> tail = getBatches(after);
+		List<Batch> updated = new ArrayList<>(ranges.subList(0, tailStart));
+		updated.addAll(tail);
+		for (int i = tailStart; i < Math.max(updated.size(), ranges.size()); i++) {
+			touched.add(i);
+		}
+		for (int i : touched) {
+			if (i < updated.size()) {
+				writeShard(i + 1, updated.get(i));
+			} else if (getShardFile(i + 1) != null) {
+				Files.delete(getShardFile(i + 1).toPath());
+			}
+		}
+		shards = updated;
+		writeManifest();
+		writeIndex();
+		if (logger.isInfoEnabled()) {
+			logger.info("Regenerated " + touched.size() + " of " + shards.size() + " sitemap shards for " +
+					serviceId + " in " + (System.currentTimeMillis() - start) + " ms");
+		}
+	}
+
+	private List<Batch> getBatches(long after) throws IOException {
+		try {
+			return SitemapIndexBuilder.getBatches(ds, filterQuery, after, Integer.MAX_VALUE);
+		} catch (SQLException e) {
+			throw new IOException("Could not fetch sitemap batches", e);
+		}
+	}
+
+	/**
+	 * Finds the shards containing records that a service has changed (added, updated or
+	 * deleted) since the given time. Records after the last shard are handled separately, and
+	 * the range of the shard before a record in a gap between shards, or the first shard for
+	 * a record before it, is extended to include the record.
+	 * @param serviceId service id
+	 * @param since time
+	 * @param ranges shard ranges, extended for records in gaps
+	 * @return 0-based shard indexes
+	 * @throws IOException on database errors
+	 */
+	private SortedSet<Integer> getTouchedShards(String serviceId, Timestamp since, List<Batch> ranges)
+			throws IOException {
+		SortedSet<Integer> touched = new TreeSet<>();
+		Connection c = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			c = ds.getConnection();
+			ps = c.prepareStatement("SELECT idnum FROM content WHERE serviceid = ? AND changed >= ?");
+			ps.setString(1, serviceId);
+			ps.setTimestamp(2, since);
+			ps.setFetchSize(DBUtil.FETCH_SIZE);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				long idnum = rs.getLong(1);
+				int shard = findShard(ranges, idnum);
+				if (shard < 0) {
+					// -(index of the next shard) - 1, none after the last shard
+					int next = -shard - 1;
+					if (next == ranges.size()) {
+						continue;
+					}
+					shard = Math.max(next - 1, 0);
+					Batch range = ranges.get(shard);
+					ranges.set(shard, new Batch(Math.min(range.getFrom(), idnum), Math.max(range.getTo(), idnum),
+							null, 0));
+				}
+				touched.add(shard);
+			}
+		} catch (SQLException e) {
+			throw new IOException("Could not fetch changed records for " + serviceId, e);
+		} finally {
+			DBUtil.closeDBResources(rs, ps, c);
+		}
+		return touched;
+	}
+
+	/**
+	 * Finds the shard whose range contains an idnum.
+	 * @param ranges shard ranges
+	 * @param idnum idnum
+	 * @return 0-based shard index, or -(index of the first shard after the idnum) - 1 if it
+	 * is not in any shard
+	 */
+	static int findShard(List<Batch> ranges, long idnum) {
+		int low = 0;
+		int high = ranges.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			Batch shard = ranges.get(mid);
+			if (idnum < shard.getFrom()) {
+				high = mid - 1;
+			} else if (idnum > shard.getTo()) {
+				low = mid + 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void writeShard(int shard, Batch batch) throws IOException {
+		File tmp = File.createTempFile(SHARD_FILE_PREFIX, ".tmp", dir);
+		boolean ok;
+		try (PrintWriter writer = createWriter(tmp)) {
+			ok = new SitemapBuilder(writer, ds, batch.getFrom(), batch.getTo(), filterQuery).writeSitemap();
+		}
+		publish(tmp, SHARD_FILE_PREFIX + shard + SHARD_FILE_SUFFIX, ok);
+	}
+
+	private void writeIndex() throws IOException {
+		File tmp = File.createTempFile("sitemap", ".tmp", dir);
+		try (PrintWriter writer = createWriter(tmp)) {
+			writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			writer.println("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
+			for (int i = 1; i <= shards.size(); i++) {
+				File f = getShardFile(i);
+				Batch shard = shards.get(i - 1);
+				writer.println("<sitemap>");
+				writer.println("<loc>" + SitemapIndexBuilder.getSitemapLoc(shard.getFrom(), shard.getTo()) + "</loc>");
+				if (f != null) {
+					writer.println("<lastmod>" + dateFormatter.format(Instant.ofEpochMilli(f.lastModified())
+							.atZone(ZoneId.systemDefault())) + "</lastmod>");
+				}
+				writer.println("</sitemap>");
+			}
+			writer.println("</sitemapindex>");
+		}
+		publish(tmp, INDEX_FILE_NAME, true);
+	}
+
+	private PrintWriter createWriter(File f) throws IOException {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+				new GZIPOutputStream(new FileOutputStream(f)), StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Replaces a file with a newly written temp file so that a partially written file is
+	 * never served.
+	 */
+	private void publish(File tmp, String name, boolean ok) throws IOException {
+		if (!ok) {
+			Files.delete(tmp.toPath());
+			throw new IOException("Could not write " + name + ", keeping the previous version");
+		}
+		Files.move(tmp.toPath(), new File(dir, name).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Loads the shard ranges from the manifest if they haven't been loaded.
+	 * @return shard ranges, or null if there is no manifest or it was made with another filter
+	 * @throws IOException on read errors
+	 */
+	private List<Batch> loadManifest() throws IOException {
+		if (shards != null) {
+			return shards;
+		}
+		File f = new File(dir, MANIFEST_FILE_NAME);
+		if (!f.isFile() || getIndexFile() == null) {
+			return null;
+		}
+		List<Batch> loaded = new ArrayList<>();
+		try (BufferedReader reader = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if (line == null || !line.equals(MANIFEST_FILTER_PREFIX + filterQuery)) {
+				logger.info("The sitemap filter has changed, all sitemaps will be regenerated");
+				return null;
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] range = line.split(" ");
+				loaded.add(new Batch(Long.parseLong(range[0]), Long.parseLong(range[1]), null, 0));
+			}
+		}
+		shards = loaded;
+		return shards;
+	}
+
+	private void writeManifest() throws IOException {
+		File tmp = File.createTempFile(MANIFEST_FILE_NAME, ".tmp", dir);
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8))) {
+			writer.println(MANIFEST_FILTER_PREFIX + filterQuery);
+			for (Batch shard : shards) {
+				writer.println(shard.getFrom() + " " + shard.getTo());
+			}
+		}
+		publish(tmp, MANIFEST_FILE_NAME, true);
+	}
+}
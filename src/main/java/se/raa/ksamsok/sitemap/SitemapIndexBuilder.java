@@ -5,6 +5,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import se.raa.ksamsok.harvest.DBUtil;
 
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.sql.DataSource;
 import java.io.FileInputStream;
@@ -15,26 +16,25 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.SimpleDateFormat;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 import java.util.Properties;
 
 public class SitemapIndexBuilder {
 	private static final Logger logger = LogManager.getLogger(SitemapIndexBuilder.class);
 	private PrintWriter writer;
 	private DataSource ds;
-	private HttpServletRequest request;
+	private String filterQuery;
 
 	public static final int BATCH_SIZE = 40000;
 
-	private static final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", new Locale("sv", "SE"));
-	private static Date lastChanged = new Date();
-	private static int lastRecordCount = 0;
+	private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ISO_LOCAL_DATE;
 
-	private static final String SITEMAP_URL = "http://kulturarvsdata.se/sitemap?batch=";
+	private static final String SITEMAP_URL = "http://kulturarvsdata.se/sitemap?";
+	static final String FROM_PARAMETER_NAME = "from";
+	static final String TO_PARAMETER_NAME = "to";
 
 	/**
 	 * You can only index domains you "own". So we only index some domains for now
@@ -43,12 +43,11 @@ public class SitemapIndexBuilder {
 	 * <p>
 	 * nativeUrls containing one of these will be shown in the sitemap
 	 */
-	private static List<String> getFilteredUrls(HttpServletRequest request) {
+	private static List<String> getFilteredUrls(ServletContext servletContext) {
 		List<String> result = new ArrayList<>();
 		Properties p = new Properties();
-		try {
-			InputStream stream = new FileInputStream(
-					request.getSession().getServletContext().getRealPath("/WEB-INF/sitemap.properties"));
+		try (InputStream stream = new FileInputStream(
+					servletContext.getRealPath("/WEB-INF/sitemap.properties"))) {
 			p.load(stream);
 		} catch (IOException e) {
 			logger.error("Check that sitemap.properties exists in WEB-INF", e);
@@ -65,8 +64,15 @@ public class SitemapIndexBuilder {
 	 * Added at the end of a sqlquery to filter some domains
 	 */
 	public static String getFilterSitemapUrlsQuery(HttpServletRequest request) {
+		return getFilterSitemapUrlsQuery(request.getSession().getServletContext());
+	}
+
+	public static String getFilterSitemapUrlsQuery(ServletContext servletContext) {
+		return getFilterSitemapUrlsQuery(getFilteredUrls(servletContext));
+	}
+
+	static String getFilterSitemapUrlsQuery(List<String> urls) {
 		StringBuilder result = new StringBuilder();
-		List<String> urls = getFilteredUrls(request);
 		if (!CollectionUtils.isEmpty(urls)) {
 			result = new StringBuilder(" AND (");
 			boolean firstLoop = true;
@@ -83,65 +89,141 @@ public class SitemapIndexBuilder {
 		return result.toString();
 	}
 
-	public SitemapIndexBuilder(PrintWriter writer, DataSource ds, HttpServletRequest request) {
+	public SitemapIndexBuilder(PrintWriter writer, DataSource ds, String filterQuery) {
 		this.writer = writer;
 		this.ds = ds;
-		this.request = request;
+		this.filterQuery = filterQuery;
 	}
 
-	public void writeSitemapIndex() {
-		int numberOfBatches = getNumberOfBatches();
+	/**
+	 * Writes the sitemap index, nothing is written if the batches can't be fetched.
+	 * @throws SQLException on database errors
+	 */
+	public void writeSitemapIndex() throws SQLException {
+		List<Batch> batches = getBatches(ds, filterQuery, Integer.MAX_VALUE);
 		writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
 		writer.println("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">");
-		for (int i = 1; i <= numberOfBatches; i++) {
-			writeSitemapTag(i);
+		for (Batch batch : batches) {
+			writeSitemapTag(batch);
 		}
 		writer.println("</sitemapindex>");
 	}
 
-	private void writeSitemapTag(int batchNumber) {
+	private void writeSitemapTag(Batch batch) {
 		writer.println("<sitemap>");
-		writer.println("<loc>" + SITEMAP_URL + batchNumber + "</loc>");
-		writer.println("<lastmod>" + sdf.format(lastChanged) + "</lastmod>");
+		writer.println("<loc>" + getSitemapLoc(batch.getFrom(), batch.getTo()) + "</loc>");
+		if (batch.getLastChanged() != null) {
+			writer.println("<lastmod>" + dateFormatter.format(batch.getLastChanged().toLocalDateTime()) + "</lastmod>");
+		}
 		writer.println("</sitemap>");
 	}
 
-	private int getNumberOfBatches() {
-		int numberOfBatches;
-		int recordCount = getRecordCount();
-
-		if (recordCount != lastRecordCount) {
-			lastRecordCount = recordCount;
-			lastChanged = new Date();
-		}
+	/**
+	 * Gives the url of the sitemap for an idnum range, escaped for xml. Every node can build
+	 * it on request, the node pre-generating sitemaps serves the generated file.
+	 * @param from first idnum, inclusive
+	 * @param to last idnum, inclusive
+	 * @return url for a loc element
+	 */
+	static String getSitemapLoc(long from, long to) {
+		return SITEMAP_URL + FROM_PARAMETER_NAME + "=" + from + "&amp;" + TO_PARAMETER_NAME + "=" + to;
+	}
 
-		if (recordCount % BATCH_SIZE == 0) {
-			numberOfBatches = recordCount / BATCH_SIZE;
-		} else {
-			numberOfBatches = (recordCount / BATCH_SIZE) + 1;
-		}
-		return numberOfBatches;
+	/**
+	 * Splits the records into batches of at most BATCH_SIZE records by idnum ranges.
+	 * Each batch is found with a keyset query that continues after the last idnum of the
+	 * previous batch, so every batch costs the same regardless of its position, and every
+	 * record belongs to exactly one batch.
+	 *
+	 * @param ds data source
+	 * @param filterQuery domain filter from {@link #getFilterSitemapUrlsQuery(HttpServletRequest)}
+	 * @param maxBatches max number of batches to fetch
+	 * @return batches in idnum order
+	 * @throws SQLException on database errors
+	 */
+	public static List<Batch> getBatches(DataSource ds, String filterQuery, int maxBatches) throws SQLException {
+		return getBatches(ds, filterQuery, Long.MIN_VALUE, maxBatches);
 	}
 
-	private int getRecordCount() {
-		int recordCount = 0;
+	/**
+	 * Splits the records with idnum greater than after into batches, see
+	 * {@link #getBatches(DataSource, String, int)}.
+	 *
+	 * @param ds data source
+	 * @param filterQuery domain filter
+	 * @param after idnum to start after
+	 * @param maxBatches max number of batches to fetch
+	 * @return batches in idnum order
+	 * @throws SQLException on database errors
+	 */
+	static List<Batch> getBatches(DataSource ds, String filterQuery, long after, int maxBatches) throws SQLException {
+		List<Batch> batches = new ArrayList<>();
 		Connection c = null;
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
 			c = ds.getConnection();
-			String sql = "select count(*) from content WHERE deleted IS NULL " + getFilterSitemapUrlsQuery(request);
+			String sql = "SELECT min(idnum), max(idnum), max(changed), count(*) " +
+						 "FROM (SELECT idnum, changed " +
+						 	   "FROM content " +
+						 	   "WHERE idnum > ? " +
+						 	   "AND deleted IS NULL " +
+						 	   filterQuery + " " +
+						 	   "ORDER BY idnum " +
+						 	   "LIMIT ?) b";
 			ps = c.prepareStatement(sql);
-			rs = ps.executeQuery();
-			if (rs.next()) {
-				recordCount = rs.getInt(1);
+			while (batches.size() < maxBatches) {
+				ps.setLong(1, after);
+				ps.setInt(2, BATCH_SIZE);
+				rs = ps.executeQuery();
+				if (!rs.next() || rs.getInt(4) == 0) {
+					break;
+				}
+				Batch batch = new Batch(rs.getLong(1), rs.getLong(2), rs.getTimestamp(3), rs.getInt(4));
+				rs.close();
+				rs = null;
+				batches.add(batch);
+				if (batch.getCount() < BATCH_SIZE) {
+					break;
+				}
+				after = batch.getTo();
 			}
-		} catch (SQLException e) {
-			logger.error("Error when getting record count");
-			e.printStackTrace();
 		} finally {
 			DBUtil.closeDBResources(rs, ps, c);
 		}
-		return recordCount;
+		return batches;
+	}
+
+	/**
+	 * A sitemap batch, records with idnum from and to inclusive.
+	 */
+	public static final class Batch {
+		private final long from;
+		private final long to;
+		private final Timestamp lastChanged;
+		private final int count;
+
+		Batch(long from, long to, Timestamp lastChanged, int count) {
+			this.from = from;
+			this.to = to;
+			this.lastChanged = lastChanged;
+			this.count = count;
+		}
+
+		public long getFrom() {
+			return from;
+		}
+
+		public long getTo() {
+			return to;
+		}
+
+		public Timestamp getLastChanged() {
+			return lastChanged;
+		}
+
+		public int getCount() {
+			return count;
+		}
 	}
 }
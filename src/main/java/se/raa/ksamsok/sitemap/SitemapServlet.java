@@ -1,5 +1,7 @@
 package se.raa.ksamsok.sitemap;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
@@ -13,32 +15,131 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.sql.DataSource;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.zip.GZIPInputStream;
 
 public class SitemapServlet extends HttpServlet {
 	private static final long serialVersionUID = 2L;
+	private static final Logger logger = LogManager.getLogger(SitemapServlet.class);
 	
 	@Autowired
 	@Qualifier("dataSourceReader")
 	private DataSource ds;
 
+	// pre-generated sitemaps, if configured
+	@Autowired(required = false)
+	private SitemapGenerator sitemapGenerator;
+
 	private static final String BATCH_PARAMETER_NAME = "batch";
+	static final String SHARD_PARAMETER_NAME = "shard";
+
+	@Override
+	protected long getLastModified(HttpServletRequest req) {
+		// used by HttpServlet for the Last-Modified header and If-Modified-Since requests
+		File generated = getGeneratedFile(req);
+		return generated != null ? generated.lastModified() : -1;
+	}
 
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws IOException {
+		File generated = getGeneratedFile(req);
+		if (generated != null) {
+			writeGeneratedFile(generated, req, resp);
+			return;
+		}
+		if (req.getParameter(BATCH_PARAMETER_NAME) != null || req.getParameter(SHARD_PARAMETER_NAME) != null) {
+			// old style batch or shard number from sitemap indexes crawlers already have, the
+			// range is not known on this node or finding it would take one query per preceding
+			// batch so the crawler is sent to the index
+			resp.setStatus(HttpServletResponse.SC_MOVED_PERMANENTLY);
+			resp.setHeader("Location", req.getRequestURL().toString());
+			return;
+		}
+		String from = req.getParameter(SitemapIndexBuilder.FROM_PARAMETER_NAME);
+		String to = req.getParameter(SitemapIndexBuilder.TO_PARAMETER_NAME);
+		String filterQuery = SitemapIndexBuilder.getFilterSitemapUrlsQuery(req);
+		if (from == null || to == null) {
+			resp.setCharacterEncoding("UTF-8");
+			resp.setContentType("text/xml; charset=UTF-8");
+			SitemapIndexBuilder sitemapIndexBuilder = new SitemapIndexBuilder(resp.getWriter(), ds, filterQuery);
+			try {
+				sitemapIndexBuilder.writeSitemapIndex();
+			} catch (SQLException e) {
+				logger.error("Error when writing sitemap index", e);
+				resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+			return;
+		}
+		long fromIdnum;
+		long toIdnum;
+		try {
+			fromIdnum = Long.parseLong(from);
+			toIdnum = Long.parseLong(to);
+		} catch (NumberFormatException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid sitemap parameters");
+			return;
+		}
 		resp.setCharacterEncoding("UTF-8");
 		resp.setContentType("text/xml; charset=UTF-8");
-		String batch = req.getParameter(BATCH_PARAMETER_NAME);
 		PrintWriter writer = resp.getWriter();
-		if (batch != null) {
-			int batchNumber = Integer.parseInt(batch);
-			SitemapBuilder sitemapBuilder = new SitemapBuilder(writer, ds, batchNumber, req);
-			sitemapBuilder.writeSitemap();
-		} else {
-			SitemapIndexBuilder sitemapIndexBuilder = new SitemapIndexBuilder(writer, ds, req);
-			sitemapIndexBuilder.writeSitemapIndex();
+		SitemapBuilder sitemapBuilder = new SitemapBuilder(writer, ds, fromIdnum, toIdnum, filterQuery);
+		sitemapBuilder.writeSitemap();
+	}
+
+	/**
+	 * Gives the pre-generated file for the request, the index if there are no parameters
+	 * or a shard for an idnum range that matches a shard (or the old shard parameter).
+	 * @param req request
+	 * @return file or null if the sitemap has not been generated and should be built on request
+	 */
+	private File getGeneratedFile(HttpServletRequest req) {
+		if (sitemapGenerator == null || !sitemapGenerator.isEnabled()) {
+			return null;
+		}
+		String shard = req.getParameter(SHARD_PARAMETER_NAME);
+		if (shard != null) {
+			try {
+				return sitemapGenerator.getShardFile(Integer.parseInt(shard));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		if (req.getParameterMap().isEmpty()) {
+			return sitemapGenerator.getIndexFile();
+		}
+		String from = req.getParameter(SitemapIndexBuilder.FROM_PARAMETER_NAME);
+		String to = req.getParameter(SitemapIndexBuilder.TO_PARAMETER_NAME);
+		if (from != null && to != null && req.getParameterMap().size() == 2) {
+			try {
+				return sitemapGenerator.getShardFile(Long.parseLong(from), Long.parseLong(to));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes a gzip-compressed sitemap file, as is if the client accepts gzip.
+	 */
+	private void writeGeneratedFile(File f, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		resp.setContentType("text/xml; charset=UTF-8");
+		resp.setHeader("Vary", "Accept-Encoding");
+		String acceptEncoding = req.getHeader("Accept-Encoding");
+		try (InputStream in = new FileInputStream(f)) {
+			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				resp.setHeader("Content-Encoding", "gzip");
+				resp.setContentLengthLong(f.length());
+				in.transferTo(resp.getOutputStream());
+			} else {
+				new GZIPInputStream(in).transferTo(resp.getOutputStream());
+			}
 		}
 	}
 
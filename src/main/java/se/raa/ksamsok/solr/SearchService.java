@@ -63,6 +63,23 @@ public interface SearchService {
 	 */
 	NamedList<Object> getIndexInfo() throws SolrServerException, IOException;
 
+	/**
+	 * Ger indexets version, som ändras vid varje commit som ändrat indexet.
+	 * @return indexversion eller -1 om den inte kunde fås fram
+	 * @throws SolrServerException
+	 */
+	long getIndexVersion() throws SolrServerException, IOException;
+
+	/**
+	 * Ger om värdena för ett fält kan hämtas från solr, dvs om fältet är lagrat eller har
+	 * docValues som används som lagrade värden. Schemat hämtas en gång från solr.
+	 * @param field fältnamn
+	 * @return true om fältets värden kan hämtas
+	 * @throws SolrServerException vid sökfel
+	 * @throws IOException vid kommunikationsfel
+	 */
+	boolean isStored(String field) throws SolrServerException, IOException;
+
 	/**
 	 * Ger url till den solr-instans som används.
 	 * @return url eller null
@@ -1,7 +1,13 @@
 package se.raa.ksamsok.solr;
 
+import org.apache.commons.collections4.map.LRUMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest.METHOD;
@@ -9,6 +15,9 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.apache.solr.client.solrj.request.FieldAnalysisRequest;
 import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.request.schema.AnalyzerDefinition;
+import org.apache.solr.client.solrj.request.schema.FieldTypeDefinition;
+import org.apache.solr.client.solrj.request.schema.SchemaRequest;
 import org.apache.solr.client.solrj.response.AnalysisResponseBase.AnalysisPhase;
 import org.apache.solr.client.solrj.response.AnalysisResponseBase.TokenInfo;
 import org.apache.solr.client.solrj.response.FacetField;
@@ -16,13 +25,19 @@ import org.apache.solr.client.solrj.response.FacetField.Count;
 import org.apache.solr.client.solrj.response.FieldAnalysisResponse;
 import org.apache.solr.client.solrj.response.FieldAnalysisResponse.Analysis;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.schema.SchemaResponse;
+import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.TermsParams;
 import org.apache.solr.common.util.NamedList;
 import org.springframework.beans.factory.annotation.Autowired;
+import se.raa.ksamsok.api.metrics.APIMetrics;
 import se.raa.ksamsok.api.util.Term;
 import se.raa.ksamsok.lucene.ContentHelper;
 
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -37,37 +52,104 @@ public class SearchServiceImpl implements SearchService {
 
 	private static final Logger logger = LogManager.getLogger(SearchService.class);
 
+	// fälttyp för text-indexet som används för ordstammning
+	private static final String ANALYSIS_FIELD_TYPE = "text";
+
+	// default max antal analysresultat att cacha
+	private static final int DEFAULT_ANALYSIS_CACHE_SIZE = 10000;
+
 	@Autowired
 	private SolrClient solr;
 
+	private Map<String, Set<String>> analysisCache = Collections.synchronizedMap(new LRUMap<>(DEFAULT_ANALYSIS_CACHE_SIZE));
+	private boolean inProcessAnalysis = false;
+	private Analyzer inProcessAnalyzer;
+	private volatile StoredFields storedFields;
+
 	public void setSolr(SolrClient solr) {
 		this.solr = solr;
 	}
+
+	/**
+	 * Sätter max antal analysresultat som cachas.
+	 * @param analysisCacheSize max antal, 0 eller mindre stänger av cachen
+	 */
+	public void setAnalysisCacheSize(int analysisCacheSize) {
+		if (analysisCacheSize > 0) {
+			this.analysisCache = Collections.synchronizedMap(new LRUMap<>(analysisCacheSize));
+		} else {
+			this.analysisCache = new NoCacheMap();
+		}
+	}
+
+	/**
+	 * Anger om ordstammning ska göras i processen med solrs analyskedja istället för i solr.
+	 * @param inProcessAnalysis sant för analys i processen
+	 */
+	public void setInProcessAnalysis(boolean inProcessAnalysis) {
+		this.inProcessAnalysis = inProcessAnalysis;
+	}
 	@Override
 	public QueryResponse query(SolrQuery query) throws SolrServerException, IOException {
 		if (logger.isDebugEnabled()) {
 			logger.debug("Söker med \"" + query.getQuery() + "\" sort: " + query.getSortField() + " start: " + query.getStart() + " rows: " + query.getRows());
 		}
-		return solr.query(query, METHOD.POST);
+		long start = System.nanoTime();
+		QueryResponse qr = solr.query(query, METHOD.POST);
+		APIMetrics.solrQueryDone(start, getQTime(qr), query.getQuery(), query.getFilterQueries(),
+				qr.getResults() != null ? qr.getResults().getNumFound() : 0);
+		return qr;
+	}
+
+	// qtime från svarshuvudet, -1 om den saknas
+	private static int getQTime(QueryResponse qr) {
+		NamedList<Object> header = qr.getResponseHeader();
+		Object qTime = header != null ? header.get("QTime") : null;
+		return qTime instanceof Number ? ((Number) qTime).intValue() : -1;
 	}
 	
 	@Override
 	public Set<String> analyze(String words) throws SolrServerException, IOException {
-		if (logger.isInfoEnabled()) {
+		if (logger.isDebugEnabled()) {
 			logger.debug("Analyserar " + words);
 		}
+		// analysen är deterministisk för ett givet ord så svaret kan cachas
+		Set<String> stems = analysisCache.get(words);
+		if (stems == null) {
+			Analyzer analyzer = getInProcessAnalyzer();
+			if (analyzer != null) {
+				stems = analyzeInProcess(analyzer, words);
+			} else {
+				stems = analyzeInSolr(words);
+			}
+			stems = Collections.unmodifiableSet(stems);
+			analysisCache.put(words, stems);
+		}
+		return stems;
+	}
+
+	/**
+	 * Analyserar (stammar) ett eller flera ord med solrs analys för text-indexet.
+	 * @param words ord
+	 * @return mängd med ordstammar
+	 * @throws SolrServerException vid sökfel
+	 * @throws IOException vid kommunikationsfel
+	 */
+	Set<String> analyzeInSolr(String words) throws SolrServerException, IOException {
 		Set<String> stems = new HashSet<>();
 		FieldAnalysisRequest far = new FieldAnalysisRequest();
 		// vi kör analys mot text-indexet då vi vet att den stammar
 		far.addFieldName(ContentHelper.IX_TEXT);
-		far.addFieldType("text");
+		far.addFieldType(ANALYSIS_FIELD_TYPE);
 		// det är query-delen vi främst är intresserade av (ger a.getQueryPhases() != null nedan)
 		far.setQuery(words);
 		// men field value måste sättas
 		far.setFieldValue(words);
 		far.setMethod(METHOD.POST);
 
+		long start = System.nanoTime();
 		FieldAnalysisResponse fares = far.process(solr);
+		APIMetrics.solrRequestDone(start, -1);
 		Analysis a = fares.getFieldNameAnalysis(ContentHelper.IX_TEXT);
 		List<TokenInfo> lastTokenInfoList = null;
 		for (AnalysisPhase ap: a.getQueryPhases()) {
@@ -81,6 +163,104 @@ public class SearchServiceImpl implements SearchService {
 		return stems;
 	}
 
+	/**
+	 * Analyserar (stammar) ett eller flera ord i processen med samma analyskedja som solr.
+	 * @param analyzer analyskedja
+	 * @param words ord
+	 * @return mängd med ordstammar
+	 * @throws IOException vid analysfel
+	 */
+	static Set<String> analyzeInProcess(Analyzer analyzer, String words) throws IOException {
+		Set<String> stems = new HashSet<>();
+		try (TokenStream ts = analyzer.tokenStream(ContentHelper.IX_TEXT, words)) {
+			CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+			ts.reset();
+			while (ts.incrementToken()) {
+				stems.add(term.toString());
+			}
+			ts.end();
+		}
+		return stems;
+	}
+
+	/**
+	 * Ger analyskedjan för analys i processen, eller null om analys ska göras i solr. Kedjan
+	 * byggs en gång från solrs schemadefinition av fälttypen för text-indexet så att den alltid
+	 * är densamma som i solr. Går den inte att bygga, tex för att den kräver resursfiler som bara
+	 * finns i solr, används solr istället.
+	 * @return analyskedja eller null
+	 */
+	private Analyzer getInProcessAnalyzer() {
+		if (!inProcessAnalysis) {
+			return null;
+		}
+		synchronized (this) {
+			if (inProcessAnalyzer == null) {
+				try {
+					inProcessAnalyzer = createAnalyzer(ANALYSIS_FIELD_TYPE);
+					logger.info("Ordstammning görs i processen med analyskedjan för fälttypen " + ANALYSIS_FIELD_TYPE);
+				} catch (Exception e) {
+					logger.error("Kunde inte bygga analyskedja för fälttypen " + ANALYSIS_FIELD_TYPE +
+							", ordstammning görs i solr", e);
+					inProcessAnalysis = false;
+				}
+			}
+			return inProcessAnalyzer;
+		}
+	}
+
+	/**
+	 * Bygger en analyskedja för frågor från solrs schemadefinition av en fälttyp.
+	 * @param fieldTypeName fälttypens namn
+	 * @return analyskedja
+	 * @throws Exception om definitionen inte kunde hämtas eller kedjan inte byggas
+	 */
+	Analyzer createAnalyzer(String fieldTypeName) throws Exception {
+		SchemaResponse.FieldTypeResponse ftr = new SchemaRequest.FieldType(fieldTypeName).process(solr);
+		FieldTypeDefinition ftd = ftr.getFieldType();
+		// det är query-delen som används vid analys av sökord
+		AnalyzerDefinition ad = ftd.getQueryAnalyzer() != null ? ftd.getQueryAnalyzer() : ftd.getAnalyzer();
+		if (ad == null || ad.getTokenizer() == null) {
+			throw new Exception("Fälttypen " + fieldTypeName + " saknar analyskedja");
+		}
+		CustomAnalyzer.Builder builder = CustomAnalyzer.builder(new ClasspathResourceLoader(getClass()));
+		if (ad.getCharFilters() != null) {
+			for (Map<String, Object> charFilter : ad.getCharFilters()) {
+				builder.addCharFilter(factoryName(charFilter, "CharFilterFactory"), factoryArgs(charFilter));
+			}
+		}
+		builder.withTokenizer(factoryName(ad.getTokenizer(), "TokenizerFactory"), factoryArgs(ad.getTokenizer()));
+		if (ad.getFilters() != null) {
+			for (Map<String, Object> filter : ad.getFilters()) {
+				builder.addTokenFilter(factoryName(filter, "FilterFactory"), factoryArgs(filter));
+			}
+		}
+		return builder.build();
+	}
+
+	// ger lucenes spi-namn för en fabrik från schemats klassnamn, tex solr.SnowballPorterFilterFactory -> SnowballPorter
+	private static String factoryName(Map<String, Object> definition, String suffix) {
+		String name = String.valueOf(definition.get("class"));
+		name = name.substring(name.lastIndexOf('.') + 1);
+		if (name.endsWith(suffix)) {
+			name = name.substring(0, name.length() - suffix.length());
+		} else if (name.endsWith("Factory")) {
+			name = name.substring(0, name.length() - "Factory".length());
+		}
+		return name;
+	}
+
+	// ger fabrikens argument, dvs allt utom klassnamnet
+	private static Map<String, String> factoryArgs(Map<String, Object> definition) {
+		Map<String, String> args = new HashMap<>();
+		for (Map.Entry<String, Object> entry : definition.entrySet()) {
+			if (!"class".equals(entry.getKey())) {
+				args.put(entry.getKey(), String.valueOf(entry.getValue()));
+			}
+		}
+		return args;
+	}
+
 	@Override
 	public List<Term> terms(String index, String prefix, int removeBelow, int maxCount) throws SolrServerException, IOException {
 		// * tolkas som del av termen så sådana kan vi inte ha med
@@ -107,8 +287,11 @@ public class SearchServiceImpl implements SearchService {
 			query.set(TermsParams.TERMS_LIMIT, DEFAULT_TERM_COUNT);
 		}
 		QueryRequest qreq = new QueryRequest(query, METHOD.POST);
+		long start = System.nanoTime();
+		QueryResponse qres = qreq.process(solr);
+		APIMetrics.solrRequestDone(start, getQTime(qres));
 		@SuppressWarnings("unchecked")
-		NamedList<Object> termList = (NamedList<Object>) qreq.process(solr).getResponse().get("terms");
+		NamedList<Object> termList = (NamedList<Object>) qres.getResponse().get("terms");
 		for (int i = 0; i < termList.size(); ++i) {
 			String term = termList.getName(i);
 			@SuppressWarnings("unchecked")
@@ -156,11 +339,79 @@ public class SearchServiceImpl implements SearchService {
 		return countMap;
 	}
 
+	@Override
+	public boolean isStored(String field) throws SolrServerException, IOException {
+		StoredFields sf = storedFields;
+		if (sf == null) {
+			// showDefaults ger egenskaper som ärvs från fälttypen
+			ModifiableSolrParams params = new ModifiableSolrParams();
+			params.set("showDefaults", true);
+			sf = new StoredFields(new SchemaRequest.Fields(params).process(solr).getFields(),
+					new SchemaRequest.DynamicFields(params).process(solr).getDynamicFields());
+			storedFields = sf;
+		}
+		return sf.isStored(field);
+	}
+
+	/**
+	 * Lagrade fält enligt solrs schema. Ett fält räknas som lagrat om det är stored eller har
+	 * docValues med useDocValuesAsStored. Dynamiska fält matchas med det längsta mönstret först
+	 * som i solr.
+	 */
+	static class StoredFields {
+		private final Map<String, Boolean> fields = new HashMap<>();
+		private final List<Map.Entry<String, Boolean>> dynamicFields = new ArrayList<>();
+
+		StoredFields(List<Map<String, Object>> fieldDefs, List<Map<String, Object>> dynamicFieldDefs) {
+			for (Map<String, Object> fieldDef : fieldDefs) {
+				fields.put(String.valueOf(fieldDef.get("name")), isStored(fieldDef));
+			}
+			for (Map<String, Object> fieldDef : dynamicFieldDefs) {
+				dynamicFields.add(new AbstractMap.SimpleImmutableEntry<>(String.valueOf(fieldDef.get("name")),
+						isStored(fieldDef)));
+			}
+			dynamicFields.sort((a, b) -> b.getKey().length() - a.getKey().length());
+		}
+
+		boolean isStored(String field) {
+			Boolean stored = fields.get(field);
+			if (stored != null) {
+				return stored;
+			}
+			for (Map.Entry<String, Boolean> dynamicField : dynamicFields) {
+				String pattern = dynamicField.getKey();
+				if ((pattern.startsWith("*") && field.endsWith(pattern.substring(1))) ||
+						(pattern.endsWith("*") && field.startsWith(pattern.substring(0, pattern.length() - 1)))) {
+					return dynamicField.getValue();
+				}
+			}
+			return false;
+		}
+
+		private static boolean isStored(Map<String, Object> fieldDef) {
+			return Boolean.TRUE.equals(fieldDef.get("stored")) ||
+					(Boolean.TRUE.equals(fieldDef.get("docValues")) &&
+					Boolean.TRUE.equals(fieldDef.get("useDocValuesAsStored")));
+		}
+	}
+
 	@Override
 	public String getSolrURL() {
 		return (solr instanceof HttpSolrClient ? ((HttpSolrClient) solr).getBaseURL() : null);
 	}
 
+	// map som inte sparar något, används när cachen är avstängd
+	private static class NoCacheMap extends AbstractMap<String, Set<String>> {
+		@Override
+		public Set<String> put(String key, Set<String> value) {
+			return null;
+		}
+		@Override
+		public Set<Entry<String, Set<String>>> entrySet() {
+			return Collections.emptySet();
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public NamedList<Object> getIndexInfo() throws SolrServerException, IOException {
@@ -171,4 +422,18 @@ public class SearchServiceImpl implements SearchService {
 		QueryResponse qres = qreq.process(solr);
 		return (NamedList<Object>) qres.getResponse().get("index");
 	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public long getIndexVersion() throws SolrServerException, IOException {
+		// luke med bara indexinformation är billig, inga termer eller fält räknas
+		SolrQuery query = new SolrQuery();
+		query.setRequestHandler("/admin/luke");
+		query.set("show", "index");
+		query.set("numTerms", 0);
+		QueryResponse qres = solr.query(query);
+		NamedList<Object> index = (NamedList<Object>) qres.getResponse().get("index");
+		Object version = index != null ? index.get("version") : null;
+		return version instanceof Number ? ((Number) version).longValue() : -1;
+	}
 }
@@ -0,0 +1,67 @@
+package se.raa.ksamsok.util;
+
+/**
+ * Hjälpmetoder för xml som skrivs som text.
+ */
+public class XMLUtil {
+
+	private XMLUtil() {
+	}
+
+	/**
+	 * Escapar ett värde för text eller attribut i xml 1.0. Tecken som inte är tillåtna i
+	 * xml 1.0 tas bort.
+	 *
+	 * @param value värde, kan vara null
+	 * @return escapat värde eller null
+	 */
+	public static String escapeXml(String value) {
+		if (value == null) {
+			return null;
+		}
+		StringBuilder sb = null;
+		for (int i = 0; i < value.length(); ) {
+			int cp = value.codePointAt(i);
+			int len = Character.charCount(cp);
+			String replacement;
+			switch (cp) {
+				case '&':
+					replacement = "&amp;";
+					break;
+				case '<':
+					replacement = "&lt;";
+					break;
+				case '>':
+					replacement = "&gt;";
+					break;
+				case '"':
+					replacement = "&quot;";
+					break;
+				case '\'':
+					replacement = "&apos;";
+					break;
+				default:
+					replacement = isAllowed(cp) ? null : "";
+			}
+			if (replacement != null && sb == null) {
+				// skapas först när något behöver bytas ut
+				sb = new StringBuilder(value.length() + 16).append(value, 0, i);
+			}
+			if (sb != null) {
+				if (replacement != null) {
+					sb.append(replacement);
+				} else {
+					sb.appendCodePoint(cp);
+				}
+			}
+			i += len;
+		}
+		return sb != null ? sb.toString() : value;
+	}
+
+	// tillåtna tecken enligt xml 1.0, ensamma surrogattecken är inte tillåtna
+	private static boolean isAllowed(int cp) {
+		return cp == 0x9 || cp == 0xA || cp == 0xD || (cp >= 0x20 && cp <= 0xD7FF) ||
+				(cp >= 0xE000 && cp <= 0xFFFD) || (cp >= 0x10000 && cp <= 0x10FFFF);
+	}
+}
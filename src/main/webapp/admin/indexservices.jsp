@@ -4,7 +4,8 @@
 <%@page import="se.raa.ksamsok.harvest.HarvestService"%>
 <%@page import="java.util.Date"%>
 <%@page import="se.raa.ksamsok.lucene.ContentHelper"%>
-<%@page import="java.util.List"%><html>
+<%@page import="java.util.List"%>
+<%@page import="se.raa.ksamsok.resolve.ResolverCache"%><html>
 <%
 	String uidString = " [" + request.getRemoteUser() + "]";
 %>
@@ -47,6 +48,15 @@
 <%
 			}
 %>
+		<h4>Resolver-cache</h4>
+<%
+			ResolverCache resolverCache = ctx.getBean(ResolverCache.class);
+%>
+		Antal svar = <%= resolverCache.getSize() %> (max <%= resolverCache.getMaxEntries() %>),
+		storlek = <%= resolverCache.getTotalBytes() / 1024 %> kB (max <%= resolverCache.getMaxTotalBytes() / 1024 %> kB),
+		träffar = <%= resolverCache.getHits() %>, missar = <%= resolverCache.getMisses() %>,
+		träffandel = <%= String.format("%.1f", resolverCache.getHitRate() * 100) %>%,
+		tömningar pga ny indexversion = <%= resolverCache.getInvalidations() %>
 		<hr/>
 		<form action="serviceaction.jsp" method="post" accept-charset="iso-8859-1">
 			<table id="servicetable">
@@ -6,6 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import se.raa.ksamsok.api.exception.BadParameterException;
 import se.raa.ksamsok.api.exception.MissingParameterException;
 import se.raa.ksamsok.api.method.APIMethod;
 
@@ -108,6 +109,28 @@ public class AllIndexUniqueValueCountTest extends AbstractBaseTest {
 		}
 	}
 
+	@Test
+	public void testAllIndexApproximateCount(){
+		reqParams.put("countMode", "approximate");
+		testAllIndexXMLResponse();
+		testAllIndexJSONResponse();
+	}
+
+	@Test
+	public void testAllIndexBadCountMode(){
+		reqParams.put("countMode", "ungefär");
+		try {
+			out = new ByteArrayOutputStream();
+			APIMethod allIndexUnigueValueCount = apiMethodFactory.getAPIMethod(reqParams, out);
+			allIndexUnigueValueCount.performMethod();
+			fail("No exception was thrown, expected BadParameterException");
+		} catch (BadParameterException e) {
+			// Expected exception
+		} catch (Exception e) {
+			fail("Wrong exception was thrown, expected BadParameterException");
+		}
+	}
+
 	@Test
 	public void testAllIndexNoQueryParam(){
 		reqParams.remove("query");
@@ -1,5 +1,10 @@
 package se.raa.ksamsok.api;
 
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,7 +16,13 @@ import se.raa.ksamsok.api.exception.BadParameterException;
 import se.raa.ksamsok.api.exception.MissingParameterException;
 import se.raa.ksamsok.api.method.APIMethod;
 import se.raa.ksamsok.api.method.APIMethod.Format;
+import se.raa.ksamsok.api.method.GetRelations;
+import se.raa.ksamsok.harvest.HarvestRepositoryManager;
+import se.raa.ksamsok.organization.OrganizationManager;
+import se.raa.ksamsok.solr.SearchService;
+import se.raa.ksamsok.solr.StubSearchService;
 
+import javax.sql.DataSource;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.ByteArrayInputStream;
@@ -19,7 +30,9 @@ import java.io.ByteArrayOutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -96,6 +109,108 @@ public class GetRelationsTest extends AbstractBaseTest {
 		}
 	}
 
+	@Test
+	public void testGetRelationsManyInverseRelations() throws Exception {
+		final String uri = "http://kulturarvsdata.se/raa/test/1";
+		final int edgeCount = 30000;
+		final List<SolrQuery> queries = new ArrayList<>();
+		SearchService searchService = new StubSearchService() {
+			@Override
+			public QueryResponse query(SolrQuery query) {
+				queries.add(query);
+				NamedList<Object> response = new NamedList<>();
+				SolrDocumentList docs = new SolrDocumentList();
+				if (query.get("json.facet") == null) {
+					SolrDocument doc = new SolrDocument();
+					doc.setField("itemId", uri);
+					doc.addField("_relations", "isPartOf|http://kulturarvsdata.se/raa/test/parent");
+					doc.addField("_relations", "hasImage|http://kulturarvsdata.se/raa/test/image");
+					docs.add(doc);
+					docs.setNumFound(1);
+				} else {
+					JSONObject facet = new JSONObject(query.get("json.facet")).getJSONObject("edges0");
+					int limit = facet.getInt("limit");
+					List<NamedList<Object>> buckets = new ArrayList<>();
+					// bilden pekar tillbaka med isRelatedTo vilket ska filtreras bort pga hasImage
+					buckets.add(bucket(uri + "|isRelatedTo|isRelatedTo|http://kulturarvsdata.se/raa/test/image"));
+					for (int i = 0; i < edgeCount && (limit < 0 || buckets.size() < limit); i++) {
+						buckets.add(bucket(uri + "|hasPart|isPartOf|http://kulturarvsdata.se/raa/test/part" + i));
+					}
+					NamedList<Object> edges = new NamedList<>();
+					edges.add("buckets", buckets);
+					NamedList<Object> facets = new NamedList<>();
+					facets.add("count", edgeCount + 1);
+					facets.add("edges0", edges);
+					response.add("facets", facets);
+				}
+				response.add("response", docs);
+				QueryResponse qr = new QueryResponse();
+				qr.setResponse(response);
+				return qr;
+			}
+		};
+		reqParams.put("objectId", "raa/test/1");
+		reqParams.put("maxCount", Integer.toString(2 * edgeCount));
+		Document resultDoc = performWithSearchService(searchService);
+		// två raka relationer och en härledd per kant utom den från bilden
+		NodeList relationList = resultDoc.getElementsByTagName("relation");
+		assertEquals(edgeCount + 2, relationList.getLength());
+		int deduced = 0;
+		for (int i = 0; i < relationList.getLength(); i++) {
+			Node relation = relationList.item(i);
+			assertRelation(relation);
+			if (relation.getAttributes().getNamedItem("source") != null) {
+				assertEquals("hasPart", relation.getAttributes().getNamedItem("type").getTextContent());
+				deduced++;
+			}
+		}
+		assertEquals(edgeCount, deduced);
+		// en sökning för källposten och en för alla relationskanter
+		assertEquals(2, queries.size());
+
+		// med maxCount ska antal kanter som hämtas begränsas
+		queries.clear();
+		reqParams.put("maxCount", "10");
+		resultDoc = performWithSearchService(searchService);
+		assertEquals(10, resultDoc.getElementsByTagName("relation").getLength());
+		assertEquals(2, queries.size());
+		assertEquals(10 + 2 * 2, new JSONObject(queries.get(1).get("json.facet")).getJSONObject("edges0").getInt("limit"));
+	}
+
+	private Document performWithSearchService(final SearchService searchService) throws Exception {
+		APIServiceProvider serviceProvider = new APIServiceProvider() {
+			@Override
+			public SearchService getSearchService() {
+				return searchService;
+			}
+			@Override
+			public HarvestRepositoryManager getHarvestRepositoryManager() {
+				return null;
+			}
+			@Override
+			public OrganizationManager getOrganizationManager() {
+				return null;
+			}
+			@Override
+			public DataSource getDataSource() {
+				return null;
+			}
+		};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GetRelations getRelations = new GetRelations(serviceProvider, out, reqParams);
+		getRelations.setFormat(Format.XML);
+		getRelations.performMethod();
+		DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		return docBuilder.parse(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static NamedList<Object> bucket(String value) {
+		NamedList<Object> bucket = new NamedList<>();
+		bucket.add("val", value);
+		bucket.add("count", 1);
+		return bucket;
+	}
+
 	@Test
 	public void testGetRelationsMissingReqParam() {
 		reqParams.remove("relation");
@@ -1,10 +1,17 @@
 package se.raa.ksamsok.api;
 
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
@@ -13,7 +20,14 @@ import se.raa.ksamsok.api.exception.DiagnosticException;
 import se.raa.ksamsok.api.exception.MissingParameterException;
 import se.raa.ksamsok.api.method.APIMethod;
 import se.raa.ksamsok.api.method.APIMethod.Format;
+import se.raa.ksamsok.api.method.Search;
+import se.raa.ksamsok.harvest.HarvestRepositoryManager;
+import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.organization.OrganizationManager;
+import se.raa.ksamsok.solr.SearchService;
+import se.raa.ksamsok.solr.StubSearchService;
 
+import javax.sql.DataSource;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -24,7 +38,14 @@ import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 
 import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertEquals;
@@ -164,6 +185,158 @@ public class SearchTest extends AbstractBaseTest{
 //	}
 
 
+	@Test
+	public void testSearchWithRecordSchemaXMLFromStoredFields() throws Exception {
+		reqParams.put("fields","itemId,itemLabel,url,createdDate");
+		reqParams.put("recordSchema","xml");
+		byte[] rdf = Files.readAllBytes(Paths.get("src/test/resources/hjalm_1.1.rdf"));
+		List<SolrQuery> queries = new ArrayList<>();
+		SearchService searchService = new StubSearchService() {
+			@Override
+			public boolean isStored(String field) {
+				return true;
+			}
+			@Override
+			public QueryResponse query(SolrQuery query) {
+				queries.add(query);
+				List<String> fields = Arrays.asList(query.getFields().split(","));
+				SolrDocumentList docs = new SolrDocumentList();
+				if (queries.size() == 1) {
+					// en post med lagrade fält och en som indexerats innan fälten lagrades
+					SolrDocument stored = new SolrDocument();
+					stored.setField(ContentHelper.IX_ITEMID, "http://kulturarvsdata.se/raa/test/2");
+					stored.setField(ContentHelper.IX_ITEMLABEL, "Yxa");
+					stored.setField(ContentHelper.I_IX_HTML_URL, "http://www.raa.se/test/2");
+					// lagrade datum kommer som Date
+					stored.setField(ContentHelper.IX_CREATEDDATE, Date.from(Instant.parse("2005-03-04T00:00:00Z")));
+					stored.setField("score", 1.0f);
+					stored.setField(ContentHelper.I_IX_RDF, rdf);
+					stored.getFieldNames().retainAll(fields);
+					docs.add(stored);
+					SolrDocument old = new SolrDocument();
+					old.setField(ContentHelper.IX_ITEMID, "http://kulturarvsdata.se/raa/test/1");
+					old.setField("score", 0.5f);
+					docs.add(old);
+				} else {
+					SolrDocument old = new SolrDocument();
+					old.setField(ContentHelper.IX_ITEMID, "http://kulturarvsdata.se/raa/test/1");
+					old.setField(ContentHelper.I_IX_RDF, rdf);
+					old.getFieldNames().retainAll(fields);
+					docs.add(old);
+				}
+				docs.setNumFound(docs.size());
+				NamedList<Object> response = new NamedList<>();
+				response.add("response", docs);
+				QueryResponse qr = new QueryResponse();
+				qr.setResponse(response);
+				return qr;
+			}
+		};
+		out = new ByteArrayOutputStream();
+		Search search = new Search(serviceProvider(searchService), out, reqParams);
+		search.setFormat(Format.XML);
+		search.performMethod();
+
+		// bara de efterfrågade fälten hämtas, rdf:en bara för posten som saknar lagrade fält
+		List<String> fl = Arrays.asList(queries.get(0).getFields().split(","));
+		assertTrue(fl.contains(ContentHelper.IX_ITEMLABEL));
+		assertTrue(fl.contains(ContentHelper.I_IX_HTML_URL));
+		assertFalse(fl.contains(ContentHelper.I_IX_RDF));
+		assertEquals(2, queries.size());
+		assertTrue(queries.get(1).getQuery().contains(ClientUtils.escapeQueryChars("http://kulturarvsdata.se/raa/test/1")));
+		assertFalse(queries.get(1).getQuery().contains(ClientUtils.escapeQueryChars("http://kulturarvsdata.se/raa/test/2")));
+
+		Document resultDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+				new ByteArrayInputStream(out.toByteArray()));
+		NodeList records = resultDoc.getElementsByTagName("record");
+		assertEquals(2, records.getLength());
+		assertEquals("http://kulturarvsdata.se/raa/test/2|Yxa|http://www.raa.se/test/2|2005-03-04",
+				fieldValues(records.item(0)));
+		// fälten i rdf:en tas fram som vid indexering
+		assertEquals("http://kulturarvsdata.se/raa/test/1|Hjälm|http://www.livrustkammaren.se/default.asp?id=4916" +
+				"&ptid=&refid=4984&filename=&xmlfilename=|2006-01-01", fieldValues(records.item(1)));
+	}
+
+	@Test
+	public void testSearchWithRecordSchemaXMLNotAllFieldsStored() throws Exception {
+		reqParams.put("fields","itemId,itemLabel,createdDate");
+		reqParams.put("recordSchema","xml");
+		byte[] rdf = Files.readAllBytes(Paths.get("src/test/resources/hjalm_1.1.rdf"));
+		List<SolrQuery> queries = new ArrayList<>();
+		SearchService searchService = new StubSearchService() {
+			@Override
+			public boolean isStored(String field) {
+				// createdDate är inte lagrat
+				return ContentHelper.IX_ITEMID.equals(field) || ContentHelper.IX_ITEMLABEL.equals(field);
+			}
+			@Override
+			public QueryResponse query(SolrQuery query) {
+				queries.add(query);
+				List<String> fields = Arrays.asList(query.getFields().split(","));
+				SolrDocumentList docs = new SolrDocumentList();
+				SolrDocument doc = new SolrDocument();
+				doc.setField(ContentHelper.IX_ITEMID, "http://kulturarvsdata.se/raa/test/1");
+				doc.setField(ContentHelper.IX_ITEMLABEL, "Yxa");
+				doc.setField("score", 1.0f);
+				doc.setField(ContentHelper.I_IX_RDF, rdf);
+				doc.getFieldNames().retainAll(fields);
+				docs.add(doc);
+				docs.setNumFound(docs.size());
+				NamedList<Object> response = new NamedList<>();
+				response.add("response", docs);
+				QueryResponse qr = new QueryResponse();
+				qr.setResponse(response);
+				return qr;
+			}
+		};
+		out = new ByteArrayOutputStream();
+		Search search = new Search(serviceProvider(searchService), out, reqParams);
+		search.setFormat(Format.XML);
+		search.performMethod();
+
+		// alla fält tas fram ur rdf:en i samma anrop så att det olagrade fältet inte försvinner
+		assertEquals(1, queries.size());
+		assertTrue(Arrays.asList(queries.get(0).getFields().split(",")).contains(ContentHelper.I_IX_RDF));
+		Document resultDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+				new ByteArrayInputStream(out.toByteArray()));
+		NodeList records = resultDoc.getElementsByTagName("record");
+		assertEquals(1, records.getLength());
+		assertEquals("http://kulturarvsdata.se/raa/test/1|Hjälm|2006-01-01", fieldValues(records.item(0)));
+	}
+
+	private static APIServiceProvider serviceProvider(SearchService searchService) {
+		return new APIServiceProvider() {
+			@Override
+			public SearchService getSearchService() {
+				return searchService;
+			}
+			@Override
+			public HarvestRepositoryManager getHarvestRepositoryManager() {
+				return null;
+			}
+			@Override
+			public OrganizationManager getOrganizationManager() {
+				return null;
+			}
+			@Override
+			public DataSource getDataSource() {
+				return null;
+			}
+		};
+	}
+
+	private static String fieldValues(Node record) {
+		StringBuilder values = new StringBuilder();
+		NodeList fields = ((Element) record).getElementsByTagName("field");
+		for (int i = 0; i < fields.getLength(); i++) {
+			if (values.length() > 0) {
+				values.append('|');
+			}
+			values.append(fields.item(i).getTextContent());
+		}
+		return values.toString();
+	}
+
 	@Test
 	public void testSearchWithUnknownRecordSchema(){
 		reqParams.put("recordSchema","");
@@ -0,0 +1,68 @@
+package se.raa.ksamsok.api.method;
+
+import com.sun.syndication.feed.synd.SyndEntry;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+import se.raa.ksamsok.harvest.HarvestService;
+import se.raa.ksamsok.harvest.HarvestServiceImpl;
+import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.lucene.RSSData;
+import se.raa.ksamsok.lucene.SamsokContentHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Kontrollerar att rss-entries som skapas från förberett data i indexet blir samma som
+ * de som skapas från rdf:en.
+ */
+public class RSSEntryTest {
+
+	private static final String[] TEST_FILES = { "hjalm_0.99.rdf", "hjalm_1.1.rdf", "hjalm_1.11.rdf", "alla_index_1.1.rdf" };
+
+	@Test
+	public void testEntryFromIndexedDataSameAsFromRdf() throws Exception {
+		RSS rss = new RSS(null, new ByteArrayOutputStream(), new HashMap<>());
+		SamsokContentHelper helper = new SamsokContentHelper(true);
+		HarvestService service = new HarvestServiceImpl();
+		service.setId("TESTID");
+		for (String fileName : TEST_FILES) {
+			String rdf = new String(Files.readAllBytes(Paths.get("src/test/resources", fileName)), StandardCharsets.UTF_8);
+			SolrInputDocument doc = helper.createSolrDocument(service, rdf, new Date());
+			assertNotNull("Inget solr-dokument för " + fileName, doc);
+			String rssData = (String) doc.getFieldValue(ContentHelper.I_IX_RSS);
+			assertNotNull("Inget rss-data för " + fileName, rssData);
+
+			SyndEntry fromRdf = rss.getEntry(rdf);
+			SyndEntry fromIndex = rss.getEntry(RSSData.fromJSON(rssData));
+			assertEquals("Fel titel för " + fileName, fromRdf.getTitle(), fromIndex.getTitle());
+			assertEquals("Fel länk för " + fileName, fromRdf.getLink(), fromIndex.getLink());
+			assertEquals("Fel uri för " + fileName, fromRdf.getUri(), fromIndex.getUri());
+			assertEquals("Fel beskrivning för " + fileName, fromRdf.getDescription().getValue(),
+					fromIndex.getDescription().getValue());
+			assertEquals("Fel datum för " + fileName, fromRdf.getPublishedDate(), fromIndex.getPublishedDate());
+			assertEquals("Fel antal moduler för " + fileName, fromRdf.getModules().size(), fromIndex.getModules().size());
+		}
+	}
+
+	@Test
+	public void testParseDate() {
+		Calendar c = Calendar.getInstance();
+		c.setTime(RSS.parseDate("2010-01-22 "));
+		assertEquals(2010, c.get(Calendar.YEAR));
+		assertEquals(Calendar.JANUARY, c.get(Calendar.MONTH));
+		assertEquals(22, c.get(Calendar.DAY_OF_MONTH));
+		assertEquals(0, c.get(Calendar.HOUR_OF_DAY));
+		// som tidigare ignoreras text efter datumet
+		c.setTime(RSS.parseDate("2010-1-2T10:00"));
+		assertEquals(2, c.get(Calendar.DAY_OF_MONTH));
+	}
+}
@@ -1,13 +1,19 @@
 package se.raa.ksamsok.api.method;
 
+import org.apache.solr.client.solrj.response.PivotField;
 import org.junit.Assert;
 import org.junit.Test;
 import se.raa.ksamsok.api.AbstractStatisticTest;
+import se.raa.ksamsok.api.exception.BadParameterException;
+import se.raa.ksamsok.api.util.QueryContent;
 import se.raa.ksamsok.api.util.Term;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class StatisticTest extends AbstractStatisticTest {
 	static int numberOfTermsVal;
@@ -43,6 +49,61 @@ public class StatisticTest extends AbstractStatisticTest {
 		Assert.assertEquals(60, cc);
 	}
 
+	@Test
+	public void testMergePivotCounts() throws Exception {
+		Map<String, List<Term>> map = new LinkedHashMap<>();
+		map.put("mediaType", Arrays.asList(new Term("mediaType", "image", 30L), new Term("mediaType", "text", 20L)));
+		map.put("itemName", Arrays.asList(new Term("itemName", "yxa", 40L), new Term("itemName", "yxblad", 10L)));
+		List<String> indexes = new ArrayList<>(map.keySet());
+		// solr sorterar pivot-värden på antal, inte i termlistornas ordning
+		List<PivotField> pivot = Arrays.asList(
+				pivotField("mediaType", "text", 20, Arrays.asList(
+						pivotField("itemName", "yxa", 15, null),
+						pivotField("itemName", "yxblad", 5, null))),
+				pivotField("mediaType", "image", 30, Arrays.asList(
+						pivotField("itemName", "yxa", 25, null),
+						pivotField("itemName", "yxor", 5, null))));
+
+		List<QueryContent> result = Statistic.mergePivotCounts(indexes, map, pivot, 10, 100);
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals("image", result.get(0).getTermMap().get("mediaType"));
+		Assert.assertEquals("yxa", result.get(0).getTermMap().get("itemName"));
+		Assert.assertEquals(25L, (long) result.get(0).getHits());
+		Assert.assertEquals("text", result.get(1).getTermMap().get("mediaType"));
+		Assert.assertEquals(15L, (long) result.get(1).getHits());
+
+		// utan removeBelow ska alla kombinationer med, i kartesisk ordning
+		result = Statistic.mergePivotCounts(indexes, map, pivot, 0, 100);
+		List<QueryContent> cartesian = Statistic.cartesian(map);
+		Assert.assertEquals(cartesian.size(), result.size());
+		for (int i = 0; i < cartesian.size(); i++) {
+			Assert.assertEquals(cartesian.get(i).getTermMap(), result.get(i).getTermMap());
+		}
+		Assert.assertEquals(25L, (long) result.get(0).getHits());
+		Assert.assertEquals(0L, (long) result.get(1).getHits());
+		Assert.assertEquals(15L, (long) result.get(2).getHits());
+		Assert.assertEquals(5L, (long) result.get(3).getHits());
+
+		// svaret begränsas, med removeBelow av antalet kombinationer med träffar och utan av hela produkten
+		Assert.assertEquals(2, Statistic.mergePivotCounts(indexes, map, pivot, 10, 2).size());
+		try {
+			Statistic.mergePivotCounts(indexes, map, pivot, 1, 2);
+			Assert.fail("No exception thrown, expected BadParameterException");
+		} catch (BadParameterException e) {
+			// ok
+		}
+		try {
+			Statistic.mergePivotCounts(indexes, map, pivot, 0, 3);
+			Assert.fail("No exception thrown, expected BadParameterException");
+		} catch (BadParameterException e) {
+			// ok
+		}
+	}
+
+	private static PivotField pivotField(String field, String value, int count, List<PivotField> pivot) {
+		return new PivotField(field, value, count, pivot, null, null, null);
+	}
+
 
 	//TODO: kommentera tillbaka när vi har data i indexet igen, eller ännu hellre göra teset oberoende
 	//	// av om det finns data eller ej genom setup/teardown
@@ -0,0 +1,126 @@
+package se.raa.ksamsok.api.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+import se.raa.ksamsok.api.method.APIMethod.Format;
+import se.raa.ksamsok.api.metrics.APIMetrics.Phase;
+
+import java.io.StringWriter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class APIMetricsTest {
+
+	private static final Pattern SAMPLE = Pattern.compile("^[a-z_]+(\\{[^}]*\\})? [0-9.]+$");
+
+	@After
+	public void tearDown() {
+		APIMetrics.clearRequest();
+	}
+
+	@Test
+	public void testQuantiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		// 1..1000 ms jämnt fördelat
+		for (int i = 1; i <= 1000; i++) {
+			histogram.observe(i * 1_000_000L);
+		}
+		LatencyHistogram.Snapshot s = histogram.snapshot();
+		assertEquals(1000, s.getCount());
+		assertEquals(500_500_000_000L, s.getSumNanos());
+		assertWithin(500_000_000L, s.quantile(0.5), 0.2);
+		assertWithin(950_000_000L, s.quantile(0.95), 0.2);
+		assertWithin(990_000_000L, s.quantile(0.99), 0.2);
+		assertEquals(0, new LatencyHistogram().snapshot().quantile(0.5));
+		// värden över sista gränsen ger sista gränsen
+		histogram = new LatencyHistogram();
+		histogram.observe(Long.MAX_VALUE / 2);
+		assertEquals(LatencyHistogram.BOUNDS_NANOS[LatencyHistogram.BOUNDS_NANOS.length - 1],
+				histogram.snapshot().quantile(0.99));
+	}
+
+	@Test
+	public void testRequestPhases() {
+		APIMetrics metrics = new APIMetrics();
+		// utan pågående tidtagning händer inget
+		APIMetrics.solrRequestDone(System.nanoTime(), 5);
+		APIMetrics.methodDone(1000, 1000);
+		metrics.finishRequest("Search", Format.XML, 200);
+		assertNull(metrics.getSnapshot("Search", Format.XML, Phase.TOTAL));
+
+		APIMetrics.startRequest();
+		APIMetrics.solrRequestDone(System.nanoTime() - 3_000_000L, 2);
+		APIMetrics.solrRequestDone(System.nanoTime() - 2_000_000L, 1);
+		APIMetrics.methodDone(10_000_000L, 4_000_000L);
+		metrics.finishRequest("Search", Format.JSON_LD, 200);
+
+		LatencyHistogram.Snapshot solr = metrics.getSnapshot("Search", Format.JSON_LD, Phase.SOLR);
+		assertEquals(1, solr.getCount());
+		assertTrue(solr.getSumNanos() >= 5_000_000L);
+		// parse är logiken minus solr
+		LatencyHistogram.Snapshot parse = metrics.getSnapshot("Search", Format.JSON_LD, Phase.PARSE);
+		assertEquals(10_000_000L - solr.getSumNanos(), parse.getSumNanos());
+		assertEquals(4_000_000L, metrics.getSnapshot("Search", Format.JSON_LD, Phase.RENDER).getSumNanos());
+		assertEquals(1, metrics.getSnapshot("Search", Format.JSON_LD, Phase.TOTAL).getCount());
+
+		// fel före metoden ger bara total och felräknare
+		APIMetrics.startRequest();
+		metrics.finishRequest(null, Format.XML, 400);
+		assertEquals(1, metrics.getSnapshot(APIMetrics.UNKNOWN_METHOD, Format.XML, Phase.TOTAL).getCount());
+		assertEquals(0, metrics.getSnapshot(APIMetrics.UNKNOWN_METHOD, Format.XML, Phase.RENDER).getCount());
+	}
+
+	@Test
+	public void testTextFormat() throws Exception {
+		APIMetrics metrics = new APIMetrics();
+		APIMetrics.startRequest();
+		APIMetrics.solrRequestDone(System.nanoTime(), 7);
+		APIMetrics.methodDone(2_000_000L, 1_000_000L);
+		metrics.finishRequest("Facet", Format.XML, 200);
+		APIMetrics.startRequest();
+		metrics.finishRequest("Facet", Format.XML, 500);
+
+		StringWriter sw = new StringWriter();
+		metrics.writeTextFormat(sw);
+		String text = sw.toString();
+		long previous = -1;
+		for (String line: text.split("\n")) {
+			if (line.startsWith("#")) {
+				assertTrue(line, line.startsWith("# HELP ") || line.startsWith("# TYPE "));
+				continue;
+			}
+			assertTrue(line, SAMPLE.matcher(line).matches());
+			// kumulativa intervall för total-fasen
+			if (line.startsWith(APIMetrics.DURATION_METRIC + "_bucket{method=\"Facet\",format=\"XML\",phase=\"total\"")) {
+				long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+				assertTrue(line, count >= previous);
+				previous = count;
+			}
+		}
+		assertEquals(2, previous);
+		assertTrue(text.contains(APIMetrics.DURATION_METRIC +
+				"_count{method=\"Facet\",format=\"XML\",phase=\"render\"} 1\n"));
+		assertTrue(text.contains(APIMetrics.DURATION_METRIC +
+				"_sum{method=\"Facet\",format=\"XML\",phase=\"render\"} 0.001\n"));
+		assertTrue(text.contains(APIMetrics.QUANTILE_METRIC +
+				"{method=\"Facet\",format=\"XML\",phase=\"total\",quantile=\"0.99\"} "));
+		assertTrue(text.contains(APIMetrics.QTIME_METRIC + "_sum{method=\"Facet\",format=\"XML\"} 0.007\n"));
+		assertTrue(text.contains(APIMetrics.ERRORS_METRIC + "{method=\"Facet\",format=\"XML\",status=\"500\"} 1\n"));
+		// en HELP och TYPE per metrik
+		Matcher m = Pattern.compile("# TYPE ").matcher(text);
+		int types = 0;
+		while (m.find()) {
+			++types;
+		}
+		assertEquals(4, types);
+	}
+
+	private static void assertWithin(long expected, long actual, double tolerance) {
+		assertTrue("väntade ca " + expected + " men fick " + actual,
+				Math.abs(actual - expected) <= expected * tolerance);
+	}
+}
@@ -0,0 +1,145 @@
+package se.raa.ksamsok.api.metrics;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import se.raa.ksamsok.api.method.APIMethod.Format;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlowQueryLogTest {
+
+	private final APIMetrics metrics = new APIMetrics();
+
+	@After
+	public void tearDown() {
+		APIMetrics.clearRequest();
+	}
+
+	@Test
+	public void testNormalizeCQL() {
+		assertEquals("text=?", SlowQueryLog.normalizeCQL("text=hjälm"));
+		assertEquals("text=? and serviceOrganization=\"?\"",
+				SlowQueryLog.normalizeCQL("text=svärd  and serviceOrganization=\"RAÄ\""));
+		assertEquals("(fromTime>=? or toTime<?) not itemType=\"?\"",
+				SlowQueryLog.normalizeCQL("(fromTime>=1900 or toTime<1950) not itemType=\"foto\""));
+		assertEquals("itemName any ?", SlowQueryLog.normalizeCQL("itemName ANY kyrka"));
+		assertEquals("boundingBox=/WGS84 \"?\"",
+				SlowQueryLog.normalizeCQL("boundingBox=/WGS84 \"11.9 57.7 12.0 57.8\""));
+		assertEquals("text=\"?\"", SlowQueryLog.normalizeCQL("text=\"a \\\"citat\\\" b\""));
+		// samma form oavsett värden och ordning på parametrarna
+		Map<String, String> params = new HashMap<>();
+		params.put("method", "search");
+		params.put("query", "text=hjälm");
+		params.put("hitsPerPage", "10");
+		Map<String, String> other = new HashMap<>();
+		other.put("hitsPerPage", "500");
+		other.put("query", "text=svärd");
+		other.put("method", "search");
+		assertEquals("Search [hitsPerPage,query] text=?", SlowQueryLog.normalize("Search", params));
+		assertEquals(SlowQueryLog.normalize("Search", params), SlowQueryLog.normalize("Search", other));
+	}
+
+	@Test
+	public void testRecordAndTopShapes() {
+		SlowQueryLog log = new SlowQueryLog(50);
+		for (int i = 0; i < 10; i++) {
+			record(log, "Search", "text=ord" + i, 10_000_000L);
+		}
+		record(log, "Facet", "itemType=foto", 30_000_000L);
+		record(log, "Facet", "itemType=karta", 60_000_000L);
+		// bara det över tröskeln sparas
+		assertEquals(1, log.getRecentSlowRequests().size());
+		assertEquals(60, SlowQueryLog.millis(log.getRecentSlowRequests().get(0).getTotalNanos()));
+
+		List<SlowQueryLog.ShapeStats> top = log.getTopShapes(10);
+		assertEquals(2, top.size());
+		assertEquals("Search [query] text=?", top.get(0).getShape());
+		assertEquals(10, top.get(0).getCount());
+		assertEquals("Facet", top.get(1).getMethod());
+		assertEquals(60_000_000L, top.get(1).getMaxNanos());
+		// exemplet är det långsammaste anropet
+		assertEquals("q:karta", top.get(1).getExampleSolrQuery());
+		assertEquals(1, log.getTopShapes(1).size());
+
+		JSONObject json = SlowQueryServlet.toJSON(log, 10);
+		assertEquals(50, json.getLong("thresholdMillis"));
+		assertEquals(2, json.getJSONArray("shapes").length());
+		assertEquals(10, json.getJSONArray("shapes").getJSONObject(0).getLong("count"));
+
+		log.clear();
+		assertTrue(log.getTopShapes(10).isEmpty());
+		assertTrue(log.getRecentSlowRequests().isEmpty());
+	}
+
+	@Test
+	public void testSlowRequest() {
+		SlowQueryLog log = new SlowQueryLog(0);
+		Map<String, String> params = new HashMap<>();
+		params.put("query", "text=hjälm");
+		// frågan och träffarna tas från första sökningen, tiderna summeras
+		APIMetrics.startRequest();
+		APIMetrics.solrQueryDone(System.nanoTime() - 2_000_000L, 7, "text:hjälm",
+				new String[] { "serviceName:x" }, 42);
+		APIMetrics.solrQueryDone(System.nanoTime(), 1, "itemId:y", null, 1);
+		APIMetrics.methodDone(3_000_000L, 1_000_000L);
+		log.record("Search", params, metrics.finishRequest("Search", Format.XML, 200), 200);
+		List<SlowQueryLog.SlowRequest> recent = log.getRecentSlowRequests();
+		assertEquals(1, recent.size());
+		SlowQueryLog.SlowRequest slow = recent.get(0);
+		assertEquals("Search", slow.getMethod());
+		assertEquals("text:hjälm fq=serviceName:x", slow.getSolrQuery());
+		assertEquals(42, slow.getHits());
+		assertEquals(8, slow.getSolrQTimeMillis());
+		assertEquals(1_000_000L, slow.getRenderNanos());
+		assertTrue(slow.getSolrNanos() >= 2_000_000L);
+		assertTrue(slow.getTotalNanos() > 0);
+
+		// avstängd loggning summerar men sparar inga anrop
+		log = new SlowQueryLog(-1);
+		assertEquals(-1, log.getThresholdMillis());
+		record(log, "Search", "text=hjälm", 2_000_000L);
+		assertTrue(log.getRecentSlowRequests().isEmpty());
+		assertEquals(1, log.getTopShapes(10).get(0).getCount());
+
+		// anrop utan tidtagning ignoreras
+		log.record("Search", null, null, 200);
+		assertEquals(1, log.getTopShapes(10).get(0).getCount());
+		assertNull(metrics.finishRequest("Search", Format.XML, 200));
+	}
+
+	@Test
+	public void testMaxShapes() {
+		SlowQueryLog log = new SlowQueryLog(-1);
+		for (int i = 0; i <= SlowQueryLog.MAX_SHAPES; i++) {
+			Map<String, String> params = new HashMap<>();
+			params.put("p" + i, "x");
+			APIMetrics.startRequest();
+			log.record("Search", params, metrics.finishRequest("Search", Format.XML, 200), 200);
+		}
+		List<SlowQueryLog.ShapeStats> top = log.getTopShapes(SlowQueryLog.MAX_SHAPES + 10);
+		assertEquals(SlowQueryLog.MAX_SHAPES + 1, top.size());
+		assertTrue(top.stream().anyMatch(s -> SlowQueryLog.OTHER_SHAPE.equals(s.getShape())));
+	}
+
+	// ett anrop som tog totalNanos
+	private static void record(SlowQueryLog log, String method, String query, long totalNanos) {
+		Map<String, String> params = new HashMap<>();
+		params.put("method", method.toLowerCase());
+		params.put("query", query);
+		APIMetrics.RequestTimings timings = new APIMetrics.RequestTimings(0);
+		timings.totalNanos = totalNanos;
+		timings.solrNanos = totalNanos / 2;
+		timings.renderNanos = 1_000_000L;
+		timings.methodDone = true;
+		timings.solrQuery = "q:" + query.substring(query.indexOf('=') + 1);
+		timings.hits = 42;
+		log.record(method, params, timings, 200);
+	}
+}
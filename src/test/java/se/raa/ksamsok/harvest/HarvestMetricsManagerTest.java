@@ -0,0 +1,325 @@
+package se.raa.ksamsok.harvest;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.raa.ksamsok.harvest.HarvestMetrics.Phase;
+import se.raa.ksamsok.harvest.HarvestMetrics.PhaseMetrics;
+import se.raa.ksamsok.harvest.HarvestMetrics.RunType;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HarvestMetricsManagerTest {
+
+	private JdbcDataSource ds;
+	private HarvestMetricsManager manager;
+
+	@Before
+	public void setUp() throws Exception {
+		ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:harvestmetrics;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		try (Connection c = ds.getConnection()) {
+			RepositorySchema.create(c);
+		}
+		manager = new HarvestMetricsManager(ds);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		HarvestMetrics.getAndClearRun();
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP ALL OBJECTS");
+		}
+	}
+
+	@Test
+	public void testPhaseAccounting() throws Exception {
+		// utan pågående körning ska räknarna inte göra något
+		HarvestMetrics.addRecords(10);
+		HarvestMetrics.startPhase(Phase.FETCH);
+		assertNull(HarvestMetrics.getAndClearRun());
+
+		HarvestMetrics.initRun("S1", Timestamp.valueOf("2022-01-01 10:00:00"));
+		HarvestMetrics.startPhase(Phase.FETCH);
+		HarvestMetrics.addRecords(100);
+		HarvestMetrics.addBytes(2048);
+		HarvestMetrics.countRetry();
+		HarvestMetrics.countRetry();
+		Thread.sleep(5);
+		HarvestMetrics.startPhase(Phase.STORE);
+		HarvestMetrics.addRecords(100);
+		HarvestMetrics.countDBStatements(3);
+		HarvestMetrics.stopPhase();
+		// räknare mellan faser hamnar ingenstans
+		HarvestMetrics.countSolrRequests(7);
+		HarvestMetrics.startPhase(Phase.INDEX);
+		HarvestMetrics.countSolrRequests(2);
+		HarvestMetrics metrics = HarvestMetrics.getAndClearRun();
+
+		assertEquals(Arrays.asList(Phase.FETCH, Phase.STORE, Phase.INDEX), Arrays.asList(
+				metrics.getPhases().keySet().toArray(new Phase[0])));
+		PhaseMetrics fetch = metrics.getPhases().get(Phase.FETCH);
+		assertEquals(100, fetch.getRecords());
+		assertEquals(2048, fetch.getBytes());
+		assertEquals(2, fetch.getRetries());
+		assertTrue(fetch.getDurationMillis() >= 5);
+		assertTrue(fetch.getRecordsPerSec() > 0);
+		assertEquals(3, metrics.getPhases().get(Phase.STORE).getDBStatements());
+		assertEquals(0, metrics.getPhases().get(Phase.STORE).getSolrRequests());
+		assertEquals(2, metrics.getPhases().get(Phase.INDEX).getSolrRequests());
+		assertTrue(metrics.getTotalDurationMillis() >= fetch.getDurationMillis());
+		// körningen är rensad från tråden
+		assertNull(HarvestMetrics.getAndClearRun());
+	}
+
+	@Test
+	public void testStoreAndRead() throws Exception {
+		for (int i = 1; i <= 3; i++) {
+			HarvestMetrics metrics = new HarvestMetrics("S1", Timestamp.valueOf("2022-01-0" + i + " 10:00:00"));
+			PhaseMetrics fetch = metrics.getOrCreatePhase(Phase.FETCH);
+			fetch.durationMillis = 1000 * i;
+			fetch.records = 500;
+			fetch.bytes = 4096;
+			fetch.retries = i;
+			PhaseMetrics index = metrics.getOrCreatePhase(Phase.INDEX);
+			index.durationMillis = 250;
+			index.records = 500;
+			index.dbStatements = 2;
+			index.solrRequests = 12;
+			manager.store(metrics);
+		}
+		HarvestMetrics other = new HarvestMetrics("S2", Timestamp.valueOf("2022-01-02 12:00:00"));
+		other.getOrCreatePhase(Phase.IDENTIFY).durationMillis = 30;
+		manager.store(other);
+		// körningar utan faser lagras inte
+		manager.store(new HarvestMetrics("S3", Timestamp.valueOf("2022-01-05 12:00:00")));
+
+		List<HarvestMetrics> runs = manager.getLatestRuns(null, 10);
+		assertEquals(4, runs.size());
+		assertEquals("S1", runs.get(0).getServiceId());
+		assertEquals(Timestamp.valueOf("2022-01-03 10:00:00"), runs.get(0).getRunStart());
+		assertEquals("S2", runs.get(1).getServiceId());
+
+		runs = manager.getLatestRuns("S1", 2);
+		assertEquals(2, runs.size());
+		HarvestMetrics latest = runs.get(0);
+		assertEquals(3250, latest.getTotalDurationMillis());
+		PhaseMetrics fetch = latest.getPhases().get(Phase.FETCH);
+		assertEquals(3, fetch.getRetries());
+		assertEquals(4096, fetch.getBytes());
+		assertEquals(500 / 3.0, fetch.getRecordsPerSec(), 0.001);
+		assertEquals(12, latest.getPhases().get(Phase.INDEX).getSolrRequests());
+		assertEquals(Timestamp.valueOf("2022-01-02 10:00:00"), runs.get(1).getRunStart());
+
+		JSONObject json = HarvestMetricsServlet.toJSON(runs);
+		JSONObject phase = json.getJSONArray("runs").getJSONObject(0).getJSONArray("phases").getJSONObject(0);
+		assertEquals("FETCH", phase.getString("phase"));
+		assertEquals(166.7, phase.getDouble("recordsPerSec"), 0.001);
+		assertEquals(500, phase.getLong("records"));
+	}
+
+	@Test
+	public void testRunAccounting() {
+		HarvestMetrics.initRun("S1", Timestamp.valueOf("2022-01-01 10:00:00"));
+		HarvestMetrics.markRunType(RunType.REINDEX);
+		HarvestMetrics.countChanges(10, 5, 1);
+		HarvestMetrics.countChanges(1, 0, 0);
+		HarvestMetrics.markFailed("Interrupted");
+		HarvestMetrics metrics = HarvestMetrics.getAndClearRun();
+		assertEquals(RunType.REINDEX, metrics.getRunType());
+		assertEquals(11, metrics.getInserted());
+		assertEquals(5, metrics.getUpdated());
+		assertEquals(1, metrics.getDeleted());
+		assertTrue(metrics.isFailed());
+		assertEquals("Interrupted", metrics.getErrorMessage());
+		// utan satt total tid ges summan av faserna
+		metrics.getOrCreatePhase(Phase.INDEX).durationMillis = 40;
+		assertEquals(40, metrics.getDurationMillis());
+		metrics.setDurationMillis(55);
+		assertEquals(55, metrics.getDurationMillis());
+	}
+
+	@Test
+	public void testRunHistory() throws Exception {
+		// jämn tjänst som blivit långsammare de senaste körningarna
+		for (int i = 1; i <= 10; i++) {
+			manager.store(createRun("S2", i, i <= 5 ? 60000 : 120000, 1000, 30000, false));
+		}
+		// tjänst med en misslyckad och en mycket långsam körning
+		for (int i = 1; i <= 8; i++) {
+			manager.store(createRun("S1", i, 100000, 1000, 50000, false));
+		}
+		manager.store(createRun("S1", 9, 5000, 0, 0, true));
+		manager.store(createRun("S1", 10, 300000, 1000, 250000, false));
+		HarvestMetrics reindex = new HarvestMetrics("S1", Timestamp.valueOf("2022-01-11 10:00:00"));
+		reindex.setRunType(RunType.REINDEX);
+		reindex.setDurationMillis(400000);
+		reindex.getOrCreatePhase(Phase.INDEX).records = 900;
+		manager.store(reindex);
+		// körningar äldre än gränsen tas bort
+		manager.store(createRun("S3", -400, 1000, 10, 100, false));
+		manager.store(createRun("S3", 1, 1000, 10, 100, false));
+
+		List<HarvestMetrics> runs = manager.getRunHistory(null, Timestamp.valueOf("2020-01-01 00:00:00"));
+		assertEquals(11 + 10 + 1, runs.size());
+		HarvestMetrics latest = runs.get(0);
+		assertEquals("S1", latest.getServiceId());
+		assertEquals(RunType.REINDEX, latest.getRunType());
+		assertEquals(400000, latest.getDurationMillis());
+		assertEquals(900, latest.getIndexed());
+		HarvestMetrics failed = runs.get(2);
+		assertTrue(failed.isFailed());
+		assertEquals("Error in FETCH", failed.getErrorMessage());
+		HarvestMetrics slow = runs.get(1);
+		assertEquals(300000, slow.getDurationMillis());
+		assertEquals(1000, slow.getRecords());
+		assertEquals(8192, slow.getBytes());
+		assertEquals(10, slow.getInserted());
+		assertEquals(2, slow.getUpdated());
+		assertEquals(1, slow.getDeleted());
+		assertEquals(250000, slow.getPhases().get(Phase.FETCH).getDurationMillis());
+		assertEquals(10, manager.getRunHistory("S2", Timestamp.valueOf("2021-01-01 00:00:00")).size());
+		assertEquals(5, manager.getRunHistory("S2", Timestamp.valueOf("2022-01-06 00:00:00")).size());
+
+		List<HarvestTrend> trends = HarvestTrend.analyze(runs, 2.0);
+		assertEquals(Arrays.asList("S2", "S1", "S3"), Arrays.asList(trends.get(0).getServiceId(),
+				trends.get(1).getServiceId(), trends.get(2).getServiceId()));
+		HarvestTrend s2 = trends.get(0);
+		assertEquals(90000, s2.getMedianDurationMillis(RunType.HARVEST));
+		assertEquals(120000, s2.getRecentMedianDurationMillis(RunType.HARVEST));
+		assertEquals(4 / 3.0, s2.getDurationTrend(RunType.HARVEST), 0.001);
+		assertEquals(0, s2.getSlowRuns());
+		HarvestTrend s1 = trends.get(1);
+		assertEquals(100000, s1.getMedianDurationMillis(RunType.HARVEST));
+		// för få omindexeringar för en median
+		assertEquals(-1, s1.getMedianDurationMillis(RunType.REINDEX));
+		assertFalse(s1.isSlow(latest));
+		assertTrue(s1.isSlow(slow));
+		assertTrue(s1.isSlowFetch(slow));
+		assertEquals(3.0, s1.getDurationRatio(slow), 0.001);
+		assertFalse(s1.isSlow(failed));
+		assertEquals(20, s1.getMedianFetchRecordsPerSec(), 0.001);
+		assertEquals(1, s1.getSlowRuns());
+		assertEquals(1, s1.getFailedRuns());
+		// för få körningar för att jämföra
+		assertEquals(0, trends.get(2).getDegradation(), 0.001);
+
+		JSONObject json = HarvestHistoryServlet.toJSON(trends);
+		JSONObject s1Json = json.getJSONArray("services").getJSONObject(1);
+		assertEquals(11, s1Json.getInt("runs"));
+		assertEquals(100000, s1Json.getJSONObject("medianDurationMillis").getLong("HARVEST"));
+		assertFalse(s1Json.getJSONObject("medianDurationMillis").has("REINDEX"));
+		JSONObject slowJson = s1Json.getJSONArray("history").getJSONObject(1);
+		assertTrue(slowJson.getBoolean("slow"));
+		assertTrue(slowJson.getBoolean("slowFetch"));
+		assertEquals(3.0, slowJson.getDouble("medianRatio"), 0.001);
+		assertEquals(4.0, slowJson.getDouble("fetchRecordsPerSec"), 0.001);
+		assertEquals(250000, slowJson.getJSONObject("phaseMillis").getLong("FETCH"));
+		assertEquals("Error in FETCH", s1Json.getJSONArray("history").getJSONObject(2).getString("message"));
+	}
+
+	@Test
+	public void testFullAndIncrementalHarvests() throws Exception {
+		// en full skörd i veckan och skördar av ändringar övriga dagar
+		for (int i = 1; i <= 35; i++) {
+			HarvestMetrics run;
+			if (i % 7 == 0) {
+				run = createRun("S1", i, 600000, 50000, 500000, false);
+				run.setRunType(RunType.FULL_HARVEST);
+			} else {
+				run = createRun("S1", i, 60000, 1000, 10000, false);
+			}
+			manager.store(run);
+		}
+		List<HarvestMetrics> runs = manager.getRunHistory("S1", Timestamp.valueOf("2020-01-01 00:00:00"));
+		assertEquals(35, runs.size());
+		HarvestMetrics full = runs.get(0);
+		assertEquals(RunType.FULL_HARVEST, full.getRunType());
+		assertEquals(RunType.HARVEST, runs.get(1).getRunType());
+
+		HarvestTrend trend = HarvestTrend.analyze(runs, 2.0).get(0);
+		assertEquals(600000, trend.getMedianDurationMillis(RunType.FULL_HARVEST));
+		assertEquals(60000, trend.getMedianDurationMillis(RunType.HARVEST));
+		// fulla skördar jämförs inte med skördarna av ändringar
+		assertFalse(trend.isSlow(full));
+		assertEquals(1.0, trend.getDurationRatio(full), 0.001);
+		assertEquals(0, trend.getSlowRuns());
+		assertEquals(1.0, trend.getDegradation(), 0.001);
+
+		// fulla skördar som blivit långsammare syns i trenden
+		for (int i = 42; i <= 56; i += 7) {
+			HarvestMetrics slowFull = createRun("S1", i, 1800000, 50000, 500000, false);
+			slowFull.setRunType(RunType.FULL_HARVEST);
+			manager.store(slowFull);
+		}
+		runs = manager.getRunHistory("S1", Timestamp.valueOf("2020-01-01 00:00:00"));
+		trend = HarvestTrend.analyze(runs, 2.0).get(0);
+		assertTrue(trend.isSlow(runs.get(0)));
+		assertEquals(600000, trend.getMedianDurationMillis(RunType.FULL_HARVEST));
+		assertEquals(3.0, trend.getDurationTrend(RunType.FULL_HARVEST), 0.001);
+		assertEquals(1.0, trend.getDurationTrend(RunType.HARVEST), 0.001);
+		assertEquals(3.0, trend.getDegradation(), 0.001);
+
+		JSONObject json = HarvestHistoryServlet.toJSON(Arrays.asList(trend));
+		JSONObject median = json.getJSONArray("services").getJSONObject(0).getJSONObject("medianDurationMillis");
+		assertEquals(60000, median.getLong("HARVEST"));
+		assertEquals(600000, median.getLong("FULL_HARVEST"));
+	}
+
+	@Test
+	public void testStoreIndependently() throws Exception {
+		HarvestMetrics run = createRun("S1", 1, 60000, 1000, 30000, false);
+		manager.store(run);
+		// körningen finns redan i harvestrun men faserna ska ändå lagras
+		HarvestMetrics again = new HarvestMetrics("S1", run.getRunStart());
+		again.getOrCreatePhase(Phase.INDEX).durationMillis = 1000;
+		manager.store(again);
+		HarvestMetrics stored = manager.getRunHistory("S1", Timestamp.valueOf("2020-01-01 00:00:00")).get(0);
+		assertEquals(60000, stored.getDurationMillis());
+		assertEquals(Arrays.asList(Phase.FETCH, Phase.STORE, Phase.INDEX), Arrays.asList(
+				stored.getPhases().keySet().toArray(new Phase[0])));
+
+		// utan tabell för faserna ska körningen ändå lagras
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP TABLE harvestmetrics");
+		}
+		manager.store(createRun("S1", 2, 60000, 1000, 30000, false));
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement();
+				ResultSet rs = st.executeQuery("select count(*) from harvestrun where serviceid = 'S1'")) {
+			assertTrue(rs.next());
+			assertEquals(2, rs.getInt(1));
+		}
+	}
+
+	// skördekörning med hämtning och lagring, dag räknas från 2022-01-01
+	private static HarvestMetrics createRun(String serviceId, int day, long durationMillis, long records,
+			long fetchMillis, boolean failed) {
+		Timestamp runStart = new Timestamp(Timestamp.valueOf("2021-12-31 10:00:00").getTime() +
+				day * 24L * 60 * 60 * 1000);
+		HarvestMetrics metrics = new HarvestMetrics(serviceId, runStart);
+		metrics.setDurationMillis(durationMillis);
+		PhaseMetrics fetch = metrics.getOrCreatePhase(Phase.FETCH);
+		fetch.durationMillis = fetchMillis;
+		fetch.records = records;
+		fetch.bytes = 8192;
+		if (failed) {
+			metrics.setFailed("Error in FETCH");
+		} else {
+			metrics.getOrCreatePhase(Phase.STORE).durationMillis = durationMillis - fetchMillis;
+			metrics.setChanges(10, 2, 1);
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,140 @@
+package se.raa.ksamsok.harvest;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.raa.ksamsok.harvest.IndexDryRunResult.RecordTiming;
+import se.raa.ksamsok.solr.CountingSolrClient;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexDryRunTest {
+
+	private static final String BROKEN_URI = "http://kulturarvsdata.se/syn0/item/broken";
+
+	private JdbcDataSource ds;
+	private CountingSolrClient solr;
+	private HarvestRepositoryManagerImpl hrm;
+	private HarvestServiceImpl service;
+	private int stored;
+
+	@Before
+	public void setUp() throws Exception {
+		ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:indexdryrun;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		SyntheticCorpus corpus = new SyntheticCorpus(5, 1, 60);
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		try (Connection c = ds.getConnection()) {
+			RepositorySchema.create(c);
+			try (PreparedStatement pst = c.prepareStatement("INSERT INTO content (uri, serviceid, xmldata, " +
+					"added, datestamp, status) VALUES (?, 'syn0', ?, ?, ?, 0)")) {
+				for (int i = 0; i < corpus.size(); i++) {
+					if (corpus.isDeleted(i)) {
+						continue;
+					}
+					pst.setString(1, corpus.getIdentifier(i));
+					pst.setString(2, corpus.getRecord(i));
+					pst.setTimestamp(3, now);
+					pst.setTimestamp(4, now);
+					pst.execute();
+					++stored;
+				}
+				// en post utan entitet som inte går att indexera
+				pst.setString(1, BROKEN_URI);
+				pst.setString(2, "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"></rdf:RDF>");
+				pst.setTimestamp(3, now);
+				pst.setTimestamp(4, now);
+				pst.execute();
+				++stored;
+			}
+		}
+		solr = new CountingSolrClient();
+		hrm = new HarvestRepositoryManagerImpl(ds, new StatusServiceImpl(ds), solr);
+		service = new HarvestServiceImpl();
+		service.setId("syn0");
+		service.setServiceType("OAI-PMH-SAMSOK");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP ALL OBJECTS");
+		}
+	}
+
+	@Test
+	public void testDryRun() throws Exception {
+		IndexDryRunResult result = hrm.dryRunIndex(service, 0, 5);
+		assertEquals(stored, result.getRecords());
+		assertEquals(1, result.getFailed());
+		assertEquals(BROKEN_URI, result.getFailedURIs().get(0));
+		assertTrue(result.getRecordsWithProblems() >= 1);
+		assertTrue(result.getProblemMessages().size() >= 1);
+		assertTrue(result.getRecordsPerSec() > 0);
+		assertTrue(result.getXmlLength() > 0);
+		List<RecordTiming> slowest = result.getSlowest();
+		assertEquals(5, slowest.size());
+		for (int i = 1; i < slowest.size(); i++) {
+			assertTrue(slowest.get(i - 1).getBuildNanos() >= slowest.get(i).getBuildNanos());
+		}
+		// indexet berörs inte
+		assertEquals(0, solr.getRequests());
+
+		JSONObject json = IndexDryRunServlet.toJSON(result);
+		assertEquals(stored, json.getLong("records"));
+		assertEquals(5, json.getJSONArray("slowest").length());
+		assertEquals(BROKEN_URI, json.getJSONArray("failedURIs").getString(0));
+	}
+
+	@Test
+	public void testMaxRecords() throws Exception {
+		IndexDryRunResult result = hrm.dryRunIndex(service, 10, 0);
+		assertEquals(10, result.getRecords());
+		assertTrue(result.getSlowest().isEmpty());
+	}
+
+	@Test
+	public void testBackgroundRun() throws Exception {
+		assertEquals("idle", IndexDryRunServlet.toJSON((IndexDryRunServlet.DryRun) null).getString("status"));
+		IndexDryRunServlet.DryRun run = new IndexDryRunServlet.DryRun("syn0", 10);
+		assertEquals("running", IndexDryRunServlet.toJSON(run).getString("status"));
+		run.execute(hrm, service, 2);
+		JSONObject json = IndexDryRunServlet.toJSON(run);
+		assertEquals("done", json.getString("status"));
+		assertEquals(10, json.getJSONObject("result").getLong("records"));
+
+		// fel redovisas i statusen
+		HarvestServiceImpl unknown = new HarvestServiceImpl();
+		unknown.setId("syn0");
+		unknown.setServiceType("UNKNOWN");
+		IndexDryRunServlet.DryRun failed = new IndexDryRunServlet.DryRun("syn0", 10);
+		failed.execute(hrm, unknown, 2);
+		assertEquals("failed", IndexDryRunServlet.toJSON(failed).getString("status"));
+	}
+
+	@Test
+	public void testSlowest() {
+		IndexDryRunResult result = new IndexDryRunResult("syn0", 3);
+		for (int i = 1; i <= 100; i++) {
+			// blandad ordning
+			long nanos = (i * 37) % 101;
+			result.add("uri" + nanos, nanos, 10, false, false);
+		}
+		List<RecordTiming> slowest = result.getSlowest();
+		assertEquals(3, slowest.size());
+		assertEquals("uri100", slowest.get(0).getUri());
+		assertEquals("uri99", slowest.get(1).getUri());
+		assertEquals("uri98", slowest.get(2).getUri());
+		assertEquals(100, result.getRecords());
+		assertEquals(1000, result.getXmlLength());
+	}
+}
@@ -0,0 +1,155 @@
+package se.raa.ksamsok.harvest;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Skapar tabeller, sekvenser och index från sql/repo.postgres.sql i en h2-databas i
+ * postgres-läge, så att tester går mot samma schema som driften. Bara create table,
+ * create sequence, create index och alter table (utom ägare) tas med, schemaprefixet
+ * ksamsok tas bort och postgres-syntax som h2 inte klarar skrivs om.
+ */
+public class RepositorySchema {
+
+	static final String SCHEMA_FILE = "sql/repo.postgres.sql";
+
+	private RepositorySchema() {
+	}
+
+	/**
+	 * Skapar schemat i databasen.
+	 *
+	 * @param c anslutning till en h2-databas i postgres-läge
+	 * @throws IOException om schemafilen inte kunde läsas
+	 * @throws SQLException vid databasfel
+	 */
+	public static void create(Connection c) throws IOException, SQLException {
+		createTables(c);
+		createIndexes(c);
+	}
+
+	/**
+	 * Skapar tabeller, sekvenser och nycklar men inte index, för tester som läser in mycket
+	 * data och skapar indexen efteråt med {@link #createIndexes(Connection)}.
+	 *
+	 * @param c anslutning till en h2-databas i postgres-läge
+	 * @throws IOException om schemafilen inte kunde läsas
+	 * @throws SQLException vid databasfel
+	 */
+	public static void createTables(Connection c) throws IOException, SQLException {
+		execute(c, false);
+	}
+
+	/**
+	 * Skapar index för tabeller skapade med {@link #createTables(Connection)}.
+	 *
+	 * @param c anslutning till en h2-databas i postgres-läge
+	 * @throws IOException om schemafilen inte kunde läsas
+	 * @throws SQLException vid databasfel
+	 */
+	public static void createIndexes(Connection c) throws IOException, SQLException {
+		execute(c, true);
+	}
+
+	/**
+	 * Ger en datakälla för en h2-databas i postgres-läge som anger PostgreSQL som databasprodukt,
+	 * så att DBUtil väljer samma sql som i driften.
+	 *
+	 * @param url jdbc-url till en h2-databas med MODE=PostgreSQL
+	 * @return datakälla
+	 */
+	public static DataSource postgresDataSource(String url) {
+		JdbcDataSource h2 = new JdbcDataSource();
+		h2.setURL(url);
+		return (DataSource) Proxy.newProxyInstance(RepositorySchema.class.getClassLoader(),
+				new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+					Object result = invoke(h2, method, args);
+					return result instanceof Connection ? postgresConnection((Connection) result) : result;
+				});
+	}
+
+	private static Connection postgresConnection(Connection c) {
+		return (Connection) Proxy.newProxyInstance(RepositorySchema.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+					Object result = invoke(c, method, args);
+					if (!(result instanceof DatabaseMetaData)) {
+						return result;
+					}
+					DatabaseMetaData metaData = (DatabaseMetaData) result;
+					return Proxy.newProxyInstance(RepositorySchema.class.getClassLoader(),
+							new Class<?>[] { DatabaseMetaData.class }, (p, m, a) ->
+									"getDatabaseProductName".equals(m.getName()) ? "PostgreSQL" : invoke(metaData, m, a));
+				});
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void execute(Connection c, boolean indexes) throws IOException, SQLException {
+		try (Statement st = c.createStatement()) {
+			for (String sql : getStatements()) {
+				if (sql.startsWith("CREATE INDEX ") == indexes) {
+					st.execute(sql);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ger satserna i schemafilen omskrivna för h2.
+	 *
+	 * @return sql-satser
+	 * @throws IOException om schemafilen inte kunde läsas
+	 */
+	static List<String> getStatements() throws IOException {
+		StringBuilder script = new StringBuilder();
+		for (String line : Files.readAllLines(Paths.get(SCHEMA_FILE), StandardCharsets.UTF_8)) {
+			int comment = line.indexOf("--");
+			script.append(comment >= 0 ? line.substring(0, comment) : line).append('\n');
+		}
+		List<String> statements = new ArrayList<>();
+		for (String statement : script.toString().split(";")) {
+			String sql = statement.trim().replaceAll("\\s+", " ");
+			if (!isSchemaStatement(sql)) {
+				continue;
+			}
+			sql = sql.replace("ksamsok.", "")
+					.replace("ALTER TABLE ONLY ", "ALTER TABLE ")
+					.replace("USING btree ", "")
+					.replace("::regclass", "");
+			if (sql.startsWith("CREATE INDEX ")) {
+				// h2 saknar partiella index, indexet skapas för hela tabellen
+				int where = sql.indexOf(" WHERE ");
+				if (where > 0) {
+					sql = sql.substring(0, where);
+				}
+			}
+			statements.add(sql);
+		}
+		return statements;
+	}
+
+	private static boolean isSchemaStatement(String sql) {
+		return sql.startsWith("CREATE TABLE ") || sql.startsWith("CREATE SEQUENCE ") ||
+				sql.startsWith("CREATE INDEX ") || (sql.startsWith("ALTER TABLE ") && !sql.contains(" OWNER TO "));
+	}
+}
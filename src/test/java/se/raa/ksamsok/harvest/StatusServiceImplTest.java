@@ -0,0 +1,148 @@
+package se.raa.ksamsok.harvest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.raa.ksamsok.harvest.StatusService.Step;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatusServiceImplTest {
+
+	private JdbcDataSource ds;
+	private StatusServiceImpl ss;
+	private HarvestService service;
+
+	@Before
+	public void setUp() throws Exception {
+		ds = new JdbcDataSource();
+		// som i driften (defaultAutoCommit=false) så att en batch skrivs i en transaktion
+		ds.setURL("jdbc:h2:mem:servicelog;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;AUTOCOMMIT=FALSE");
+		try (Connection c = ds.getConnection()) {
+			RepositorySchema.create(c);
+		}
+		ss = new StatusServiceImpl(ds);
+		service = new HarvestServiceImpl();
+		service.setId("S1");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ss.destroy();
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP ALL OBJECTS");
+		}
+	}
+
+	@Test
+	public void testQueuedUntilFlush() throws Exception {
+		// utan skrivtråd ligger meddelandena kvar i kön tills de skrivs
+		ss.initStatus(service, "Init");
+		ss.setStep(service, Step.STORE);
+		for (int i = 0; i < 1200; i++) {
+			ss.setStatusTextAndLog(service, "Message " + i);
+		}
+		ss.setStep(service, Step.INDEX);
+		ss.setWarningTextAndLog(service, "Warning");
+		assertEquals(0, countRows());
+		// statusen i minnet är alltid aktuell
+		assertTrue(ss.getStatusText(service).startsWith("Warning"));
+
+		ss.flushLog();
+		List<String[]> rows = readRows();
+		assertEquals(1202, rows.size());
+		assertEquals("------ Init ------", rows.get(0)[1]);
+		assertEquals("IDLE", rows.get(0)[0]);
+		// steget är det som gällde när meddelandet loggades
+		assertEquals("STORE", rows.get(1)[0]);
+		assertEquals("Message 0", rows.get(1)[1]);
+		assertEquals("Message 1199", rows.get(1200)[1]);
+		assertEquals("INDEX", rows.get(1201)[0]);
+		assertEquals(0, ss.logQueue.size());
+	}
+
+	@Test
+	public void testReadsSeeQueuedMessages() throws Exception {
+		ss.initStatus(service, "Init");
+		ss.setStatusTextAndLog(service, "Working");
+		ss.setErrorTextAndLog(service, "Failed");
+		// historiken läses från databasen och ska ändå innehålla allt
+		List<String> history = ss.getStatusLogHistory(service);
+		assertEquals(3, history.size());
+		assertTrue(history.get(2).endsWith("*** Failed"));
+		assertEquals(1, ss.getProblemLogHistory(10, "eventTs", "desc").size());
+
+		// en ny instans, som efter omstart, hittar felet i databasen
+		Thread.sleep(10);
+		ss.setErrorTextAndLog(service, "Failed again");
+		StatusServiceImpl restarted = new StatusServiceImpl(ds);
+		ss.destroy();
+		assertEquals("Failed again", restarted.getErrorText(service));
+		restarted.destroy();
+	}
+
+	@Test
+	public void testBackgroundWriter() throws Exception {
+		ss.init();
+		ss.initStatus(service, "Init");
+		for (int i = 0; i < 10; i++) {
+			ss.setStatusTextAndLog(service, "Message " + i);
+		}
+		long deadline = System.currentTimeMillis() + StatusServiceImpl.LOG_FLUSH_INTERVAL_MS * 5;
+		while (countRows() < 11 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(11, countRows());
+
+		// det som köas vid nedstängning skrivs innan destroy returnerar
+		ss.setStatusTextAndLog(service, "Last");
+		ss.destroy();
+		assertEquals(12, countRows());
+	}
+
+	@Test
+	public void testLongAndBadMessages() throws Exception {
+		ss.initStatus(service, "Init");
+		ss.setStatusTextAndLog(service, StringUtils.repeat('x', 5000));
+		// tjänst-id längre än kolumnen, bara den raden ska försvinna
+		HarvestService badService = new HarvestServiceImpl();
+		badService.setId(StringUtils.repeat('s', 30));
+		ss.setStatusTextAndLog(badService, "Lost");
+		ss.setStatusTextAndLog(service, "After");
+		ss.flushLog();
+
+		List<String[]> rows = readRows();
+		assertEquals(3, rows.size());
+		assertEquals(StatusServiceImpl.MAX_MESSAGE_LENGTH, rows.get(1)[1].length());
+		assertTrue(rows.get(1)[1].endsWith("..."));
+		assertEquals("After", rows.get(2)[1]);
+	}
+
+	private int countRows() throws Exception {
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement();
+				ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM servicelog")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	private List<String[]> readRows() throws Exception {
+		List<String[]> rows = new ArrayList<>();
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement();
+				ResultSet rs = st.executeQuery("SELECT eventstep, message FROM servicelog ORDER BY eventid")) {
+			while (rs.next()) {
+				rows.add(new String[] { rs.getString(1), rs.getString(2) });
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,476 @@
+package se.raa.ksamsok.harvest;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Deterministisk generator av syntetiska K-samsök-poster för skal- och prestandatester.
+ * Korpusen består av ett antal tjänster med lika många poster var och varje post tas fram
+ * från fröet och postens index så att samma frö alltid ger samma korpus och en enskild post
+ * kan skapas utan att de föregående behöver skapas. Posterna är giltig rdf för respektive
+ * protokollversion med en realistisk spridning av fältmängd, textlängd, relationer (en lång
+ * svans med ett fåtal mycket relationstäta poster), bilder och geometrier (mest punkter, en
+ * del små polygoner och några stora polygoner i SWEREF 99 TM med tusentals hörn).
+ * Korpusen används av {@link SyntheticOAIPMHServer} för att servera posterna via oai-pmh.
+ */
+public class SyntheticCorpus {
+
+	/** protokollversioner som genereras */
+	public static final String[] PROTOCOL_VERSIONS = { "0.99", "1.0", "1.1", "1.11", "1.2.0", "1.3.0" };
+	// fördelning mellan protokollversionerna, flest 1.1 som i drift
+	private static final int[] VERSION_WEIGHTS = { 5, 5, 40, 25, 10, 15 };
+
+	// första möjliga datestamp, 2020-01-01T00:00:00Z, posterna sprids ut över ett år
+	static final long FIRST_DATESTAMP_MILLIS = 1577836800000L;
+	static final long DATESTAMP_SPAN_SECONDS = 365L * 24 * 60 * 60;
+
+	private static final String URI_PREFIX = "http://kulturarvsdata.se/";
+	private static final String RES_PREFIX = URI_PREFIX + "resurser/";
+
+	private static final String[] WORDS = {
+		"hjälm", "svärd", "sköld", "yxa", "kyrka", "gravfält", "runsten", "bägare", "skål", "kanna",
+		"stol", "bord", "kista", "skåp", "tavla", "porträtt", "landskap", "karta", "ritning", "fotografi",
+		"gård", "by", "torp", "kvarn", "bro", "hamn", "fyr", "slott", "borg", "herrgård",
+		"silver", "järn", "brons", "trä", "ek", "tall", "lera", "glas", "tenn", "mässing",
+		"medeltida", "förhistorisk", "gustaviansk", "rokoko", "barock", "vikingatida", "modern", "äldre",
+		"röd", "blå", "grön", "gul", "svart", "vit", "målad", "snidad", "gjuten", "smidd", "vävd",
+		"kung", "drottning", "bonde", "smed", "präst", "soldat", "sjöman", "hantverkare", "konstnär",
+		"Uppsala", "Lund", "Visby", "Kalmar", "Sigtuna", "Birka", "Göteborg", "Stockholm", "Falun"
+	};
+	private static final String[] ENTITY_TYPES_1_1 = {
+		"object", "photo", "interactiveResource", "video", "sound", "document", "book", "drawing", "art",
+		"blueprint", "map", "collection", "site", "culturallandscape", "monument", "building", "person",
+		"organization", "group", "event", "display", "concept", "story", "3d-model"
+	};
+	private static final String[] ENTITY_TYPES_0 = {
+		"object", "objectImage", "photo", "interactiveResource", "video", "sound", "document", "book",
+		"drawing", "art", "blueprint", "collection", "site"
+	};
+	// supertyp per typ i ENTITY_TYPES_1_1
+	private static final String[] ENTITY_SUPER_TYPES = {
+		"object", "information", "information", "information", "information", "information", "information",
+		"object", "object", "information", "information", "information", "object", "object", "object",
+		"object", "agent", "agent", "agent", "event", "information", "concept", "concept", "information"
+	};
+	// kontexttyper för 1.1 och senare, grupperade per kontextsupertyp
+	private static final String[] CONTEXT_SUPER_TYPES = { "create", "interact", "cease" };
+	private static final String[][] CONTEXT_TYPES_1_1 = {
+		{ "design", "produce", "start" },
+		{ "find", "transact", "explore", "own", "use", "reproduce", "display", "act" },
+		{ "dismiss", "stop" }
+	};
+	private static final String[] CONTEXT_TYPES_0 = {
+		"create", "find", "use", "explore", "transact", "own", "exist", "reproduced", "destroyed"
+	};
+	private static final String[] RELATIONS = {
+		"isRelatedTo", "isRelatedTo", "isRelatedTo", "isPartOf", "hasPart", "containsObject", "hasBeenUsedIn",
+		"hasChild", "hasParent", "hasFind", "isFoundIn", "hasImage", "hasObjectExample", "isDescribedBy",
+		"isVisualizedBy", "visualizes", "containsInformationAbout"
+	};
+	private static final String[] SUBJECTS = { "site", "archaeology", "art", "culturalHistory", "naturalHistory" };
+	private static final String[] LICENSES = { "by", "by-sa", "by-nc", "by-nc-sa", "pdmark", "cc0" };
+	private static final String[][] PLACES = {
+		{ "Stockholm", "Stockholm", "Stockholm" }, { "Uppsala", "Uppsala", "Uppsala domkyrkoförsamling" },
+		{ "Skåne", "Lund", "Lunds domkyrkoförsamling" }, { "Gotland", "Gotland", "Visby" },
+		{ "Kalmar", "Kalmar", "Kalmar domkyrkoförsamling" }, { "Västra Götaland", "Göteborg", "Göteborgs domkyrkoförsamling" },
+		{ "Dalarna", "Falun", "Falu Kristine" }, { "Norrbotten", "Kiruna", "Jukkasjärvi" }
+	};
+
+	private final long seed;
+	private final int numServices;
+	private final int recordsPerService;
+	private String protocolVersion;
+	private double deletedFraction = 0.02;
+
+	/**
+	 * Skapar en korpus.
+	 *
+	 * @param seed frö, samma frö ger samma korpus
+	 * @param numServices antal tjänster
+	 * @param recordsPerService antal poster per tjänst, inklusive borttagna
+	 */
+	public SyntheticCorpus(long seed, int numServices, int recordsPerService) {
+		if (numServices <= 0 || recordsPerService <= 0) {
+			throw new IllegalArgumentException("Antal tjänster och poster måste vara större än 0");
+		}
+		this.seed = seed;
+		this.numServices = numServices;
+		this.recordsPerService = recordsPerService;
+	}
+
+	/**
+	 * Sätter en fast protokollversion för alla poster.
+	 *
+	 * @param protocolVersion en av {@link #PROTOCOL_VERSIONS} eller null för en blandning
+	 */
+	public void setProtocolVersion(String protocolVersion) {
+		this.protocolVersion = protocolVersion;
+	}
+
+	/**
+	 * Sätter andelen poster som är borttagna.
+	 *
+	 * @param deletedFraction andel mellan 0 och 1, default 0.02
+	 */
+	public void setDeletedFraction(double deletedFraction) {
+		this.deletedFraction = deletedFraction;
+	}
+
+	public int size() {
+		return numServices * recordsPerService;
+	}
+
+	public int getNumServices() {
+		return numServices;
+	}
+
+	public int getRecordsPerService() {
+		return recordsPerService;
+	}
+
+	/**
+	 * Ger ett av orden som används i posternas texter, för att bygga frågor som ger träffar.
+	 *
+	 * @param random slumptalsgenerator
+	 * @return ord
+	 */
+	public static String getWord(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	public String getServiceId(int serviceIndex) {
+		return "syn" + serviceIndex;
+	}
+
+	public int getServiceIndex(int index) {
+		return index / recordsPerService;
+	}
+
+	/**
+	 * Ger postens rdf-identifierare.
+	 *
+	 * @param index postens index i korpusen
+	 * @return identifierare
+	 */
+	public String getIdentifier(int index) {
+		return URI_PREFIX + getServiceId(getServiceIndex(index)) + "/item/" + (index % recordsPerService);
+	}
+
+	/**
+	 * Ger postens oai-identifierare.
+	 *
+	 * @param index postens index i korpusen
+	 * @return oai-identifierare
+	 */
+	public String getOAIIdentifier(int index) {
+		return "oai:kulturarvsdata.se:" + getServiceId(getServiceIndex(index)) + "/" + (index % recordsPerService);
+	}
+
+	/**
+	 * Ger postens senaste ändringstid, sekundprecision.
+	 *
+	 * @param index postens index i korpusen
+	 * @return ändringstid
+	 */
+	public Date getDatestamp(int index) {
+		return new Date(FIRST_DATESTAMP_MILLIS + (long) (headerRandom(index).nextDouble() * DATESTAMP_SPAN_SECONDS) * 1000);
+	}
+
+	/**
+	 * Ger om posten är borttagen.
+	 *
+	 * @param index postens index i korpusen
+	 * @return sant om posten är borttagen
+	 */
+	public boolean isDeleted(int index) {
+		Random random = headerRandom(index);
+		random.nextDouble();
+		return random.nextDouble() < deletedFraction;
+	}
+
+	/**
+	 * Ger postens protokollversion.
+	 *
+	 * @param index postens index i korpusen
+	 * @return protokollversion
+	 */
+	public String getProtocolVersion(int index) {
+		if (protocolVersion != null) {
+			return protocolVersion;
+		}
+		int r = contentRandom(index).nextInt(100);
+		for (int i = 0; i < VERSION_WEIGHTS.length; i++) {
+			r -= VERSION_WEIGHTS[i];
+			if (r < 0) {
+				return PROTOCOL_VERSIONS[i];
+			}
+		}
+		return PROTOCOL_VERSIONS[PROTOCOL_VERSIONS.length - 1];
+	}
+
+	/**
+	 * Skapar postens rdf, utan xml-deklaration så att den kan läggas direkt i ett oai-pmh-svar.
+	 *
+	 * @param index postens index i korpusen
+	 * @return rdf/xml
+	 */
+	public String getRecord(int index) {
+		Random random = contentRandom(index);
+		// första värdet används för protokollversionen, se getProtocolVersion
+		random.nextInt(100);
+		String version = getProtocolVersion(index);
+		boolean v11 = !version.startsWith("0.") && !"1.0".equals(version);
+		boolean v111 = v11 && !"1.1".equals(version);
+		boolean v120 = v111 && !"1.11".equals(version);
+		boolean v130 = "1.3.0".equals(version);
+		String identifier = getIdentifier(index);
+		String serviceId = getServiceId(getServiceIndex(index));
+
+		StringBuilder sb = new StringBuilder(4096);
+		sb.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" ")
+			.append("xmlns:ns5=\"http://kulturarvsdata.se/ksamsok#\" xmlns:ns6=\"http://xmlns.com/foaf/0.1/\" ")
+			.append("xmlns:owl=\"http://www.w3.org/2002/07/owl#\">\n");
+		sb.append("<rdf:Description rdf:about=\"").append(identifier).append("\">\n");
+		sb.append("<rdf:type rdf:resource=\"http://kulturarvsdata.se/ksamsok#Entity\"/>\n");
+		sb.append("<ns5:ksamsokVersion>").append(version).append("</ns5:ksamsokVersion>\n");
+		sb.append("<ns5:serviceName>").append(serviceId).append("</ns5:serviceName>\n");
+		sb.append("<ns5:serviceOrganization>SYN").append(getServiceIndex(index) % 10).append("</ns5:serviceOrganization>\n");
+		sb.append("<ns5:createdDate>").append(2000 + random.nextInt(20)).append("-01-01</ns5:createdDate>\n");
+		sb.append("<ns5:lastChangedDate>2020-01-01</ns5:lastChangedDate>\n");
+		sb.append("<ns5:buildDate>2020-01-01</ns5:buildDate>\n");
+		sb.append("<ns5:dataQuality rdf:resource=\"").append(RES_PREFIX).append("DataQuality#")
+			.append(random.nextInt(4) == 0 ? "raw" : "processed").append("\"/>\n");
+		String type;
+		if (v11) {
+			int t = random.nextInt(3) > 0 ? 0 : random.nextInt(ENTITY_TYPES_1_1.length);
+			type = ENTITY_TYPES_1_1[t];
+			sb.append("<ns5:itemSuperType rdf:resource=\"").append(RES_PREFIX).append("EntitySuperType#")
+				.append(ENTITY_SUPER_TYPES[t]).append("\"/>\n");
+		} else {
+			type = random.nextInt(3) > 0 ? "object" : ENTITY_TYPES_0[random.nextInt(ENTITY_TYPES_0.length)];
+		}
+		sb.append("<ns5:itemType rdf:resource=\"").append(RES_PREFIX).append("EntityType#").append(type).append("\"/>\n");
+		sb.append("<ns5:subject rdf:resource=\"").append(RES_PREFIX).append("Subject#")
+			.append(SUBJECTS[random.nextInt(SUBJECTS.length)]).append("\"/>\n");
+		String title = words(random, 1 + random.nextInt(5));
+		sb.append("<ns5:itemLabel>").append(title).append("</ns5:itemLabel>\n");
+		sb.append("<ns5:itemTitle>").append(title).append("</ns5:itemTitle>\n");
+		for (int i = random.nextInt(6); i > 0; i--) {
+			sb.append("<ns5:itemKeyWord>").append(word(random)).append("</ns5:itemKeyWord>\n");
+		}
+		for (int i = random.nextInt(3); i > 0; i--) {
+			sb.append("<ns5:itemMotiveWord>").append(word(random)).append("</ns5:itemMotiveWord>\n");
+		}
+		if (random.nextInt(3) == 0) {
+			sb.append("<ns5:collection>").append(words(random, 2)).append("</ns5:collection>\n");
+		}
+		String url = "http://synthetic.example.org/" + serviceId + "/" + (index % recordsPerService);
+		sb.append("<ns5:url>").append(url).append("</ns5:url>\n");
+		sb.append("<ns5:mediaType>text/html</ns5:mediaType>\n");
+		if (random.nextInt(2) == 0) {
+			sb.append("<ns5:thumbnail>").append(url).append("/thumbnail.jpg</ns5:thumbnail>\n");
+		}
+		appendRelations(sb, random, index);
+		appendPresentation(sb, identifier, title, type, serviceId, version);
+		sb.append("</rdf:Description>\n");
+
+		// bladnoder kopplas till posten i en separat beskrivning, som i de riktiga tjänsterna
+		StringBuilder links = new StringBuilder();
+		int node = 0;
+		sb.append("<rdf:Description rdf:nodeID=\"n").append(node).append("\">\n")
+			.append("<rdf:type rdf:resource=\"http://kulturarvsdata.se/ksamsok#ItemName\"/>\n")
+			.append("<ns5:name>").append(title).append("</ns5:name>\n<ns5:type>Benämning</ns5:type>\n")
+			.append("</rdf:Description>\n");
+		links.append("<ns5:itemName rdf:nodeID=\"n").append(node++).append("\"/>\n");
+		// beskrivningens längd har en lång svans
+		int descWords = random.nextInt(50) == 0 ? 300 + random.nextInt(2700) : 5 + random.nextInt(60);
+		sb.append("<rdf:Description rdf:nodeID=\"n").append(node).append("\">\n")
+			.append("<rdf:type rdf:resource=\"http://kulturarvsdata.se/ksamsok#ItemDescription\"/>\n")
+			.append("<ns5:desc>").append(words(random, descWords)).append("</ns5:desc>\n")
+			.append("<ns5:type>Beskrivning</ns5:type>\n</rdf:Description>\n");
+		links.append("<ns5:itemDescription rdf:nodeID=\"n").append(node++).append("\"/>\n");
+		if (random.nextInt(2) == 0) {
+			sb.append("<rdf:Description rdf:nodeID=\"n").append(node).append("\">\n")
+				.append("<rdf:type rdf:resource=\"http://kulturarvsdata.se/ksamsok#ItemMaterial\"/>\n")
+				.append("<ns5:material>").append(WORDS[30 + random.nextInt(10)]).append("</ns5:material>\n")
+				.append("</rdf:Description>\n");
+			links.append("<ns5:itemMaterial rdf:nodeID=\"n").append(node++).append("\"/>\n");
+		}
+		if (random.nextInt(3) == 0) {
+			sb.append("<rdf:Description rdf:nodeID=\"n").append(node).append("\">\n")
+				.append("<rdf:type rdf:resource=\"http://kulturarvsdata.se/ksamsok#ItemNumber\"/>\n")
+				.append("<ns5:number>").append(serviceId.toUpperCase(Locale.ROOT)).append(' ')
+				.append(index % recordsPerService).append("</ns5:number>\n<ns5:type>Inventarienummer</ns5:type>\n")
+				.append("</rdf:Description>\n");
+			links.append("<ns5:itemNumber rdf:nodeID=\"n").append(node++).append("\"/>\n");
+		}
+		if (v120 && random.nextInt(10) == 0) {
+			sb.append("<rdf:Description rdf:nodeID=\"n").append(node).append("\">\n")
+				.append("<rdf:type rdf:resource=\"http://kulturarvsdata.se/ksamsok#ItemInscription\"/>\n")
+				.append("<ns5:text>").append(words(random, 3)).append("</ns5:text>\n<ns5:type>Inskrift</ns5:type>\n")
+				.append("</rdf:Description>\n");
+			links.append("<ns5:itemInscription rdf:nodeID=\"n").append(node++).append("\"/>\n");
+		}
+
+		// kontexter, ungefär 60% av posterna har en geometri i första kontexten
+		boolean geometry = random.nextInt(10) < 6;
+		int contexts = 1 + (random.nextInt(3) == 0 ? random.nextInt(3) : 0);
+		for (int c = 0; c < contexts; c++) {
+			sb.append("<rdf:Description rdf:nodeID=\"n").append(node).append("\">\n")
+				.append("<rdf:type rdf:resource=\"http://kulturarvsdata.se/ksamsok#Context\"/>\n");
+			if (v11) {
+				int superType = c == 0 ? 0 : random.nextInt(CONTEXT_SUPER_TYPES.length);
+				String[] types = CONTEXT_TYPES_1_1[superType];
+				sb.append("<ns5:contextSuperType rdf:resource=\"").append(RES_PREFIX).append("ContextSuperType#")
+					.append(CONTEXT_SUPER_TYPES[superType]).append("\"/>\n");
+				sb.append("<ns5:contextType rdf:resource=\"").append(RES_PREFIX).append("ContextType#")
+					.append(types[random.nextInt(types.length)]).append("\"/>\n");
+			} else {
+				sb.append("<ns5:contextType rdf:resource=\"").append(RES_PREFIX).append("ContextType#")
+					.append(c == 0 ? "create" : CONTEXT_TYPES_0[random.nextInt(CONTEXT_TYPES_0.length)]).append("\"/>\n");
+			}
+			int fromYear = 1000 + random.nextInt(1000);
+			sb.append("<ns5:fromTime>").append(fromYear).append("</ns5:fromTime>\n");
+			if (random.nextInt(2) == 0) {
+				sb.append("<ns5:toTime>").append(fromYear + random.nextInt(50)).append("</ns5:toTime>\n");
+			}
+			if (random.nextInt(2) == 0) {
+				sb.append("<ns6:name>").append(word(random)).append(' ').append(word(random)).append("</ns6:name>\n");
+			}
+			String[] place = PLACES[random.nextInt(PLACES.length)];
+			sb.append("<ns5:countryName>Sverige</ns5:countryName>\n")
+				.append("<ns5:countyName>").append(place[0]).append("</ns5:countyName>\n")
+				.append("<ns5:municipalityName>").append(place[1]).append("</ns5:municipalityName>\n")
+				.append("<ns5:parishName>").append(place[2]).append("</ns5:parishName>\n");
+			if (random.nextInt(2) == 0) {
+				sb.append("<ns5:placeName>").append(word(random)).append("</ns5:placeName>\n");
+			}
+			if (v130 && random.nextInt(5) == 0) {
+				sb.append("<ns5:agent>").append(getIdentifier(random.nextInt(size()))).append("</ns5:agent>\n");
+			}
+			if (c == 0 && geometry) {
+				appendGeometry(sb, random);
+			}
+			sb.append("</rdf:Description>\n");
+			links.append("<ns5:context rdf:nodeID=\"n").append(node++).append("\"/>\n");
+		}
+
+		// bilder för alla versioner och medianoder från 1.11
+		int images = random.nextInt(3) == 0 ? 0 : 1 + (random.nextInt(5) == 0 ? random.nextInt(8) : 0);
+		for (int i = 0; i < images; i++) {
+			String imageUrl = url + "/image/" + i;
+			boolean media = v111 && random.nextInt(3) == 0;
+			sb.append("<rdf:Description rdf:nodeID=\"n").append(node).append("\">\n")
+				.append("<rdf:type rdf:resource=\"http://kulturarvsdata.se/ksamsok#")
+				.append(media ? "Media" : "Image").append("\"/>\n")
+				.append("<ns5:mediaLicense rdf:resource=\"").append(RES_PREFIX).append("License#")
+				.append(LICENSES[random.nextInt(LICENSES.length)]).append("\"/>\n")
+				.append("<ns5:mediaMotiveWord>").append(words(random, 2)).append("</ns5:mediaMotiveWord>\n")
+				.append("<ns5:byline>").append(word(random)).append("</ns5:byline>\n");
+			if (media) {
+				sb.append("<ns5:link>").append(imageUrl).append(".pdf</ns5:link>\n");
+			} else {
+				sb.append("<ns5:thumbnailSource>").append(imageUrl).append("_thumb.jpg</ns5:thumbnailSource>\n")
+					.append("<ns5:lowresSource>").append(imageUrl).append("_lowres.jpg</ns5:lowresSource>\n")
+					.append("<ns5:highresSource>").append(imageUrl).append(".jpg</ns5:highresSource>\n");
+			}
+			sb.append("</rdf:Description>\n");
+			links.append("<ns5:").append(media ? "media" : "image").append(" rdf:nodeID=\"n").append(node++).append("\"/>\n");
+		}
+		sb.append("<rdf:Description rdf:about=\"").append(identifier).append("\">\n")
+			.append(links).append("</rdf:Description>\n");
+		sb.append("</rdf:RDF>");
+		return sb.toString();
+	}
+
+	// antal relationer följer en potensfördelning och 1% av posterna har 50-500 relationer
+	private void appendRelations(StringBuilder sb, Random random, int index) {
+		int count;
+		if (random.nextInt(100) == 0) {
+			count = 50 + random.nextInt(451);
+		} else {
+			count = Math.min(50, (int) Math.pow(1 - random.nextDouble(), -1 / 1.5) - 1);
+		}
+		for (int i = 0; i < count; i++) {
+			int target = random.nextInt(size());
+			if (target == index) {
+				continue;
+			}
+			if (random.nextInt(50) == 0) {
+				sb.append("<owl:sameAs rdf:resource=\"").append(getIdentifier(target)).append("\"/>\n");
+			} else {
+				sb.append("<ns5:").append(RELATIONS[random.nextInt(RELATIONS.length)]).append(" rdf:resource=\"")
+					.append(getIdentifier(target)).append("\"/>\n");
+			}
+		}
+	}
+
+	// 85% punkter i WGS 84, 10% små polygoner och 5% stora polygoner i SWEREF 99 TM
+	private static void appendGeometry(StringBuilder sb, Random random) {
+		sb.append("<ns5:coordinates xmlns:gml=\"http://www.opengis.net/gml\" rdf:parseType=\"Literal\">");
+		int kind = random.nextInt(100);
+		if (kind < 85) {
+			sb.append("<gml:Point srsName=\"SDO:4326\"><gml:coordinates cs=\",\" decimal=\".\" ts=\" \">")
+				.append(String.format(Locale.ROOT, "%.6f,%.6f", 11.5 + random.nextDouble() * 12, 55.5 + random.nextDouble() * 13))
+				.append("</gml:coordinates></gml:Point>");
+		} else {
+			int vertices = kind < 95 ? 4 + random.nextInt(20) : 500 + random.nextInt(4501);
+			double radius = kind < 95 ? 10 + random.nextDouble() * 200 : 500 + random.nextDouble() * 5000;
+			double east = 300000 + random.nextDouble() * 500000;
+			double north = 6150000 + random.nextDouble() * 1400000;
+			sb.append("<gml:Polygon srsName=\"EPSG:3006\"><gml:outerBoundaryIs><gml:LinearRing>")
+				.append("<gml:coordinates cs=\",\" decimal=\".\" ts=\" \">");
+			String first = null;
+			for (int i = 0; i < vertices; i++) {
+				// radien varieras lite så att det inte blir en perfekt cirkel men ringen korsar aldrig sig själv
+				double angle = 2 * Math.PI * i / vertices;
+				double r = radius * (0.8 + random.nextDouble() * 0.2);
+				String p = String.format(Locale.ROOT, "%.1f,%.1f", east + r * Math.cos(angle), north + r * Math.sin(angle));
+				if (first == null) {
+					first = p;
+				}
+				sb.append(p).append(' ');
+			}
+			sb.append(first).append("</gml:coordinates></gml:LinearRing></gml:outerBoundaryIs></gml:Polygon>");
+		}
+		sb.append("</ns5:coordinates>\n");
+	}
+
+	private static void appendPresentation(StringBuilder sb, String identifier, String title, String type,
+			String serviceId, String version) {
+		sb.append("<ns5:presentation xmlns:pres=\"http://kulturarvsdata.se/presentation#\" rdf:parseType=\"Literal\">")
+			.append("<pres:item><pres:entityUri>").append(identifier).append("</pres:entityUri>")
+			.append("<pres:type>").append(type).append("</pres:type>")
+			.append("<pres:idLabel>").append(title).append("</pres:idLabel>")
+			.append("<pres:itemLabel>").append(title).append("</pres:itemLabel>")
+			.append("<pres:organization>Syntetiska museet</pres:organization>")
+			.append("<pres:service>").append(serviceId).append("</pres:service>")
+			.append("<pres:version>").append(version).append("</pres:version>")
+			.append("</pres:item></ns5:presentation>\n");
+	}
+
+	private static String word(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static String words(Random random, int count) {
+		StringBuilder sb = new StringBuilder(count * 8);
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(word(random));
+		}
+		return sb.toString();
+	}
+
+	// huvudets och innehållets värden tas från olika slumpserier så att huvudet kan tas fram billigt
+	private Random headerRandom(int index) {
+		return new Random(seed * 31 + index * 0x9E3779B97F4A7C15L);
+	}
+
+	private Random contentRandom(int index) {
+		return new Random(seed * 31 + index * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L);
+	}
+}
@@ -0,0 +1,207 @@
+package se.raa.ksamsok.harvest;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Test;
+import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.lucene.SamsokContentHelper;
+import se.raa.ksamsok.solr.CountingSolrClient;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticCorpusTest {
+
+	private SyntheticOAIPMHServer server;
+	private DataSource ds;
+	private StatusServiceImpl ss;
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+		if (ss != null) {
+			ss.destroy();
+		}
+		if (ds != null) {
+			try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+				st.execute("DROP ALL OBJECTS");
+			}
+		}
+	}
+
+	@Test
+	public void testDeterministic() {
+		SyntheticCorpus corpus = new SyntheticCorpus(4711, 2, 50);
+		SyntheticCorpus same = new SyntheticCorpus(4711, 2, 50);
+		SyntheticCorpus other = new SyntheticCorpus(4712, 2, 50);
+		assertEquals(100, corpus.size());
+		assertEquals(corpus.getRecord(73), same.getRecord(73));
+		assertEquals(corpus.getDatestamp(73), same.getDatestamp(73));
+		assertNotEquals(corpus.getRecord(73), other.getRecord(73));
+		assertEquals("syn1", corpus.getServiceId(corpus.getServiceIndex(73)));
+		assertEquals("http://kulturarvsdata.se/syn1/item/23", corpus.getIdentifier(73));
+		corpus.setProtocolVersion("1.2.0");
+		assertEquals("1.2.0", corpus.getProtocolVersion(73));
+		assertTrue(corpus.getRecord(73).contains("<ns5:ksamsokVersion>1.2.0</ns5:ksamsokVersion>"));
+	}
+
+	@Test
+	public void testAllVersionsIndexable() {
+		SamsokContentHelper helper = new SamsokContentHelper(true);
+		HarvestService service = new HarvestServiceImpl();
+		service.setId("syn0");
+		Date added = new Date();
+		for (String version: SyntheticCorpus.PROTOCOL_VERSIONS) {
+			SyntheticCorpus corpus = new SyntheticCorpus(17, 1, 40);
+			corpus.setProtocolVersion(version);
+			int withGeometry = 0;
+			for (int i = 0; i < corpus.size(); i++) {
+				String rdf = corpus.getRecord(i);
+				SolrInputDocument doc = helper.createSolrDocument(service, rdf, added);
+				assertNotNull("Inget dokument för post " + i + " i version " + version, doc);
+				assertEquals(corpus.getIdentifier(i), doc.getFieldValue(ContentHelper.IX_ITEMID));
+				if (rdf.contains("<ns5:coordinates")) {
+					assertNotNull("Ingen centrumpunkt för post " + i + " i version " + version,
+							doc.getFieldValue(ContentHelper.I_IX_LON));
+					++withGeometry;
+				}
+			}
+			assertTrue(withGeometry > 0);
+		}
+	}
+
+	@Test
+	public void testLargePolygon() {
+		SamsokContentHelper helper = new SamsokContentHelper(true);
+		HarvestService service = new HarvestServiceImpl();
+		service.setId("syn0");
+		SyntheticCorpus corpus = new SyntheticCorpus(1, 1, 2000);
+		String rdf = null;
+		for (int i = 0; i < corpus.size() && rdf == null; i++) {
+			String candidate = corpus.getRecord(i);
+			int start = candidate.indexOf("<gml:Polygon");
+			if (start >= 0 && candidate.substring(start, candidate.indexOf("</gml:Polygon>")).split(" ").length > 500) {
+				rdf = candidate;
+			}
+		}
+		assertNotNull("Ingen stor polygon i korpusen", rdf);
+		SolrInputDocument doc = helper.createSolrDocument(service, rdf, new Date());
+		assertNotNull(doc);
+		// centrumpunkten är transformerad till wgs 84 och ligger i sverige
+		double lon = (Double) doc.getFieldValue(ContentHelper.I_IX_LON);
+		double lat = (Double) doc.getFieldValue(ContentHelper.I_IX_LAT);
+		assertTrue(lon > 10 && lon < 25);
+		assertTrue(lat > 55 && lat < 70);
+	}
+
+	@Test
+	public void testHarvestPages() throws Exception {
+		SyntheticCorpus corpus = new SyntheticCorpus(7, 3, 100);
+		server = new SyntheticOAIPMHServer(corpus, 25);
+		server.start();
+		OAIPMHHarvestJob job = new OAIPMHHarvestJob(1, 1);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		assertEquals(100, job.getRecords(server.getURL(1), null, null, SyntheticOAIPMHServer.METADATA_PREFIX,
+				null, os, null));
+		assertEquals(4, server.getRequestCount());
+		assertTrue(os.toString("UTF-8").contains(corpus.getIdentifier(199)));
+
+		// inkrementell skörd från mitten av året
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		df.setTimeZone(TimeZone.getTimeZone("UTC"));
+		Date from = new Date(SyntheticCorpus.FIRST_DATESTAMP_MILLIS + SyntheticCorpus.DATESTAMP_SPAN_SECONDS * 500);
+		int expected = 0;
+		for (int i = 200; i < 300; i++) {
+			if (!corpus.getDatestamp(i).before(from)) {
+				++expected;
+			}
+		}
+		assertTrue(expected > 0 && expected < 100);
+		assertEquals(expected, job.getRecords(server.getURL(2), df.format(from), null,
+				SyntheticOAIPMHServer.METADATA_PREFIX, null, new ByteArrayOutputStream(), null));
+
+		// alla tjänster och en tjänst som set
+		assertEquals(300, job.getRecords(server.getURL(), null, null, SyntheticOAIPMHServer.METADATA_PREFIX,
+				null, new ByteArrayOutputStream(), null));
+		assertEquals(100, job.getRecords(server.getURL(), null, null, SyntheticOAIPMHServer.METADATA_PREFIX,
+				"syn0", new ByteArrayOutputStream(), null));
+		assertEquals(3, job.performGetSets(server.createHarvestService(0)).size());
+	}
+
+	@Test
+	public void testHarvestStoreAndIndex() throws Exception {
+		SyntheticCorpus corpus = new SyntheticCorpus(11, 2, 120);
+		server = new SyntheticOAIPMHServer(corpus, 50);
+		server.start();
+		ds = RepositorySchema.postgresDataSource("jdbc:h2:mem:synthetic;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		try (Connection c = ds.getConnection()) {
+			RepositorySchema.create(c);
+		}
+		ss = new StatusServiceImpl(ds);
+		CountingSolrClient solr = new CountingSolrClient();
+		HarvestRepositoryManagerImpl hrm = new HarvestRepositoryManagerImpl(ds, ss, solr);
+		OAIPMHHarvestJob job = new OAIPMHHarvestJob(1, 1);
+		HarvestService service = server.createHarvestService(1);
+
+		ServiceMetadata sm = job.performIdentify(service);
+		assertTrue(sm.handlesPersistentDeletes());
+		List<ServiceFormat> formats = job.performGetFormats(service);
+		assertEquals(SyntheticOAIPMHServer.METADATA_PREFIX, formats.get(0).getPrefix());
+		File spoolFile = File.createTempFile("synthetic", ".xml");
+		try {
+			assertEquals(120, job.performGetRecords(service, sm, formats.get(0), spoolFile, ss));
+			assertTrue(hrm.storeHarvest(service, sm, spoolFile, new Timestamp(System.currentTimeMillis())));
+		} finally {
+			spoolFile.delete();
+		}
+		// borttagna poster som inte fanns sedan tidigare lagras inte
+		int deleted = 0;
+		for (int i = 120; i < 240; i++) {
+			if (corpus.isDeleted(i)) {
+				++deleted;
+			}
+		}
+		assertEquals(120 - deleted, countRows(service.getId()));
+		String storedUri;
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement();
+				ResultSet rs = st.executeQuery("SELECT MIN(uri) FROM content")) {
+			rs.next();
+			storedUri = rs.getString(1);
+		}
+		assertEquals(Collections.singleton(storedUri),
+				hrm.existingInDatabase(Arrays.asList(storedUri, "http://kulturarvsdata.se/synthetic/missing")));
+		assertTrue(hrm.existingInDatabase(Collections.emptyList()).isEmpty());
+
+		hrm.updateIndex(service, null);
+		assertEquals(120 - deleted, solr.getAddedDocuments());
+		assertEquals(1, solr.getCommits());
+	}
+
+	private int countRows(String serviceId) throws Exception {
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement();
+				ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM content WHERE serviceid = '" + serviceId +
+						"' AND deleted IS NULL")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+}
@@ -0,0 +1,329 @@
+package se.raa.ksamsok.harvest;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lokal oai-pmh-tjänst som serverar en {@link SyntheticCorpus} med jetty så att skörd,
+ * lagring och indexering kan provas och mätas utan riktiga tjänster. Varje tjänst i korpusen
+ * har en egen url (/oai/&lt;tjänst-id&gt;) och /oai serverar alla tjänster med tjänsterna som set.
+ * Verben Identify, ListMetadataFormats, ListSets och ListRecords stöds, ListRecords med
+ * from, until, set och sidor med återupptagningstoken. Posterna skapas vid varje anrop så
+ * minnesåtgången beror inte på korpusens storlek.
+ */
+public class SyntheticOAIPMHServer {
+
+	static final String METADATA_PREFIX = "ksamsok-rdf";
+
+	private final SyntheticCorpus corpus;
+	private final int pageSize;
+	private final AtomicInteger requests = new AtomicInteger();
+	private String deletedRecord = ServiceMetadata.D_PERSISTENT;
+	private Server server;
+	private String baseURL;
+
+	/**
+	 * Skapar en tjänst för korpusen.
+	 *
+	 * @param corpus korpus
+	 * @param pageSize antal poster per sida i ListRecords
+	 */
+	public SyntheticOAIPMHServer(SyntheticCorpus corpus, int pageSize) {
+		this.corpus = corpus;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Sätter hur tjänsten hanterar borttagna poster, se {@link ServiceMetadata}. Med "no"
+	 * skickas inte borttagna poster alls.
+	 *
+	 * @param deletedRecord no, transient eller persistent (default)
+	 */
+	public void setDeletedRecord(String deletedRecord) {
+		this.deletedRecord = deletedRecord;
+	}
+
+	/**
+	 * Startar tjänsten på en ledig port.
+	 *
+	 * @throws Exception vid fel
+	 */
+	public void start() throws Exception {
+		server = new Server(0);
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		context.addServlet(new ServletHolder(new OAIPMHServlet()), "/oai/*");
+		server.setHandler(context);
+		server.start();
+		baseURL = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/oai";
+	}
+
+	/**
+	 * Stoppar tjänsten.
+	 *
+	 * @throws Exception vid fel
+	 */
+	public void stop() throws Exception {
+		if (server != null) {
+			server.stop();
+			server.destroy();
+			server = null;
+		}
+	}
+
+	/**
+	 * Ger url:en till tjänsten med alla korpusens tjänster som set.
+	 *
+	 * @return url
+	 */
+	public String getURL() {
+		return baseURL;
+	}
+
+	/**
+	 * Ger url:en till en av korpusens tjänster.
+	 *
+	 * @param serviceIndex tjänstens index
+	 * @return url
+	 */
+	public String getURL(int serviceIndex) {
+		return baseURL + "/" + corpus.getServiceId(serviceIndex);
+	}
+
+	/**
+	 * Skapar en skördetjänst som skördar en av korpusens tjänster från denna tjänst.
+	 *
+	 * @param serviceIndex tjänstens index
+	 * @return skördetjänst
+	 */
+	public HarvestService createHarvestService(int serviceIndex) {
+		HarvestService service = new HarvestServiceImpl();
+		service.setId(corpus.getServiceId(serviceIndex));
+		service.setName("Syntetisk tjänst " + serviceIndex);
+		service.setServiceType("OAI-PMH-SAMSOK");
+		service.setHarvestURL(getURL(serviceIndex));
+		return service;
+	}
+
+	/**
+	 * Ger antal anrop som tjänsten har svarat på.
+	 *
+	 * @return antal anrop
+	 */
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	private static SimpleDateFormat createDateFormat(String pattern) {
+		SimpleDateFormat df = new SimpleDateFormat(pattern);
+		df.setTimeZone(TimeZone.getTimeZone("UTC"));
+		df.setLenient(false);
+		return df;
+	}
+
+	private static String formatDate(Date date) {
+		return createDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").format(date);
+	}
+
+	// tolkar from/until med sekund- eller dagsprecision, until för en dag tar med hela dagen
+	private static Long parseDate(String value, boolean until) throws ParseException {
+		if (value == null) {
+			return null;
+		}
+		if (value.length() == 10) {
+			long millis = createDateFormat("yyyy-MM-dd").parse(value).getTime();
+			return until ? millis + 24 * 60 * 60 * 1000 - 1000 : millis;
+		}
+		return createDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").parse(value).getTime();
+	}
+
+	private class OAIPMHServlet extends HttpServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+			requests.incrementAndGet();
+			// vilken tjänst, -1 för alla
+			int serviceIndex = -1;
+			String path = req.getPathInfo();
+			if (path != null && path.length() > 1) {
+				serviceIndex = parseServiceIndex(path.substring(1));
+				if (serviceIndex < 0) {
+					resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+					return;
+				}
+			}
+			resp.setCharacterEncoding("UTF-8");
+			resp.setContentType("text/xml; charset=UTF-8");
+			PrintWriter w = resp.getWriter();
+			String verb = req.getParameter("verb");
+			w.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+				.append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">\n")
+				.append("<responseDate>").append(formatDate(new Date())).append("</responseDate>\n")
+				.append("<request").append(verb != null ? " verb=\"" + escape(verb) + "\"" : "").append('>')
+				.append(req.getRequestURL()).append("</request>\n");
+			if ("Identify".equals(verb)) {
+				w.append("<Identify><repositoryName>Syntetisk korpus</repositoryName>")
+					.append("<baseURL>").append(req.getRequestURL()).append("</baseURL>")
+					.append("<protocolVersion>2.0</protocolVersion>")
+					.append("<adminEmail>ksamsok@localhost</adminEmail>")
+					.append("<earliestDatestamp>").append(formatDate(new Date(SyntheticCorpus.FIRST_DATESTAMP_MILLIS)))
+					.append("</earliestDatestamp>")
+					.append("<deletedRecord>").append(deletedRecord).append("</deletedRecord>")
+					.append("<granularity>").append(ServiceMetadata.G_FINE).append("</granularity></Identify>\n");
+			} else if ("ListMetadataFormats".equals(verb)) {
+				w.append("<ListMetadataFormats><metadataFormat>")
+					.append("<metadataPrefix>").append(METADATA_PREFIX).append("</metadataPrefix>")
+					.append("<schema>http://www.w3.org/2000/07/rdf.xsd</schema>")
+					.append("<metadataNamespace>http://kulturarvsdata.se/schema/ksamsok-rdf#</metadataNamespace>")
+					.append("</metadataFormat></ListMetadataFormats>\n");
+			} else if ("ListSets".equals(verb)) {
+				if (serviceIndex >= 0) {
+					writeError(w, "noSetHierarchy", "Sets are only available on the shared URL");
+				} else {
+					w.append("<ListSets>");
+					for (int i = 0; i < corpus.getNumServices(); i++) {
+						w.append("<set><setSpec>").append(corpus.getServiceId(i)).append("</setSpec>")
+							.append("<setName>Syntetisk tjänst ").append(String.valueOf(i)).append("</setName></set>");
+					}
+					w.append("</ListSets>\n");
+				}
+			} else if ("ListRecords".equals(verb)) {
+				listRecords(req, w, serviceIndex);
+			} else {
+				writeError(w, "badVerb", "Illegal verb: " + verb);
+			}
+			w.append("</OAI-PMH>\n");
+		}
+
+		private void listRecords(HttpServletRequest req, PrintWriter w, int serviceIndex) {
+			// återupptagningstoken: nästa index_antal hittills_totalt antal_from_until_set
+			int next;
+			int cursor;
+			int completeListSize;
+			Long from;
+			Long until;
+			int setIndex;
+			String token = req.getParameter("resumptionToken");
+			try {
+				if (token != null) {
+					String[] parts = token.split("_", -1);
+					next = Integer.parseInt(parts[0]);
+					cursor = Integer.parseInt(parts[1]);
+					completeListSize = Integer.parseInt(parts[2]);
+					from = parts[3].isEmpty() ? null : Long.valueOf(parts[3]);
+					until = parts[4].isEmpty() ? null : Long.valueOf(parts[4]);
+					setIndex = Integer.parseInt(parts[5]);
+				} else {
+					if (!METADATA_PREFIX.equals(req.getParameter("metadataPrefix"))) {
+						writeError(w, "cannotDisseminateFormat", "Unsupported metadataPrefix");
+						return;
+					}
+					from = parseDate(req.getParameter("from"), false);
+					until = parseDate(req.getParameter("until"), true);
+					setIndex = -1;
+					String set = req.getParameter("set");
+					if (set != null) {
+						setIndex = parseServiceIndex(set);
+						if (serviceIndex >= 0 || setIndex < 0) {
+							writeError(w, "noRecordsMatch", "Unknown set " + set);
+							return;
+						}
+					}
+					next = 0;
+					cursor = 0;
+					completeListSize = -1;
+				}
+			} catch (ParseException | RuntimeException e) {
+				writeError(w, token != null ? "badResumptionToken" : "badArgument", String.valueOf(e.getMessage()));
+				return;
+			}
+			int service = serviceIndex >= 0 ? serviceIndex : setIndex;
+			int start = service >= 0 ? service * corpus.getRecordsPerService() : 0;
+			int end = service >= 0 ? start + corpus.getRecordsPerService() : corpus.size();
+			if (completeListSize < 0) {
+				// bara huvudena behövs för att räkna, det går fort även för stora korpusar
+				completeListSize = 0;
+				for (int i = start; i < end; i++) {
+					if (matches(i, from, until)) {
+						++completeListSize;
+					}
+				}
+				if (completeListSize == 0) {
+					writeError(w, "noRecordsMatch", "No records match");
+					return;
+				}
+				next = start;
+			}
+			w.append("<ListRecords>\n");
+			int written = 0;
+			int i = next;
+			for (; i < end && written < pageSize; i++) {
+				if (!matches(i, from, until)) {
+					continue;
+				}
+				boolean deleted = corpus.isDeleted(i);
+				w.append("<record><header").append(deleted ? " status=\"deleted\"" : "").append('>')
+					.append("<identifier>").append(corpus.getOAIIdentifier(i)).append("</identifier>")
+					.append("<datestamp>").append(formatDate(corpus.getDatestamp(i))).append("</datestamp>")
+					.append("<setSpec>").append(corpus.getServiceId(corpus.getServiceIndex(i))).append("</setSpec>")
+					.append("</header>");
+				if (!deleted) {
+					w.append("<metadata>").append(corpus.getRecord(i)).append("</metadata>");
+				}
+				w.append("</record>\n");
+				++written;
+			}
+			cursor += written;
+			w.append("<resumptionToken completeListSize=\"").append(String.valueOf(completeListSize))
+				.append("\" cursor=\"").append(String.valueOf(cursor - written)).append("\">");
+			if (cursor < completeListSize) {
+				w.append(String.valueOf(i)).append('_').append(String.valueOf(cursor)).append('_')
+					.append(String.valueOf(completeListSize)).append('_')
+					.append(from != null ? String.valueOf(from) : "").append('_')
+					.append(until != null ? String.valueOf(until) : "").append('_')
+					.append(String.valueOf(setIndex));
+			}
+			w.append("</resumptionToken>\n</ListRecords>\n");
+		}
+
+		private boolean matches(int index, Long from, Long until) {
+			if (corpus.isDeleted(index) && ServiceMetadata.D_NO.equals(deletedRecord)) {
+				return false;
+			}
+			long datestamp = corpus.getDatestamp(index).getTime();
+			return (from == null || datestamp >= from) && (until == null || datestamp <= until);
+		}
+
+		private int parseServiceIndex(String serviceId) {
+			for (int i = 0; i < corpus.getNumServices(); i++) {
+				if (corpus.getServiceId(i).equals(serviceId)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private void writeError(PrintWriter w, String code, String message) {
+			w.append("<error code=\"").append(code).append("\">").append(escape(message)).append("</error>\n");
+		}
+
+		private String escape(String s) {
+			return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+		}
+	}
+}
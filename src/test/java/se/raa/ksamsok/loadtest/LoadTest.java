@@ -0,0 +1,426 @@
+package se.raa.ksamsok.loadtest;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.common.SolrInputDocument;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import se.raa.ksamsok.harvest.HarvestService;
+import se.raa.ksamsok.harvest.HarvestServiceImpl;
+import se.raa.ksamsok.harvest.SyntheticCorpus;
+import se.raa.ksamsok.loadtest.RequestMix.LoadRequest;
+import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.lucene.SamsokContentHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lasttest av API:t och resolvern. En syntetisk korpus ({@link SyntheticCorpus}) läses in i en
+ * solr-kärna med ksamsok-solrs schema, webbappens servletar startas i en lokal jetty
+ * ({@link LoadTestServer}) och en blandning av anrop ({@link RequestMix}) skickas med en
+ * fast takt oberoende av svarstiderna. Resultatet, genomströmning, percentiler för svarstiden
+ * och andel fel per anropstyp, skrivs som json till <code>results-&lt;tagg&gt;.json</code> så att
+ * körningar kan jämföras. Programmet avslutas med status 1 om ett gränsvärde överskrids.
+ * <p>
+ * Inställningar läses från systemegenskaper med prefixet <code>loadtest.</code>, se
+ * {@link #fromSystemProperties()} och README.
+ */
+public class LoadTest {
+
+	private static final String PREFIX = "loadtest.";
+	private static final int BATCH_SIZE = 500;
+	private static final int TIMEOUT_MILLIS = 30000;
+	private static final int MAX_LOGGED_ERRORS = 10;
+
+	String solrURL = "http://localhost:8983/solr/ksamsok";
+	String target;
+	boolean load = true;
+	long seed = 4711;
+	int services = 10;
+	int records = 5000;
+	double rate = 50;
+	int durationSeconds = 60;
+	int warmupSeconds = 10;
+	int threads = 32;
+	String mix = RequestMix.DEFAULT_MIX;
+	String tag = "snapshot";
+	File reportDir = new File("build/reports/loadtest");
+	double maxErrorRate = 0.01;
+	double maxP95Millis = -1;
+	String baseline;
+	double maxRegression = 0.2;
+
+	private final AtomicInteger loggedErrors = new AtomicInteger();
+
+	public static void main(String[] args) throws Exception {
+		LoadTest loadTest = fromSystemProperties();
+		// annars återanvänds bara fem anslutningar och resten öppnas för varje anrop
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", String.valueOf(loadTest.threads));
+		}
+		System.exit(loadTest.run());
+	}
+
+	/**
+	 * Skapar ett lasttest med inställningar från systemegenskaper:
+	 * <ul>
+	 * <li>loadtest.solr - url till solr-kärnan (http://localhost:8983/solr/ksamsok)</li>
+	 * <li>loadtest.target - bas-url till en redan startad webapp, ingen lokal jetty startas då</li>
+	 * <li>loadtest.load - om korpusen ska läsas in i solr först (true)</li>
+	 * <li>loadtest.seed, loadtest.services, loadtest.records - korpusens frö, antal tjänster och
+	 * poster per tjänst (4711, 10, 5000)</li>
+	 * <li>loadtest.rate - anrop per sekund (50)</li>
+	 * <li>loadtest.duration, loadtest.warmup - mätperiod och uppvärmning i sekunder (60, 10)</li>
+	 * <li>loadtest.threads - antal samtidiga anrop (32)</li>
+	 * <li>loadtest.mix - blandning av anrop, se {@link RequestMix}</li>
+	 * <li>loadtest.tag, loadtest.reportDir - resultatfilens tagg och katalog</li>
+	 * <li>loadtest.maxErrorRate - högsta andel fel (0.01), negativt för ingen kontroll</li>
+	 * <li>loadtest.maxP95 - högsta p95 i ms totalt, negativt för ingen kontroll (-1)</li>
+	 * <li>loadtest.baseline - resultatfil eller tagg för en jämförelsekörning</li>
+	 * <li>loadtest.maxRegression - högsta relativa ökning av p95 per anropstyp mot jämförelsekörningen (0.2)</li>
+	 * </ul>
+	 *
+	 * @return lasttest
+	 */
+	public static LoadTest fromSystemProperties() {
+		LoadTest loadTest = new LoadTest();
+		loadTest.solrURL = System.getProperty(PREFIX + "solr", loadTest.solrURL);
+		loadTest.target = System.getProperty(PREFIX + "target");
+		loadTest.load = Boolean.parseBoolean(System.getProperty(PREFIX + "load", String.valueOf(loadTest.load)));
+		loadTest.seed = Long.parseLong(System.getProperty(PREFIX + "seed", String.valueOf(loadTest.seed)));
+		loadTest.services = Integer.parseInt(System.getProperty(PREFIX + "services", String.valueOf(loadTest.services)));
+		loadTest.records = Integer.parseInt(System.getProperty(PREFIX + "records", String.valueOf(loadTest.records)));
+		loadTest.rate = Double.parseDouble(System.getProperty(PREFIX + "rate", String.valueOf(loadTest.rate)));
+		loadTest.durationSeconds = Integer.parseInt(System.getProperty(PREFIX + "duration",
+				String.valueOf(loadTest.durationSeconds)));
+		loadTest.warmupSeconds = Integer.parseInt(System.getProperty(PREFIX + "warmup",
+				String.valueOf(loadTest.warmupSeconds)));
+		loadTest.threads = Integer.parseInt(System.getProperty(PREFIX + "threads", String.valueOf(loadTest.threads)));
+		loadTest.mix = System.getProperty(PREFIX + "mix", loadTest.mix);
+		loadTest.tag = System.getProperty(PREFIX + "tag", loadTest.tag);
+		loadTest.reportDir = new File(System.getProperty(PREFIX + "reportDir", loadTest.reportDir.getPath()));
+		loadTest.maxErrorRate = Double.parseDouble(System.getProperty(PREFIX + "maxErrorRate",
+				String.valueOf(loadTest.maxErrorRate)));
+		loadTest.maxP95Millis = Double.parseDouble(System.getProperty(PREFIX + "maxP95",
+				String.valueOf(loadTest.maxP95Millis)));
+		loadTest.baseline = System.getProperty(PREFIX + "baseline");
+		loadTest.maxRegression = Double.parseDouble(System.getProperty(PREFIX + "maxRegression",
+				String.valueOf(loadTest.maxRegression)));
+		if (loadTest.rate <= 0 || loadTest.threads <= 0 || loadTest.durationSeconds <= 0) {
+			throw new IllegalArgumentException("loadtest.rate, loadtest.threads och loadtest.duration måste vara större än 0");
+		}
+		return loadTest;
+	}
+
+	/**
+	 * Kör lasttestet och skriver resultatfilen.
+	 *
+	 * @return 0 om inga gränsvärden överskreds, annars 1
+	 * @throws Exception vid fel
+	 */
+	public int run() throws Exception {
+		SyntheticCorpus corpus = new SyntheticCorpus(seed, services, records);
+		RequestMix requestMix = new RequestMix(corpus, mix);
+		JSONObject previous = readBaseline();
+		LoadTestServer server = null;
+		SolrClient solr = null;
+		try {
+			if (load || target == null) {
+				solr = new HttpSolrClient.Builder(solrURL).build();
+			}
+			if (load) {
+				long start = System.nanoTime();
+				int count = loadCorpus(solr, corpus);
+				System.out.printf("Läste in %d poster i %s på %d s%n", count, solrURL,
+						TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+			}
+			String baseURL = target;
+			if (baseURL == null) {
+				server = new LoadTestServer(solr);
+				server.start();
+				baseURL = server.getURL();
+			}
+			System.out.printf("Skickar %.1f anrop/s mot %s i %d s efter %d s uppvärmning%n", rate, baseURL,
+					durationSeconds, warmupSeconds);
+			LoadTestResult result = generate(baseURL, requestMix);
+
+			JSONObject json = result.toJSON();
+			json.put("tag", tag);
+			json.put("timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date()));
+			json.put("config", getConfig());
+			JSONObject previousConfig = previous != null ? previous.optJSONObject("config") : null;
+			if (previous != null && (previousConfig == null || !sameConfig(previousConfig, json.getJSONObject("config")))) {
+				System.out.println("Varning: jämförelsekörningen gjordes med andra inställningar");
+			}
+			List<String> failures = LoadTestResult.check(json, maxErrorRate, maxP95Millis, previous, maxRegression);
+			json.put("failures", new JSONArray(failures));
+			reportDir.mkdirs();
+			File resultFile = new File(reportDir, "results-" + tag + ".json");
+			Files.write(resultFile.toPath(), json.toString(2).getBytes(StandardCharsets.UTF_8));
+			print(json);
+			System.out.println("Resultat skrivet till " + resultFile.getPath());
+			for (String failure : failures) {
+				System.out.println("FEL: " + failure);
+			}
+			return failures.isEmpty() ? 0 : 1;
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+			if (solr != null) {
+				solr.close();
+			}
+		}
+	}
+
+	/**
+	 * Läser in korpusen i solr, tidigare syntetiska tjänster tas bort först. Borttagna poster
+	 * läses inte in.
+	 *
+	 * @param solr solr-klient
+	 * @param corpus korpus
+	 * @return antal inlästa poster
+	 * @throws Exception vid fel
+	 */
+	static int loadCorpus(SolrClient solr, SyntheticCorpus corpus) throws Exception {
+		SamsokContentHelper helper = new SamsokContentHelper(true);
+		solr.deleteByQuery(ContentHelper.I_IX_SERVICE + ":syn*");
+		List<SolrInputDocument> docs = new ArrayList<>(BATCH_SIZE);
+		Date added = new Date();
+		HarvestService service = null;
+		int count = 0;
+		for (int i = 0; i < corpus.size(); i++) {
+			if (corpus.isDeleted(i)) {
+				continue;
+			}
+			String serviceId = corpus.getServiceId(corpus.getServiceIndex(i));
+			if (service == null || !serviceId.equals(service.getId())) {
+				service = new HarvestServiceImpl();
+				service.setId(serviceId);
+			}
+			SolrInputDocument doc = helper.createSolrDocument(service, corpus.getRecord(i), added);
+			if (doc == null) {
+				throw new IllegalStateException("Kunde inte skapa dokument för " + corpus.getIdentifier(i));
+			}
+			docs.add(doc);
+			if (docs.size() == BATCH_SIZE) {
+				solr.add(docs);
+				count += docs.size();
+				docs.clear();
+			}
+		}
+		if (!docs.isEmpty()) {
+			solr.add(docs);
+			count += docs.size();
+		}
+		solr.commit();
+		return count;
+	}
+
+	/**
+	 * Skickar anrop med fast takt. Anropen schemaläggs oberoende av hur snabbt servern svarar
+	 * och svarstiden räknas från schemalagd tid, så att en långsam server inte ger färre och
+	 * till synes snabbare anrop. Anrop under uppvärmningen räknas inte.
+	 *
+	 * @param baseURL webbappens bas-url
+	 * @param requestMix blandning av anrop
+	 * @return resultat
+	 * @throws InterruptedException om tråden avbryts
+	 */
+	LoadTestResult generate(String baseURL, RequestMix requestMix) throws InterruptedException {
+		LoadTestResult result = new LoadTestResult();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>());
+		Random random = new Random(seed);
+		double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+		for (long i = 0; ; i++) {
+			long scheduled = start + (long) (i * intervalNanos);
+			if (scheduled >= end) {
+				break;
+			}
+			long wait;
+			while ((wait = scheduled - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			executor.execute(new Task(baseURL, requestMix.next(random), scheduled, scheduled >= measureStart, result));
+		}
+		executor.shutdown();
+		if (!executor.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+			// anrop som inte hann skickas räknas som fel
+			for (Runnable r : executor.shutdownNow()) {
+				((Task) r).fail();
+			}
+			executor.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		result.setDurationNanos(end - measureStart);
+		return result;
+	}
+
+	/**
+	 * Skickar ett anrop och läser hela svaret.
+	 *
+	 * @param baseURL webbappens bas-url
+	 * @param request anrop
+	 * @return sant om svaret inte var ett fel, omdirigeringar räknas som lyckade
+	 */
+	boolean send(String baseURL, LoadRequest request) {
+		try {
+			HttpURLConnection con = (HttpURLConnection) new URL(baseURL + request.getPath()).openConnection();
+			con.setInstanceFollowRedirects(false);
+			con.setConnectTimeout(TIMEOUT_MILLIS);
+			con.setReadTimeout(TIMEOUT_MILLIS);
+			if (request.getAccept() != null) {
+				con.setRequestProperty("Accept", request.getAccept());
+			}
+			int status = con.getResponseCode();
+			// svaret läses till slut så att anslutningen kan återanvändas
+			try (InputStream in = status >= 400 ? con.getErrorStream() : con.getInputStream()) {
+				if (in != null) {
+					byte[] buf = new byte[8192];
+					while (in.read(buf) != -1) {
+						// läs bara
+					}
+				}
+			}
+			if (status >= 400) {
+				logError(request, "status " + status);
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			logError(request, e.toString());
+			return false;
+		}
+	}
+
+	private void logError(LoadRequest request, String message) {
+		if (loggedErrors.incrementAndGet() <= MAX_LOGGED_ERRORS) {
+			System.err.println("Fel för " + request.getType() + " " + request.getPath() + ": " + message);
+		}
+	}
+
+	private JSONObject readBaseline() throws IOException {
+		if (baseline == null || baseline.isEmpty()) {
+			return null;
+		}
+		// antingen en fil eller en tagg för en tidigare körning
+		File file = new File(baseline);
+		if (!file.isFile()) {
+			file = new File(reportDir, "results-" + baseline + ".json");
+		}
+		if (!file.isFile()) {
+			throw new IllegalArgumentException("Hittar ingen jämförelsekörning för " + baseline);
+		}
+		return new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+	}
+
+	private JSONObject getConfig() {
+		JSONObject config = new JSONObject();
+		config.put("seed", seed);
+		config.put("services", services);
+		config.put("records", records);
+		config.put("rate", rate);
+		config.put("duration", durationSeconds);
+		config.put("warmup", warmupSeconds);
+		config.put("threads", threads);
+		StringBuilder normalizedMix = new StringBuilder();
+		for (Map.Entry<String, Integer> entry : RequestMix.parse(mix).entrySet()) {
+			normalizedMix.append(normalizedMix.length() > 0 ? "," : "").append(entry.getKey()).append("=")
+					.append(entry.getValue());
+		}
+		config.put("mix", normalizedMix.toString());
+		return config;
+	}
+
+	// jämför inställningar, tal jämförs som tal då heltal och flyttal kan skrivas likadant
+	static boolean sameConfig(JSONObject a, JSONObject b) {
+		if (!a.keySet().equals(b.keySet())) {
+			return false;
+		}
+		for (String key : a.keySet()) {
+			Object x = a.get(key);
+			Object y = b.get(key);
+			if (x instanceof Number && y instanceof Number) {
+				if (((Number) x).doubleValue() != ((Number) y).doubleValue()) {
+					return false;
+				}
+			} else if (!x.toString().equals(y.toString())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void print(JSONObject json) {
+		System.out.printf("%-14s %8s %6s %8s %8s %8s %8s %8s %8s %8s%n", "typ", "antal", "fel", "anrop/s",
+				"medel", "p50", "p90", "p95", "p99", "max");
+		JSONObject types = json.getJSONObject("types");
+		for (String type : RequestMix.TYPES) {
+			if (types.has(type)) {
+				printRow(type, types.getJSONObject(type));
+			}
+		}
+		printRow("totalt", json.getJSONObject(LoadTestResult.OVERALL));
+		System.out.println("(svarstider i ms)");
+	}
+
+	private static void printRow(String name, JSONObject stats) {
+		System.out.printf("%-14s %8d %6d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n", name, stats.getLong("count"),
+				stats.getLong("errors"), stats.getDouble("throughput"), stats.getDouble("mean"),
+				stats.getDouble("p50"), stats.getDouble("p90"), stats.getDouble("p95"), stats.getDouble("p99"),
+				stats.getDouble("max"));
+	}
+
+	/**
+	 * Ett schemalagt anrop.
+	 */
+	private class Task implements Runnable {
+		private final String baseURL;
+		private final LoadRequest request;
+		private final long scheduled;
+		private final boolean measured;
+		private final LoadTestResult result;
+
+		Task(String baseURL, LoadRequest request, long scheduled, boolean measured, LoadTestResult result) {
+			this.baseURL = baseURL;
+			this.request = request;
+			this.scheduled = scheduled;
+			this.measured = measured;
+			this.result = result;
+		}
+
+		@Override
+		public void run() {
+			boolean ok = send(baseURL, request);
+			if (measured) {
+				result.record(request.getType(), System.nanoTime() - scheduled, !ok);
+			}
+		}
+
+		void fail() {
+			if (measured) {
+				result.record(request.getType(), System.nanoTime() - scheduled, true);
+			}
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package se.raa.ksamsok.loadtest;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Svarstider och fel från ett lasttest, per anropstyp och totalt. Svarstiden räknas från
+ * den tid då anropet var schemalagt att skickas och inte från när det faktiskt skickades, så
+ * att köande anrop när servern inte hinner med syns i percentilerna.
+ */
+public class LoadTestResult {
+
+	static final String OVERALL = "overall";
+	static final double[] PERCENTILES = { 50, 90, 95, 99 };
+	// skillnader i p95 under detta räknas inte som försämringar mot en jämförelsekörning
+	static final double MIN_REGRESSION_MILLIS = 5;
+
+	private final Map<String, Recorder> recorders = new TreeMap<>();
+	private final Recorder overall = new Recorder();
+	private volatile long durationNanos;
+
+	/**
+	 * Registrerar ett avslutat anrop.
+	 *
+	 * @param type anropstyp
+	 * @param latencyNanos svarstid räknat från schemalagd tid
+	 * @param error sant om anropet misslyckades
+	 */
+	public void record(String type, long latencyNanos, boolean error) {
+		Recorder recorder;
+		synchronized (recorders) {
+			recorder = recorders.computeIfAbsent(type, t -> new Recorder());
+		}
+		recorder.add(latencyNanos, error);
+		overall.add(latencyNanos, error);
+	}
+
+	/**
+	 * Sätter mätperiodens längd, används för genomströmningen.
+	 *
+	 * @param durationNanos mätperiodens längd
+	 */
+	public void setDurationNanos(long durationNanos) {
+		this.durationNanos = durationNanos;
+	}
+
+	/**
+	 * Sammanställer resultatet som json, med ett objekt per anropstyp och ett totalt.
+	 *
+	 * @return sammanställning
+	 */
+	public JSONObject toJSON() {
+		JSONObject result = new JSONObject();
+		result.put(OVERALL, overall.toJSON(durationNanos));
+		JSONObject types = new JSONObject();
+		synchronized (recorders) {
+			for (Map.Entry<String, Recorder> entry : recorders.entrySet()) {
+				types.put(entry.getKey(), entry.getValue().toJSON(durationNanos));
+			}
+		}
+		result.put("types", types);
+		return result;
+	}
+
+	/**
+	 * Kontrollerar resultatet mot gränsvärden och eventuellt mot en tidigare körning.
+	 *
+	 * @param result sammanställning från {@link #toJSON()}
+	 * @param maxErrorRate högsta tillåtna andel fel totalt, negativt för ingen kontroll
+	 * @param maxP95Millis högsta tillåtna p95 totalt i ms, negativt för ingen kontroll
+	 * @param baseline sammanställning från en tidigare körning, eller null
+	 * @param maxRegression högsta tillåtna relativa ökning av p95 per anropstyp jämfört med baseline
+	 * @return beskrivning av överskridna gränser, tom om allt är ok
+	 */
+	public static List<String> check(JSONObject result, double maxErrorRate, double maxP95Millis,
+			JSONObject baseline, double maxRegression) {
+		List<String> failures = new ArrayList<>();
+		JSONObject total = result.getJSONObject(OVERALL);
+		if (total.getLong("count") == 0) {
+			failures.add("Inga anrop mättes");
+			return failures;
+		}
+		if (maxErrorRate >= 0 && total.getDouble("errorRate") > maxErrorRate) {
+			failures.add(String.format("Andel fel %.4f överstiger %.4f", total.getDouble("errorRate"), maxErrorRate));
+		}
+		if (maxP95Millis >= 0 && total.getDouble("p95") > maxP95Millis) {
+			failures.add(String.format("p95 %.1f ms överstiger %.1f ms", total.getDouble("p95"), maxP95Millis));
+		}
+		if (baseline != null) {
+			checkRegression(OVERALL, total, baseline.optJSONObject(OVERALL), maxRegression, failures);
+			JSONObject types = result.getJSONObject("types");
+			JSONObject baselineTypes = baseline.optJSONObject("types");
+			for (String type : types.keySet()) {
+				checkRegression(type, types.getJSONObject(type),
+						baselineTypes != null ? baselineTypes.optJSONObject(type) : null, maxRegression, failures);
+			}
+		}
+		return failures;
+	}
+
+	private static void checkRegression(String type, JSONObject current, JSONObject previous, double maxRegression,
+			List<String> failures) {
+		if (previous == null || previous.getLong("count") == 0 || current.getLong("count") == 0) {
+			return;
+		}
+		double p95 = current.getDouble("p95");
+		double previousP95 = previous.getDouble("p95");
+		if (p95 > previousP95 * (1 + maxRegression) && p95 - previousP95 > MIN_REGRESSION_MILLIS) {
+			failures.add(String.format("p95 för %s är %.1f ms mot %.1f ms i jämförelsekörningen (+%.0f%%)",
+					type, p95, previousP95, 100 * (p95 / previousP95 - 1)));
+		}
+	}
+
+	/**
+	 * Svarstider och fel för en anropstyp.
+	 */
+	static class Recorder {
+		private long[] latencies = new long[1024];
+		private int count;
+		private long errors;
+
+		synchronized void add(long latencyNanos, boolean error) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = latencyNanos;
+			if (error) {
+				++errors;
+			}
+		}
+
+		synchronized JSONObject toJSON(long durationNanos) {
+			long[] sorted = Arrays.copyOf(latencies, count);
+			Arrays.sort(sorted);
+			JSONObject json = new JSONObject();
+			json.put("count", count);
+			json.put("errors", errors);
+			json.put("errorRate", count > 0 ? (double) errors / count : 0);
+			double seconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+			json.put("throughput", seconds > 0 ? round((count - errors) / seconds) : 0);
+			long sum = 0;
+			for (long latency : sorted) {
+				sum += latency;
+			}
+			json.put("mean", count > 0 ? millis(sum / count) : 0);
+			for (double p : PERCENTILES) {
+				json.put("p" + (int) p, millis(percentile(sorted, p)));
+			}
+			json.put("max", count > 0 ? millis(sorted[count - 1]) : 0);
+			return json;
+		}
+	}
+
+	// närmsta rang, värdet som p procent av mätningarna är mindre än eller lika med
+	static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(p / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+
+	private static double millis(long nanos) {
+		return round(nanos / 1e6);
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+}
@@ -0,0 +1,113 @@
+package se.raa.ksamsok.loadtest;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.h2.jdbcx.JdbcDataSource;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+import se.raa.ksamsok.api.APIServlet;
+import se.raa.ksamsok.harvest.RepositorySchema;
+import se.raa.ksamsok.resolve.ResolverServlet;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.util.Properties;
+
+/**
+ * API:t och resolvern i en lokal jetty mot en riktig solr-kärna. Bönorna skapas från
+ * applicationContext.xml med inställningarna i default-miljön, bara databaserna och solr
+ * byts ut. Databasen används inte av de anrop som lasttestet gör och ersätts av en tom
+ * h2-databas med driftens schema, poster som inte finns i indexet räknas som aldrig skördade.
+ */
+public class LoadTestServer {
+
+	static final String APPLICATION_CONTEXT = "src/main/environment/common/WEB-INF/applicationContext.xml";
+	static final String ENVIRONMENT_PROPERTIES = "src/main/environment/default/environment.properties";
+
+	private final SolrClient solr;
+	private Server server;
+	private GenericWebApplicationContext springContext;
+
+	/**
+	 * Skapar en server, starta med {@link #start()}.
+	 *
+	 * @param solr klient mot solr-kärnan
+	 */
+	public LoadTestServer(SolrClient solr) {
+		this.solr = solr;
+	}
+
+	/**
+	 * Startar servern på en ledig port.
+	 *
+	 * @throws Exception vid fel
+	 */
+	public void start() throws Exception {
+		JdbcDataSource ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:loadtest;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		try (Connection c = ds.getConnection()) {
+			RepositorySchema.create(c);
+		}
+
+		springContext = new GenericWebApplicationContext();
+		new XmlBeanDefinitionReader(springContext).loadBeanDefinitions(new FileSystemResource(APPLICATION_CONTEXT));
+		// @token@ ersätts som i bygget, lasttestet mäts utan långsam logg och förgenererade sitemaps
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(ENVIRONMENT_PROPERTIES)) {
+			properties.load(in);
+		}
+		properties.setProperty("api.slowquery.thresholdms", "-1");
+		properties.setProperty("sitemap.generate", "false");
+		PropertySourcesPlaceholderConfigurer placeholders = new PropertySourcesPlaceholderConfigurer();
+		placeholders.setPlaceholderPrefix("@");
+		placeholders.setPlaceholderSuffix("@");
+		placeholders.setProperties(properties);
+		springContext.addBeanFactoryPostProcessor(placeholders);
+		for (String beanName : new String[] { "dataSource", "dataSourceReader", "solrBuilder", "solr" }) {
+			springContext.removeBeanDefinition(beanName);
+		}
+		springContext.getBeanFactory().registerSingleton("dataSource", ds);
+		springContext.getBeanFactory().registerSingleton("dataSourceReader", ds);
+		springContext.getBeanFactory().registerSingleton("solr", solr);
+		springContext.refresh();
+
+		server = new Server(0);
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		context.setAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE, springContext);
+		context.addServlet(new ServletHolder(new APIServlet()), "/api");
+		context.addServlet(new ServletHolder(new ResolverServlet()), "/*");
+		server.setHandler(context);
+		server.start();
+	}
+
+	/**
+	 * Ger serverns bas-url utan avslutande snedstreck.
+	 *
+	 * @return bas-url
+	 */
+	public String getURL() {
+		return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+	}
+
+	/**
+	 * Stoppar servern.
+	 *
+	 * @throws Exception vid fel
+	 */
+	public void stop() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+		if (springContext != null) {
+			springContext.close();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package se.raa.ksamsok.loadtest;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import se.raa.ksamsok.harvest.SyntheticCorpus;
+import se.raa.ksamsok.loadtest.RequestMix.LoadRequest;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LoadTestTest {
+
+	private Server server;
+
+	@After
+	public void tearDown() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testParseMix() {
+		Map<String, Integer> weights = RequestMix.parse(" search=3, resolver=1 ,rss=0");
+		assertEquals(2, weights.size());
+		assertEquals(Integer.valueOf(3), weights.get(RequestMix.SEARCH));
+		assertFalse(weights.containsKey(RequestMix.RSS));
+		for (String mix : new String[] { "search", "foo=1", "search=x", "search=-1", "rss=0" }) {
+			try {
+				RequestMix.parse(mix);
+				fail("Inget fel för " + mix);
+			} catch (IllegalArgumentException e) {
+				// förväntat
+			}
+		}
+	}
+
+	@Test
+	public void testRequests() {
+		SyntheticCorpus corpus = new SyntheticCorpus(1, 3, 100);
+		RequestMix mix = new RequestMix(corpus, "getRelations=1,resolver=1");
+		Random random = new Random(1);
+		for (int i = 0; i < 100; i++) {
+			LoadRequest request = mix.next(random);
+			if (RequestMix.RESOLVER.equals(request.getType())) {
+				assertTrue(request.getPath().matches("/syn[0-2]/item/\\d+"));
+				assertEquals("application/rdf+xml", request.getAccept());
+			} else {
+				assertEquals(RequestMix.GET_RELATIONS, request.getType());
+				assertTrue(request.getPath().matches("/api\\?method=getRelations&relation=all&objectId=syn[0-2]%2Fitem%2F\\d+"));
+			}
+		}
+		for (String type : RequestMix.TYPES) {
+			assertEquals(type, mix.create(type, random).getType());
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		long[] sorted = new long[100];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = i + 1;
+		}
+		assertEquals(50, LoadTestResult.percentile(sorted, 50));
+		assertEquals(95, LoadTestResult.percentile(sorted, 95));
+		assertEquals(100, LoadTestResult.percentile(sorted, 100));
+		assertEquals(7, LoadTestResult.percentile(new long[] { 7 }, 99));
+		assertEquals(0, LoadTestResult.percentile(new long[0], 50));
+	}
+
+	@Test
+	public void testCheck() {
+		LoadTestResult result = new LoadTestResult();
+		for (int i = 1; i <= 100; i++) {
+			result.record(RequestMix.SEARCH, TimeUnit.MILLISECONDS.toNanos(i), i == 100);
+			result.record(RequestMix.RESOLVER, TimeUnit.MILLISECONDS.toNanos(i) / 10, false);
+		}
+		result.setDurationNanos(TimeUnit.SECONDS.toNanos(10));
+		JSONObject json = result.toJSON();
+		JSONObject search = json.getJSONObject("types").getJSONObject(RequestMix.SEARCH);
+		assertEquals(100, search.getLong("count"));
+		assertEquals(1, search.getLong("errors"));
+		assertEquals(9.9, search.getDouble("throughput"), 0.001);
+		assertEquals(95, search.getDouble("p95"), 0.001);
+		assertEquals(200, json.getJSONObject(LoadTestResult.OVERALL).getLong("count"));
+
+		assertTrue(LoadTestResult.check(json, 0.01, -1, null, 0.2).isEmpty());
+		assertEquals(1, LoadTestResult.check(json, 0.001, -1, null, 0.2).size());
+		assertEquals(1, LoadTestResult.check(json, -1, 50, null, 0.2).size());
+
+		// samma körning som jämförelse ger inga försämringar
+		JSONObject baseline = new JSONObject(json.toString());
+		assertTrue(LoadTestResult.check(json, -1, -1, baseline, 0.2).isEmpty());
+		// sökningen var dubbelt så snabb i jämförelsekörningen
+		baseline.getJSONObject("types").getJSONObject(RequestMix.SEARCH).put("p95", 47.5);
+		List<String> failures = LoadTestResult.check(json, -1, -1, baseline, 0.2);
+		assertEquals(1, failures.size());
+		assertTrue(failures.get(0).contains(RequestMix.SEARCH));
+		// små skillnader i absoluta tal räknas inte
+		baseline.getJSONObject("types").getJSONObject(RequestMix.SEARCH).put("p95", 91);
+		assertTrue(LoadTestResult.check(json, -1, -1, baseline, 0.01).isEmpty());
+
+		assertEquals(1, LoadTestResult.check(new LoadTestResult().toJSON(), -1, -1, null, 0.2).size());
+	}
+
+	@Test
+	public void testSameConfig() {
+		JSONObject a = new JSONObject().put("rate", 50.0).put("mix", "search=1");
+		JSONObject b = new JSONObject(a.toString());
+		assertTrue(LoadTest.sameConfig(a, b));
+		b.put("rate", 51);
+		assertFalse(LoadTest.sameConfig(a, b));
+	}
+
+	@Test
+	public void testGenerate() throws Exception {
+		server = new Server(0);
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		context.addServlet(new ServletHolder(new HttpServlet() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+				// resolvern svarar med fel
+				if (req.getRequestURI().startsWith("/api")) {
+					resp.setContentType("text/xml; charset=UTF-8");
+					resp.getWriter().write("<result/>");
+				} else {
+					resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				}
+			}
+		}), "/*");
+		server.setHandler(context);
+		server.start();
+		String baseURL = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+		LoadTest loadTest = new LoadTest();
+		loadTest.rate = 200;
+		loadTest.durationSeconds = 1;
+		loadTest.warmupSeconds = 1;
+		loadTest.threads = 4;
+		LoadTestResult result = loadTest.generate(baseURL,
+				new RequestMix(new SyntheticCorpus(1, 2, 50), "search=1,resolver=1"));
+		JSONObject json = result.toJSON();
+		// bara anrop efter uppvärmningen räknas
+		JSONObject overall = json.getJSONObject(LoadTestResult.OVERALL);
+		assertEquals(200, overall.getLong("count"));
+		JSONObject search = json.getJSONObject("types").getJSONObject(RequestMix.SEARCH);
+		JSONObject resolver = json.getJSONObject("types").getJSONObject(RequestMix.RESOLVER);
+		assertEquals(0, search.getLong("errors"));
+		assertEquals(resolver.getLong("count"), resolver.getLong("errors"));
+		assertEquals(200, search.getLong("count") + resolver.getLong("count"));
+	}
+}
@@ -0,0 +1,216 @@
+package se.raa.ksamsok.loadtest;
+
+import se.raa.ksamsok.harvest.SyntheticCorpus;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Blandning av anrop för lasttestet. Anropen byggs mot en {@link SyntheticCorpus} så att
+ * frågorna ger träffar och resolver-anropen går mot poster som finns i indexet.
+ * Blandningen anges som typ=vikt, kommaseparerat, t ex
+ * <code>search=40,facet=10,statistic=5,getRelations=15,rss=10,resolver=20</code>.
+ */
+public class RequestMix {
+
+	public static final String SEARCH = "search";
+	public static final String FACET = "facet";
+	public static final String STATISTIC = "statistic";
+	public static final String GET_RELATIONS = "getRelations";
+	public static final String RSS = "rss";
+	public static final String RESOLVER = "resolver";
+
+	public static final List<String> TYPES = Collections.unmodifiableList(
+			Arrays.asList(SEARCH, FACET, STATISTIC, GET_RELATIONS, RSS, RESOLVER));
+
+	public static final String DEFAULT_MIX = "search=40,facet=10,statistic=5,getRelations=15,rss=10,resolver=20";
+
+	private static final int[] HITS_PER_PAGE = { 25, 50, 100 };
+	private static final String[] FACET_INDEXES = { "itemType", "countyName", "serviceName", "mediaLicense" };
+
+	private final SyntheticCorpus corpus;
+	private final Map<String, Integer> weights;
+	private final List<String> types = new ArrayList<>();
+	private final int[] cumulative;
+	private final int totalWeight;
+
+	/**
+	 * Skapar en blandning.
+	 *
+	 * @param corpus korpus som finns i indexet
+	 * @param mix blandning som typ=vikt, kommaseparerat
+	 */
+	public RequestMix(SyntheticCorpus corpus, String mix) {
+		this.corpus = corpus;
+		this.weights = parse(mix);
+		this.cumulative = new int[weights.size()];
+		int sum = 0;
+		for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+			sum += entry.getValue();
+			cumulative[types.size()] = sum;
+			types.add(entry.getKey());
+		}
+		this.totalWeight = sum;
+	}
+
+	/**
+	 * Tolkar en blandning.
+	 *
+	 * @param mix blandning som typ=vikt, kommaseparerat
+	 * @return vikt per typ i angiven ordning, bara typer med vikt större än noll
+	 */
+	static Map<String, Integer> parse(String mix) {
+		Map<String, Integer> result = new LinkedHashMap<>();
+		for (String part : mix.split(",")) {
+			part = part.trim();
+			if (part.isEmpty()) {
+				continue;
+			}
+			int eq = part.indexOf('=');
+			if (eq <= 0) {
+				throw new IllegalArgumentException("Felaktig del i blandningen, förväntade typ=vikt: " + part);
+			}
+			String type = part.substring(0, eq).trim();
+			if (!TYPES.contains(type)) {
+				throw new IllegalArgumentException("Okänd anropstyp " + type + ", giltiga är " + TYPES);
+			}
+			int weight;
+			try {
+				weight = Integer.parseInt(part.substring(eq + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Felaktig vikt för " + type + ": " + part.substring(eq + 1));
+			}
+			if (weight < 0) {
+				throw new IllegalArgumentException("Negativ vikt för " + type);
+			}
+			if (weight > 0) {
+				result.put(type, weight);
+			}
+		}
+		if (result.isEmpty()) {
+			throw new IllegalArgumentException("Blandningen innehåller inga anrop: " + mix);
+		}
+		return result;
+	}
+
+	public Map<String, Integer> getWeights() {
+		return Collections.unmodifiableMap(weights);
+	}
+
+	/**
+	 * Väljer nästa anrop enligt vikterna.
+	 *
+	 * @param random slumptalsgenerator
+	 * @return anrop
+	 */
+	public LoadRequest next(Random random) {
+		int r = random.nextInt(totalWeight);
+		int i = 0;
+		while (r >= cumulative[i]) {
+			++i;
+		}
+		return create(types.get(i), random);
+	}
+
+	/**
+	 * Skapar ett anrop av angiven typ.
+	 *
+	 * @param type anropstyp
+	 * @param random slumptalsgenerator
+	 * @return anrop
+	 */
+	LoadRequest create(String type, Random random) {
+		switch (type) {
+		case SEARCH:
+			return new LoadRequest(type, "/api?method=search&hitsPerPage=" +
+					HITS_PER_PAGE[random.nextInt(HITS_PER_PAGE.length)] +
+					"&startRecord=" + (1 + 25 * random.nextInt(4)) + "&query=" + encode(searchQuery(random)), null);
+		case FACET:
+			String first = FACET_INDEXES[random.nextInt(FACET_INDEXES.length)];
+			String second = FACET_INDEXES[random.nextInt(FACET_INDEXES.length)];
+			String index = first.equals(second) ? first : first + "|" + second;
+			return new LoadRequest(type, "/api?method=facet&index=" + encode(index) +
+					"&query=" + encode("text=" + SyntheticCorpus.getWord(random)), null);
+		case STATISTIC:
+			return new LoadRequest(type, "/api?method=statistic&index=" +
+					encode("itemType=*|" + FACET_INDEXES[1 + random.nextInt(FACET_INDEXES.length - 1)] + "=*") +
+					"&removeBelow=1", null);
+		case GET_RELATIONS:
+			return new LoadRequest(type, "/api?method=getRelations&relation=all&objectId=" +
+					encode(objectId(random)), null);
+		case RSS:
+			return new LoadRequest(type, "/api?method=rss&hitsPerPage=25&query=" +
+					encode("text=" + SyntheticCorpus.getWord(random)), null);
+		case RESOLVER:
+			return new LoadRequest(type, "/" + objectId(random), "application/rdf+xml");
+		default:
+			throw new IllegalArgumentException("Okänd anropstyp " + type);
+		}
+	}
+
+	private String searchQuery(Random random) {
+		String word = SyntheticCorpus.getWord(random);
+		switch (random.nextInt(4)) {
+		case 0:
+			return "text=" + word + " and text=" + SyntheticCorpus.getWord(random);
+		case 1:
+			return "text=" + word + " or text=" + SyntheticCorpus.getWord(random);
+		case 2:
+			return "serviceName=" + corpus.getServiceId(random.nextInt(corpus.getNumServices())) +
+					" and itemName=" + word;
+		default:
+			return "text=" + word;
+		}
+	}
+
+	// identifierare utan prefix för en post som inte är borttagen, t ex syn3/item/17
+	private String objectId(Random random) {
+		int index;
+		do {
+			index = random.nextInt(corpus.size());
+		} while (corpus.isDeleted(index));
+		return corpus.getServiceId(corpus.getServiceIndex(index)) + "/item/" + (index % corpus.getRecordsPerService());
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Ett anrop, sökväg relativt webbappens rot och eventuellt accept-huvud.
+	 */
+	public static class LoadRequest {
+		private final String type;
+		private final String path;
+		private final String accept;
+
+		LoadRequest(String type, String path, String accept) {
+			this.type = type;
+			this.path = path;
+			this.accept = accept;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public String getAccept() {
+			return accept;
+		}
+	}
+}
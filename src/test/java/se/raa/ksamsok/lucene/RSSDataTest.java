@@ -0,0 +1,32 @@
+package se.raa.ksamsok.lucene;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Kontrollerar att rss-datat kan lagras som json i indexet och läsas tillbaka.
+ */
+public class RSSDataTest {
+
+	@Test
+	public void testJSON() {
+		RSSData data = new RSSData();
+		data.setIdentifier("http://kulturarvsdata.se/raa/test/1");
+		data.setTitle("Hjälm \"med\" citat");
+		data.setThumbnailUrl("http://example.com/thumb.jpg");
+		data.addKeyWord("hjälm");
+		data.addKeyWord("vasa");
+		data.setPublishDate("2010-01-22 ");
+		RSSData copy = RSSData.fromJSON(data.toJSON());
+		assertEquals(data.getIdentifier(), copy.getIdentifier());
+		assertEquals(data.getTitle(), copy.getTitle());
+		assertEquals(data.getThumbnailUrl(), copy.getThumbnailUrl());
+		assertArrayEquals(data.getKeywordsAsArray(), copy.getKeywordsAsArray());
+		assertEquals(data.getPublishDate(), copy.getPublishDate());
+		assertEquals(null, copy.getLink());
+		assertEquals(null, copy.getImageUrl());
+		assertEquals(null, copy.getCoords());
+	}
+}
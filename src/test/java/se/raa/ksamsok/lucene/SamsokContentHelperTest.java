@@ -8,6 +8,7 @@ import se.raa.ksamsok.harvest.ExtractedInfo;
 import se.raa.ksamsok.harvest.HarvestService;
 import se.raa.ksamsok.harvest.HarvestServiceImpl;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Date;
 
@@ -52,6 +53,9 @@ public class SamsokContentHelperTest extends AbstractDocumentTest{
 		assertEquals("Fel identifierare", "http://kulturarvsdata.se/raa/test/1", doc.getFieldValue(ContentHelper.IX_ITEMID));
 		assertNotNull("Ingen RDF", doc.getFieldValue(ContentHelper.I_IX_RDF));
 		assertNotNull("Inget pres-block", doc.getFieldValue(ContentHelper.I_IX_PRES));
+		assertEquals("Felaktig kontrollsumma", SamsokContentHelper.createContentHash(xmlContent.getBytes(StandardCharsets.UTF_8)),
+				doc.getFieldValue(ContentHelper.I_IX_CONTENT_HASH));
+		assertEquals("Felaktig längd på kontrollsumma", 40, ((String) doc.getFieldValue(ContentHelper.I_IX_CONTENT_HASH)).length());
 		// specialindexet för relationer
 		Collection<Object> relations = doc.getFieldValues(ContentHelper.I_IX_RELATIONS);
 		assertNotNull("Specialindexet för relationer saknas", relations);
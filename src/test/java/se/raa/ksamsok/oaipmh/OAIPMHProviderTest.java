@@ -0,0 +1,264 @@
+package se.raa.ksamsok.oaipmh;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.raa.ksamsok.harvest.RepositorySchema;
+
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OAIPMHProviderTest {
+
+	private static final String BASE_URL = "http://kulturarvsdata.se/oaipmh";
+	private static final String URI_PREFIX = "http://kulturarvsdata.se/raa/test/";
+	private static final Pattern IDENTIFIER = Pattern.compile("<identifier>([^<]*)</identifier>");
+	private static final Pattern TOKEN = Pattern.compile("<resumptionToken>([^<]*)</resumptionToken>");
+
+	private JdbcDataSource ds;
+	private OAIPMHProvider provider;
+
+	@Before
+	public void setUp() throws Exception {
+		ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:oaipmh;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			RepositorySchema.create(c);
+			// tre poster per sekund så att flera poster har samma changed
+			st.execute("INSERT INTO content (uri, serviceid, xmldata, changed, datestamp, idnum) " +
+					"SELECT '" + URI_PREFIX + "' || X, CASE WHEN X <= 25 THEN 'S1' ELSE 'S2' END, " +
+					"'<?xml version=\"1.0\" encoding=\"UTF-8\"?><rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">" +
+					"<rdf:Description rdf:about=\"" + URI_PREFIX + "' || X || '\"/></rdf:RDF>', " +
+					"DATEADD('SECOND', X / 3, TIMESTAMP '2022-01-01 10:00:00'), TIMESTAMP '2022-01-01 10:00:00', X " +
+					"FROM SYSTEM_RANGE(1, 30)");
+			st.execute("UPDATE content SET deleted = changed, xmldata = NULL WHERE idnum = 7");
+			st.execute("INSERT INTO harvestservices (serviceid, name) VALUES ('S1', 'Tjänst 1'), ('S2', 'Tjänst & 2')");
+		}
+		provider = new OAIPMHProvider(ds, "ksamsok@localhost", 4);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP ALL OBJECTS");
+		}
+	}
+
+	@Test
+	public void testListRecordsResumption() throws Exception {
+		List<String> identifiers = new ArrayList<>();
+		String response = request("verb", "ListRecords", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX);
+		assertTrue(response.contains("<request verb=\"ListRecords\" metadataPrefix=\"ksamsok-rdf\">" + BASE_URL));
+		int pages = 1;
+		String token;
+		while ((token = find(TOKEN, response)) != null) {
+			identifiers.addAll(findAll(IDENTIFIER, response));
+			response = request("verb", "ListRecords", "resumptionToken", token);
+			++pages;
+		}
+		identifiers.addAll(findAll(IDENTIFIER, response));
+		// sista sidan avslutas med en tom token
+		assertTrue(response.contains("<resumptionToken/>"));
+		assertEquals(8, pages);
+		assertEquals(30, identifiers.size());
+		for (int i = 0; i < identifiers.size(); i++) {
+			assertEquals(URI_PREFIX + (i + 1), identifiers.get(i));
+		}
+	}
+
+	@Test
+	public void testRecordContent() throws Exception {
+		String response = request("verb", "GetRecord", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"identifier", URI_PREFIX + "5");
+		assertTrue(response.contains("<header><identifier>" + URI_PREFIX + "5</identifier><datestamp>" +
+				OAIPMHProvider.formatDate(Timestamp.valueOf("2022-01-01 10:00:01")) + "</datestamp>" +
+				"<setSpec>S1</setSpec></header>"));
+		// rdf:en utan xml-deklaration
+		assertTrue(response.contains("<metadata>\n<rdf:RDF"));
+		assertEquals(1, response.split("<\\?xml").length - 1);
+
+		response = request("verb", "GetRecord", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"identifier", URI_PREFIX + "7");
+		assertTrue(response.contains("<header status=\"deleted\">"));
+		assertFalse(response.contains("<metadata>"));
+
+		response = request("verb", "GetRecord", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"identifier", URI_PREFIX + "99");
+		assertTrue(response.contains("<error code=\"idDoesNotExist\">"));
+	}
+
+	@Test
+	public void testSelectiveHarvesting() throws Exception {
+		// from och until är inklusiva, X / 3 = 2 och 3 ger posterna 6-11
+		String from = OAIPMHProvider.formatDate(Timestamp.valueOf("2022-01-01 10:00:02"));
+		String until = OAIPMHProvider.formatDate(Timestamp.valueOf("2022-01-01 10:00:03"));
+		List<String> identifiers = listAll("verb", "ListIdentifiers", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"from", from, "until", until);
+		assertEquals(6, identifiers.size());
+		assertEquals(URI_PREFIX + "6", identifiers.get(0));
+		assertEquals(URI_PREFIX + "11", identifiers.get(5));
+
+		identifiers = listAll("verb", "ListIdentifiers", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"set", "S2");
+		assertEquals(5, identifiers.size());
+		assertEquals(URI_PREFIX + "26", identifiers.get(0));
+
+		String response = request("verb", "ListIdentifiers", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"from", "2030-01-01");
+		assertTrue(response.contains("<error code=\"noRecordsMatch\">"));
+		assertTrue(response.contains("<request verb=\"ListIdentifiers\""));
+	}
+
+	@Test
+	public void testRunningWrite() throws Exception {
+		long now = System.currentTimeMillis();
+		Timestamp writeStart = new Timestamp(now - 60 * 60 * 1000L);
+		try (Connection c = ds.getConnection(); PreparedStatement ps = c.prepareStatement(
+				"INSERT INTO content (uri, serviceid, changed, datestamp, idnum) VALUES (?, ?, ?, ?, ?)")) {
+			// en incheckad post i S2 och en post i S1 från en skörd som inte är klar
+			insert(ps, "31", "S2", new Timestamp(now - 2 * 60 * 60 * 1000L));
+			insert(ps, "32", "S1", new Timestamp(now - 30 * 60 * 1000L));
+			setWriteStart(c, "S1", writeStart);
+		}
+		String from = OAIPMHProvider.formatDate(new Timestamp(now - 3 * 60 * 60 * 1000L));
+		String response = request("verb", "ListIdentifiers", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"from", from);
+		assertEquals(Collections.singletonList(URI_PREFIX + "31"), findAll(IDENTIFIER, response));
+		// nästa skörd från responseDate får med posterna från den pågående skörden
+		assertTrue(response.contains("<responseDate>" + OAIPMHProvider.formatDate(writeStart) + "</responseDate>"));
+		response = request("verb", "ListIdentifiers", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"from", from, "set", "S1");
+		assertTrue(response.contains("<error code=\"noRecordsMatch\">"));
+		assertTrue(response.contains("<responseDate>" + OAIPMHProvider.formatDate(writeStart) + "</responseDate>"));
+		// andra tjänster påverkas inte
+		response = request("verb", "ListIdentifiers", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"from", from, "set", "S2");
+		assertEquals(Collections.singletonList(URI_PREFIX + "31"), findAll(IDENTIFIER, response));
+		assertFalse(response.contains("<responseDate>" + OAIPMHProvider.formatDate(writeStart) + "</responseDate>"));
+
+		// en markering som lämnats kvar efter en krasch ignoreras
+		try (Connection c = ds.getConnection()) {
+			setWriteStart(c, "S1", new Timestamp(now - OAIPMHProvider.MAX_WRITE_AGE_MILLIS - 1000));
+		}
+		response = request("verb", "ListIdentifiers", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"from", from);
+		assertEquals(Arrays.asList(URI_PREFIX + "31", URI_PREFIX + "32"), findAll(IDENTIFIER, response));
+	}
+
+	@Test
+	public void testIdentifyAndSets() throws Exception {
+		String response = request("verb", "Identify");
+		assertTrue(response.contains("<earliestDatestamp>" +
+				OAIPMHProvider.formatDate(Timestamp.valueOf("2022-01-01 10:00:00")) + "</earliestDatestamp>"));
+		assertTrue(response.contains("<adminEmail>ksamsok@localhost</adminEmail>"));
+		response = request("verb", "ListSets");
+		assertTrue(response.contains("<set><setSpec>S2</setSpec><setName>Tjänst &amp; 2</setName></set>"));
+		response = request("verb", "ListMetadataFormats");
+		assertTrue(response.contains("<metadataPrefix>ksamsok-rdf</metadataPrefix>"));
+	}
+
+	@Test
+	public void testErrors() throws Exception {
+		assertError("badVerb", "verb", "Harvest");
+		assertError("badVerb");
+		assertError("badArgument", "verb", "ListRecords");
+		assertError("badArgument", "verb", "Identify", "set", "S1");
+		assertError("badArgument", "verb", "ListRecords", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"from", "2022-01-01", "until", "2022-01-02T00:00:00Z");
+		assertError("badArgument", "verb", "ListRecords", "metadataPrefix", OAIPMHProvider.METADATA_PREFIX,
+				"from", "2022-13-01");
+		assertError("cannotDisseminateFormat", "verb", "ListRecords", "metadataPrefix", "oai_dc");
+		assertError("badResumptionToken", "verb", "ListRecords", "resumptionToken", "inte-en-token");
+		// en token kan inte kombineras med andra argument
+		assertError("badArgument", "verb", "ListRecords", "resumptionToken", "x", "metadataPrefix", "ksamsok-rdf");
+		// felaktiga begäranden ska inte upprepas i request-elementet
+		assertTrue(request("verb", "Harvest").contains("<request>" + BASE_URL + "</request>"));
+	}
+
+	@Test
+	public void testParseDate() throws Exception {
+		// until är inklusiv och ger början av nästa dag eller sekund
+		assertEquals(Timestamp.from(Instant.parse("2022-01-02T00:00:00Z")), OAIPMHProvider.parseDate("2022-01-01", true));
+		assertEquals(Timestamp.from(Instant.parse("2022-01-01T00:00:00Z")), OAIPMHProvider.parseDate("2022-01-01", false));
+		assertEquals(Timestamp.from(Instant.parse("2022-01-01T10:00:01Z")),
+				OAIPMHProvider.parseDate("2022-01-01T10:00:00Z", true));
+	}
+
+	private static void insert(PreparedStatement ps, String id, String serviceId, Timestamp changed)
+			throws Exception {
+		ps.setString(1, URI_PREFIX + id);
+		ps.setString(2, serviceId);
+		ps.setTimestamp(3, changed);
+		ps.setTimestamp(4, changed);
+		ps.setLong(5, Long.parseLong(id));
+		ps.executeUpdate();
+	}
+
+	private static void setWriteStart(Connection c, String serviceId, Timestamp writeStart) throws Exception {
+		try (Statement st = c.createStatement();
+				PreparedStatement ps = c.prepareStatement("INSERT INTO contentwrite (serviceid, writestart) VALUES (?, ?)")) {
+			st.execute("DELETE FROM contentwrite");
+			ps.setString(1, serviceId);
+			ps.setTimestamp(2, writeStart);
+			ps.executeUpdate();
+		}
+	}
+
+	private void assertError(String code, String... keyValues) throws Exception {
+		String response = request(keyValues);
+		assertTrue(code + " saknas i " + response, response.contains("<error code=\"" + code + "\">"));
+	}
+
+	private List<String> listAll(String... keyValues) throws Exception {
+		List<String> identifiers = new ArrayList<>();
+		String response = request(keyValues);
+		String token;
+		while ((token = find(TOKEN, response)) != null) {
+			identifiers.addAll(findAll(IDENTIFIER, response));
+			response = request("verb", keyValues[1], "resumptionToken", token);
+		}
+		identifiers.addAll(findAll(IDENTIFIER, response));
+		return identifiers;
+	}
+
+	private String request(String... keyValues) throws Exception {
+		Map<String, String[]> params = new LinkedHashMap<>();
+		for (int i = 0; i < keyValues.length; i += 2) {
+			params.put(keyValues[i], new String[] { keyValues[i + 1] });
+		}
+		StringWriter sw = new StringWriter();
+		provider.handle(params, BASE_URL, sw);
+		return sw.toString();
+	}
+
+	private static String find(Pattern p, String s) {
+		Matcher m = p.matcher(s);
+		return m.find() ? m.group(1) : null;
+	}
+
+	private static List<String> findAll(Pattern p, String s) {
+		List<String> values = new ArrayList<>();
+		Matcher m = p.matcher(s);
+		while (m.find()) {
+			values.add(m.group(1));
+		}
+		return values;
+	}
+}
@@ -0,0 +1,128 @@
+package se.raa.ksamsok.organization;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.raa.ksamsok.harvest.RepositorySchema;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class OrganizationManagerTest {
+
+	private JdbcDataSource h2;
+	private final AtomicInteger connections = new AtomicInteger();
+	private OrganizationManager manager;
+
+	@Before
+	public void setUp() throws Exception {
+		h2 = new JdbcDataSource();
+		h2.setURL("jdbc:h2:mem:organization;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		try (Connection c = h2.getConnection(); Statement st = c.createStatement()) {
+			RepositorySchema.create(c);
+			st.execute("INSERT INTO organisation (kortnamn, serv_org, namnswe, websida) VALUES " +
+					"('raa', 'RAÄ', 'Riksantikvarieämbetet', 'http://www.raa.se'), ('shm', 'SHM', 'Historiska', null)");
+			st.execute("INSERT INTO harvestservices (serviceid, name, kortnamn, beskrivning) VALUES " +
+					"('raa-fmi', 'Fornsök', 'raa', 'Fornminnen'), ('raa-bbr', 'Bebyggelseregistret', 'raa', null)");
+		}
+		// räkna anslutningar för att se när databasen används
+		DataSource ds = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+					if ("getConnection".equals(method.getName())) {
+						connections.incrementAndGet();
+					}
+					return method.invoke(h2, args);
+				});
+		manager = new OrganizationManager(ds);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		try (Connection c = h2.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP ALL OBJECTS");
+		}
+	}
+
+	@Test
+	public void testReadsFromSnapshot() {
+		Organization raa = manager.getOrganization("raa", false);
+		assertNotNull(raa);
+		assertEquals("Riksantikvarieämbetet", raa.getNamnSwe());
+		assertEquals("http://www.raa.se", raa.getWebsida());
+		assertEquals(2, raa.getServiceList().size());
+		assertEquals("RAÄ", raa.getServ_org());
+		assertEquals("raa", manager.getOrganization("RAÄ", true).getKortnamn());
+		assertNull(manager.getOrganization("finns-inte", false));
+		assertEquals(2, manager.getAllOrganizations().size());
+		assertEquals(0, manager.getOrganization("shm", false).getServiceList().size());
+		List<Organization> serviceOrganizations = manager.getServiceOrganizations();
+		assertEquals(2, serviceOrganizations.size());
+		assertEquals("Historiska", serviceOrganizations.get(1).getNamnSwe());
+		// en inläsning för alla läsningar
+		assertEquals(1, connections.get());
+
+		// ändringar hos anroparen påverkar inte cachen
+		raa.setNamnSwe("Ändrad");
+		raa.getServiceList().clear();
+		assertEquals("Riksantikvarieämbetet", manager.getOrganization("raa", false).getNamnSwe());
+		assertEquals(2, manager.getOrganization("raa", false).getServiceList().size());
+	}
+
+	@Test
+	public void testChangesVisibleImmediately() {
+		Organization raa = manager.getOrganization("raa", false);
+		raa.setNamnEng("Swedish National Heritage Board");
+		raa.getServiceList().get(0).setBeskrivning("Fornminnesregistret");
+		manager.updateOrg(raa);
+		raa = manager.getOrganization("raa", false);
+		assertEquals("Swedish National Heritage Board", raa.getNamnEng());
+		assertEquals("Fornminnesregistret", raa.getServiceList().get(0).getBeskrivning());
+
+		manager.addOrganization("nm", "Nordiska museet");
+		assertEquals("Nordiska museet", manager.getOrganization("nm", false).getNamnSwe());
+		assertEquals(3, manager.getAllOrganizations().size());
+
+		manager.removeOrganization("nm");
+		assertNull(manager.getOrganization("nm", false));
+		assertEquals(2, manager.getServiceOrganizations().size());
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		assertEquals(2, manager.getOrganization("raa", false).getServiceList().size());
+		try (Connection c = h2.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DELETE FROM harvestservices WHERE serviceid = 'raa-bbr'");
+		}
+		// ändringar utanför hanteraren syns först efter invalidate, som tjänstehanteraren gör
+		assertEquals(2, manager.getOrganization("raa", false).getServiceList().size());
+		manager.invalidate();
+		assertEquals(1, manager.getOrganization("raa", false).getServiceList().size());
+	}
+
+	@Test
+	public void testExpires() throws Exception {
+		assertEquals(2, manager.getOrganization("raa", false).getServiceList().size());
+		try (Connection c = h2.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DELETE FROM harvestservices WHERE serviceid = 'raa-bbr'");
+		}
+		// en för gammal ögonblicksbild läses om även utan invalidate
+		manager.setMaxAgeMillis(0);
+		assertEquals(1, manager.getOrganization("raa", false).getServiceList().size());
+		assertEquals(2, connections.get());
+
+		// misslyckas omläsningen används den gamla ögonblicksbilden
+		try (Connection c = h2.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP TABLE harvestservices");
+		}
+		assertEquals(1, manager.getOrganization("raa", false).getServiceList().size());
+	}
+}
@@ -0,0 +1,79 @@
+package se.raa.ksamsok.resolve;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.junit.Before;
+import org.junit.Test;
+import se.raa.ksamsok.solr.StubSearchService;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ResolverCacheTest {
+
+	private ResolverCache cache;
+
+	@Before
+	public void setUp() {
+		StubSearchService searchService = new StubSearchService() {
+			@Override
+			public QueryResponse query(SolrQuery query) {
+				throw new UnsupportedOperationException();
+			}
+			@Override
+			public long getIndexVersion() {
+				return 1;
+			}
+		};
+		// max 10 svar, 1000 bytes per svar och 2500 bytes totalt
+		cache = new ResolverCache(searchService, 10, 1000, 2500, 0);
+		cache.checkIndexVersion();
+	}
+
+	@Test
+	public void testByteBudget() {
+		cache.put("a", response(1000), 1);
+		cache.put("b", response(1000), 1);
+		assertEquals(2000, cache.getTotalBytes());
+		// a används senast så b tas bort när c inte ryms
+		assertNotNull(cache.get("a"));
+		cache.put("c", response(1000), 1);
+		assertEquals(2, cache.getSize());
+		assertEquals(2000, cache.getTotalBytes());
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+
+		// ett ersatt svar räknas bara en gång
+		cache.put("c", response(400), 1);
+		assertEquals(1400, cache.getTotalBytes());
+		// för stora svar cachas inte
+		cache.put("d", response(1001), 1);
+		assertNull(cache.get("d"));
+		assertEquals(1400, cache.getTotalBytes());
+
+		cache.clear();
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getTotalBytes());
+	}
+
+	@Test
+	public void testMaxEntries() {
+		for (int i = 0; i < 15; i++) {
+			cache.put("k" + i, response(100), 1);
+		}
+		assertEquals(10, cache.getSize());
+		assertEquals(1000, cache.getTotalBytes());
+		assertNull(cache.get("k4"));
+		assertNotNull(cache.get("k5"));
+	}
+
+	private static CachedResponse response(int size) {
+		return new CachedResponse(HttpServletResponse.SC_OK, null, null, "text/plain", "UTF-8",
+				Collections.emptyMap(), Collections.emptyMap(), new byte[size]);
+	}
+}
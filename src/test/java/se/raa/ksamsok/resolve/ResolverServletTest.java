@@ -0,0 +1,470 @@
+package se.raa.ksamsok.resolve;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.NamedList;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.StaticWebApplicationContext;
+import se.raa.ksamsok.harvest.HarvestRepositoryManager;
+import se.raa.ksamsok.lucene.ContentHelper;
+import se.raa.ksamsok.lucene.RDFUtil;
+import se.raa.ksamsok.solr.StubSearchService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResolverServletTest {
+
+	private static final String URI = "http://kulturarvsdata.se/raa/test/1";
+	private static final String HTML_URL = "http://www.raa.se/test/1";
+
+	private Server server;
+	private String baseUrl;
+	private final List<SolrQuery> queries = new ArrayList<>();
+	private String contentHash = "0123456789abcdef0123456789abcdef01234567";
+	private byte[] rdf;
+	private String jsonld;
+	private final List<String> replacingUris = new ArrayList<>();
+	private long indexVersion = 1;
+	private int existsInDatabaseCalls;
+	private int existingInDatabaseCalls;
+	private ResolverCache resolverCache;
+
+	@Before
+	public void setUp() throws Exception {
+		rdf = Files.readAllBytes(Paths.get("src/test/resources/hjalm_1.1.rdf"));
+		jsonld = RDFUtil.toJSONLD(new String(rdf, StandardCharsets.UTF_8));
+		StubSearchService searchService = new StubSearchService() {
+			@Override
+			public QueryResponse query(SolrQuery query) {
+				queries.add(query);
+				List<String> fields = Arrays.asList(query.getFields().split(","));
+				SolrDocumentList docs = new SolrDocumentList();
+				NamedList<Object> response = new NamedList<>();
+				response.add("response", docs);
+				QueryResponse qr = new QueryResponse();
+				qr.setResponse(response);
+				if (query.get(RecordFields.IDS_PARAM) != null) {
+					// batch, en fråga för alla uri:er
+					for (String id : query.get(RecordFields.IDS_PARAM).split(query.get(RecordFields.SEPARATOR_PARAM))) {
+						SolrDocument doc = new SolrDocument();
+						if (id.endsWith("/old")) {
+							doc.setField(ContentHelper.IX_ITEMID, id.replace("/old", "/new"));
+							doc.setField(ContentHelper.IX_REPLACES, id);
+						} else if (!id.contains("gone") && !id.contains("missing")) {
+							doc.setField(ContentHelper.IX_ITEMID, id);
+							doc.setField(ContentHelper.I_IX_RDF, rdf);
+							if (!id.contains("nojsonld")) {
+								doc.setField(ContentHelper.I_IX_JSONLD, jsonld);
+							}
+							doc.setField(ContentHelper.I_IX_HTML_URL, HTML_URL);
+						} else {
+							continue;
+						}
+						doc.getFieldNames().retainAll(fields);
+						docs.add(doc);
+					}
+					docs.setNumFound(docs.size());
+					return qr;
+				}
+				if (query.getQuery().contains("gone")) {
+					return qr;
+				}
+				// ersättande poster sorteras först
+				for (String replacingUri : replacingUris) {
+					SolrDocument replacing = new SolrDocument();
+					replacing.setField(ContentHelper.IX_ITEMID, replacingUri);
+					replacing.setField(ContentHelper.IX_REPLACES, URI);
+					replacing.setField(ContentHelper.I_IX_RDF, rdf);
+					replacing.setField(ContentHelper.I_IX_HTML_URL, HTML_URL + "/replacing");
+					replacing.getFieldNames().retainAll(fields);
+					docs.add(replacing);
+				}
+				SolrDocument doc = new SolrDocument();
+				doc.setField(ContentHelper.IX_ITEMID, URI);
+				if (contentHash != null) {
+					doc.setField(ContentHelper.I_IX_CONTENT_HASH, contentHash);
+				}
+				doc.setField(ContentHelper.I_IX_RDF, rdf);
+				doc.setField(ContentHelper.I_IX_JSONLD, jsonld);
+				doc.setField(ContentHelper.I_IX_HTML_URL, HTML_URL);
+				// bara efterfrågade fält, som i solr
+				doc.getFieldNames().retainAll(fields);
+				docs.add(doc);
+				docs.setNumFound(docs.size());
+				return qr;
+			}
+			@Override
+			public long getIndexVersion() {
+				return indexVersion;
+			}
+		};
+		HarvestRepositoryManager hrm = (HarvestRepositoryManager) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[] { HarvestRepositoryManager.class },
+				(proxy, method, args) -> {
+					if ("existsInDatabase".equals(method.getName())) {
+						++existsInDatabaseCalls;
+						return ((String) args[0]).contains("gone");
+					}
+					if ("existingInDatabase".equals(method.getName())) {
+						++existingInDatabaseCalls;
+						Set<String> existing = new HashSet<>();
+						for (Object uri : (Collection<?>) args[0]) {
+							if (((String) uri).contains("gone")) {
+								existing.add((String) uri);
+							}
+						}
+						return existing;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				});
+		// kontrollera indexversionen vid varje anrop
+		resolverCache = new ResolverCache(searchService, 100, 1024 * 1024, 10 * 1024 * 1024, 0);
+		StaticWebApplicationContext springContext = new StaticWebApplicationContext();
+		AnnotationConfigUtils.registerAnnotationConfigProcessors(springContext);
+		springContext.getBeanFactory().registerSingleton("searchService", searchService);
+		springContext.getBeanFactory().registerSingleton("harvestRepositoryManager", hrm);
+		springContext.getBeanFactory().registerSingleton("resolverCache", resolverCache);
+		springContext.refresh();
+
+		server = new Server(0);
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		context.setAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE, springContext);
+		context.addServlet(new ServletHolder(new ResolverServlet()), "/*");
+		server.setHandler(context);
+		server.start();
+		baseUrl = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	@Test
+	public void testValidatorsSet() throws Exception {
+		HttpURLConnection con = get("/raa/test/1", "application/rdf+xml", null, null);
+		assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+		assertEquals("W/\"" + contentHash + "-rdf\"", con.getHeaderField("ETag"));
+		// indexeringstiden ändras vid varje omindexering och skickas därför inte
+		assertNull(con.getHeaderField("Last-Modified"));
+		assertEquals("Accept", con.getHeaderField("Vary"));
+		readBody(con);
+		assertEquals(1, queries.size());
+	}
+
+	@Test
+	public void testIfNoneMatchRdf() throws Exception {
+		assertNotModified("/raa/test/1", "application/rdf+xml", "W/\"" + contentHash + "-rdf\"", null);
+	}
+
+	@Test
+	public void testIfNoneMatchJsonLd() throws Exception {
+		assertNotModified("/raa/test/jsonld/1", null, "W/\"" + contentHash + "-jsonld\"", null);
+	}
+
+	@Test
+	public void testIfNoneMatchListAndStrongComparison() throws Exception {
+		// svaga och starka etags jämförs svagt vid If-None-Match
+		assertNotModified("/raa/test/museumdat/1", null, "\"foo\", \"" + contentHash + "-museumdat\"", null);
+	}
+
+	@Test
+	public void testIfNoneMatchHtml() throws Exception {
+		HttpURLConnection con = assertNotModified("/raa/test/html/1", null, "W/\"" + contentHash + "-html\"", null);
+		assertEquals("W/\"" + contentHash + "-html\"", con.getHeaderField("ETag"));
+	}
+
+	@Test
+	public void testIfModifiedSinceIgnored() throws Exception {
+		// bara etag används för villkorade anrop
+		HttpURLConnection con = get("/raa/test/html/1", null, null, System.currentTimeMillis());
+		assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, con.getResponseCode());
+		assertEquals(HTML_URL, con.getHeaderField("Location"));
+		assertEquals(1, queries.size());
+	}
+
+	@Test
+	public void testIfNoneMatchOtherFormat() throws Exception {
+		// etag för rdf gäller inte för json-ld
+		HttpURLConnection con = get("/raa/test/jsonld/1", null, "W/\"" + contentHash + "-rdf\"", null);
+		assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+		assertEquals("W/\"" + contentHash + "-jsonld\"", con.getHeaderField("ETag"));
+		// json-ld:n skrivs som den lagrats i indexet
+		assertEquals(jsonld, readBody(con));
+	}
+
+	@Test
+	public void testChangedContent() throws Exception {
+		HttpURLConnection con = get("/raa/test/1", "application/rdf+xml", null, null);
+		String eTag = con.getHeaderField("ETag");
+		readBody(con);
+		contentHash = "fedcba9876543210fedcba9876543210fedcba98";
+		// ny indexversion efter omindexering
+		++indexVersion;
+		con = get("/raa/test/1", "application/rdf+xml", eTag, null);
+		assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+		assertEquals("W/\"" + contentHash + "-rdf\"", con.getHeaderField("ETag"));
+		readBody(con);
+	}
+
+	@Test
+	public void testNoValidatorsBeforeReindex() throws Exception {
+		// poster som indexerats innan kontrollsumman fanns får inga validatorer
+		contentHash = null;
+		HttpURLConnection con = get("/raa/test/1", "application/rdf+xml", "*", null);
+		assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+		assertNull(con.getHeaderField("ETag"));
+		assertNull(con.getHeaderField("Last-Modified"));
+		readBody(con);
+	}
+
+	@Test
+	public void testHtmlWithoutRdf() throws Exception {
+		HttpURLConnection con = get("/raa/test/html/1", null, null, null);
+		assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, con.getResponseCode());
+		assertEquals(HTML_URL, con.getHeaderField("Location"));
+		assertEquals(1, queries.size());
+		assertFalse(queries.get(0).getFields().contains(ContentHelper.I_IX_RDF));
+	}
+
+	@Test
+	public void testReplacedRedirect() throws Exception {
+		replacingUris.add("http://kulturarvsdata.se/raa/test/2");
+		HttpURLConnection con = get("/raa/test/html/1", null, null, null);
+		assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, con.getResponseCode());
+		// formatet från sökvägen ska vara kvar
+		assertEquals("http://kulturarvsdata.se/raa/test/html/2", con.getHeaderField("Location"));
+		assertNull(con.getHeaderField("ETag"));
+		assertFalse(queries.get(0).getFields().contains(ContentHelper.I_IX_RDF));
+
+		con = get("/raa/test/1", "application/rdf+xml", null, null);
+		assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, con.getResponseCode());
+		assertEquals("http://kulturarvsdata.se/raa/test/2", con.getHeaderField("Location"));
+	}
+
+	@Test
+	public void testReplacedByMultiple() throws Exception {
+		replacingUris.add("http://kulturarvsdata.se/raa/test/2");
+		replacingUris.add("http://kulturarvsdata.se/raa/test/3");
+		HttpURLConnection con = get("/raa/test/1", "application/rdf+xml", null, null);
+		assertEquals(HttpURLConnection.HTTP_MULT_CHOICE, con.getResponseCode());
+		try (InputStream in = con.getErrorStream() != null ? con.getErrorStream() : con.getInputStream()) {
+			assertEquals("<isReplacedBy><record>http://kulturarvsdata.se/raa/test/2</record>" +
+					"<record>http://kulturarvsdata.se/raa/test/3</record></isReplacedBy>",
+					new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testInsertFormat() {
+		assertEquals("http://kulturarvsdata.se/raa/test/jsonld/2",
+				ResolverServlet.insertFormat("http://kulturarvsdata.se/raa/test/2", ResolverServlet.Format.JSON_LD));
+	}
+
+	@Test
+	public void testCachedResponse() throws Exception {
+		HttpURLConnection con = get("/raa/test/1", "application/rdf+xml", null, null);
+		String body = readBody(con);
+		con = get("/raa/test/1", "application/rdf+xml", null, null);
+		assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+		assertTrue(con.getContentType().startsWith("application/rdf+xml"));
+		assertEquals("W/\"" + contentHash + "-rdf\"", con.getHeaderField("ETag"));
+		assertEquals(body, readBody(con));
+		assertEquals(1, queries.size());
+		assertEquals(1, resolverCache.getHits());
+		assertEquals(1, resolverCache.getSize());
+
+		// villkorat anrop mot cachat svar
+		con = get("/raa/test/1", "application/rdf+xml", "W/\"" + contentHash + "-rdf\"", null);
+		assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, con.getResponseCode());
+		assertEquals(1, queries.size());
+
+		// annat format är en annan nyckel
+		con = get("/raa/test/html/1", null, null, null);
+		assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, con.getResponseCode());
+		con = get("/raa/test/html/1", null, null, null);
+		assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, con.getResponseCode());
+		assertEquals(HTML_URL, con.getHeaderField("Location"));
+		assertEquals(2, queries.size());
+	}
+
+	@Test
+	public void testCacheInvalidatedOnNewIndexVersion() throws Exception {
+		readBody(get("/raa/test/1", "application/rdf+xml", null, null));
+		readBody(get("/raa/test/1", "application/rdf+xml", null, null));
+		assertEquals(1, queries.size());
+		++indexVersion;
+		readBody(get("/raa/test/1", "application/rdf+xml", null, null));
+		assertEquals(2, queries.size());
+		assertEquals(1, resolverCache.getInvalidations());
+	}
+
+	@Test
+	public void testGoneCached() throws Exception {
+		HttpURLConnection con = get("/raa/test/gone", "application/rdf+xml", null, null);
+		assertEquals(HttpURLConnection.HTTP_GONE, con.getResponseCode());
+		con = get("/raa/test/gone", "application/rdf+xml", null, null);
+		assertEquals(HttpURLConnection.HTTP_GONE, con.getResponseCode());
+		// upprepade missar ska inte gå till databasen
+		assertEquals(1, existsInDatabaseCalls);
+		assertEquals(1, queries.size());
+	}
+
+	@Test
+	public void testBatchJsonLd() throws Exception {
+		HttpURLConnection con = post("/batch?format=jsonld", "raa/test/1\n" +
+				"http://kulturarvsdata.se/raa/test/old\nraa/test/gone\nraa/test/missing\nraa/test/1\n");
+		assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+		JSONArray results = new JSONObject(readBody(con)).getJSONArray("results");
+		// dubbletter tas bort
+		assertEquals(4, results.length());
+		assertEquals(URI, results.getJSONObject(0).getString("uri"));
+		assertEquals(200, results.getJSONObject(0).getInt("status"));
+		assertTrue(results.getJSONObject(0).has("record"));
+		assertEquals(302, results.getJSONObject(1).getInt("status"));
+		assertEquals("http://kulturarvsdata.se/raa/test/new", results.getJSONObject(1).getString("location"));
+		assertEquals(410, results.getJSONObject(2).getInt("status"));
+		assertEquals(404, results.getJSONObject(3).getInt("status"));
+		// en sökfråga och en databasfråga för alla
+		assertEquals(1, queries.size());
+		assertEquals(1, existingInDatabaseCalls);
+		assertEquals(0, existsInDatabaseCalls);
+		// json-ld:n från indexet, utan rdf
+		assertFalse(queries.get(0).getFields().contains(ContentHelper.I_IX_RDF));
+	}
+
+	@Test
+	public void testBatchRdfAndHtml() throws Exception {
+		HttpURLConnection con = post("/batch", "raa/test/1\nraa/test/old\n");
+		assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+		String body = readBody(con);
+		assertTrue(body.startsWith("<?xml"));
+		assertTrue(body.contains("<result uri=\"" + URI + "\" status=\"200\"><rdf:RDF"));
+		assertTrue(body.contains("<result uri=\"http://kulturarvsdata.se/raa/test/old\" status=\"302\" " +
+				"location=\"http://kulturarvsdata.se/raa/test/new\"/>"));
+
+		con = post("/batch?format=html", "raa/test/1\n");
+		body = readBody(con);
+		assertTrue(body.contains("<result uri=\"" + URI + "\" status=\"302\" location=\"" + HTML_URL + "\"/>"));
+		assertFalse(queries.get(1).getFields().contains(ContentHelper.I_IX_RDF));
+	}
+
+	@Test
+	public void testBatchUriWithSpaceAndJsonLdFallback() throws Exception {
+		HttpURLConnection con = post("/batch?format=jsonld", "raa/test/a b\nraa/test/nojsonld\n");
+		assertEquals(HttpURLConnection.HTTP_OK, con.getResponseCode());
+		JSONArray results = new JSONObject(readBody(con)).getJSONArray("results");
+		assertEquals(2, results.length());
+		// uri:n delas inte vid mellanslaget
+		assertEquals("http://kulturarvsdata.se/raa/test/a b", results.getJSONObject(0).getString("uri"));
+		assertEquals(200, results.getJSONObject(0).getInt("status"));
+		// json-ld tas fram ur rdf:en från en fråga för poster som saknar json-ld, inte ur databasen
+		assertEquals(200, results.getJSONObject(1).getInt("status"));
+		assertTrue(results.getJSONObject(1).has("record"));
+		assertEquals(2, queries.size());
+		assertFalse(queries.get(0).getFields().contains(ContentHelper.I_IX_RDF));
+		assertTrue(queries.get(1).getFields().contains(ContentHelper.I_IX_RDF));
+		assertEquals("http://kulturarvsdata.se/raa/test/nojsonld", queries.get(1).get(RecordFields.IDS_PARAM));
+	}
+
+	@Test
+	public void testBatchTooMany() throws Exception {
+		StringBuilder uris = new StringBuilder();
+		for (int i = 0; i <= BatchResolver.MAX_BATCH_SIZE; i++) {
+			uris.append("raa/test/").append(i).append("\n");
+		}
+		HttpURLConnection con = post("/batch", uris.toString());
+		assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, con.getResponseCode());
+		assertEquals(0, queries.size());
+	}
+
+	@Test
+	public void testIsNotModified() {
+		String eTag = "W/\"abc-rdf\"";
+		assertTrue(ResolverServlet.isNotModified("W/\"abc-rdf\"", eTag));
+		assertTrue(ResolverServlet.isNotModified("\"abc-rdf\"", eTag));
+		assertTrue(ResolverServlet.isNotModified("*", eTag));
+		assertTrue(ResolverServlet.isNotModified("\"foo\", W/\"abc-rdf\"", eTag));
+		assertFalse(ResolverServlet.isNotModified("W/\"abc-html\"", eTag));
+	}
+
+	private HttpURLConnection assertNotModified(String path, String accept, String ifNoneMatch,
+			Long ifModifiedSince) throws IOException {
+		HttpURLConnection con = get(path, accept, ifNoneMatch, ifModifiedSince);
+		assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, con.getResponseCode());
+		assertNotNull(con.getHeaderField("ETag"));
+		// revalideringen ska klaras med en fråga utan rdf
+		assertEquals(1, queries.size());
+		String fields = queries.get(0).getFields();
+		assertFalse(fields.contains(ContentHelper.I_IX_RDF));
+		assertFalse(fields.contains(ContentHelper.I_IX_PRES));
+		return con;
+	}
+
+	private HttpURLConnection get(String path, String accept, String ifNoneMatch, Long ifModifiedSince)
+			throws IOException {
+		HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		con.setInstanceFollowRedirects(false);
+		if (accept != null) {
+			con.setRequestProperty("Accept", accept);
+		}
+		if (ifNoneMatch != null) {
+			con.setRequestProperty("If-None-Match", ifNoneMatch);
+		}
+		if (ifModifiedSince != null) {
+			con.setIfModifiedSince(ifModifiedSince);
+		}
+		return con;
+	}
+
+	private HttpURLConnection post(String path, String body) throws IOException {
+		HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		con.setRequestMethod("POST");
+		con.setDoOutput(true);
+		con.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+		try (OutputStream out = con.getOutputStream()) {
+			out.write(body.getBytes(StandardCharsets.UTF_8));
+		}
+		return con;
+	}
+
+	private String readBody(HttpURLConnection con) throws IOException {
+		try (InputStream in = con.getInputStream()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -0,0 +1,150 @@
+package se.raa.ksamsok.sitemap;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.raa.ksamsok.harvest.RepositorySchema;
+import se.raa.ksamsok.sitemap.SitemapIndexBuilder.Batch;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sitemaps against a multi-million-row content table in h2 (postgres mode) as a local
+ * stand-in for the database.
+ */
+public class SitemapBuilderTest {
+
+	private static final int ROWS = 2500000;
+	private static final Pattern LOC = Pattern.compile("<loc><!\\[CDATA\\[http://www\\.kringla\\.nu/x/(\\d+)\\]\\]></loc>");
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static JdbcDataSource ds;
+	private static String filterQuery;
+	private static int expectedCount;
+
+	@BeforeClass
+	public static void setUpDatabase() throws Exception {
+		ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:" + folder.getRoot().getAbsolutePath() + "/sitemap;MODE=PostgreSQL");
+		filterQuery = SitemapIndexBuilder.getFilterSitemapUrlsQuery(Collections.singletonList("kringla.nu"));
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			// the indexes are created after the rows are loaded
+			RepositorySchema.createTables(c);
+			// idnum with gaps, every 10th record in another domain and every 11th deleted
+			st.execute("INSERT INTO content (uri, idnum, nativeurl, changed, datestamp, deleted) " +
+					"SELECT 'http://kulturarvsdata.se/test/' || X, X * 3, " +
+					"CASE WHEN MOD(X, 10) = 0 THEN 'http://example.com/x/' ELSE 'http://www.kringla.nu/x/' END || X, " +
+					"TIMESTAMP '2021-12-01 10:00:00', TIMESTAMP '2021-12-01 10:00:00', " +
+					"CASE WHEN MOD(X, 11) = 0 THEN TIMESTAMP '2021-12-02 10:00:00' END " +
+					"FROM SYSTEM_RANGE(1, " + ROWS + ")");
+			RepositorySchema.createIndexes(c);
+			try (ResultSet rs = st.executeQuery("SELECT count(*) FROM content WHERE deleted IS NULL " + filterQuery)) {
+				rs.next();
+				expectedCount = rs.getInt(1);
+			}
+		}
+	}
+
+	@AfterClass
+	public static void tearDownDatabase() throws Exception {
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP ALL OBJECTS DELETE FILES");
+		}
+	}
+
+	@Test
+	public void testBatches() throws Exception {
+		List<Batch> batches = SitemapIndexBuilder.getBatches(ds, filterQuery, Integer.MAX_VALUE);
+		assertEquals("Fel antal batcher", (expectedCount + SitemapIndexBuilder.BATCH_SIZE - 1) / SitemapIndexBuilder.BATCH_SIZE,
+				batches.size());
+		int total = 0;
+		long previousTo = Long.MIN_VALUE;
+		for (int i = 0; i < batches.size(); i++) {
+			Batch batch = batches.get(i);
+			assertTrue("Överlappande batcher", batch.getFrom() > previousTo);
+			assertTrue("Felaktigt intervall", batch.getFrom() <= batch.getTo());
+			if (i < batches.size() - 1) {
+				assertEquals("Fel antal i batch " + i, SitemapIndexBuilder.BATCH_SIZE, batch.getCount());
+			}
+			total += batch.getCount();
+			previousTo = batch.getTo();
+		}
+		assertEquals("Fel totalt antal", expectedCount, total);
+		assertEquals("Fel antal med max", 2, SitemapIndexBuilder.getBatches(ds, filterQuery, 2).size());
+	}
+
+	@Test
+	public void testEveryUrlOnce() throws Exception {
+		List<Batch> batches = SitemapIndexBuilder.getBatches(ds, filterQuery, Integer.MAX_VALUE);
+		BitSet seen = new BitSet(ROWS + 1);
+		int total = 0;
+		for (Batch batch : batches) {
+			StringWriter sw = new StringWriter();
+			new SitemapBuilder(new PrintWriter(sw), ds, batch.getFrom(), batch.getTo(), filterQuery).writeSitemap();
+			String sitemap = sw.toString();
+			assertTrue("Sitemap avslutas inte", sitemap.trim().endsWith("</urlset>"));
+			Matcher m = LOC.matcher(sitemap);
+			int count = 0;
+			while (m.find()) {
+				int x = Integer.parseInt(m.group(1));
+				assertFalse("Url finns redan: " + x, seen.get(x));
+				assertTrue("Raderad eller filtrerad url: " + x, x % 10 != 0 && x % 11 != 0);
+				seen.set(x);
+				++count;
+			}
+			assertEquals("Fel antal urlar", batch.getCount(), count);
+			total += count;
+		}
+		assertEquals("Fel totalt antal urlar", expectedCount, total);
+	}
+
+	@Test
+	public void testSitemapIndex() throws Exception {
+		StringWriter sw = new StringWriter();
+		new SitemapIndexBuilder(new PrintWriter(sw), ds, filterQuery).writeSitemapIndex();
+		String index = sw.toString();
+		List<Batch> batches = SitemapIndexBuilder.getBatches(ds, filterQuery, 1);
+		assertTrue("Fel url för första batchen", index.contains("<loc>http://kulturarvsdata.se/sitemap?from=" +
+				batches.get(0).getFrom() + "&amp;to=" + batches.get(0).getTo() + "</loc>"));
+		assertTrue("Fel lastmod", index.contains("<lastmod>2021-12-01</lastmod>"));
+	}
+
+	@Test(expected = SQLException.class)
+	public void testBatchesDatabaseError() throws Exception {
+		// an error must not give a partial index
+		JdbcDataSource empty = new JdbcDataSource();
+		empty.setURL("jdbc:h2:mem:sitemapempty;MODE=PostgreSQL");
+		new SitemapIndexBuilder(new PrintWriter(new StringWriter()), empty, filterQuery).writeSitemapIndex();
+	}
+
+	@Test
+	public void testMaxUrls() {
+		StringWriter sw = new StringWriter();
+		new SitemapBuilder(new PrintWriter(sw), ds, Long.MIN_VALUE, Long.MAX_VALUE, filterQuery).writeSitemap();
+		Matcher m = LOC.matcher(sw.toString());
+		int count = 0;
+		while (m.find()) {
+			++count;
+		}
+		assertEquals("Fel antal urlar", SitemapBuilder.MAX_URLS, count);
+	}
+}
@@ -0,0 +1,199 @@
+package se.raa.ksamsok.sitemap;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import se.raa.ksamsok.harvest.RepositorySchema;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SitemapGeneratorTest {
+
+	private static final long OLD_FILE_TIME = 946684800000L; // 2000-01-01
+	private static final String HARVEST_TIME = "2022-01-01 10:00:00";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private JdbcDataSource ds;
+	private SitemapGenerator generator;
+
+	@Before
+	public void setUp() throws Exception {
+		ds = new JdbcDataSource();
+		ds.setURL("jdbc:h2:mem:sitemapgen;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			RepositorySchema.create(c);
+			st.execute("INSERT INTO content (uri, idnum, serviceid, nativeurl, changed, datestamp) " +
+					"SELECT 'http://kulturarvsdata.se/test/' || X, X, 'S1', 'http://www.kringla.nu/x/' || X, " +
+					"TIMESTAMP '2021-12-01 10:00:00', TIMESTAMP '2021-12-01 10:00:00' FROM SYSTEM_RANGE(1, 100000)");
+		}
+		generator = new SitemapGenerator(ds, folder.newFolder("sitemap"), "");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		generator.destroy();
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("DROP ALL OBJECTS");
+		}
+	}
+
+	@Test
+	public void testGenerateAll() throws Exception {
+		generator.generateAll();
+		assertNotNull("Inget index", generator.getIndexFile());
+		String index = read(generator.getIndexFile());
+		// länkarna är idnum-intervall som alla noder kan bygga
+		assertTrue("Fel länk i index", index.contains("<loc>http://kulturarvsdata.se/sitemap?from=80001&amp;to=100000</loc>"));
+		assertEquals("Fel fil för intervall", generator.getShardFile(3), generator.getShardFile(80001, 100000));
+		assertNull("Fil för okänt intervall", generator.getShardFile(80001, 90000));
+		assertEquals("Fel antal urlar", SitemapIndexBuilder.BATCH_SIZE, countUrls(generator.getShardFile(1)));
+		assertEquals("Fel antal urlar", SitemapIndexBuilder.BATCH_SIZE, countUrls(generator.getShardFile(2)));
+		assertEquals("Fel antal urlar", 20000, countUrls(generator.getShardFile(3)));
+		assertNull("För många shards", generator.getShardFile(4));
+	}
+
+	@Test
+	public void testUpdateOnlyTouchedShards() throws Exception {
+		generator.generateAll();
+		for (int i = 1; i <= 3; i++) {
+			assertTrue(generator.getShardFile(i).setLastModified(OLD_FILE_TIME));
+		}
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			// en borttagen post i första sharden och nya poster från en annan tjänst
+			st.execute("UPDATE content SET changed = TIMESTAMP '" + HARVEST_TIME + "', " +
+					"deleted = TIMESTAMP '" + HARVEST_TIME + "' WHERE idnum = 10");
+			st.execute("INSERT INTO content (uri, idnum, serviceid, nativeurl, changed, datestamp) " +
+					"SELECT 'http://kulturarvsdata.se/test/' || X, X, 'S2', 'http://www.kringla.nu/x/' || X, " +
+					"TIMESTAMP '" + HARVEST_TIME + "', TIMESTAMP '" + HARVEST_TIME + "' FROM SYSTEM_RANGE(100001, 130000)");
+		}
+		generator.update("S1", Timestamp.valueOf(HARVEST_TIME));
+
+		assertTrue("Ändrad shard har inte genererats om", generator.getShardFile(1).lastModified() > OLD_FILE_TIME);
+		assertEquals("Fel antal urlar", SitemapIndexBuilder.BATCH_SIZE - 1, countUrls(generator.getShardFile(1)));
+		assertEquals("Orörd shard har genererats om", OLD_FILE_TIME, generator.getShardFile(2).lastModified());
+		assertEquals("Fel antal urlar", SitemapIndexBuilder.BATCH_SIZE, countUrls(generator.getShardFile(3)));
+		assertEquals("Fel antal urlar", 10000, countUrls(generator.getShardFile(4)));
+		assertTrue("Ny shard saknas i index", read(generator.getIndexFile()).contains("sitemap?from=120001&amp;to=130000<"));
+
+		// shardgränserna läses från manifestet av en ny generator
+		SitemapGenerator other = new SitemapGenerator(ds, generator.getIndexFile().getParentFile(), "");
+		try {
+			assertTrue(other.getShardFile(2).setLastModified(OLD_FILE_TIME));
+			other.update("S1", Timestamp.valueOf(HARVEST_TIME));
+			assertEquals("Orörd shard har genererats om", OLD_FILE_TIME, other.getShardFile(2).lastModified());
+			assertEquals("Fel antal urlar", SitemapIndexBuilder.BATCH_SIZE - 1, countUrls(other.getShardFile(1)));
+		} finally {
+			other.destroy();
+		}
+	}
+
+	@Test
+	public void testChangedRecordInGap() throws Exception {
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			// borttagna poster vid gränsen ger ett glapp mellan första och andra sharden
+			st.execute("UPDATE content SET deleted = changed WHERE idnum BETWEEN 40001 AND 40010");
+		}
+		generator.generateAll();
+		assertNotNull(generator.getShardFile(1, 40000));
+		assertNotNull(generator.getShardFile(40011, 80010));
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			st.execute("UPDATE content SET changed = TIMESTAMP '" + HARVEST_TIME + "', deleted = NULL " +
+					"WHERE idnum = 40005");
+		}
+		assertTrue(generator.getShardFile(2).setLastModified(OLD_FILE_TIME));
+		generator.update("S1", Timestamp.valueOf(HARVEST_TIME));
+		// posten hamnar i sharden före glappet vars intervall utökas
+		assertEquals("Post i glapp saknas", SitemapIndexBuilder.BATCH_SIZE + 1, countUrls(generator.getShardFile(1)));
+		assertTrue("Fel länk i index", read(generator.getIndexFile()).contains("sitemap?from=1&amp;to=40005<"));
+		assertEquals("Orörd shard har genererats om", OLD_FILE_TIME, generator.getShardFile(2).lastModified());
+		assertEquals(-1, SitemapGenerator.findShard(Collections.emptyList(), 1));
+
+		// det utökade intervallet sparas i manifestet
+		SitemapGenerator other = new SitemapGenerator(ds, generator.getIndexFile().getParentFile(), "");
+		try {
+			other.update("S2", Timestamp.valueOf(HARVEST_TIME));
+			assertNotNull(other.getShardFile(1, 40005));
+		} finally {
+			other.destroy();
+		}
+	}
+
+	@Test
+	public void testFilterChangeRegeneratesAll() throws Exception {
+		generator.generateAll();
+		SitemapGenerator filtered = new SitemapGenerator(ds, generator.getIndexFile().getParentFile(),
+				SitemapIndexBuilder.getFilterSitemapUrlsQuery(Collections.singletonList("x/1")));
+		try {
+			filtered.update("S1", Timestamp.valueOf(HARVEST_TIME));
+			// 1, 10-19, 100-199, 1000-1999, 10000-19999, 100000
+			assertEquals("Fel antal urlar", 11112, countUrls(filtered.getShardFile(1)));
+			assertNull("Gammal shard finns kvar", filtered.getShardFile(2));
+		} finally {
+			filtered.destroy();
+		}
+	}
+
+	@Test
+	public void testServiceDeleted() throws Exception {
+		generator.generateAll();
+		try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+			// som när en tjänst tas bort, posterna markeras som borttagna
+			st.execute("UPDATE content SET changed = TIMESTAMP '" + HARVEST_TIME + "', " +
+					"deleted = TIMESTAMP '" + HARVEST_TIME + "' WHERE serviceid = 'S1'");
+		}
+		generator.update("S1", Timestamp.valueOf(HARVEST_TIME));
+		assertEquals("Borttagna poster finns kvar", 0, countUrls(generator.getShardFile(1)));
+		assertEquals("Borttagna poster finns kvar", 0, countUrls(generator.getShardFile(2)));
+		assertNull("Tom sista shard finns kvar", generator.getShardFile(3));
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		File dir = new File(folder.getRoot(), "disabled");
+		SitemapGenerator disabled = new SitemapGenerator(ds, dir, "");
+		try {
+			disabled.setEnabled(false);
+			disabled.init();
+			disabled.regenerate();
+			assertFalse("Sitemaps genererade fast avstängt", dir.exists());
+			assertNull("Index finns", disabled.getIndexFile());
+		} finally {
+			disabled.destroy();
+		}
+	}
+
+	private static String read(File f) throws Exception {
+		try (InputStream in = new GZIPInputStream(new FileInputStream(f))) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static int countUrls(File f) throws Exception {
+		String sitemap = read(f);
+		assertTrue("Sitemap avslutas inte", sitemap.trim().endsWith("</urlset>"));
+		int count = 0;
+		for (int i = sitemap.indexOf("<url>"); i >= 0; i = sitemap.indexOf("<url>", i + 1)) {
+			++count;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,76 @@
+package se.raa.ksamsok.solr;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solr-klient för tester och mätningar som inte kör mot solr. Uppdateringarna räknas men
+ * dokumenten sparas inte och alla anrop ger tomma svar.
+ */
+public class CountingSolrClient extends SolrClient {
+
+	private static final long serialVersionUID = 1L;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong addedDocuments = new AtomicLong();
+	private final AtomicLong deletes = new AtomicLong();
+	private final AtomicLong commits = new AtomicLong();
+
+	@Override
+	public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request, String collection) {
+		requests.incrementAndGet();
+		if (request instanceof UpdateRequest) {
+			UpdateRequest update = (UpdateRequest) request;
+			if (update.getDocuments() != null) {
+				addedDocuments.addAndGet(update.getDocuments().size());
+			}
+			if (update.getDeleteById() != null) {
+				deletes.addAndGet(update.getDeleteById().size());
+			}
+			if (update.getDeleteQuery() != null) {
+				deletes.addAndGet(update.getDeleteQuery().size());
+			}
+			SolrParams params = update.getParams();
+			if (params != null && params.getBool(UpdateParams.COMMIT, false)) {
+				commits.incrementAndGet();
+			}
+		}
+		return new NamedList<>();
+	}
+
+	@Override
+	public void close() {
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getAddedDocuments() {
+		return addedDocuments.get();
+	}
+
+	public long getDeletes() {
+		return deletes.get();
+	}
+
+	public long getCommits() {
+		return commits.get();
+	}
+
+	/**
+	 * Nollställer räknarna.
+	 */
+	public void reset() {
+		requests.set(0);
+		addedDocuments.set(0);
+		deletes.set(0);
+		commits.set(0);
+	}
+}
@@ -0,0 +1,118 @@
+package se.raa.ksamsok.solr;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("file:src/test/resources/testContext.xml")
+public class SearchServiceImplTest {
+
+	// svenska ord med olika böjningsformer som ska stammas lika i och utanför solr
+	private static final List<String> WORDS = Arrays.asList("kappe", "kappor", "kapporna", "hjälm",
+			"hjälmar", "hjälmarna", "yxa", "yxor", "Stockholms", "kyrkan", "kyrkornas", "runsten",
+			"runstenar", "gravfältet", "båtar", "svärdet", "smycken", "Uppsala län", "röd kappa");
+
+	@Autowired
+	private String COMMON_SOLR_SERVER;
+
+	@Test
+	public void testAnalyzeCached() throws Exception {
+		final AtomicInteger solrCalls = new AtomicInteger();
+		SearchServiceImpl searchService = new SearchServiceImpl() {
+			@Override
+			Set<String> analyzeInSolr(String words) {
+				solrCalls.incrementAndGet();
+				return new HashSet<>(Collections.singletonList(words.toLowerCase()));
+			}
+		};
+		searchService.setAnalysisCacheSize(2);
+		Set<String> stems = searchService.analyze("Kappe");
+		assertEquals(Collections.singleton("kappe"), stems);
+		assertSame(stems, searchService.analyze("Kappe"));
+		assertEquals(1, solrCalls.get());
+		searchService.analyze("yxa");
+		searchService.analyze("hjälm");
+		// kappe har trängts undan och ska analyseras igen
+		searchService.analyze("Kappe");
+		assertEquals(4, solrCalls.get());
+
+		// utan cache går alla anrop till solr
+		searchService.setAnalysisCacheSize(0);
+		searchService.analyze("Kappe");
+		searchService.analyze("Kappe");
+		assertEquals(6, solrCalls.get());
+	}
+
+	@Test
+	public void testAnalyzeInProcess() throws Exception {
+		Analyzer analyzer = CustomAnalyzer.builder()
+				.withTokenizer("standard")
+				.addTokenFilter("lowercase")
+				.addTokenFilter("snowballPorter", "language", "Swedish")
+				.build();
+		assertEquals(new HashSet<>(Arrays.asList("kapp")), SearchServiceImpl.analyzeInProcess(analyzer, "kapporna"));
+		assertEquals(new HashSet<>(Arrays.asList("röd", "kapp")), SearchServiceImpl.analyzeInProcess(analyzer, "Röd kappa"));
+		assertTrue(SearchServiceImpl.analyzeInProcess(analyzer, " ").isEmpty());
+	}
+
+	@Test
+	public void testStoredFields() {
+		SearchServiceImpl.StoredFields storedFields = new SearchServiceImpl.StoredFields(
+				Arrays.asList(field("itemLabel", true, false, false), field("text", false, false, false),
+						field("lon", false, true, true), field("itemNameSort", false, true, false)),
+				Arrays.asList(field("*_s", true, false, false), field("context*", false, false, false),
+						field("context_s*", true, false, false)));
+		assertTrue(storedFields.isStored("itemLabel"));
+		assertFalse(storedFields.isStored("text"));
+		// docValues räknas bara om de används som lagrade värden
+		assertTrue(storedFields.isStored("lon"));
+		assertFalse(storedFields.isStored("itemNameSort"));
+		assertTrue(storedFields.isStored("name_s"));
+		assertFalse(storedFields.isStored("contextLabel"));
+		// det längsta mönstret gäller
+		assertTrue(storedFields.isStored("context_sLabel"));
+		assertFalse(storedFields.isStored("okänt"));
+	}
+
+	private static Map<String, Object> field(String name, boolean stored, boolean docValues, boolean useDocValuesAsStored) {
+		Map<String, Object> field = new HashMap<>();
+		field.put("name", name);
+		field.put("stored", stored);
+		field.put("docValues", docValues);
+		field.put("useDocValuesAsStored", useDocValuesAsStored);
+		return field;
+	}
+
+	@Test
+	public void testAnalyzeInProcessSameAsSolr() throws Exception {
+		SolrClient solr = new HttpSolrClient.Builder(COMMON_SOLR_SERVER).build();
+		SearchServiceImpl searchService = new SearchServiceImpl();
+		ReflectionTestUtils.setField(searchService, "solr", solr);
+		Analyzer analyzer = searchService.createAnalyzer("text");
+		for (String words : WORDS) {
+			assertEquals(words, searchService.analyzeInSolr(words), SearchServiceImpl.analyzeInProcess(analyzer, words));
+		}
+	}
+}
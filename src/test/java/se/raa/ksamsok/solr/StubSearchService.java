@@ -0,0 +1,46 @@
+package se.raa.ksamsok.solr;
+
+import org.apache.solr.common.util.NamedList;
+import se.raa.ksamsok.api.util.Term;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Söktjänst för tester som inte kör mot solr, subklasser implementerar query.
+ */
+public abstract class StubSearchService implements SearchService {
+	@Override
+	public long getIndexCount(String serviceName) {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public Map<String, Long> getIndexCounts() {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public Set<String> analyze(String words) {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public List<Term> terms(String index, String prefix, int removeBelow, int maxCount) {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public NamedList<Object> getIndexInfo() {
+		throw new UnsupportedOperationException();
+	}
+	@Override
+	public long getIndexVersion() {
+		return -1;
+	}
+	@Override
+	public boolean isStored(String field) {
+		return false;
+	}
+	@Override
+	public String getSolrURL() {
+		return null;
+	}
+}
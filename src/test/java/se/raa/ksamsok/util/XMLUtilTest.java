@@ -0,0 +1,20 @@
+package se.raa.ksamsok.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class XMLUtilTest {
+
+	@Test
+	public void testEscapeXml() {
+		assertNull(XMLUtil.escapeXml(null));
+		String plain = "http://kulturarvsdata.se/raa/test/1";
+		assertSame(plain, XMLUtil.escapeXml(plain));
+		assertEquals("a&amp;b&lt;c&gt;&quot;d&apos;", XMLUtil.escapeXml("a&b<c>\"d'"));
+		// otillåtna tecken tas bort, tab, radbrytningar och tecken utanför bmp behålls
+		assertEquals("ab\t\n\r\uD83D\uDE00", XMLUtil.escapeXml("a\u0000b\u001F\t\n\r\uFFFE\uD800\uD83D\uDE00"));
+	}
+}